@@ -3726,6 +3726,246 @@ public final class SearchProto {
     // @@protoc_insertion_point(class_scope:search.SearchResponse)
   }
 
+  /**
+   * Protobuf service {@code search.SearchSubscriptionService}
+   *
+   * <pre>
+   **
+   * Search subscription service.
+   * Streams results of the query to the client. The first message contains the
+   * current result, next ones are sent only when the result is changed.
+   * The stream continues until the client cancels the RPC.
+   * </pre>
+   */
+  public static abstract class SearchSubscriptionService
+      implements com.google.protobuf.Service {
+    protected SearchSubscriptionService() {}
+
+    public interface Interface {
+      /**
+       * <code>rpc Subscribe(.search.SearchRequest) returns (.search.SearchResponse);</code>
+       */
+      public abstract void subscribe(
+          com.google.protobuf.RpcController controller,
+          org.waveprotocol.box.search.SearchProto.SearchRequest request,
+          com.google.protobuf.RpcCallback<org.waveprotocol.box.search.SearchProto.SearchResponse> done);
+
+    }
+
+    public static com.google.protobuf.Service newReflectiveService(
+        final Interface impl) {
+      return new SearchSubscriptionService() {
+        @java.lang.Override
+        public  void subscribe(
+            com.google.protobuf.RpcController controller,
+            org.waveprotocol.box.search.SearchProto.SearchRequest request,
+            com.google.protobuf.RpcCallback<org.waveprotocol.box.search.SearchProto.SearchResponse> done) {
+          impl.subscribe(controller, request, done);
+        }
+
+      };
+    }
+
+    public static com.google.protobuf.BlockingService
+        newReflectiveBlockingService(final BlockingInterface impl) {
+      return new com.google.protobuf.BlockingService() {
+        public final com.google.protobuf.Descriptors.ServiceDescriptor
+            getDescriptorForType() {
+          return getDescriptor();
+        }
+
+        public final com.google.protobuf.Message callBlockingMethod(
+            com.google.protobuf.Descriptors.MethodDescriptor method,
+            com.google.protobuf.RpcController controller,
+            com.google.protobuf.Message request)
+            throws com.google.protobuf.ServiceException {
+          if (method.getService() != getDescriptor()) {
+            throw new java.lang.IllegalArgumentException(
+              "Service.callBlockingMethod() given method descriptor for " +
+              "wrong service type.");
+          }
+          switch(method.getIndex()) {
+            case 0:
+              return impl.subscribe(controller, (org.waveprotocol.box.search.SearchProto.SearchRequest)request);
+            default:
+              throw new java.lang.AssertionError("Can't get here.");
+          }
+        }
+
+        public final com.google.protobuf.Message
+            getRequestPrototype(
+            com.google.protobuf.Descriptors.MethodDescriptor method) {
+          if (method.getService() != getDescriptor()) {
+            throw new java.lang.IllegalArgumentException(
+              "Service.getRequestPrototype() given method " +
+              "descriptor for wrong service type.");
+          }
+          switch(method.getIndex()) {
+            case 0:
+              return org.waveprotocol.box.search.SearchProto.SearchRequest.getDefaultInstance();
+            default:
+              throw new java.lang.AssertionError("Can't get here.");
+          }
+        }
+
+        public final com.google.protobuf.Message
+            getResponsePrototype(
+            com.google.protobuf.Descriptors.MethodDescriptor method) {
+          if (method.getService() != getDescriptor()) {
+            throw new java.lang.IllegalArgumentException(
+              "Service.getResponsePrototype() given method " +
+              "descriptor for wrong service type.");
+          }
+          switch(method.getIndex()) {
+            case 0:
+              return org.waveprotocol.box.search.SearchProto.SearchResponse.getDefaultInstance();
+            default:
+              throw new java.lang.AssertionError("Can't get here.");
+          }
+        }
+
+      };
+    }
+
+    /**
+     * <code>rpc Subscribe(.search.SearchRequest) returns (.search.SearchResponse);</code>
+     */
+    public abstract void subscribe(
+        com.google.protobuf.RpcController controller,
+        org.waveprotocol.box.search.SearchProto.SearchRequest request,
+        com.google.protobuf.RpcCallback<org.waveprotocol.box.search.SearchProto.SearchResponse> done);
+
+    public static final
+        com.google.protobuf.Descriptors.ServiceDescriptor
+        getDescriptor() {
+      return org.waveprotocol.box.search.SearchProto.getDescriptor().getServices().get(0);
+    }
+    public final com.google.protobuf.Descriptors.ServiceDescriptor
+        getDescriptorForType() {
+      return getDescriptor();
+    }
+
+    public final void callMethod(
+        com.google.protobuf.Descriptors.MethodDescriptor method,
+        com.google.protobuf.RpcController controller,
+        com.google.protobuf.Message request,
+        com.google.protobuf.RpcCallback<
+          com.google.protobuf.Message> done) {
+      if (method.getService() != getDescriptor()) {
+        throw new java.lang.IllegalArgumentException(
+          "Service.callMethod() given method descriptor for wrong " +
+          "service type.");
+      }
+      switch(method.getIndex()) {
+        case 0:
+          this.subscribe(controller, (org.waveprotocol.box.search.SearchProto.SearchRequest)request,
+            com.google.protobuf.RpcUtil.<org.waveprotocol.box.search.SearchProto.SearchResponse>specializeCallback(
+              done));
+          return;
+        default:
+          throw new java.lang.AssertionError("Can't get here.");
+      }
+    }
+
+    public final com.google.protobuf.Message
+        getRequestPrototype(
+        com.google.protobuf.Descriptors.MethodDescriptor method) {
+      if (method.getService() != getDescriptor()) {
+        throw new java.lang.IllegalArgumentException(
+          "Service.getRequestPrototype() given method " +
+          "descriptor for wrong service type.");
+      }
+      switch(method.getIndex()) {
+        case 0:
+          return org.waveprotocol.box.search.SearchProto.SearchRequest.getDefaultInstance();
+        default:
+          throw new java.lang.AssertionError("Can't get here.");
+      }
+    }
+
+    public final com.google.protobuf.Message
+        getResponsePrototype(
+        com.google.protobuf.Descriptors.MethodDescriptor method) {
+      if (method.getService() != getDescriptor()) {
+        throw new java.lang.IllegalArgumentException(
+          "Service.getResponsePrototype() given method " +
+          "descriptor for wrong service type.");
+      }
+      switch(method.getIndex()) {
+        case 0:
+          return org.waveprotocol.box.search.SearchProto.SearchResponse.getDefaultInstance();
+        default:
+          throw new java.lang.AssertionError("Can't get here.");
+      }
+    }
+
+    public static Stub newStub(
+        com.google.protobuf.RpcChannel channel) {
+      return new Stub(channel);
+    }
+
+    public static final class Stub extends org.waveprotocol.box.search.SearchProto.SearchSubscriptionService implements Interface {
+      private Stub(com.google.protobuf.RpcChannel channel) {
+        this.channel = channel;
+      }
+
+      private final com.google.protobuf.RpcChannel channel;
+
+      public com.google.protobuf.RpcChannel getChannel() {
+        return channel;
+      }
+
+      public  void subscribe(
+          com.google.protobuf.RpcController controller,
+          org.waveprotocol.box.search.SearchProto.SearchRequest request,
+          com.google.protobuf.RpcCallback<org.waveprotocol.box.search.SearchProto.SearchResponse> done) {
+        channel.callMethod(
+          getDescriptor().getMethods().get(0),
+          controller,
+          request,
+          org.waveprotocol.box.search.SearchProto.SearchResponse.getDefaultInstance(),
+          com.google.protobuf.RpcUtil.generalizeCallback(
+            done,
+            org.waveprotocol.box.search.SearchProto.SearchResponse.class,
+            org.waveprotocol.box.search.SearchProto.SearchResponse.getDefaultInstance()));
+      }
+    }
+
+    public static BlockingInterface newBlockingStub(
+        com.google.protobuf.BlockingRpcChannel channel) {
+      return new BlockingStub(channel);
+    }
+
+    public interface BlockingInterface {
+      public org.waveprotocol.box.search.SearchProto.SearchResponse subscribe(
+          com.google.protobuf.RpcController controller,
+          org.waveprotocol.box.search.SearchProto.SearchRequest request)
+          throws com.google.protobuf.ServiceException;
+    }
+
+    private static final class BlockingStub implements BlockingInterface {
+      private BlockingStub(com.google.protobuf.BlockingRpcChannel channel) {
+        this.channel = channel;
+      }
+
+      private final com.google.protobuf.BlockingRpcChannel channel;
+
+      public org.waveprotocol.box.search.SearchProto.SearchResponse subscribe(
+          com.google.protobuf.RpcController controller,
+          org.waveprotocol.box.search.SearchProto.SearchRequest request)
+          throws com.google.protobuf.ServiceException {
+        return (org.waveprotocol.box.search.SearchProto.SearchResponse) channel.callBlockingMethod(
+          getDescriptor().getMethods().get(0),
+          controller,
+          request,
+          org.waveprotocol.box.search.SearchProto.SearchResponse.getDefaultInstance());
+      }
+
+    }
+
+    // @@protoc_insertion_point(class_scope:search.SearchSubscriptionService)
+  }
+
   private static com.google.protobuf.Descriptors.Descriptor
     internal_static_search_SearchRequest_descriptor;
   private static
@@ -3751,16 +3991,20 @@ public final class SearchProto {
   static {
     java.lang.String[] descriptorData = {
       "\n(org/waveprotocol/box/search/search.pro" +
-      "to\022\006search\"A\n\rSearchRequest\022\r\n\005query\030\001 \002" +
-      "(\t\022\r\n\005index\030\002 \002(\005\022\022\n\nnumResults\030\003 \002(\005\"\204\002" +
-      "\n\016SearchResponse\022\r\n\005query\030\001 \002(\t\022\024\n\014total" +
-      "Results\030\002 \002(\005\022.\n\007digests\030\003 \003(\0132\035.search." +
-      "SearchResponse.Digest\032\234\001\n\006Digest\022\r\n\005titl" +
-      "e\030\001 \002(\t\022\017\n\007snippet\030\002 \002(\t\022\016\n\006waveId\030\003 \002(\t" +
-      "\022\024\n\014lastModified\030\004 \002(\003\022\023\n\013unreadCount\030\005 " +
-      "\002(\005\022\021\n\tblipCount\030\006 \002(\005\022\024\n\014participants\030\007" +
-      " \003(\t\022\016\n\006author\030\010 \002(\tB*\n\033org.waveprotocol",
-      ".box.searchB\013SearchProto"
+      "to\022\006search\032,org/waveprotocol/wave/client" +
+      "server/rpc.proto\"A\n\rSearchRequest\022\r\n\005que" +
+      "ry\030\001 \002(\t\022\r\n\005index\030\002 \002(\005\022\022\n\nnumResults\030\003 " +
+      "\002(\005\"\204\002\n\016SearchResponse\022\r\n\005query\030\001 \002(\t\022\024\n" +
+      "\014totalResults\030\002 \002(\005\022.\n\007digests\030\003 \003(\0132\035.s" +
+      "earch.SearchResponse.Digest\032\234\001\n\006Digest\022\r" +
+      "\n\005title\030\001 \002(\t\022\017\n\007snippet\030\002 \002(\t\022\016\n\006waveId" +
+      "\030\003 \002(\t\022\024\n\014lastModified\030\004 \002(\003\022\023\n\013unreadCo" +
+      "unt\030\005 \002(\005\022\021\n\tblipCount\030\006 \002(\005\022\024\n\014particip",
+      "ants\030\007 \003(\t\022\016\n\006author\030\010 \002(\t2\\\n\031SearchSubs" +
+      "criptionService\022?\n\tSubscribe\022\025.search.Se" +
+      "archRequest\032\026.search.SearchResponse\"\003\330>\001" +
+      "B-\n\033org.waveprotocol.box.searchB\013SearchP" +
+      "roto\210\001\001"
     };
     com.google.protobuf.Descriptors.FileDescriptor.InternalDescriptorAssigner assigner =
       new com.google.protobuf.Descriptors.FileDescriptor.InternalDescriptorAssigner() {
@@ -3785,12 +4029,16 @@ public final class SearchProto {
             com.google.protobuf.GeneratedMessage.FieldAccessorTable(
               internal_static_search_SearchResponse_Digest_descriptor,
               new java.lang.String[] { "Title", "Snippet", "WaveId", "LastModified", "UnreadCount", "BlipCount", "Participants", "Author", });
-          return null;
+          com.google.protobuf.ExtensionRegistry registry =
+            com.google.protobuf.ExtensionRegistry.newInstance();
+          registry.add(org.waveprotocol.wave.clientserver.Rpc.isStreamingRpc);
+          return registry;
         }
       };
     com.google.protobuf.Descriptors.FileDescriptor
       .internalBuildGeneratedFileFrom(descriptorData,
         new com.google.protobuf.Descriptors.FileDescriptor[] {
+          org.waveprotocol.wave.clientserver.Rpc.getDescriptor(),
         }, assigner);
   }
 
@@ -22,13 +22,16 @@ package com.google.wave.api;
 import com.google.gson.Gson;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
+import com.google.gson.JsonIOException;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParseException;
 import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonWriter;
 import com.google.wave.api.JsonRpcConstant.ParamsProperty;
 import com.google.wave.api.JsonRpcConstant.RequestProperty;
 import static com.google.wave.api.OperationType.ROBOT_NOTIFY;
 import static com.google.wave.api.OperationType.ROBOT_NOTIFY_CAPABILITIES_HASH;
+import java.io.IOException;
 import java.lang.reflect.Type;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -157,6 +160,29 @@ public class RobotSerializer {
     return getGson(protocolVersion).toJson(object, type);
   }
 
+  /**
+   * Serializes the given object into a JSON stream, without building of the
+   * JSON string in memory.
+   *
+   * @param <T> the generic type of the given object.
+   * @param object the object to serialize.
+   * @param type the specific genericized type of {@code object}.
+   * @param protocolVersion the version of the serializer to use.
+   * @param writer the stream to write JSON representation of {@code object}.
+   * @throws IOException if the stream can not be written.
+   */
+  public <T> void serialize(T object, Type type, ProtocolVersion protocolVersion,
+      JsonWriter writer) throws IOException {
+    try {
+      getGson(protocolVersion).toJson(object, type, writer);
+    } catch (JsonIOException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw e;
+    }
+  }
+
   /**
    * Parses the given JSON string into a {@link JsonElement}.
    *
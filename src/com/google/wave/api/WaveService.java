@@ -752,6 +752,35 @@ public class WaveService {
     listener.onSuccess(rawHistory, rawTargetVersion);
   }
 
+  /**
+   * Opens binary stream of wavelet deltas history.
+   *
+   * The stream is a sequence of records, each of them is length-delimited
+   * ProtocolWaveletDelta followed by length-delimited resulting
+   * ProtocolHashedVersion. The resulting version of the last received record
+   * is the cursor to resume the export from.
+   *
+   * @param waveId the id of the wave to export.
+   * @param waveletId the id of the wavelet to export.
+   * @param cursor start ProtocolHashedVersion.
+   * @param toVersion end ProtocolHashedVersion.
+   * @param rpcServerUrl the URL of the JSON-RPC request handler.
+   * @return the stream of deltas.
+   * @throws IOException if there is a problem fetching the deltas.
+   */
+  public InputStream exportRawDeltasStream(WaveId waveId, WaveletId waveletId,
+      byte[] cursor, byte[] toVersion, String rpcServerUrl) throws IOException {
+    List<SimpleEntry<String, String>> params = new ArrayList<SimpleEntry<String, String>>();
+    params.add(new SimpleEntry<String, String>("export_deltas",
+        ApiIdSerializer.instance().serialiseWaveId(waveId)));
+    params.add(new SimpleEntry<String, String>("wavelet_id",
+        ApiIdSerializer.instance().serialiseWaveletId(waveletId)));
+    params.add(new SimpleEntry<String, String>("cursor", Base64.encodeBase64URLSafeString(cursor)));
+    params.add(new SimpleEntry<String, String>("to_version",
+        Base64.encodeBase64URLSafeString(toVersion)));
+    return makeGet(rpcServerUrl, params);
+  }
+
   /**
    * Exports attachment.
    *
@@ -951,6 +980,13 @@ public class WaveService {
   }
 
   protected InputStream makeGet(String rpcServerUrl, String param, String value) throws IOException {
+    List<SimpleEntry<String, String>> params = new ArrayList<SimpleEntry<String, String>>();
+    params.add(new SimpleEntry<String, String>(param, value));
+    return makeGet(rpcServerUrl, params);
+  }
+
+  protected InputStream makeGet(String rpcServerUrl, List<SimpleEntry<String, String>> params)
+      throws IOException {
     try {
       if (rpcServerUrl == null) {
         throw new IllegalStateException("RPC Server URL is not set up.");
@@ -962,8 +998,6 @@ public class WaveService {
             + "have to be set first, by calling AbstractRobot.setupOAuth(), before invoking "
             + "AbstractRobot.submit().");
       }
-      List<SimpleEntry<String, String>> params = new ArrayList<SimpleEntry<String, String>>();
-      params.add(new SimpleEntry<String, String>(param, value));
       if (!consumerDataObj.isUserAuthenticated()) {
         String url;
         try {
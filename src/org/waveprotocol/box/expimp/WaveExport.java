@@ -21,7 +21,6 @@ import com.google.wave.api.SearchResult.Digest;
 import com.google.wave.api.WaveService;
 import com.google.wave.api.impl.GsonFactory;
 import com.google.wave.api.impl.RawAttachmentData;
-import com.google.wave.api.impl.RawDeltasListener;
 
 import org.waveprotocol.box.server.serialize.OperationSerializer;
 import org.waveprotocol.box.server.persistence.protos.proto.WaveletSnapshotProtoImpl;
@@ -40,16 +39,17 @@ import org.waveprotocol.wave.model.version.HashedVersionFactory;
 import org.waveprotocol.wave.model.version.HashedVersionFactoryImpl;
 import org.waveprotocol.wave.util.escapers.jvm.JavaUrlCodec;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
-import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Export waves from Wiab to files.
@@ -63,6 +63,12 @@ public class WaveExport {
   private static final Gson gson = new GsonFactory().create();
   private static final JsonParser jsonParser = new JsonParser();
 
+  /** Size of deltas in one file. */
+  private static final int DELTAS_FILE_SIZE_LIMIT = 1000000;
+
+  /** Number of attempts to resume export of deltas of the wavelet without progress. */
+  private static final int EXPORT_ATTEMPTS = 3;
+
   private final String serverUrl;
   private final WaveService api;
   private final FileNames fileNames;
@@ -252,35 +258,63 @@ public class WaveExport {
   private void exportDeltas(WaveId waveId, WaveletId waveletId, ProtocolHashedVersion lastVersion,
       Set<AttachmentId> attachmentIds) throws IOException {
     HashedVersion zeroVersion = HASH_FACTORY.createVersionZero(WaveletName.of(waveId, waveletId));
-    ProtocolHashedVersion version = OperationSerializer.serialize(zeroVersion);
-    for (int fetchNum = 0; version.getVersion() != lastVersion.getVersion(); fetchNum++) {
-      Console.print("    getting deltas from version " + version.getVersion() + " ...");
-      final List<byte[]> deltas = Lists.newArrayList();
-      final AtomicReference<byte[]> targetVersion = new AtomicReference<byte[]>();
-      api.exportRawDeltas(waveId, waveletId,
-          version.toByteArray(), lastVersion.toByteArray(), rpcServerUrl,
-          new RawDeltasListener() {
-
-            @Override
-            public void onSuccess(List<byte[]> rawDeltas, byte[] rawTargetVersion) {
-              deltas.addAll(rawDeltas);
-              targetVersion.set(rawTargetVersion);
-            }
-
-            @Override
-            public void onFailure(String message) {
-              Console.error(search);
-            }
-          });
-      if (deltas.isEmpty()) {
-        Console.println(" empty response");
-        continue;
+    ProtocolHashedVersion cursor = OperationSerializer.serialize(zeroVersion);
+    int fetchNum = 0;
+    int failures = 0;
+    while (cursor.getVersion() != lastVersion.getVersion()) {
+      long startVersion = cursor.getVersion();
+      Console.print("    getting deltas from version " + startVersion + " ...");
+      List<byte[]> deltas = Lists.newArrayList();
+      int deltasSize = 0;
+      ProtocolHashedVersion deltasVersion = cursor;
+      IOException exception = null;
+      InputStream in = null;
+      try {
+        in = new BufferedInputStream(api.exportRawDeltasStream(waveId, waveletId,
+            cursor.toByteArray(), lastVersion.toByteArray(), rpcServerUrl));
+        for (;;) {
+          ProtocolWaveletDelta delta = ProtocolWaveletDelta.parseDelimitedFrom(in);
+          if (delta == null) {
+            break;
+          }
+          ProtocolHashedVersion version = ProtocolHashedVersion.parseDelimitedFrom(in);
+          if (version == null) {
+            throw new IOException("Unexpected end of deltas stream");
+          }
+          byte[] bytes = delta.toByteArray();
+          deltas.add(bytes);
+          deltasSize += bytes.length;
+          deltasVersion = version;
+          attachmentIds.addAll(DeltaParser.getAttachemntIds(delta));
+          if (deltasSize >= DELTAS_FILE_SIZE_LIMIT) {
+            writeDeltasToFile(waveId, waveletId, deltas, fetchNum++);
+            cursor = deltasVersion;
+            deltas.clear();
+            deltasSize = 0;
+          }
+        }
+      } catch (IOException ex) {
+        exception = ex;
+      } finally {
+        if (in != null) {
+          in.close();
+        }
+      }
+      // Received deltas are complete, so they are kept even if the stream is cut.
+      if (!deltas.isEmpty()) {
+        writeDeltasToFile(waveId, waveletId, deltas, fetchNum++);
+        cursor = deltasVersion;
       }
-      version = ProtocolHashedVersion.parseFrom(targetVersion.get());
-      Console.println(" Ok, got to version " + version.getVersion());
-      writeDeltasToFile(waveId, waveletId, deltas, fetchNum);
-      for (byte[] delta : deltas) {
-        attachmentIds.addAll(DeltaParser.getAttachemntIds(ProtocolWaveletDelta.parseFrom(delta)));
+      if (cursor.getVersion() == lastVersion.getVersion()) {
+        Console.println(" Ok, got to version " + cursor.getVersion());
+      } else {
+        // The stream is cut or ended early, so the export resumes from the cursor.
+        Console.println(" interrupted at version " + cursor.getVersion());
+        failures = cursor.getVersion() != startVersion ? 0 : failures + 1;
+        if (failures > EXPORT_ATTEMPTS) {
+          throw exception != null ? exception
+              : new IOException("Deltas stream is ended at version " + cursor.getVersion());
+        }
       }
     }
   }
@@ -28,6 +28,10 @@ import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.waveprotocol.wave.federation.Proto.ProtocolWaveletDelta;
 import org.waveprotocol.wave.media.model.AttachmentId;
 import org.waveprotocol.wave.model.id.IdUtil;
@@ -46,6 +50,9 @@ public final class WaveImport {
 
   private static final Gson gson = new GsonFactory().create();
 
+  /** Maximum size of deltas sent by one request. */
+  private static final int MAX_REQUEST_DELTAS_SIZE = 8 * 1024 * 1024;
+
   private final String serverUrl;
   private final WaveService api;
   private final FileNames fileNames;
@@ -54,12 +61,14 @@ public final class WaveImport {
   private String consumerSecret;
   private String rpcServerUrl;
   private String waveDomain;
+  private int threadCount = 1;
 
   static public void usageError() {
     Console.println("Use: WaveImport <server URL> <export directory>\n"
       + "   [-consumer_key    Robot consumer key]\n"
       + "   [-consumer_secret Robot consumer secret]\n"
-      + "   [-wave_domain     Target wave domain]");
+      + "   [-wave_domain     Target wave domain]\n"
+      + "   [-threads         Count of waves imported concurrently]");
     System.exit(1);
   }
 
@@ -78,6 +87,13 @@ public final class WaveImport {
       } else if (args[i].equals("-wave_domain")) {
         imp.setWaveDomain(args[++i]);
         i++;
+      } else if (args[i].equals("-threads")) {
+        try {
+          imp.setThreadCount(Integer.parseInt(args[++i]));
+        } catch (NumberFormatException ex) {
+          usageError();
+        }
+        i++;
       } else {
         usageError();
       }
@@ -105,6 +121,13 @@ public final class WaveImport {
     this.waveDomain = waveDomain;
   }
 
+  public void setThreadCount(int threadCount) {
+    if (threadCount < 1) {
+      usageError();
+    }
+    this.threadCount = threadCount;
+  }
+
   /**
    * Performs authorization.
    */
@@ -135,40 +158,59 @@ public final class WaveImport {
         return f1.getName().compareTo(f2.getName());
       }
     });
-    int createdCount = 0;
-    int updatedCount = 0;
-    int skippedCount = 0;
-    int failedCount = 0;
-    for (int i = 0; i < waveDirs.length; i++) {
-      File waveDir = waveDirs[i];
-      WaveId sourceWaveId = FileNames.getWaveIdFromFileName(waveDir.getName());
-      WaveId targetWaveId = DomainConverter.convertWaveId(sourceWaveId, waveDomain);
-      Console.println("Importing wave " + targetWaveId.serialise()
-          + " (" + (i + 1) + " of " + waveDirs.length + ") ...");
-      boolean waveCreated = false;
-      boolean waveUpdated = false;
-      File[] waveletDirs = waveDir.listFiles();
-      for (File waveletDir : waveletDirs) {
-        WaveletId sourceWaveletId = FileNames.getWaveletIdFromFileName(waveletDir.getName());
-        try {
-          ImportWaveletState state = importWavelet(sourceWaveId, sourceWaveletId);
-          if (state == ImportWaveletState.WAVELET_CREATED && !IdUtil.isUserDataWavelet(sourceWaveletId)) {
-            waveCreated = true;
-          } else if (state != ImportWaveletState.NOTHING_DONE) {
-            waveUpdated = true;
+    final AtomicInteger createdCount = new AtomicInteger();
+    final AtomicInteger updatedCount = new AtomicInteger();
+    final AtomicInteger skippedCount = new AtomicInteger();
+    final AtomicInteger failedCount = new AtomicInteger();
+    final AtomicInteger processedCount = new AtomicInteger();
+    final int waveCount = waveDirs.length;
+    ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+    for (final File waveDir : waveDirs) {
+      executor.execute(new Runnable() {
+
+        @Override
+        public void run() {
+          StringBuilder log = new StringBuilder();
+          WaveId sourceWaveId = FileNames.getWaveIdFromFileName(waveDir.getName());
+          WaveId targetWaveId = DomainConverter.convertWaveId(sourceWaveId, waveDomain);
+          boolean waveCreated = false;
+          boolean waveUpdated = false;
+          File[] waveletDirs = waveDir.listFiles();
+          for (File waveletDir : waveletDirs) {
+            WaveletId sourceWaveletId = FileNames.getWaveletIdFromFileName(waveletDir.getName());
+            try {
+              ImportWaveletState state = importWavelet(sourceWaveId, sourceWaveletId, log);
+              if (state == ImportWaveletState.WAVELET_CREATED
+                  && !IdUtil.isUserDataWavelet(sourceWaveletId)) {
+                waveCreated = true;
+              } else if (state != ImportWaveletState.NOTHING_DONE) {
+                waveUpdated = true;
+              }
+            } catch (IOException ex) {
+              failedCount.incrementAndGet();
+              Console.error("Importing wavelet " + sourceWaveletId.serialise() + " of wave "
+                  + targetWaveId.serialise() + " error", ex);
+            }
+          }
+          if (waveCreated) {
+            createdCount.incrementAndGet();
+          } else if (waveUpdated) {
+            updatedCount.incrementAndGet();
+          } else {
+            skippedCount.incrementAndGet();
           }
-        } catch (IOException ex) {
-          failedCount++;
-          Console.error("Importing wavelet error", ex);
+          // Whole report of the wave is printed at once, not mixed with others.
+          Console.print("Imported wave " + targetWaveId.serialise()
+              + " (" + processedCount.incrementAndGet() + " of " + waveCount + ")\n" + log);
         }
-      }
-      if (waveCreated) {
-        createdCount++;
-      } else if (waveUpdated) {
-        updatedCount++;
-      } else {
-        skippedCount++;
-      }
+      });
+    }
+    executor.shutdown();
+    try {
+      executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException ex) {
+      Console.error("Import is interrupted");
+      executor.shutdownNow();
     }
     Console.println();
     Console.println("Created " + createdCount + " waves.");
@@ -177,8 +219,8 @@ public final class WaveImport {
     Console.println("Failed for " + failedCount + " waves.");
   }
 
-  private ImportWaveletState importWavelet(WaveId sourceWaveId, WaveletId sourceWaveletId)
-      throws IOException {
+  private ImportWaveletState importWavelet(WaveId sourceWaveId, WaveletId sourceWaveletId,
+      StringBuilder log) throws IOException {
     ImportWaveletState state = ImportWaveletState.NOTHING_DONE;
     WaveId targetWaveId = DomainConverter.convertWaveId(sourceWaveId, waveDomain);
     WaveletId targetWaveletId;
@@ -188,70 +230,99 @@ public final class WaveImport {
       throw new IOException(ex);
     }
     Set<AttachmentId> attachmentIds = new HashSet<AttachmentId>();
-    Console.println("  wavelet " + targetWaveletId.serialise());
+    log.append("  wavelet ").append(targetWaveletId.serialise()).append("\n");
+    // Deltas of several files are sent by one request, up to the size limit.
+    List<ProtocolWaveletDelta> deltas = new LinkedList<ProtocolWaveletDelta>();
+    List<byte[]> history = new LinkedList<byte[]>();
+    int historySize = 0;
     for (int part=0 ; ; part++) {
       File deltasFile = new File(fileNames.getDeltasFilePath(sourceWaveId, sourceWaveletId, part));
-      if (!deltasFile.exists()) {
-        break;
+      boolean lastPart = !deltasFile.exists();
+      if (!lastPart) {
+        historySize += readDeltas(deltasFile, deltas, history);
       }
-      ImportWaveletState st = importDeltas(deltasFile, targetWaveId, targetWaveletId, attachmentIds);
-      if (state == ImportWaveletState.NOTHING_DONE) {
-        state = st;
+      if (!history.isEmpty() && (lastPart || historySize >= MAX_REQUEST_DELTAS_SIZE)) {
+        ImportWaveletState st = importDeltas(deltas, history, targetWaveId, targetWaveletId,
+            attachmentIds, log);
+        if (state == ImportWaveletState.NOTHING_DONE) {
+          state = st;
+        }
+        deltas.clear();
+        history.clear();
+        historySize = 0;
+      }
+      if (lastPart) {
+        break;
       }
     }
-    importAttachments(sourceWaveId, sourceWaveletId, targetWaveId, targetWaveletId, attachmentIds);
+    importAttachments(sourceWaveId, sourceWaveletId, targetWaveId, targetWaveletId, attachmentIds,
+        log);
     return state;
   }
 
-  private ImportWaveletState importDeltas(File deltasFile, WaveId targetWaveId, WaveletId targetWaveletId,
-      Set<AttachmentId> attachmentIds) throws IOException {
-    ImportWaveletState state = ImportWaveletState.NOTHING_DONE;
+  /**
+   * Reads deltas from file converting them to the target domain.
+   *
+   * @return the size of read deltas.
+   */
+  private int readDeltas(File deltasFile, List<ProtocolWaveletDelta> targetDeltas,
+      List<byte[]> targetHistory) throws IOException {
     @SuppressWarnings("unchecked")
     List<byte[]> sourceHistory = gson.fromJson(readFile(deltasFile), GsonFactory.RAW_DELTAS_TYPE);
-    List<byte[]> targetHistory;
     List<ProtocolWaveletDelta> deltas = DeltaParser.parseDeltas(sourceHistory);
-    List<ProtocolWaveletDelta> targetDeltas;
+    int size = 0;
     if (waveDomain != null) {
+      List<ProtocolWaveletDelta> convertedDeltas;
       try {
-        targetDeltas = DomainConverter.convertDeltas(deltas, waveDomain);
+        convertedDeltas = DomainConverter.convertDeltas(deltas, waveDomain);
       } catch (InvalidParticipantAddress ex) {
         throw new IOException(ex);
       }
-      targetHistory = new LinkedList<byte[]>();
-      for (ProtocolWaveletDelta delta : targetDeltas) {
-        targetHistory.add(delta.toByteArray());
+      for (ProtocolWaveletDelta delta : convertedDeltas) {
+        byte[] deltaBytes = delta.toByteArray();
+        targetDeltas.add(delta);
+        targetHistory.add(deltaBytes);
+        size += deltaBytes.length;
       }
     } else {
-      targetDeltas = deltas;
-      targetHistory = sourceHistory;
+      targetDeltas.addAll(deltas);
+      targetHistory.addAll(sourceHistory);
+      for (byte[] deltaBytes : sourceHistory) {
+        size += deltaBytes.length;
+      }
     }
-    if (!targetDeltas.isEmpty()) {
-      long fromVersion = targetDeltas.get(0).getHashedVersion().getVersion();
-      ProtocolWaveletDelta lastDelta = targetDeltas.get(targetDeltas.size()-1);
-      long toVersion = lastDelta.getHashedVersion().getVersion()+lastDelta.getOperationCount();
-      Console.print("    send deltas " + fromVersion + "-" + toVersion + " ...");
-      long importedFromVersion = api.importRawDeltas(targetWaveId, targetWaveletId, targetHistory, rpcServerUrl);
-      if (fromVersion == importedFromVersion) {
-        Console.println(" imported");
-      } else if (importedFromVersion == -1) {
-        Console.println(" skipped");
+    return size;
+  }
+
+  private ImportWaveletState importDeltas(List<ProtocolWaveletDelta> targetDeltas,
+      List<byte[]> targetHistory, WaveId targetWaveId, WaveletId targetWaveletId,
+      Set<AttachmentId> attachmentIds, StringBuilder log) throws IOException {
+    ImportWaveletState state = ImportWaveletState.NOTHING_DONE;
+    long fromVersion = targetDeltas.get(0).getHashedVersion().getVersion();
+    ProtocolWaveletDelta lastDelta = targetDeltas.get(targetDeltas.size()-1);
+    long toVersion = lastDelta.getHashedVersion().getVersion()+lastDelta.getOperationCount();
+    log.append("    send deltas " + fromVersion + "-" + toVersion + " ...");
+    long importedFromVersion = api.importRawDeltas(targetWaveId, targetWaveletId, targetHistory, rpcServerUrl);
+    if (fromVersion == importedFromVersion) {
+      log.append(" imported\n");
+    } else if (importedFromVersion == -1) {
+      log.append(" skipped\n");
+    } else {
+      log.append(" imported from version " + importedFromVersion + "\n");
+    }
+    if (fromVersion == importedFromVersion) {
+      if (fromVersion == 0) {
+        state = ImportWaveletState.WAVELET_CREATED;
       } else {
-        Console.println(" imported from version " + importedFromVersion);
-      }
-      if (fromVersion == importedFromVersion) {
-        if (fromVersion == 0) {
-          state = ImportWaveletState.WAVELET_CREATED;
-        } else {
-          state = ImportWaveletState.WAVELET_UPDATED;
-        }
-      } else if (importedFromVersion != -1) {
         state = ImportWaveletState.WAVELET_UPDATED;
       }
-      if (importedFromVersion != -1) {
-        for (ProtocolWaveletDelta delta : targetDeltas) {
-          if (delta.getHashedVersion().getVersion() >= importedFromVersion) {
-            attachmentIds.addAll(DeltaParser.getAttachemntIds(delta));
-          }
+    } else if (importedFromVersion != -1) {
+      state = ImportWaveletState.WAVELET_UPDATED;
+    }
+    if (importedFromVersion != -1) {
+      for (ProtocolWaveletDelta delta : targetDeltas) {
+        if (delta.getHashedVersion().getVersion() >= importedFromVersion) {
+          attachmentIds.addAll(DeltaParser.getAttachemntIds(delta));
         }
       }
     }
@@ -259,14 +330,14 @@ public final class WaveImport {
   }
 
   private void importAttachments(WaveId sourceWaveId, WaveletId sourceWaveletId,
-      WaveId targetWaveId, WaveletId targetWaveletId, Set<AttachmentId> attachmentIds)
-      throws FileNotFoundException, IOException {
+      WaveId targetWaveId, WaveletId targetWaveletId, Set<AttachmentId> attachmentIds,
+      StringBuilder log) throws FileNotFoundException, IOException {
     for (AttachmentId attachmentId : attachmentIds) {
       String attachmentFile = fileNames.getAttachmentFilePath(sourceWaveId, sourceWaveletId, attachmentId);
       RawAttachmentData attachmentData = gson.fromJson(readFile(new File(attachmentFile)), RawAttachmentData.class);
-      Console.print("    importing attachment " + attachmentId.serialise() + " ...");
+      log.append("    importing attachment " + attachmentId.serialise() + " ...");
       api.importAttachment(targetWaveId, targetWaveletId, attachmentId, attachmentData, rpcServerUrl);
-      Console.println(" Ok");
+      log.append(" Ok\n");
     }
   }
 
@@ -0,0 +1,216 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.waveprotocol.box.loadgen;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import org.waveprotocol.wave.client.scheduler.Scheduler.IncrementalTask;
+import org.waveprotocol.wave.client.scheduler.Scheduler.Schedulable;
+import org.waveprotocol.wave.client.scheduler.Scheduler.Task;
+import org.waveprotocol.wave.client.scheduler.TimerService;
+import org.waveprotocol.wave.model.util.FuzzingBackOffScheduler;
+import org.waveprotocol.wave.model.util.Scheduler.Command;
+import org.waveprotocol.wave.util.logging.Log;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single thread on which the client stack of a simulated user runs.
+ *
+ * The concurrency control code is written for the browser and isn't thread
+ * safe, so responses of the server and timers are executed on this thread,
+ * as in the browser event loop.
+ *
+ * @author akaplanov@gmail.com (A. Kaplanov)
+ */
+final class EventLoop implements Executor, FuzzingBackOffScheduler.CollectiveScheduler {
+  private static final Log LOG = Log.get(EventLoop.class);
+
+  /**
+   * Timer of tasks on the loop. Tasks of the timer are cancelled together, so
+   * every client component gets its own timer.
+   */
+  final class Timer implements TimerService {
+    private final Map<Schedulable, ScheduledFuture<?>> scheduled = new IdentityHashMap<>();
+
+    @Override
+    public void schedule(Task task) {
+      scheduleDelayed(task, 0);
+    }
+
+    @Override
+    public void schedule(IncrementalTask process) {
+      scheduleDelayed(process, 0);
+    }
+
+    @Override
+    public void scheduleDelayed(final Task task, int minimumTime) {
+      submit(task, new Runnable() {
+
+        @Override
+        public void run() {
+          task.execute();
+        }
+      }, minimumTime);
+    }
+
+    @Override
+    public void scheduleDelayed(IncrementalTask process, int minimumTime) {
+      scheduleRepeating(process, minimumTime, 0);
+    }
+
+    @Override
+    public void scheduleRepeating(final IncrementalTask process, int minimumTime,
+        final int interval) {
+      submit(process, new Runnable() {
+
+        @Override
+        public void run() {
+          if (process.execute()) {
+            scheduleRepeating(process, interval, interval);
+          }
+        }
+      }, minimumTime);
+    }
+
+    @Override
+    public synchronized void cancel(Schedulable job) {
+      ScheduledFuture<?> future = scheduled.remove(job);
+      if (future != null) {
+        future.cancel(false);
+      }
+    }
+
+    @Override
+    public synchronized void cancelAll() {
+      for (ScheduledFuture<?> future : scheduled.values()) {
+        future.cancel(false);
+      }
+      scheduled.clear();
+    }
+
+    @Override
+    public synchronized boolean isScheduled(Schedulable job) {
+      return scheduled.containsKey(job);
+    }
+
+    @Override
+    public int elapsedMillis() {
+      return (int) TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    @Override
+    public double currentTimeMillis() {
+      return System.currentTimeMillis();
+    }
+
+    private synchronized void submit(final Schedulable job, final Runnable body, int delayMs) {
+      cancel(job);
+      scheduled.put(job, executor.schedule(new Runnable() {
+
+        @Override
+        public void run() {
+          synchronized (Timer.this) {
+            scheduled.remove(job);
+          }
+          runSafely(body);
+        }
+      }, Math.max(delayMs, 0), TimeUnit.MILLISECONDS));
+    }
+  }
+
+  private final ScheduledExecutorService executor;
+  private final long startNanos = System.nanoTime();
+
+  EventLoop(String name) {
+    executor = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder().setNameFormat(name).setDaemon(true).build());
+  }
+
+  /**
+   * @return new timer of tasks on this loop.
+   */
+  Timer newTimer() {
+    return new Timer();
+  }
+
+  @Override
+  public void execute(final Runnable command) {
+    executor.execute(new Runnable() {
+
+      @Override
+      public void run() {
+        runSafely(command);
+      }
+    });
+  }
+
+  /**
+   * Executes the command on the loop after the delay.
+   */
+  ScheduledFuture<?> schedule(final Runnable command, long delayMs) {
+    return executor.schedule(new Runnable() {
+
+      @Override
+      public void run() {
+        runSafely(command);
+      }
+    }, delayMs, TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public FuzzingBackOffScheduler.Cancellable schedule(final Command task, int minAllowedMs,
+      int targetTimeMs) {
+    final ScheduledFuture<?> future = schedule(new Runnable() {
+
+      @Override
+      public void run() {
+        task.execute();
+      }
+    }, targetTimeMs);
+    return new FuzzingBackOffScheduler.Cancellable() {
+
+      @Override
+      public void cancel() {
+        future.cancel(false);
+      }
+    };
+  }
+
+  /**
+   * Stops the loop, pending tasks are discarded.
+   */
+  void shutdown() {
+    executor.shutdownNow();
+  }
+
+  /**
+   * Runs the command, errors are logged, as otherwise they are silently
+   * swallowed by the executor.
+   */
+  private static void runSafely(Runnable command) {
+    try {
+      command.run();
+    } catch (RuntimeException ex) {
+      LOG.severe("Task failed", ex);
+    }
+  }
+}
@@ -0,0 +1,386 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.waveprotocol.box.loadgen;
+
+import org.waveprotocol.box.server.rpc.WebSocketClientRpcChannel;
+import org.waveprotocol.wave.client.concurrencycontrol.ProxyOperationSink;
+import org.waveprotocol.wave.client.concurrencycontrol.WaveletOperationalizer;
+import org.waveprotocol.wave.clientserver.ReturnStatus;
+import org.waveprotocol.wave.common.logging.LoggerBundle;
+import org.waveprotocol.wave.concurrencycontrol.channel.Accessibility;
+import org.waveprotocol.wave.concurrencycontrol.channel.OperationChannel;
+import org.waveprotocol.wave.concurrencycontrol.channel.OperationChannelMultiplexer;
+import org.waveprotocol.wave.concurrencycontrol.channel.OperationChannelMultiplexer.KnownWavelet;
+import org.waveprotocol.wave.concurrencycontrol.channel.OperationChannelMultiplexerImpl;
+import org.waveprotocol.wave.concurrencycontrol.channel.ViewChannel;
+import org.waveprotocol.wave.concurrencycontrol.channel.ViewChannelImpl;
+import org.waveprotocol.wave.concurrencycontrol.common.ChannelException;
+import org.waveprotocol.wave.concurrencycontrol.wave.FlushingOperationSink;
+import org.waveprotocol.wave.concurrencycontrol.wave.OperationSucker;
+import org.waveprotocol.wave.model.conversation.ObservableConversation;
+import org.waveprotocol.wave.model.conversation.WaveBasedConversationView;
+import org.waveprotocol.wave.model.id.IdConstants;
+import org.waveprotocol.wave.model.id.IdFilter;
+import org.waveprotocol.wave.model.id.IdGenerator;
+import org.waveprotocol.wave.model.id.IdURIEncoderDecoder;
+import org.waveprotocol.wave.model.id.ModernIdSerialiser;
+import org.waveprotocol.wave.model.id.SegmentId;
+import org.waveprotocol.wave.model.id.WaveId;
+import org.waveprotocol.wave.model.id.WaveletId;
+import org.waveprotocol.wave.model.id.WaveletName;
+import org.waveprotocol.wave.model.operation.OperationException;
+import org.waveprotocol.wave.model.operation.OperationRuntimeException;
+import org.waveprotocol.wave.model.operation.SilentOperationSink;
+import org.waveprotocol.wave.model.operation.wave.BasicWaveletOperationContextFactory;
+import org.waveprotocol.wave.model.operation.wave.WaveletOperation;
+import org.waveprotocol.wave.model.schema.conversation.ConversationSchemas;
+import org.waveprotocol.wave.model.util.FuzzingBackOffScheduler;
+import org.waveprotocol.wave.model.util.Pair;
+import org.waveprotocol.wave.model.util.Scheduler;
+import org.waveprotocol.wave.model.version.HashedVersion;
+import org.waveprotocol.wave.model.version.HashedVersionFactory;
+import org.waveprotocol.wave.model.version.HashedVersionZeroFactoryImpl;
+import org.waveprotocol.wave.model.wave.ObservableWavelet;
+import org.waveprotocol.wave.model.wave.ParticipantId;
+import org.waveprotocol.wave.model.wave.WaveViewListener;
+import org.waveprotocol.wave.model.wave.data.DocumentFactory;
+import org.waveprotocol.wave.model.wave.data.ObservableWaveletData;
+import org.waveprotocol.wave.model.wave.data.ObservableWaveletFragmentData;
+import org.waveprotocol.wave.model.wave.data.WaveViewData;
+import org.waveprotocol.wave.model.wave.data.impl.LazyContentBlipDataImpl;
+import org.waveprotocol.wave.model.wave.data.impl.ObservablePluggableMutableDocument;
+import org.waveprotocol.wave.model.wave.data.impl.WaveletFragmentDataImpl;
+import org.waveprotocol.wave.model.wave.opbased.OpBasedWavelet;
+import org.waveprotocol.wave.model.wave.opbased.WaveViewImpl;
+import org.waveprotocol.wave.util.escapers.jvm.JavaUrlCodec;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Wave opened by a simulated user, with the concurrency control stack of the
+ * web client: view channel, operation channel multiplexer and wavelets
+ * operationalized over the conversation model, without rendering.
+ *
+ * All methods are called on the event loop of the user.
+ *
+ * @author akaplanov@gmail.com (A. Kaplanov)
+ */
+final class HeadlessWave {
+
+  /**
+   * Listener of opening of the wave.
+   */
+  interface Listener {
+    void onOpened();
+
+    void onFailed(String reason);
+  }
+
+  private static final IdURIEncoderDecoder URI_CODEC = new IdURIEncoderDecoder(new JavaUrlCodec());
+  private static final HashedVersionFactory HASH_FACTORY =
+      new HashedVersionZeroFactoryImpl(URI_CODEC);
+  private static final DocumentFactory<?> DOC_FACTORY =
+      ObservablePluggableMutableDocument.createFactory(new ConversationSchemas());
+
+  /** Fetch sizes, large enough to receive the content of all blips at once. */
+  private static final int MIN_FETCH_REPLY_SIZE = 20000;
+  private static final int MAX_FETCH_REPLY_SIZE = 1000000;
+  private static final int MAX_FETCH_BLIPS_COUNT = 1000;
+
+  private static final int INITIAL_RPC_BACKOFF_MS = 1000;
+  private static final int MAX_RPC_BACKOFF_MS = 60000;
+
+  private final WaveId waveId;
+  private final ParticipantId user;
+  private final IdGenerator idGenerator;
+  private final EventLoop loop;
+  private final LatencyTracker tracker;
+  private final ViewChannelImpl viewChannel;
+  private final OperationChannelMultiplexerImpl mux;
+  private final WaveletOperationalizer operationalizer;
+
+  /** Operation channels waiting for wavelets to be bound to. */
+  private final Map<String, OperationChannel> channelsToBind = new HashMap<>();
+
+  private WaveViewImpl<OpBasedWavelet> waveView;
+  private WaveBasedConversationView conversationView;
+  private boolean opened = false;
+  private boolean closed = false;
+
+  HeadlessWave(WaveId waveId, ParticipantId user, IdGenerator idGenerator,
+      WebSocketClientRpcChannel channel, EventLoop loop, LatencyTracker tracker) {
+    this.waveId = waveId;
+    this.user = user;
+    this.idGenerator = idGenerator;
+    this.loop = loop;
+    this.tracker = tracker;
+    RpcWaveViewService waveService =
+        new RpcWaveViewService(waveId, channel, DOC_FACTORY, loop, tracker);
+    viewChannel = new ViewChannelImpl(waveId, waveService, new ViewChannel.IndexingCallback() {
+
+      @Override
+      public void onIndexing(long totalVersions, long indexedVersions) {
+      }
+
+      @Override
+      public void onIndexingComplete() {
+      }
+    }, LoggerBundle.NOP_IMPL, loop.newTimer());
+    Scheduler scheduler = new FuzzingBackOffScheduler.Builder(loop)
+        .setInitialBackOffMs(INITIAL_RPC_BACKOFF_MS)
+        .setMaxBackOffMs(MAX_RPC_BACKOFF_MS)
+        .setRandomisationFactor(0.5)
+        .build();
+    mux = new OperationChannelMultiplexerImpl(waveId, viewChannel,
+        WaveletFragmentDataImpl.Factory.create(DOC_FACTORY),
+        new OperationChannelMultiplexerImpl.LoggerContext(LoggerBundle.NOP_IMPL,
+            LoggerBundle.NOP_IMPL, LoggerBundle.NOP_IMPL, LoggerBundle.NOP_IMPL),
+        null, scheduler, HASH_FACTORY);
+    operationalizer = WaveletOperationalizer.create(waveId,
+        new BasicWaveletOperationContextFactory(user));
+  }
+
+  /**
+   * Creates the new wave with the conversation of one blip and opens it.
+   *
+   * @param participants participants added to the new conversation.
+   */
+  void create(Set<ParticipantId> participants, Listener listener) {
+    createWaveView();
+    ObservableConversation conversation = conversationView.createRoot();
+    conversation.getRootThread().appendBlip();
+    conversation.addParticipantIds(participants);
+    connect(listener, System.nanoTime());
+  }
+
+  /**
+   * Fetches the existing wave and opens it.
+   */
+  void open(final Listener listener) {
+    final long startNanos = System.nanoTime();
+    viewChannel.fetchWaveView(IdFilter.ofPrefixes(IdConstants.CONVERSATION_WAVELET_PREFIX), false,
+        MIN_FETCH_REPLY_SIZE, MAX_FETCH_REPLY_SIZE, MAX_FETCH_BLIPS_COUNT,
+        new ViewChannel.FetchWaveViewCallback() {
+
+          @Override
+          public void onWaveViewFetch(WaveViewData waveViewData) {
+            if (closed) {
+              return;
+            }
+            createWaveView();
+            for (ObservableWaveletData waveletData : waveViewData.getWavelets()) {
+              WaveletFragmentDataImpl wavelet = (WaveletFragmentDataImpl) waveletData;
+              initializeContent(wavelet);
+              waveView.addWavelet(operationalizer.operationalize(wavelet));
+            }
+            if (conversationView.getRoot() == null) {
+              listener.onFailed("Wave " + waveId + " has no conversation");
+              return;
+            }
+            connect(listener, startNanos);
+          }
+
+          @Override
+          public void onFailure(ReturnStatus status) {
+            listener.onFailed("Fetch of " + waveId + " failed: " + status);
+          }
+        });
+  }
+
+  /**
+   * @return the root conversation, or null if the wave isn't built yet.
+   */
+  ObservableConversation getConversation() {
+    return conversationView != null ? conversationView.getRoot() : null;
+  }
+
+  boolean isOpened() {
+    return opened && !closed;
+  }
+
+  WaveId getWaveId() {
+    return waveId;
+  }
+
+  /**
+   * Closes channels of the wave.
+   */
+  void close() {
+    if (!closed) {
+      closed = true;
+      mux.close();
+    }
+  }
+
+  private void createWaveView() {
+    WaveViewImpl.WaveletFactory<OpBasedWavelet> waveletFactory =
+        new WaveViewImpl.WaveletFactory<OpBasedWavelet>() {
+
+          @Override
+          public OpBasedWavelet create(WaveId waveId, WaveletId id, ParticipantId creator) {
+            HashedVersion v0 = HASH_FACTORY.createVersionZero(WaveletName.of(waveId, id));
+            long now = System.currentTimeMillis();
+            ObservableWaveletFragmentData data =
+                new WaveletFragmentDataImpl(id, creator, now, v0, now, waveId, DOC_FACTORY);
+            return operationalizer.operationalize(data);
+          }
+        };
+    waveView = WaveViewImpl.create(waveletFactory, waveId, idGenerator, user,
+        WaveViewImpl.WaveletConfigurator.ADD_CREATOR);
+    conversationView = WaveBasedConversationView.create(waveView, idGenerator);
+  }
+
+  /**
+   * Builds documents of the fetched wavelet, as the web client does for
+   * rendered blips.
+   */
+  private static void initializeContent(WaveletFragmentDataImpl wavelet) {
+    try {
+      for (String documentId : wavelet.getDocumentIds()) {
+        LazyContentBlipDataImpl blip = wavelet.getBlip(documentId);
+        if (blip != null && blip.hasContent()) {
+          blip.initalizeSnapshot();
+          blip.processDiffs();
+        }
+      }
+      wavelet.processParticipantsDiffs();
+    } catch (OperationException ex) {
+      throw new OperationRuntimeException("Operation applying error, wavelet "
+          + wavelet.getWaveletId(), ex);
+    }
+  }
+
+  /**
+   * Binds wavelets with operation channels and opens the multiplexer, as the
+   * web client does with {@code ChannelDataBinder} and
+   * {@code MuxConnectorImpl}.
+   */
+  private void connect(final Listener listener, final long startNanos) {
+    waveView.addListener(new WaveViewListener() {
+
+      @Override
+      public void onWaveletAdded(ObservableWavelet wavelet) {
+        String id = ModernIdSerialiser.INSTANCE.serialiseWaveletId(wavelet.getId());
+        if (channelsToBind.containsKey(id)) {
+          bind(id);
+        } else {
+          mux.createOperationChannel(wavelet.getId(), wavelet.getCreatorId());
+        }
+      }
+
+      @Override
+      public void onWaveletRemoved(ObservableWavelet wavelet) {
+      }
+    });
+    mux.setChannelsPresenceListener(new OperationChannelMultiplexer.ChannelsPresenceListener() {
+
+      @Override
+      public void onOperationChannelCreated(OperationChannel channel,
+          ObservableWaveletFragmentData snapshot, Accessibility accessibility) {
+        WaveletId waveletId = snapshot.getWaveletId();
+        String id = ModernIdSerialiser.INSTANCE.serialiseWaveletId(waveletId);
+        channelsToBind.put(id, channel);
+        if (waveView.getWavelet(waveletId) != null) {
+          bind(id);
+        } else {
+          waveView.addWavelet(operationalizer.operationalize(snapshot));
+        }
+      }
+
+      @Override
+      public void onOperationChannelRemoved(OperationChannel channel, WaveletId waveletId) {
+      }
+    });
+    mux.setWaveView(waveView);
+
+    Collection<KnownWavelet> knownWavelets = new ArrayList<>();
+    for (ObservableWaveletFragmentData wavelet : operationalizer.getWavelets()) {
+      knownWavelets.add(
+          new KnownWavelet(wavelet, wavelet.getHashedVersion(), Accessibility.READ_WRITE));
+    }
+    Map<WaveletId, Set<SegmentId>> knownSegmentIds = new HashMap<>();
+    OpBasedWavelet root = waveView.getWavelet(waveView.getRootId());
+    if (root != null) {
+      ObservableWaveletFragmentData rootData =
+          (ObservableWaveletFragmentData) root.getWaveletData();
+      knownSegmentIds.put(rootData.getWaveletId(), rootData.getSegmentIds());
+    }
+    mux.open(knownWavelets, knownSegmentIds, new OperationChannelMultiplexer.StreamListener() {
+
+      @Override
+      public void onConnected() {
+        if (!closed && !opened) {
+          opened = true;
+          tracker.onWaveOpened(System.nanoTime() - startNanos);
+          listener.onOpened();
+        }
+      }
+
+      @Override
+      public void onFailed(ReturnStatus detail) {
+        if (!closed) {
+          opened = false;
+          listener.onFailed("Wave " + waveId + " failed: " + detail);
+        }
+      }
+
+      @Override
+      public void onException(ChannelException ex) {
+        if (!closed) {
+          opened = false;
+          listener.onFailed("Wave " + waveId + " failed: " + ex.getMessage());
+        }
+      }
+    });
+  }
+
+  /**
+   * Connects sinks of the wavelet with its operation channel, as
+   * {@code StaticChannelBinder} does, but without flushing of editors.
+   */
+  private void bind(String waveletId) {
+    final OperationChannel channel = channelsToBind.remove(waveletId);
+    Pair<SilentOperationSink<WaveletOperation>, ProxyOperationSink<WaveletOperation>> sinks =
+        operationalizer.getSinks(waveletId);
+    final SilentOperationSink<WaveletOperation> executor = sinks.first;
+    OperationSucker.start(channel, new FlushingOperationSink<WaveletOperation>() {
+
+      @Override
+      public void consume(WaveletOperation op) {
+        executor.consume(op);
+      }
+
+      @Override
+      public boolean flush(WaveletOperation op, Runnable resume) {
+        return true;
+      }
+    });
+    sinks.second.setTarget(new SilentOperationSink<WaveletOperation>() {
+
+      @Override
+      public void consume(WaveletOperation op) {
+        try {
+          channel.send(op);
+        } catch (ChannelException ex) {
+          throw new RuntimeException("Send failed, channel is broken", ex);
+        }
+      }
+    });
+  }
+}
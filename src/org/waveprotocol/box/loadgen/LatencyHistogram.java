@@ -0,0 +1,149 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.waveprotocol.box.loadgen;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Distribution of latencies in microseconds.
+ *
+ * Values are counted in buckets with a relative width of about 3%, so the
+ * histogram has a fixed size independent of the count of values and may be
+ * updated concurrently without locking.
+ *
+ * @author akaplanov@gmail.com (A. Kaplanov)
+ */
+public final class LatencyHistogram {
+
+  /** Values below this are counted exactly. */
+  private static final int LINEAR_LIMIT = 64;
+
+  /** Count of buckets in every power of two above the linear range. */
+  private static final int SUB_BUCKETS = 32;
+
+  private static final int BUCKET_COUNT = LINEAR_LIMIT + (63 - 6) * SUB_BUCKETS;
+
+  private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong sum = new AtomicLong();
+  private final AtomicLong max = new AtomicLong();
+
+  /**
+   * Records the latency.
+   *
+   * @param micros the latency in microseconds, negative values are counted
+   *        as zero.
+   */
+  public void record(long micros) {
+    long value = Math.max(micros, 0);
+    buckets.incrementAndGet(bucketOf(value));
+    count.incrementAndGet();
+    sum.addAndGet(value);
+    long currentMax;
+    while ((currentMax = max.get()) < value && !max.compareAndSet(currentMax, value)) {
+    }
+  }
+
+  public long getCount() {
+    return count.get();
+  }
+
+  /**
+   * @return the mean latency in microseconds, or 0 if there are no values.
+   */
+  public long getMean() {
+    long n = count.get();
+    return n != 0 ? sum.get() / n : 0;
+  }
+
+  public long getMax() {
+    return max.get();
+  }
+
+  /**
+   * Gets the latency which isn't exceeded by the given fraction of values.
+   *
+   * @param fraction the fraction from 0 to 1, e.g. 0.99 for 99th percentile.
+   * @return the upper bound of the bucket containing the percentile, or 0 if
+   *         there are no values.
+   */
+  public long getPercentile(double fraction) {
+    long n = count.get();
+    if (n == 0) {
+      return 0;
+    }
+    long rank = Math.max((long) Math.ceil(fraction * n), 1);
+    long seen = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      seen += buckets.get(i);
+      if (seen >= rank) {
+        return Math.min(upperBoundOf(i), max.get());
+      }
+    }
+    return max.get();
+  }
+
+  /**
+   * Adds values of other histogram to this one.
+   */
+  public void add(LatencyHistogram other) {
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      long n = other.buckets.get(i);
+      if (n != 0) {
+        buckets.addAndGet(i, n);
+      }
+    }
+    count.addAndGet(other.count.get());
+    sum.addAndGet(other.sum.get());
+    long otherMax = other.max.get();
+    long currentMax;
+    while ((currentMax = max.get()) < otherMax && !max.compareAndSet(currentMax, otherMax)) {
+    }
+  }
+
+  /**
+   * Formats count and main percentiles in milliseconds.
+   */
+  public String toSummaryString() {
+    return String.format("n=%d mean=%.1f p50=%.1f p90=%.1f p99=%.1f p99.9=%.1f max=%.1f ms",
+        getCount(), millis(getMean()), millis(getPercentile(0.5)), millis(getPercentile(0.9)),
+        millis(getPercentile(0.99)), millis(getPercentile(0.999)), millis(getMax()));
+  }
+
+  static int bucketOf(long value) {
+    if (value < LINEAR_LIMIT) {
+      return (int) value;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    int shift = exponent - 5;
+    int subBucket = (int) (value >>> shift) - SUB_BUCKETS;
+    return LINEAR_LIMIT + (exponent - 6) * SUB_BUCKETS + subBucket;
+  }
+
+  static long upperBoundOf(int bucket) {
+    if (bucket < LINEAR_LIMIT) {
+      return bucket;
+    }
+    int exponent = (bucket - LINEAR_LIMIT) / SUB_BUCKETS + 6;
+    int subBucket = (bucket - LINEAR_LIMIT) % SUB_BUCKETS;
+    int shift = exponent - 5;
+    return ((long) (subBucket + SUB_BUCKETS + 1) << shift) - 1;
+  }
+
+  private static double millis(long micros) {
+    return micros / 1000.0;
+  }
+}
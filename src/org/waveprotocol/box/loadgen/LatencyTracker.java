@@ -0,0 +1,178 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.waveprotocol.box.loadgen;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import org.waveprotocol.wave.model.id.WaveletName;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Collects latencies of all simulated users.
+ *
+ * The submit-to-ack latency is measured by the submitting user. The
+ * submit-to-remote-update latency is measured from the submission by one user
+ * to the receipt of the delta by each other user of the wave. The delta is
+ * identified by the wavelet and the resulting version, which the submitter
+ * learns from the ack, so updates received before the ack are kept until the
+ * ack.
+ *
+ * @author akaplanov@gmail.com (A. Kaplanov)
+ */
+final class LatencyTracker {
+
+  /**
+   * Statistics of some period.
+   */
+  static final class Stats {
+    final LatencyHistogram ackLatency = new LatencyHistogram();
+    final LatencyHistogram remoteLatency = new LatencyHistogram();
+    final LatencyHistogram openLatency = new LatencyHistogram();
+    final AtomicLong deltasAcked = new AtomicLong();
+    final AtomicLong opsAcked = new AtomicLong();
+    final AtomicLong submitFailures = new AtomicLong();
+    final AtomicLong remoteUpdates = new AtomicLong();
+    final long startNanos = System.nanoTime();
+  }
+
+  /** Time while the submission is waited by receivers of the delta. */
+  private static final long CORRELATION_EXPIRATION_SEC = 120;
+
+  private final Stats total = new Stats();
+  private final AtomicReference<Stats> interval = new AtomicReference<>(new Stats());
+
+  /** Submission times of acknowledged deltas. */
+  private final Cache<String, Long> submissions = CacheBuilder.newBuilder()
+      .expireAfterWrite(CORRELATION_EXPIRATION_SEC, TimeUnit.SECONDS).build();
+
+  /** Receipt times of deltas not acknowledged yet. Guarded by itself. */
+  private final Cache<String, List<Long>> earlyReceipts = CacheBuilder.newBuilder()
+      .expireAfterWrite(CORRELATION_EXPIRATION_SEC, TimeUnit.SECONDS).build();
+
+  /**
+   * Records the ack of the submitted delta.
+   *
+   * @param waveletName the wavelet of the delta.
+   * @param resultingVersion the version of the wavelet after the delta.
+   * @param opsApplied count of applied operations.
+   * @param submitNanos the time of submission, by {@link System#nanoTime()}.
+   * @param ackNanos the time of ack receipt.
+   */
+  void onAcknowledged(WaveletName waveletName, long resultingVersion, int opsApplied,
+      long submitNanos, long ackNanos) {
+    long ackMicros = toMicros(ackNanos - submitNanos);
+    total.ackLatency.record(ackMicros);
+    total.deltasAcked.incrementAndGet();
+    total.opsAcked.addAndGet(opsApplied);
+    Stats current = interval.get();
+    current.ackLatency.record(ackMicros);
+    current.deltasAcked.incrementAndGet();
+    current.opsAcked.addAndGet(opsApplied);
+
+    String key = key(waveletName, resultingVersion);
+    List<Long> receipts;
+    synchronized (earlyReceipts) {
+      submissions.put(key, submitNanos);
+      receipts = earlyReceipts.getIfPresent(key);
+      earlyReceipts.invalidate(key);
+    }
+    if (receipts != null) {
+      for (long receiptNanos : receipts) {
+        recordRemoteLatency(toMicros(receiptNanos - submitNanos));
+      }
+    }
+  }
+
+  /**
+   * Records the failure of submission.
+   */
+  void onSubmitFailed() {
+    total.submitFailures.incrementAndGet();
+    interval.get().submitFailures.incrementAndGet();
+  }
+
+  /**
+   * Records the receipt of the delta submitted by other user.
+   *
+   * @param waveletName the wavelet of the delta.
+   * @param resultingVersion the version of the wavelet after the delta.
+   * @param receiptNanos the time of receipt, by {@link System#nanoTime()}.
+   */
+  void onRemoteUpdate(WaveletName waveletName, long resultingVersion, long receiptNanos) {
+    String key = key(waveletName, resultingVersion);
+    Long submitNanos;
+    synchronized (earlyReceipts) {
+      submitNanos = submissions.getIfPresent(key);
+      if (submitNanos == null) {
+        List<Long> receipts = earlyReceipts.getIfPresent(key);
+        if (receipts == null) {
+          receipts = new ArrayList<>(1);
+          earlyReceipts.put(key, receipts);
+        }
+        receipts.add(receiptNanos);
+      }
+    }
+    if (submitNanos != null) {
+      recordRemoteLatency(toMicros(receiptNanos - submitNanos));
+    }
+  }
+
+  /**
+   * Records the time of opening of a wave.
+   */
+  void onWaveOpened(long openNanos) {
+    long micros = toMicros(openNanos);
+    total.openLatency.record(micros);
+    interval.get().openLatency.record(micros);
+  }
+
+  /**
+   * @return statistics from the start.
+   */
+  Stats getTotal() {
+    return total;
+  }
+
+  /**
+   * Finishes the current interval and starts the next one.
+   *
+   * @return statistics of the finished interval.
+   */
+  Stats nextInterval() {
+    return interval.getAndSet(new Stats());
+  }
+
+  private void recordRemoteLatency(long micros) {
+    total.remoteLatency.record(micros);
+    total.remoteUpdates.incrementAndGet();
+    Stats current = interval.get();
+    current.remoteLatency.record(micros);
+    current.remoteUpdates.incrementAndGet();
+  }
+
+  private static String key(WaveletName waveletName, long version) {
+    return waveletName.toString() + "@" + version;
+  }
+
+  private static long toMicros(long nanos) {
+    return TimeUnit.NANOSECONDS.toMicros(nanos);
+  }
+}
@@ -0,0 +1,196 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.waveprotocol.box.loadgen;
+
+import org.waveprotocol.box.expimp.Console;
+import org.waveprotocol.wave.concurrencycontrol.channel.ViewChannelImpl;
+import org.waveprotocol.wave.model.wave.ParticipantId;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Generates load on the server by simulated users working with waves through
+ * the client concurrency control stack, and reports latencies of deltas and
+ * throughput of the server.
+ *
+ * @author akaplanov@gmail.com (A. Kaplanov)
+ */
+public final class LoadGenerator {
+
+  private final URL serverUrl;
+  private final LoadProfile profile = new LoadProfile();
+  private final LatencyTracker tracker = new LatencyTracker();
+  private final List<SimulatedUser> users = new ArrayList<>();
+  private final List<EventLoop> loops = new ArrayList<>();
+
+  static public void usageError() {
+    Console.println("Use: LoadGenerator <server URL>\n"
+      + "   [-users           Count of simulated users]\n"
+      + "   [-users_per_wave  Count of users working with one wave]\n"
+      + "   [-user_prefix     Prefix of user names, users are <prefix><N>@<domain>]\n"
+      + "   [-password        Password of users]\n"
+      + "   [-no_register     Don't register users, they exist]\n"
+      + "   [-wave_domain     Wave domain of users, host of the URL by default]\n"
+      + "   [-threads         Count of event loops of users]\n"
+      + "   [-duration        Duration of the load in seconds]\n"
+      + "   [-ramp_up         Time in seconds during which users are started]\n"
+      + "   [-type_rate       Typed words per second by each user]\n"
+      + "   [-reply_rate      Replies per minute by each user]\n"
+      + "   [-reopen_rate     Reopenings of the wave per minute by each user]\n"
+      + "   [-report_interval Interval of reports in seconds]");
+    System.exit(1);
+  }
+
+  public static void main(String[] args) throws InterruptedException {
+    if (args.length < 1) {
+      usageError();
+    }
+    LoadGenerator generator = null;
+    try {
+      generator = new LoadGenerator(new URL(args[0]));
+    } catch (MalformedURLException ex) {
+      usageError();
+    }
+    LoadProfile profile = generator.profile;
+    profile.waveDomain = generator.serverUrl.getHost();
+    try {
+      for (int i = 1; i < args.length;) {
+        if (args[i].equals("-users")) {
+          profile.userCount = Integer.parseInt(args[++i]);
+        } else if (args[i].equals("-users_per_wave")) {
+          profile.usersPerWave = Integer.parseInt(args[++i]);
+        } else if (args[i].equals("-user_prefix")) {
+          profile.userPrefix = args[++i];
+        } else if (args[i].equals("-password")) {
+          profile.password = args[++i];
+        } else if (args[i].equals("-no_register")) {
+          profile.register = false;
+        } else if (args[i].equals("-wave_domain")) {
+          profile.waveDomain = args[++i];
+        } else if (args[i].equals("-threads")) {
+          profile.threadCount = Integer.parseInt(args[++i]);
+        } else if (args[i].equals("-duration")) {
+          profile.durationSec = Integer.parseInt(args[++i]);
+        } else if (args[i].equals("-ramp_up")) {
+          profile.rampUpSec = Integer.parseInt(args[++i]);
+        } else if (args[i].equals("-type_rate")) {
+          profile.typeRate = Double.parseDouble(args[++i]);
+        } else if (args[i].equals("-reply_rate")) {
+          profile.replyRate = Double.parseDouble(args[++i]);
+        } else if (args[i].equals("-reopen_rate")) {
+          profile.reopenRate = Double.parseDouble(args[++i]);
+        } else if (args[i].equals("-report_interval")) {
+          profile.reportIntervalSec = Integer.parseInt(args[++i]);
+        } else {
+          usageError();
+        }
+        i++;
+      }
+    } catch (NumberFormatException | ArrayIndexOutOfBoundsException ex) {
+      usageError();
+    }
+    if (profile.userCount < 1 || profile.usersPerWave < 1 || profile.threadCount < 1
+        || profile.durationSec < 1 || profile.rampUpSec < 0 || profile.reportIntervalSec < 1) {
+      usageError();
+    }
+    generator.run();
+    System.exit(0);
+  }
+
+  private LoadGenerator(URL serverUrl) {
+    this.serverUrl = serverUrl;
+  }
+
+  /**
+   * Runs the load for the duration of the profile.
+   */
+  private void run() throws InterruptedException {
+    // All users of the wave work in the same JVM.
+    ViewChannelImpl.setMaxViewChannelsPerWave(Integer.MAX_VALUE);
+    for (int i = 0; i < profile.threadCount; i++) {
+      loops.add(new EventLoop("LoadGenerator-" + i));
+    }
+    List<WaveGroup> groups = new ArrayList<>();
+    for (int i = 0; i < profile.getWaveCount(); i++) {
+      groups.add(new WaveGroup());
+    }
+    for (int i = 0; i < profile.userCount; i++) {
+      groups.get(i / profile.usersPerWave).addParticipant(
+          ParticipantId.ofUnsafe(profile.getUserAddress(i)));
+    }
+    for (int i = 0; i < profile.userCount; i++) {
+      users.add(new SimulatedUser(ParticipantId.ofUnsafe(profile.getUserAddress(i)),
+          profile.password, serverUrl, profile, groups.get(i / profile.usersPerWave),
+          i % profile.usersPerWave == 0, loops.get(i % loops.size()), tracker));
+    }
+
+    Console.println("Starting " + profile.userCount + " users on " + profile.getWaveCount()
+        + " waves of " + serverUrl);
+    ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    long rampUpStepMs = TimeUnit.SECONDS.toMillis(profile.rampUpSec) / profile.userCount;
+    for (int i = 0; i < users.size(); i++) {
+      final SimulatedUser user = users.get(i);
+      scheduler.schedule(new Runnable() {
+
+        @Override
+        public void run() {
+          user.start();
+        }
+      }, i * rampUpStepMs, TimeUnit.MILLISECONDS);
+    }
+    scheduler.scheduleAtFixedRate(new Runnable() {
+
+      @Override
+      public void run() {
+        report("Interval", tracker.nextInterval());
+      }
+    }, profile.reportIntervalSec, profile.reportIntervalSec, TimeUnit.SECONDS);
+
+    TimeUnit.SECONDS.sleep(profile.durationSec);
+
+    scheduler.shutdownNow();
+    for (SimulatedUser user : users) {
+      user.stop();
+    }
+    Console.println();
+    report("Total", tracker.getTotal());
+    for (EventLoop loop : loops) {
+      loop.shutdown();
+    }
+  }
+
+  private void report(String title, LatencyTracker.Stats stats) {
+    int openedUsers = 0;
+    for (SimulatedUser user : users) {
+      if (user.isOpened()) {
+        openedUsers++;
+      }
+    }
+    double seconds = (System.nanoTime() - stats.startNanos) / 1e9;
+    Console.println(String.format("%s %.0fs: %d/%d users on waves, %.1f deltas/s, %.1f ops/s, "
+        + "%d failed submits", title, seconds, openedUsers, users.size(),
+        stats.deltasAcked.get() / seconds, stats.opsAcked.get() / seconds,
+        stats.submitFailures.get()));
+    Console.println("  submit to ack:           " + stats.ackLatency.toSummaryString());
+    Console.println("  submit to remote update: " + stats.remoteLatency.toSummaryString());
+    Console.println("  open of wave:            " + stats.openLatency.toSummaryString());
+  }
+}
@@ -0,0 +1,64 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.waveprotocol.box.loadgen;
+
+/**
+ * Settings of the load.
+ *
+ * Rates are average rates of the Poisson processes of actions of every user.
+ *
+ * @author akaplanov@gmail.com (A. Kaplanov)
+ */
+final class LoadProfile {
+  int userCount = 10;
+  int usersPerWave = 5;
+  String userPrefix = "loadgen";
+  String password = "loadgen";
+  String waveDomain;
+  boolean register = true;
+  int threadCount = Runtime.getRuntime().availableProcessors();
+
+  /** Duration of the load in seconds, including the ramp-up. */
+  int durationSec = 300;
+
+  /** Time in seconds during which users are started one by one. */
+  int rampUpSec = 30;
+
+  /** Typed words per second. */
+  double typeRate = 1;
+
+  /** Replies per minute. */
+  double replyRate = 2;
+
+  /** Reopenings of the wave per minute. */
+  double reopenRate = 0.5;
+
+  /** Interval of reports in seconds. */
+  int reportIntervalSec = 10;
+
+  /**
+   * @return the address of the user with the index.
+   */
+  String getUserAddress(int index) {
+    return userPrefix + index + "@" + waveDomain;
+  }
+
+  /**
+   * @return count of the waves, every wave has its group of users.
+   */
+  int getWaveCount() {
+    return (userCount + usersPerWave - 1) / usersPerWave;
+  }
+}
@@ -0,0 +1,458 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.waveprotocol.box.loadgen;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.protobuf.RpcCallback;
+import com.google.protobuf.RpcController;
+
+import org.waveprotocol.box.server.rpc.WebSocketClientRpcChannel;
+import org.waveprotocol.box.server.serialize.OperationSerializer;
+import org.waveprotocol.wave.clientserver.ClientServer.CloseWaveletChannelRequest;
+import org.waveprotocol.wave.clientserver.ClientServer.DeltaSubmissionService;
+import org.waveprotocol.wave.clientserver.ClientServer.EmptyResponse;
+import org.waveprotocol.wave.clientserver.ClientServer.FetchFragmentsRequest;
+import org.waveprotocol.wave.clientserver.ClientServer.FetchFragmentsResponse;
+import org.waveprotocol.wave.clientserver.ClientServer.FetchService;
+import org.waveprotocol.wave.clientserver.ClientServer.FetchWaveViewRequest;
+import org.waveprotocol.wave.clientserver.ClientServer.FetchWaveViewResponse;
+import org.waveprotocol.wave.clientserver.ClientServer.FetchWaveViewResponse.WaveletFragment;
+import org.waveprotocol.wave.clientserver.ClientServer.OpenWaveletChannelRequest;
+import org.waveprotocol.wave.clientserver.ClientServer.OpenWaveletChannelStream;
+import org.waveprotocol.wave.clientserver.ClientServer.OpenWaveletChannelStream.ChannelOpen;
+import org.waveprotocol.wave.clientserver.ClientServer.OpenWaveletChannelStream.WaveletUpdate;
+import org.waveprotocol.wave.clientserver.ClientServer.ResponseStatus;
+import org.waveprotocol.wave.clientserver.ClientServer.SegmentFragment;
+import org.waveprotocol.wave.clientserver.ClientServer.SegmentOperation;
+import org.waveprotocol.wave.clientserver.ClientServer.SegmentSnapshot;
+import org.waveprotocol.wave.clientserver.ClientServer.SubmitDeltaRequest;
+import org.waveprotocol.wave.clientserver.ClientServer.SubmitDeltaResponse;
+import org.waveprotocol.wave.clientserver.ClientServer.WaveletChannelService;
+import org.waveprotocol.wave.clientserver.ReturnCode;
+import org.waveprotocol.wave.clientserver.ReturnStatus;
+import org.waveprotocol.wave.communication.Blob;
+import org.waveprotocol.wave.concurrencycontrol.channel.WaveViewService;
+import org.waveprotocol.wave.model.id.IdFilter;
+import org.waveprotocol.wave.model.id.InvalidIdException;
+import org.waveprotocol.wave.model.id.ModernIdSerialiser;
+import org.waveprotocol.wave.model.id.SegmentId;
+import org.waveprotocol.wave.model.id.WaveId;
+import org.waveprotocol.wave.model.id.WaveletId;
+import org.waveprotocol.wave.model.id.WaveletName;
+import org.waveprotocol.wave.model.operation.OperationException;
+import org.waveprotocol.wave.model.operation.OperationRuntimeException;
+import org.waveprotocol.wave.model.operation.wave.TransformedWaveletDelta;
+import org.waveprotocol.wave.model.operation.wave.WaveletDelta;
+import org.waveprotocol.wave.model.operation.wave.WaveletOperationContext;
+import org.waveprotocol.wave.model.raw.RawBlipSnapshot;
+import org.waveprotocol.wave.model.raw.RawFragment;
+import org.waveprotocol.wave.model.raw.RawIndexSnapshot;
+import org.waveprotocol.wave.model.raw.RawOperation;
+import org.waveprotocol.wave.model.raw.RawParticipantsSnapshot;
+import org.waveprotocol.wave.model.raw.RawSnapshot;
+import org.waveprotocol.wave.model.raw.serialization.GsonSerializer;
+import org.waveprotocol.wave.model.version.HashedVersion;
+import org.waveprotocol.wave.model.wave.ParticipantId;
+import org.waveprotocol.wave.model.wave.data.DocumentFactory;
+import org.waveprotocol.wave.model.wave.data.ObservableWaveletData;
+import org.waveprotocol.wave.model.wave.data.impl.WaveViewDataImpl;
+import org.waveprotocol.wave.model.wave.data.impl.WaveletFragmentDataImpl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ * Implements the {@link WaveViewService} by protobuf RPCs over the websocket,
+ * as {@code RemoteWaveViewService} does in the web client.
+ *
+ * Responses are passed to callbacks on the event loop of the user. Times of
+ * submissions and receipts are taken on arrival to the RPC thread, so they
+ * don't include the wait in the loop queue.
+ *
+ * @author akaplanov@gmail.com (A. Kaplanov)
+ */
+final class RpcWaveViewService implements WaveViewService {
+
+  private final WaveId waveId;
+  private final WebSocketClientRpcChannel channel;
+  private final DocumentFactory<?> docFactory;
+  private final Executor loop;
+  private final LatencyTracker tracker;
+  private final FetchService fetchService;
+  private final WaveletChannelService waveletChannelService;
+  private final DeltaSubmissionService deltaSubmissionService;
+
+  /** Wavelets of opened channels, for correlation of updates. */
+  private final Map<String, WaveletName> channelWavelets = new HashMap<>();
+
+  private volatile boolean shutdowned = false;
+
+  RpcWaveViewService(WaveId waveId, WebSocketClientRpcChannel channel,
+      DocumentFactory<?> docFactory, Executor loop, LatencyTracker tracker) {
+    this.waveId = waveId;
+    this.channel = channel;
+    this.docFactory = docFactory;
+    this.loop = loop;
+    this.tracker = tracker;
+    this.fetchService = FetchService.newStub(channel);
+    this.waveletChannelService = WaveletChannelService.newStub(channel);
+    this.deltaSubmissionService = DeltaSubmissionService.newStub(channel);
+  }
+
+  @Override
+  public void viewFetchWave(IdFilter waveletFilter, boolean fromLastRead, int minBlipReplySize,
+      int maxBlipReplySize, int maxBlipCount, final FetchWaveCallback callback) {
+    Preconditions.checkArgument(!shutdowned, "Is shut down");
+    FetchWaveViewRequest.Builder request = FetchWaveViewRequest.newBuilder();
+    request.setWaveId(ModernIdSerialiser.INSTANCE.serialiseWaveId(waveId));
+    for (WaveletId waveletId : waveletFilter.getIds()) {
+      request.addWaveletId(ModernIdSerialiser.INSTANCE.serialiseWaveletId(waveletId));
+    }
+    for (String prefix : waveletFilter.getPrefixes()) {
+      request.addWaveletIdPrefix(prefix);
+    }
+    request.setFromLastRead(fromLastRead);
+    request.setMinBlipReplySize(minBlipReplySize);
+    request.setMaxBlipReplySize(maxBlipReplySize);
+    request.setMaxBlipCount(maxBlipCount);
+    final RpcController controller = channel.newRpcController();
+    fetchService.fetchWaveView(controller, request.build(),
+        new RpcCallback<FetchWaveViewResponse>() {
+
+          @Override
+          public void run(final FetchWaveViewResponse response) {
+            post(new Runnable() {
+
+              @Override
+              public void run() {
+                ReturnStatus status = deserialize(controller, response);
+                if (status.getCode() == ReturnCode.OK) {
+                  List<ObservableWaveletData> wavelets = new ArrayList<>();
+                  for (WaveletFragment wavelet : response.getWaveletList()) {
+                    wavelets.add(deserialize(wavelet));
+                  }
+                  callback.onSuccess(WaveViewDataImpl.create(waveId, wavelets));
+                } else {
+                  callback.onFailure(status);
+                }
+              }
+            });
+          }
+        });
+  }
+
+  @Override
+  public void viewFetchFragments(WaveletId waveletId, Map<SegmentId, Long> segments,
+      long endVersion, int minReplySize, int maxReplySize, final FetchFragmentsCallback callback) {
+    Preconditions.checkArgument(!shutdowned, "Is shut down");
+    FetchFragmentsRequest.Builder request = FetchFragmentsRequest.newBuilder();
+    request.setWaveletName(
+        ModernIdSerialiser.INSTANCE.serialiseWaveletName(WaveletName.of(waveId, waveletId)));
+    for (Map.Entry<SegmentId, Long> segment : segments.entrySet()) {
+      request.addSegmentBuilder().setSegmentId(segment.getKey().serialize())
+          .setStartVersion(segment.getValue());
+    }
+    request.setEndVersion(endVersion);
+    request.setMinReplySize(minReplySize);
+    request.setMaxReplySize(maxReplySize);
+    final RpcController controller = channel.newRpcController();
+    fetchService.fetchFragments(controller, request.build(),
+        new RpcCallback<FetchFragmentsResponse>() {
+
+          @Override
+          public void run(final FetchFragmentsResponse response) {
+            post(new Runnable() {
+
+              @Override
+              public void run() {
+                ReturnStatus status = deserialize(controller, response);
+                if (status.getCode() == ReturnCode.OK) {
+                  Map<SegmentId, RawFragment> fragments = new HashMap<>();
+                  for (SegmentFragment fragment : response.getFragmentList()) {
+                    fragments.put(SegmentId.of(fragment.getSegmentId()), deserialize(fragment));
+                  }
+                  callback.onSuccess(fragments);
+                } else {
+                  callback.onFailure(status);
+                }
+              }
+            });
+          }
+        });
+  }
+
+  @Override
+  public void viewOpenWaveletChannel(WaveletId waveletId, Set<SegmentId> segmentIds,
+      List<HashedVersion> knownVersions, WaveletDelta unacknowledgedDelta,
+      final OpenChannelStreamCallback listener) {
+    Preconditions.checkArgument(!shutdowned, "Is shut down");
+    final WaveletName waveletName = WaveletName.of(waveId, waveletId);
+    OpenWaveletChannelRequest.Builder request = OpenWaveletChannelRequest.newBuilder();
+    request.setWaveletName(ModernIdSerialiser.INSTANCE.serialiseWaveletName(waveletName));
+    if (segmentIds != null) {
+      for (SegmentId segmentId : segmentIds) {
+        request.addSegmentId(segmentId.serialize());
+      }
+    }
+    for (HashedVersion version : knownVersions) {
+      request.addKnownVersion(OperationSerializer.serialize(version));
+    }
+    if (unacknowledgedDelta != null) {
+      request.setUnacknowledgedDelta(OperationSerializer.serialize(unacknowledgedDelta));
+    }
+    final RpcController controller = channel.newRpcController();
+    waveletChannelService.open(controller, request.build(),
+        new RpcCallback<OpenWaveletChannelStream>() {
+
+          @Override
+          public void run(final OpenWaveletChannelStream response) {
+            if (response != null && response.getDeltaCount() > 0) {
+              long receiptNanos = System.nanoTime();
+              for (WaveletUpdate update : response.getDeltaList()) {
+                tracker.onRemoteUpdate(waveletName, update.getResultingVersion().getVersion(),
+                    receiptNanos);
+              }
+            }
+            post(new Runnable() {
+
+              @Override
+              public void run() {
+                onOpenResponse(controller, response, waveletName, listener);
+              }
+            });
+          }
+        });
+  }
+
+  private void onOpenResponse(RpcController controller, OpenWaveletChannelStream response,
+      WaveletName waveletName, OpenChannelStreamCallback listener) {
+    if (response == null) {
+      String reason = controller.failed() ? controller.errorText() : "Channel is closed";
+      listener.onFailure(new ReturnStatus(ReturnCode.INTERNAL_ERROR, reason));
+    } else if (response.hasTerminator()) {
+      listener.onFailure(deserialize(response.getTerminator().getStatus()));
+    } else if (response.hasChannelOpen()) {
+      channelWavelets.put(response.getChannelId(), waveletName);
+      ChannelOpen channelOpen = response.getChannelOpen();
+      Map<SegmentId, RawFragment> fragments = new HashMap<>();
+      for (SegmentFragment fragment : channelOpen.getFragmentList()) {
+        fragments.put(SegmentId.of(fragment.getSegmentId()), deserialize(fragment));
+      }
+      listener.onWaveletOpen(response.getChannelId(),
+          OperationSerializer.deserialize(channelOpen.getConnectVersion()),
+          OperationSerializer.deserialize(channelOpen.getLastModifiedVersion()),
+          channelOpen.getLastModifiedTime(),
+          OperationSerializer.deserialize(response.getCommitVersion()),
+          channelOpen.hasUnacknowledgedDeltaVersion()
+              ? OperationSerializer.deserialize(channelOpen.getUnacknowledgedDeltaVersion())
+              : null,
+          fragments);
+    } else {
+      List<TransformedWaveletDelta> deltas = new ArrayList<>();
+      for (WaveletUpdate update : response.getDeltaList()) {
+        deltas.add(OperationSerializer.deserialize(update.getDelta(),
+            OperationSerializer.deserialize(update.getResultingVersion()),
+            update.getApplicationTimestamp()));
+      }
+      listener.onUpdate(deltas, response.hasCommitVersion()
+          ? OperationSerializer.deserialize(response.getCommitVersion()) : null);
+    }
+  }
+
+  @Override
+  public void viewSubmit(String channelId, WaveletDelta delta, final SubmitCallback callback) {
+    Preconditions.checkArgument(!shutdowned, "Is shut down");
+    final WaveletName waveletName = channelWavelets.get(channelId);
+    SubmitDeltaRequest request = SubmitDeltaRequest.newBuilder()
+        .setChannelId(channelId)
+        .setDelta(OperationSerializer.serialize(delta))
+        .build();
+    final RpcController controller = channel.newRpcController();
+    final long submitNanos = System.nanoTime();
+    deltaSubmissionService.submit(controller, request, new RpcCallback<SubmitDeltaResponse>() {
+
+      @Override
+      public void run(final SubmitDeltaResponse response) {
+        final ReturnStatus status = deserialize(controller, response);
+        if (status.getCode() == ReturnCode.OK && response.hasHashedVersionAfterApplication()) {
+          tracker.onAcknowledged(waveletName,
+              response.getHashedVersionAfterApplication().getVersion(),
+              response.getOperationsApplied(), submitNanos, System.nanoTime());
+        } else {
+          tracker.onSubmitFailed();
+        }
+        post(new Runnable() {
+
+          @Override
+          public void run() {
+            if (response == null) {
+              callback.onFailure(status);
+            } else {
+              HashedVersion resultVersion = response.hasHashedVersionAfterApplication()
+                  ? OperationSerializer.deserialize(response.getHashedVersionAfterApplication())
+                  : HashedVersion.unsigned(0);
+              callback.onResponse(response.getOperationsApplied(), resultVersion,
+                  response.getTimestampAfterApplication(), status);
+            }
+          }
+        });
+      }
+    });
+  }
+
+  @Override
+  public void viewChannelClose(String channelId, final CloseCallback callback) {
+    Preconditions.checkArgument(!shutdowned, "Is shut down");
+    channelWavelets.remove(channelId);
+    waveletChannelService.close(channel.newRpcController(),
+        CloseWaveletChannelRequest.newBuilder().setChannelId(channelId).build(),
+        new RpcCallback<EmptyResponse>() {
+
+          @Override
+          public void run(EmptyResponse response) {
+            post(new Runnable() {
+
+              @Override
+              public void run() {
+                callback.onSuccess();
+              }
+            });
+          }
+        });
+  }
+
+  @Override
+  public void viewShutdown() {
+    shutdowned = true;
+  }
+
+  /**
+   * Executes the response handler on the loop, unless the service is shut
+   * down.
+   */
+  private void post(final Runnable handler) {
+    loop.execute(new Runnable() {
+
+      @Override
+      public void run() {
+        if (!shutdowned) {
+          handler.run();
+        }
+      }
+    });
+  }
+
+  //
+  // Deserialization.
+  //
+
+  private WaveletFragmentDataImpl deserialize(WaveletFragment waveletFragment) {
+    WaveletId id;
+    try {
+      id = ModernIdSerialiser.INSTANCE.deserialiseWaveletId(waveletFragment.getWaveletId());
+    } catch (InvalidIdException ex) {
+      throw new IllegalArgumentException(ex);
+    }
+    ParticipantId creator = null;
+    long creationTime = 0;
+    Map<SegmentId, RawFragment> fragments = new HashMap<>();
+    for (SegmentFragment segmentFragment : waveletFragment.getFragmentList()) {
+      RawFragment fragment = deserialize(segmentFragment);
+      SegmentId segmentId = SegmentId.of(segmentFragment.getSegmentId());
+      if (segmentId.isIndex()) {
+        creationTime = fragment.getIndexSnapshot().getCreationTime();
+      } else if (segmentId.isParticipants()) {
+        creator = fragment.getParticipantsSnapshot().getCreator();
+      }
+      fragments.put(segmentId, fragment);
+    }
+    WaveletFragmentDataImpl waveletData = new WaveletFragmentDataImpl(id, creator, creationTime,
+        OperationSerializer.deserialize(waveletFragment.getLastModifiedVersion()),
+        waveletFragment.getLastModifiedTime(), waveId, docFactory);
+    try {
+      for (Map.Entry<SegmentId, RawFragment> entry : fragments.entrySet()) {
+        waveletData.applyRawFragment(entry.getKey(), entry.getValue());
+      }
+    } catch (OperationException ex) {
+      throw new OperationRuntimeException("Fragment applying error", ex);
+    }
+    return waveletData;
+  }
+
+  private static RawFragment deserialize(SegmentFragment fragment) {
+    SegmentId segmentId = SegmentId.of(fragment.getSegmentId());
+    RawSnapshot snapshot = null;
+    if (fragment.hasSegmentSnapshot()) {
+      SegmentSnapshot segmentSnapshot = fragment.getSegmentSnapshot();
+      Blob data = new Blob(segmentSnapshot.getRawSnapshot());
+      if (segmentId.isIndex()) {
+        snapshot = new RawIndexSnapshot(GsonSerializer.INDEX_SERIALIZER, data);
+      } else if (segmentId.isParticipants()) {
+        snapshot = new RawParticipantsSnapshot(GsonSerializer.PARTICIPANTS_SERIALIZER, data);
+      } else {
+        Preconditions.checkArgument(segmentId.isBlip(), "Invalid segment type " + segmentId);
+        snapshot = new RawBlipSnapshot(GsonSerializer.BLIP_SERIALIZER, data,
+            segmentId.getBlipId());
+      }
+    }
+    ImmutableList.Builder<RawOperation> adjustOperations = ImmutableList.builder();
+    for (SegmentOperation op : fragment.getAdjustOperationList()) {
+      adjustOperations.add(deserialize(op, segmentId, true));
+    }
+    ImmutableList.Builder<RawOperation> diffOperations = ImmutableList.builder();
+    for (SegmentOperation op : fragment.getDiffOperationList()) {
+      diffOperations.add(deserialize(op, segmentId, false));
+    }
+    return new RawFragment(snapshot, adjustOperations.build(), diffOperations.build());
+  }
+
+  private static RawOperation deserialize(SegmentOperation operation, SegmentId segmentId,
+      boolean adjust) {
+    WaveletOperationContext context = new WaveletOperationContext(
+        operation.hasAuthor() ? ParticipantId.ofUnsafe(operation.getAuthor()) : null,
+        operation.getTimestamp(), operation.getTargetVersion(), adjust);
+    return new RawOperation(GsonSerializer.OPERATION_SERIALIZER,
+        new Blob(operation.getOperations()), segmentId, context);
+  }
+
+  /**
+   * Gets the status of the response, failed RPC has no response.
+   */
+  private static ReturnStatus deserialize(RpcController controller, Object response) {
+    if (response == null) {
+      return new ReturnStatus(ReturnCode.INTERNAL_ERROR,
+          controller.failed() ? controller.errorText() : "No response");
+    }
+    ResponseStatus status;
+    if (response instanceof FetchWaveViewResponse) {
+      status = ((FetchWaveViewResponse) response).getStatus();
+    } else if (response instanceof FetchFragmentsResponse) {
+      status = ((FetchFragmentsResponse) response).getStatus();
+    } else {
+      status = ((SubmitDeltaResponse) response).getStatus();
+    }
+    return deserialize(status);
+  }
+
+  private static ReturnStatus deserialize(ResponseStatus status) {
+    return new ReturnStatus(ReturnCode.of(status.getCode().getNumber()),
+        status.getFailureReason());
+  }
+}
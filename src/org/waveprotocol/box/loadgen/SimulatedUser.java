@@ -0,0 +1,413 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.waveprotocol.box.loadgen;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+
+import org.waveprotocol.box.server.authentication.HttpRequestBasedCallbackHandler;
+import org.waveprotocol.box.server.rpc.WebSocketClientRpcChannel;
+import org.waveprotocol.wave.model.conversation.ObservableConversation;
+import org.waveprotocol.wave.model.conversation.ObservableConversationBlip;
+import org.waveprotocol.wave.model.document.util.LineContainers;
+import org.waveprotocol.wave.model.document.util.XmlStringBuilder;
+import org.waveprotocol.wave.model.id.IdGenerator;
+import org.waveprotocol.wave.model.id.IdGeneratorImpl;
+import org.waveprotocol.wave.model.id.WaveId;
+import org.waveprotocol.wave.model.wave.ParticipantId;
+import org.waveprotocol.wave.util.logging.Log;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpCookie;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * User working with one wave: typing of words into own blip, replying and
+ * reopening of the wave. Actions are Poisson processes with rates of the
+ * profile.
+ *
+ * All work except creation is done on the event loop of the user.
+ *
+ * @author akaplanov@gmail.com (A. Kaplanov)
+ */
+final class SimulatedUser {
+  private static final Log LOG = Log.get(SimulatedUser.class);
+
+  private static final String SIGN_IN_PATH = "/auth/signin";
+  private static final String REGISTER_PATH = "/auth/register";
+  private static final String SESSION_COOKIE = "JSESSIONID";
+
+  /** Delay of repeat of failed opening. */
+  private static final int RETRY_DELAY_MS = 1000;
+
+  private static final String[] WORDS = {"wave", "blip", "delta", "operation", "server",
+    "client", "document", "thread", "reply", "participant", "version", "channel"};
+
+  /**
+   * Action repeated with exponentially distributed intervals.
+   */
+  private abstract class Action {
+    private final double rate;
+    private final int periodMs;
+    private ScheduledFuture<?> next;
+
+    /**
+     * @param rate count of actions per the period, zero disables the action.
+     * @param periodMs the period of the rate.
+     */
+    Action(double rate, int periodMs) {
+      this.rate = rate;
+      this.periodMs = periodMs;
+    }
+
+    abstract void run();
+
+    void schedule() {
+      cancel();
+      if (rate <= 0) {
+        return;
+      }
+      long delayMs = (long) (-Math.log(1 - random.nextDouble()) / rate * periodMs);
+      next = loop.schedule(new Runnable() {
+
+        @Override
+        public void run() {
+          next = null;
+          if (!stopped && opened && wave.isOpened()) {
+            Action.this.run();
+            if (opened) {
+              schedule();
+            }
+          }
+        }
+      }, delayMs);
+    }
+
+    void cancel() {
+      if (next != null) {
+        next.cancel(false);
+        next = null;
+      }
+    }
+  }
+
+  private final ParticipantId id;
+  private final String password;
+  private final URL serverUrl;
+  private final LoadProfile profile;
+  private final WaveGroup group;
+  private final boolean creator;
+  private final EventLoop loop;
+  private final LatencyTracker tracker;
+  private final Random random = new Random();
+  private final IdGenerator idGenerator;
+
+  private WebSocketClientRpcChannel channel;
+  private HeadlessWave wave;
+  private ObservableConversationBlip currentBlip;
+  private final Action typeAction;
+  private final Action replyAction;
+  private final Action reopenAction;
+  private volatile boolean stopped = false;
+  private volatile boolean opened = false;
+
+  SimulatedUser(ParticipantId id, String password, URL serverUrl, LoadProfile profile,
+      WaveGroup group, boolean creator, EventLoop loop, LatencyTracker tracker) {
+    this.id = id;
+    this.password = password;
+    this.serverUrl = serverUrl;
+    this.profile = profile;
+    this.group = group;
+    this.creator = creator;
+    this.loop = loop;
+    this.tracker = tracker;
+    final String seed = Long.toString(random.nextLong() & Long.MAX_VALUE, 36);
+    this.idGenerator = new IdGeneratorImpl(id.getDomain(), new IdGeneratorImpl.Seed() {
+
+      @Override
+      public String get() {
+        return seed;
+      }
+    });
+    typeAction = new Action(profile.typeRate, 1000) {
+
+      @Override
+      void run() {
+        type();
+      }
+    };
+    replyAction = new Action(profile.replyRate, 60000) {
+
+      @Override
+      void run() {
+        reply();
+      }
+    };
+    reopenAction = new Action(profile.reopenRate, 60000) {
+
+      @Override
+      void run() {
+        reopen();
+      }
+    };
+  }
+
+  /**
+   * Signs in, connects to the server and starts working with the wave of the
+   * group.
+   */
+  void start() {
+    loop.execute(new Runnable() {
+
+      @Override
+      public void run() {
+        try {
+          String token = signIn();
+          channel = new WebSocketClientRpcChannel(
+              new InetSocketAddress(serverUrl.getHost(), getPort(serverUrl)));
+          channel.authenticate(token);
+        } catch (IOException ex) {
+          LOG.warning("User " + id + " failed to connect", ex);
+          if (creator) {
+            group.setCreationFailed(ex);
+          }
+          return;
+        }
+        if (creator) {
+          createWave();
+        } else {
+          Futures.addCallback(group.getWaveId(), new FutureCallback<WaveId>() {
+
+            @Override
+            public void onSuccess(WaveId waveId) {
+              openWave(waveId);
+            }
+
+            @Override
+            public void onFailure(Throwable ex) {
+              LOG.warning("User " + id + " has no wave to open: " + ex.getMessage());
+            }
+          }, loop);
+        }
+      }
+    });
+  }
+
+  /**
+   * Stops actions and closes the connection.
+   */
+  void stop() {
+    stopped = true;
+    loop.execute(new Runnable() {
+
+      @Override
+      public void run() {
+        cancelActions();
+        if (wave != null) {
+          wave.close();
+        }
+        if (channel != null) {
+          channel.close();
+        }
+      }
+    });
+  }
+
+  /**
+   * @return true if the wave of the user is opened.
+   */
+  boolean isOpened() {
+    return opened;
+  }
+
+  private void createWave() {
+    final HeadlessWave newWave = new HeadlessWave(idGenerator.newWaveId(), id, idGenerator,
+        channel, loop, tracker);
+    wave = newWave;
+    newWave.create(group.getParticipants(), new HeadlessWave.Listener() {
+
+      @Override
+      public void onOpened() {
+        group.setWaveId(newWave.getWaveId());
+        onWaveOpened();
+      }
+
+      @Override
+      public void onFailed(String reason) {
+        onWaveFailed(newWave);
+        if (group.getWaveId().isDone()) {
+          LOG.info("User " + id + " lost created wave: " + reason);
+          retryOpen(newWave);
+        } else {
+          LOG.warning("User " + id + " failed to create wave: " + reason);
+          group.setCreationFailed(new IOException(reason));
+        }
+      }
+    });
+  }
+
+  private void openWave(WaveId waveId) {
+    if (stopped) {
+      return;
+    }
+    final HeadlessWave newWave = new HeadlessWave(waveId, id, idGenerator, channel, loop, tracker);
+    wave = newWave;
+    newWave.open(new HeadlessWave.Listener() {
+
+      @Override
+      public void onOpened() {
+        onWaveOpened();
+      }
+
+      @Override
+      public void onFailed(String reason) {
+        LOG.info("User " + id + " failed to open wave: " + reason);
+        onWaveFailed(newWave);
+        retryOpen(newWave);
+      }
+    });
+  }
+
+  /**
+   * Opens the failed wave again after a delay.
+   */
+  private void retryOpen(final HeadlessWave failedWave) {
+    loop.schedule(new Runnable() {
+
+      @Override
+      public void run() {
+        if (wave == failedWave) {
+          openWave(failedWave.getWaveId());
+        }
+      }
+    }, RETRY_DELAY_MS);
+  }
+
+  private void onWaveOpened() {
+    opened = true;
+    currentBlip = null;
+    typeAction.schedule();
+    replyAction.schedule();
+    reopenAction.schedule();
+  }
+
+  private void onWaveFailed(HeadlessWave failedWave) {
+    opened = false;
+    cancelActions();
+    failedWave.close();
+  }
+
+  /**
+   * Appends a word to the current blip.
+   */
+  private void type() {
+    if (currentBlip == null) {
+      ObservableConversation conversation = wave.getConversation();
+      currentBlip = conversation.getRootThread().appendBlip();
+    }
+    String word = WORDS[random.nextInt(WORDS.length)] + " ";
+    LineContainers.appendToLastLine(currentBlip.getDocument(), XmlStringBuilder.createText(word));
+  }
+
+  /**
+   * Replies to the current blip or to the conversation.
+   */
+  private void reply() {
+    if (currentBlip != null && random.nextBoolean()) {
+      currentBlip = currentBlip.addReplyThread().appendBlip();
+    } else {
+      currentBlip = wave.getConversation().getRootThread().appendBlip();
+    }
+    LineContainers.appendToLastLine(currentBlip.getDocument(),
+        XmlStringBuilder.createText(WORDS[random.nextInt(WORDS.length)] + " "));
+  }
+
+  /**
+   * Closes the wave and opens it again, as on reload of the web page.
+   */
+  private void reopen() {
+    opened = false;
+    cancelActions();
+    wave.close();
+    openWave(wave.getWaveId());
+  }
+
+  private void cancelActions() {
+    typeAction.cancel();
+    replyAction.cancel();
+    reopenAction.cancel();
+  }
+
+  //
+  // Authentication.
+  //
+
+  /**
+   * Registers the account if needed and signs in.
+   *
+   * @return the session token.
+   */
+  private String signIn() throws IOException {
+    if (profile.register) {
+      // Registration fails for existing accounts, that is normal on repeated runs.
+      post(REGISTER_PATH);
+    }
+    HttpURLConnection connection = post(SIGN_IN_PATH);
+    int status = connection.getResponseCode();
+    if (status == HttpURLConnection.HTTP_MOVED_TEMP) {
+      Map<String, List<String>> headers = connection.getHeaderFields();
+      List<String> cookies = headers.get("Set-Cookie");
+      if (cookies != null) {
+        for (String header : cookies) {
+          for (HttpCookie cookie : HttpCookie.parse(header)) {
+            if (SESSION_COOKIE.equals(cookie.getName())) {
+              return cookie.getValue();
+            }
+          }
+        }
+      }
+    }
+    throw new IOException("Sign in of " + id + " failed, HTTP status " + status);
+  }
+
+  private HttpURLConnection post(String path) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) new URL(serverUrl, path).openConnection();
+    connection.setInstanceFollowRedirects(false);
+    connection.setDoOutput(true);
+    connection.setRequestMethod("POST");
+    connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+    String form = HttpRequestBasedCallbackHandler.ADDRESS_FIELD + "="
+        + URLEncoder.encode(id.getAddress(), "UTF-8") + "&"
+        + HttpRequestBasedCallbackHandler.PASSWORD_FIELD + "="
+        + URLEncoder.encode(password, "UTF-8");
+    try (OutputStream out = connection.getOutputStream()) {
+      out.write(form.getBytes("UTF-8"));
+    }
+    connection.getResponseCode();
+    return connection;
+  }
+
+  private static int getPort(URL url) {
+    return url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+  }
+}
@@ -0,0 +1,61 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.waveprotocol.box.loadgen;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+import org.waveprotocol.wave.model.id.WaveId;
+import org.waveprotocol.wave.model.wave.ParticipantId;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Group of users working on the same wave. The first user of the group
+ * creates the wave, others open it after creation.
+ *
+ * @author akaplanov@gmail.com (A. Kaplanov)
+ */
+final class WaveGroup {
+  private final Set<ParticipantId> participants = new LinkedHashSet<>();
+  private final SettableFuture<WaveId> waveId = SettableFuture.create();
+
+  void addParticipant(ParticipantId participant) {
+    participants.add(participant);
+  }
+
+  Set<ParticipantId> getParticipants() {
+    return participants;
+  }
+
+  /**
+   * Publishes id of the created wave.
+   */
+  void setWaveId(WaveId id) {
+    waveId.set(id);
+  }
+
+  /**
+   * Notifies of the failure of creation, so other users don't wait.
+   */
+  void setCreationFailed(Throwable cause) {
+    waveId.setException(cause);
+  }
+
+  ListenableFuture<WaveId> getWaveId() {
+    return waveId;
+  }
+}
@@ -0,0 +1,51 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.waveprotocol.box.server;
+
+import org.waveprotocol.box.server.persistence.file.FileAttachmentStore;
+import org.waveprotocol.box.server.persistence.migration.DataUtil;
+
+/**
+ * A cmd line utility to compact the file attachment store: attachments
+ * stored by id are moved to the content addressed blob store and blobs which
+ * are not referenced by attachments are removed. The server must be stopped.
+ *
+ * @author akaplanov@gmail.com (A. Kaplanov)
+ */
+public class AttachmentCompactionTool {
+
+  private static final String DEFAULT_DIRECTORY = "_attachments";
+
+  private static final String USAGE_ERROR_MESSAGE =
+      "\nUsage: AttachmentCompactionTool [<attachment store directory>]\n" +
+      "The directory is " + DEFAULT_DIRECTORY + " by default.\n";
+
+  public static void main(String[] args) {
+    if (args.length > 1) {
+      DataUtil.printAndExit(USAGE_ERROR_MESSAGE);
+    }
+    String directory = args.length == 0 ? DEFAULT_DIRECTORY : args[0];
+    try {
+      new FileAttachmentStore(directory).compact();
+    } catch (Exception e) {
+      DataUtil.printAndExit(e.getMessage() + "\n" + USAGE_ERROR_MESSAGE);
+    }
+  }
+}
@@ -62,6 +62,7 @@ public class CoreSettings {
   public static final String WELCOME_WAVE_ID = "welcome_wave_id";
   public static final String LISTENER_EXECUTOR_THREAD_COUNT = "listener_executor_thread_count";
   public static final String WAVELET_LOAD_EXECUTOR_THREAD_COUNT = "wavelet_load_executor_thread_count";
+  public static final String WAVE_WARMUP_EXECUTOR_THREAD_COUNT = "wave_warmup_executor_thread_count";
   public static final String DELTA_PERSIST_EXECUTOR_THREAD_COUNT = "delta_persist_executor_thread_count";
   public static final String SNAPSHOT_PERSIST_EXECUTOR_THREAD_COUNT = "snapshot_persist_executor_thread_count";
   public static final String BLOCK_PERSIST_EXECUTOR_THREAD_COUNT = "block_persist_executor_thread_count";
@@ -70,6 +71,20 @@ public class CoreSettings {
   public static final String LOOKUP_EXECUTOR_THREAD_COUNT = "lookup_executor_thread_count";
   public static final String ROBOT_CONNECTION_THREAD_COUNT = "robot_connection_thread_count";
   public static final String ROBOT_GATEWAY_THREAD_COUNT = "robot_gateway_thread_count";
+  public static final String REMAKE_CONTACTS_EXECUTOR_THREAD_COUNT = "remake_contacts_executor_thread_count";
+  public static final String THUMBNAIL_EXECUTOR_THREAD_COUNT = "thumbnail_executor_thread_count";
+  public static final String WAVE_BUS_EXECUTOR_THREAD_COUNT = "wave_bus_executor_thread_count";
+  public static final String WAVE_BUS_QUEUE_CAPACITY = "wave_bus_queue_capacity";
+  public static final String WAVE_BUS_SEARCH_CONCURRENCY = "wave_bus_search_concurrency";
+  public static final String WAVE_BUS_SEARCH_DELIVERIES_PER_SECOND = "wave_bus_search_deliveries_per_second";
+  public static final String WAVE_BUS_HTML_CONCURRENCY = "wave_bus_html_concurrency";
+  public static final String WAVE_BUS_HTML_DELIVERIES_PER_SECOND = "wave_bus_html_deliveries_per_second";
+  public static final String WAVE_BUS_CONTACTS_CONCURRENCY = "wave_bus_contacts_concurrency";
+  public static final String WAVE_BUS_CONTACTS_DELIVERIES_PER_SECOND = "wave_bus_contacts_deliveries_per_second";
+  public static final String SEARCH_EXECUTOR_THREAD_COUNT = "search_executor_thread_count";
+  public static final String SEARCH_SUBSCRIPTION_EXECUTOR_THREAD_COUNT = "search_subscription_executor_thread_count";
+  public static final String EXECUTOR_QUEUE_CAPACITY = "executor_queue_capacity";
+  public static final String EXECUTOR_REJECTION_POLICY = "executor_rejection_policy";
   public static final String DISABLE_REGISTRATION = "disable_registration";
   public static final String ENABLE_SSL = "enable_ssl";
   public static final String SSL_KEYSTORE_PATH = "ssl_keystore_path";
@@ -79,9 +94,14 @@ public class CoreSettings {
   public static final String DISABLE_LOGINPAGE = "disable_loginpage";
   public static final String SEARCH_TYPE = "search_type";
   public static final String INDEX_DIRECTORY = "index_directory";
+  public static final String INDEX_SHARD_COUNT = "index_shard_count";
   public static final String ANALYTICS_ACCOUNT = "analytics_account";
+  public static final String WAVE_VIEW_FETCH_CONCURRENCY = "wave_view_fetch_concurrency";
+  public static final String WAVE_WARMUP_COUNT = "wave_warmup_count";
+  public static final String WAVE_WARMUP_MIN_FREE_MEMORY = "wave_warmup_min_free_memory";
   public static final String WAVE_CACHE_SIZE = "wave_cache_size";
   public static final String WAVE_CACHE_EXPIRE = "wave_cache_expire";
+  public static final String WAVE_CACHE_MEMORY_BUDGET = "wave_cache_memory_budget";
   public static final String DELTA_STATE_CACHE_SIZE = "delta_state_cache_size";
   public static final String DELTA_STATE_CACHE_EXPIRE = "delta_state_cache_expire";
   public static final String HTML_STORE_DIRECTORY = "html_directory";
@@ -269,6 +289,11 @@ public class CoreSettings {
       defaultValue = "10")
   private static int waveletLoadExecutorThreadCount;
 
+  @Setting(name = WAVE_WARMUP_EXECUTOR_THREAD_COUNT,
+      description = "The number of low priority threads for warming up of waves.",
+      defaultValue = "2")
+  private static int waveWarmupExecutorThreadCount;
+
   @Setting(name = DELTA_PERSIST_EXECUTOR_THREAD_COUNT,
       description = "The number of threads to persist deltas.",
       defaultValue = "10")
@@ -309,6 +334,85 @@ public class CoreSettings {
       defaultValue = "10")
   private static int robotGatewayThreadCount;
 
+  @Setting(name = REMAKE_CONTACTS_EXECUTOR_THREAD_COUNT,
+      description = "The number of low priority threads for remaking of contacts from history of waves.",
+      defaultValue = "4")
+  private static int remakeContactsExecutorThreadCount;
+
+  @Setting(name = THUMBNAIL_EXECUTOR_THREAD_COUNT,
+      description = "The number of low priority threads for building of attachment thumbnails.",
+      defaultValue = "1")
+  private static int thumbnailExecutorThreadCount;
+
+  @Setting(name = WAVE_BUS_EXECUTOR_THREAD_COUNT,
+      description = "The number of threads to deliver wave bus updates to background subscribers: "
+          + "search index, HTML renderer and contacts.",
+      defaultValue = "3")
+  private static int waveBusExecutorThreadCount;
+
+  @Setting(name = WAVE_BUS_QUEUE_CAPACITY,
+      description = "The maximum number of wavelets with updates waiting for delivery to each "
+          + "background wave bus subscriber. Deltas of other wavelets are read from history "
+          + "on delivery.",
+      defaultValue = "100000")
+  private static int waveBusQueueCapacity;
+
+  @Setting(name = WAVE_BUS_SEARCH_CONCURRENCY,
+      description = "The maximum number of wavelets delivered at once to the search index.",
+      defaultValue = "2")
+  private static int waveBusSearchConcurrency;
+
+  @Setting(name = WAVE_BUS_SEARCH_DELIVERIES_PER_SECOND,
+      description = "The maximum rate of wavelet deliveries to the search index, 0 if unlimited.",
+      defaultValue = "0")
+  private static int waveBusSearchDeliveriesPerSecond;
+
+  @Setting(name = WAVE_BUS_HTML_CONCURRENCY,
+      description = "The maximum number of wavelets delivered at once to the HTML renderer.",
+      defaultValue = "1")
+  private static int waveBusHtmlConcurrency;
+
+  @Setting(name = WAVE_BUS_HTML_DELIVERIES_PER_SECOND,
+      description = "The maximum rate of wavelet deliveries to the HTML renderer, 0 if unlimited.",
+      defaultValue = "20")
+  private static int waveBusHtmlDeliveriesPerSecond;
+
+  @Setting(name = WAVE_BUS_CONTACTS_CONCURRENCY,
+      description = "The maximum number of wavelets delivered at once to the contacts recorder.",
+      defaultValue = "1")
+  private static int waveBusContactsConcurrency;
+
+  @Setting(name = WAVE_BUS_CONTACTS_DELIVERIES_PER_SECOND,
+      description = "The maximum rate of wavelet deliveries to the contacts recorder, "
+          + "0 if unlimited.",
+      defaultValue = "0")
+  private static int waveBusContactsDeliveriesPerSecond;
+
+  @Setting(name = SEARCH_EXECUTOR_THREAD_COUNT,
+      description = "The number of threads to execute search queries on shards of the index in parallel.",
+      defaultValue = "4")
+  private static int searchExecutorThreadCount;
+
+  @Setting(name = SEARCH_SUBSCRIPTION_EXECUTOR_THREAD_COUNT,
+      description = "The number of threads to repeat queries of search subscriptions on index updates.",
+      defaultValue = "4")
+  private static int searchSubscriptionExecutorThreadCount;
+
+  @Setting(name = EXECUTOR_QUEUE_CAPACITY,
+      description = "The maximum number of tasks waiting in the queue of each fixed thread pool, "
+          + "except the delta persistence pool which keeps the order of tasks. "
+          + "0 makes the queues unbounded.",
+      defaultValue = "100000")
+  private static int executorQueueCapacity;
+
+  @Setting(name = EXECUTOR_REJECTION_POLICY,
+      description = "What to do with a task when the queue of the executor is full: "
+          + "block - wait for free space (a task submitted by a thread of the same "
+          + "executor is run in that thread), caller_runs - run in the submitting thread, "
+          + "abort - reject the task.",
+      defaultValue = "block")
+  private static String executorRejectionPolicy;
+
   @Setting(name = DISABLE_REGISTRATION,
       description = "Prevents the register page from being available to anyone",
       defaultValue = FALSE)
@@ -349,6 +453,12 @@ public class CoreSettings {
       defaultValue = "_indexes")
   private static String indexDirectory;
 
+  @Setting(name = INDEX_SHARD_COUNT,
+      description = "The count of shards of a new search index. The count of shards of an existing "
+          + "index is changed by /reshard_index?shards=N",
+      defaultValue = "1")
+  private static int indexShardCount;
+
   @Setting(name = SEARCH_TYPE,
       description = "The wave search type",
       defaultValue = "lucene")
@@ -357,6 +467,22 @@ public class CoreSettings {
   @Setting(name = ANALYTICS_ACCOUNT, description = "Google analytics id")
   private static String analyticsAccount;
 
+  @Setting(name = WAVE_VIEW_FETCH_CONCURRENCY,
+      description = "The maximum number of wavelets fetched concurrently for one wave view request.",
+      defaultValue = "4")
+  private static int waveViewFetchConcurrency;
+
+  @Setting(name = WAVE_WARMUP_COUNT,
+      description = "The number of top inbox or search result waves to load in advance. "
+          + "0 disables the warm-up.",
+      defaultValue = "10")
+  private static int waveWarmupCount;
+
+  @Setting(name = WAVE_WARMUP_MIN_FREE_MEMORY,
+      description = "Minimal free heap in percents of maximal heap to start warm-up of waves.",
+      defaultValue = "25")
+  private static int waveWarmupMinFreeMemory;
+
   @Setting(name = WAVE_CACHE_SIZE,
       description = "Size of waves cache.",
       defaultValue = "1000")
@@ -367,6 +493,12 @@ public class CoreSettings {
       defaultValue = "60")
   private static int waveCacheExpire;
 
+  @Setting(name = WAVE_CACHE_MEMORY_BUDGET,
+      description = "Estimated memory in megabytes occupied by waves cache."
+          + " If 0, waves cache is limited by " + WAVE_CACHE_SIZE + ".",
+      defaultValue = "256")
+  private static int waveCacheMemoryBudget;
+
   @Setting(name = DELTA_STATE_CACHE_SIZE,
       description = "Size of delta states cache.",
       defaultValue = "100")
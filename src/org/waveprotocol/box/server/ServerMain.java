@@ -31,6 +31,7 @@ import org.waveprotocol.box.server.attachment.RobotAttachmentProvider;
 import org.waveprotocol.box.server.authentication.AccountStoreHolder;
 import org.waveprotocol.box.server.authentication.SessionManager;
 import org.waveprotocol.box.server.contact.ContactsBusSubscriber;
+import org.waveprotocol.box.server.executor.ExecutorAnnotations.WaveBusExecutor;
 import org.waveprotocol.box.server.executor.ExecutorsModule;
 import org.waveprotocol.box.server.frontend.WaveClientServerImpl;
 import org.waveprotocol.box.server.persistence.AccountStore;
@@ -66,8 +67,10 @@ import org.waveprotocol.box.server.rpc.RemakeContactsServlet;
 import org.waveprotocol.box.server.rpc.RemakeHtmlServlet;
 import org.waveprotocol.box.server.rpc.RemakeIndexServlet;
 import org.waveprotocol.box.server.rpc.RemakeStoreIndexServlet;
+import org.waveprotocol.box.server.rpc.ReshardIndexServlet;
 import org.waveprotocol.box.server.rpc.RobotsServlet;
 import org.waveprotocol.box.server.rpc.SearchServlet;
+import org.waveprotocol.box.server.rpc.SearchSubscriptionServiceImpl;
 import org.waveprotocol.box.server.rpc.SearchesServlet;
 import org.waveprotocol.box.server.rpc.ServerRpcProvider;
 import org.waveprotocol.box.server.rpc.SignOutServlet;
@@ -83,6 +86,7 @@ import org.waveprotocol.box.server.shutdown.Shutdownable;
 import org.waveprotocol.box.server.stat.RequestScopeFilter;
 import org.waveprotocol.box.server.stat.StatuszServlet;
 import org.waveprotocol.box.server.stat.TimingFilter;
+import org.waveprotocol.box.server.waveserver.QueuedWaveBusSubscriber;
 import org.waveprotocol.box.server.waveserver.WaveBus;
 import org.waveprotocol.box.server.waveserver.WaveServerException;
 import org.waveprotocol.box.server.waveserver.WaveletProvider;
@@ -100,6 +104,7 @@ import org.waveprotocol.wave.util.settings.SettingsBinder;
 import java.util.Collections;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ScheduledExecutorService;
 
 import org.apache.commons.configuration.ConfigurationException;
 
@@ -246,6 +251,7 @@ public class ServerMain {
     server.addServlet("/sitemap.txt", SitemapServlet.class);
 
     server.addServlet("/remake_index", RemakeIndexServlet.class);
+    server.addServlet("/reshard_index", ReshardIndexServlet.class);
     server.addServlet("/remake_html", RemakeHtmlServlet.class);
     server.addServlet("/remake_contacts", RemakeContactsServlet.class);
     server.addServlet("/remake_store_index/*", RemakeStoreIndexServlet.class);
@@ -291,6 +297,10 @@ public class ServerMain {
   private static void initializeFrontend(Injector injector, ServerRpcProvider server) throws WaveServerException {
     WaveClientServerImpl rpcImpl = injector.getInstance(WaveClientServerImpl.class);
     rpcImpl.registerServices(server);
+    SearchSubscriptionServiceImpl searchSubscriptionImpl =
+        injector.getInstance(SearchSubscriptionServiceImpl.class);
+    searchSubscriptionImpl.registerServices(server);
+    injector.getInstance(SearchBusSubscriber.class).addIndexListener(searchSubscriptionImpl);
   }
 
   private static void initializeFederation(Injector injector) {
@@ -301,19 +311,48 @@ public class ServerMain {
   private static void initializeSearch(Injector injector, WaveBus waveBus)
       throws WaveletStateException, WaveServerException {
     WaveBus.Subscriber subscriber = injector.getInstance(SearchBusSubscriber.class);
-    waveBus.subscribe(subscriber);
+    subscribeQueued(injector, waveBus, "Search", subscriber,
+        CoreSettings.WAVE_BUS_SEARCH_CONCURRENCY,
+        CoreSettings.WAVE_BUS_SEARCH_DELIVERIES_PER_SECOND);
   }
 
   private static void initializeHtml(Injector injector, WaveBus waveBus)
       throws WaveletStateException, WaveServerException {
     WaveBus.Subscriber subscriber = injector.getInstance(WaveHtmlRendererBusSubscriber.class);
-    waveBus.subscribe(subscriber);
+    subscribeQueued(injector, waveBus, "Html", subscriber,
+        CoreSettings.WAVE_BUS_HTML_CONCURRENCY,
+        CoreSettings.WAVE_BUS_HTML_DELIVERIES_PER_SECOND);
   }
 
   private static void initializeContacts(Injector injector, WaveBus waveBus)
       throws WaveletStateException, WaveServerException {
     WaveBus.Subscriber subscriber = injector.getInstance(ContactsBusSubscriber.class);
-    waveBus.subscribe(subscriber);
+    subscribeQueued(injector, waveBus, "Contacts", subscriber,
+        CoreSettings.WAVE_BUS_CONTACTS_CONCURRENCY,
+        CoreSettings.WAVE_BUS_CONTACTS_DELIVERIES_PER_SECOND);
+  }
+
+  /**
+   * Subscribes the background subscriber through its own queue, so the
+   * realtime subscribers are not delayed by it.
+   *
+   * @param concurrencySetting the name of setting of the maximum number of
+   *        wavelets delivered at once.
+   * @param rateSetting the name of setting of the maximum rate of deliveries,
+   *        0 if unlimited.
+   */
+  private static void subscribeQueued(Injector injector, WaveBus waveBus, String name,
+      WaveBus.Subscriber subscriber, String concurrencySetting, String rateSetting) {
+    int queueCapacity = injector.getInstance(
+        Key.get(Integer.class, Names.named(CoreSettings.WAVE_BUS_QUEUE_CAPACITY)));
+    int concurrency = injector.getInstance(Key.get(Integer.class, Names.named(concurrencySetting)));
+    int maxDeliveriesPerSecond =
+        injector.getInstance(Key.get(Integer.class, Names.named(rateSetting)));
+    ScheduledExecutorService executor =
+        injector.getInstance(Key.get(ScheduledExecutorService.class, WaveBusExecutor.class));
+    waveBus.subscribe(QueuedWaveBusSubscriber.create(name, subscriber,
+        new QueuedWaveBusSubscriber.Policy(queueCapacity, concurrency, maxDeliveriesPerSecond),
+        injector.getInstance(WaveletProvider.class), executor));
   }
 
   private static void initializeShutdownHandler(final ServerRpcProvider server) {
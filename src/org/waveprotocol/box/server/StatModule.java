@@ -23,6 +23,7 @@ import com.google.inject.Inject;
 import static com.google.inject.matcher.Matchers.annotatedWith;
 import static com.google.inject.matcher.Matchers.any;
 import com.google.inject.name.Named;
+import org.waveprotocol.box.server.stat.ConcurrentMeasurementStore;
 import org.waveprotocol.box.server.stat.MultiThreadedRequestScope;
 
 import org.waveprotocol.box.server.stat.TimingInterceptor;
@@ -50,6 +51,7 @@ public class StatModule extends AbstractModule {
       bindInterceptor(any(), annotatedWith(Timed.class), interceptor);
     }
     Timing.setScope(new MultiThreadedRequestScope());
+    Timing.setMeasurementStoreFactory(ConcurrentMeasurementStore.FACTORY);
     Timing.setEnabled(enableProfiling);
   }
 }
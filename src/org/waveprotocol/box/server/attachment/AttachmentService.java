@@ -19,20 +19,13 @@
 
 package org.waveprotocol.box.server.attachment;
 
-import com.google.common.base.Preconditions;
 import com.google.inject.Inject;
-import java.awt.Color;
-import java.awt.Graphics2D;
-import java.awt.RenderingHints;
-import java.awt.image.BufferedImage;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.awt.Dimension;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URLConnection;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import javax.imageio.ImageIO;
 import org.waveprotocol.box.attachment.AttachmentMetadata;
 import org.waveprotocol.box.attachment.ImageMetadata;
 import org.waveprotocol.box.attachment.impl.AttachmentMetadataImpl;
@@ -60,14 +53,13 @@ public class AttachmentService {
   public static final int THUMBNAIL_PATTERN_WIDTH = 95;
   public static final int THUMBNAIL_PATTERN_HEIGHT = 60;
 
-  private static final int MAX_THUMBNAIL_WIDTH = 200;
-  private static final int MAX_THUMBNAIL_HEIGHT = 200;
-
   private final AttachmentStore store;
+  private final ThumbnailBuilder thumbnailBuilder;
 
   @Inject
-  private AttachmentService(AttachmentStore store) {
+  private AttachmentService(AttachmentStore store, ThumbnailBuilder thumbnailBuilder) {
     this.store = store;
+    this.thumbnailBuilder = thumbnailBuilder;
   }
 
   public AttachmentMetadata getMetadata(AttachmentId attachmentId) throws IOException {
@@ -78,17 +70,32 @@ public class AttachmentService {
     return store.getAttachment(attachmentId);
   }
 
+  /**
+   * Fetches the thumbnail of image attachment.
+   *
+   * @return the thumbnail, or null if the thumbnail is not built yet or
+   *         could not be built. The building is scheduled in the first case.
+   */
   public AttachmentData getThumbnail(AttachmentId attachmentId) throws IOException {
-    return store.getThumbnail(attachmentId);
+    AttachmentData thumbnail = store.getThumbnail(attachmentId);
+    if (thumbnail == null) {
+      thumbnailBuilder.schedule(attachmentId);
+    }
+    return thumbnail;
   }
 
   public void storeAttachment(AttachmentId attachmentId, InputStream in, WaveletName waveletName,
       String fileName, ParticipantId creator) throws IOException {
     store.storeAttachment(attachmentId, in);
-    buildAndStoreMetadataWithThumbnail(attachmentId, waveletName, fileName, creator);
+    buildAndStoreMetadata(attachmentId, waveletName, fileName, creator);
   }
 
-  public AttachmentMetadata buildAndStoreMetadataWithThumbnail(AttachmentId attachmentId,
+  /**
+   * Builds and stores metadata of the attachment. Sizes of the image and its
+   * thumbnail are read from the image header, the thumbnail is built in
+   * background.
+   */
+  public AttachmentMetadata buildAndStoreMetadata(AttachmentId attachmentId,
       WaveletName waveletName, String fileName, ParticipantId creator) throws IOException {
     AttachmentData data = store.getAttachment(attachmentId);
     if (data == null) {
@@ -104,67 +111,31 @@ public class AttachmentService {
     metadata.setMimeType(contentType);
     metadata.setSize(data.getSize());
     metadata.setCreator((creator != null) ? creator.getAddress() : "");
-    BufferedImage image = null;
+    Dimension imageSize = null;
     try {
-      image = ImageIO.read(data.getInputStream());
+      imageSize = ThumbnailBuilder.readImageSize(data);
     } catch (Exception ex) {
       LOG.log(Level.SEVERE, "Identifying attachment", ex);
     }
-    if (image != null) {
+    ImageMetadata thumbnailMetadata = new ImageMetadataImpl();
+    if (imageSize != null && imageSize.width > 0 && imageSize.height > 0) {
       ImageMetadata imageMetadata = new ImageMetadataImpl();
-      imageMetadata.setWidth(image.getWidth());
-      imageMetadata.setHeight(image.getHeight());
+      imageMetadata.setWidth(imageSize.width);
+      imageMetadata.setHeight(imageSize.height);
       metadata.setImageMetadata(imageMetadata);
-      try {
-        BufferedImage thumbnail = makeThumbnail(image);
-        storeThumbnail(attachmentId, thumbnail);
-        ImageMetadata thumbnailMetadata = new ImageMetadataImpl();
-        thumbnailMetadata.setWidth(thumbnail.getWidth());
-        thumbnailMetadata.setHeight(thumbnail.getHeight());
-        metadata.setThumbnailMetadata(thumbnailMetadata);
-      } catch (IOException ex) {
-        LOG.log(Level.SEVERE, "Building attachment thumbnail", ex);
-      }
+      Dimension thumbnailSize = ThumbnailBuilder.getThumbnailSize(imageSize);
+      thumbnailMetadata.setWidth(thumbnailSize.width);
+      thumbnailMetadata.setHeight(thumbnailSize.height);
     } else {
-      ImageMetadata thumbnailMetadata = new ImageMetadataImpl();
       thumbnailMetadata.setWidth(THUMBNAIL_PATTERN_WIDTH);
       thumbnailMetadata.setHeight(THUMBNAIL_PATTERN_HEIGHT);
-      metadata.setThumbnailMetadata(thumbnailMetadata);
     }
+    metadata.setThumbnailMetadata(thumbnailMetadata);
     store.storeMetadata(attachmentId, metadata);
-    return metadata;
-  }
-
-  private static BufferedImage makeThumbnail(BufferedImage image) {
-    int imageWidth = image.getWidth();
-    int imageHeight = image.getHeight();
-    Preconditions.checkState(imageHeight != 0);
-    Preconditions.checkState(imageWidth != 0);
-    int thumbnailWidth = imageWidth < MAX_THUMBNAIL_WIDTH ? imageWidth : MAX_THUMBNAIL_WIDTH;
-    int thumbnailHeight = imageHeight < MAX_THUMBNAIL_HEIGHT ? imageHeight : MAX_THUMBNAIL_HEIGHT;
-    if (imageWidth * thumbnailHeight < imageHeight * thumbnailWidth) {
-      thumbnailWidth = imageWidth * thumbnailHeight / imageHeight;
-    } else {
-      thumbnailHeight = imageHeight * thumbnailWidth / imageWidth;
+    if (metadata.hasImageMetadata()) {
+      thumbnailBuilder.schedule(attachmentId);
     }
-    BufferedImage thumbnail = new BufferedImage(thumbnailWidth, thumbnailHeight, BufferedImage.TYPE_INT_RGB);
-    Graphics2D g = thumbnail.createGraphics();
-    try {
-      g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
-          RenderingHints.VALUE_INTERPOLATION_BICUBIC);
-      g.setBackground(Color.BLACK);
-      g.clearRect(0, 0, thumbnailWidth, thumbnailHeight);
-      g.drawImage(image, 0, 0, thumbnailWidth, thumbnailHeight, null);
-    } finally {
-      g.dispose();
-    }
-    return thumbnail;
-  }
-
-  private void storeThumbnail(AttachmentId attachemntId, BufferedImage thumbnail) throws IOException {
-    ByteArrayOutputStream out = new ByteArrayOutputStream();
-    ImageIO.write(thumbnail, THUMBNAIL_FORMAT_NAME, out);
-    store.storeThumnail(attachemntId, new ByteArrayInputStream(out.toByteArray()));
+    return metadata;
   }
 
   private static String waveletName2WaveRef(WaveletName waveletName) {
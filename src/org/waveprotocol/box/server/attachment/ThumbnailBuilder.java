@@ -0,0 +1,231 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.waveprotocol.box.server.attachment;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import org.waveprotocol.box.server.executor.ExecutorAnnotations.ThumbnailExecutor;
+import org.waveprotocol.box.server.persistence.AttachmentStore;
+import org.waveprotocol.box.server.persistence.AttachmentStore.AttachmentData;
+import org.waveprotocol.wave.media.model.AttachmentId;
+import org.waveprotocol.wave.util.logging.Log;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Builds thumbnails of image attachments in background.
+ *
+ * The image is decoded with subsampling close to the size of thumbnail, so
+ * the full resolution image is never held in memory. Concurrent requests of
+ * the same thumbnail are built once. The count of waiting thumbnails is
+ * limited, thumbnails beyond the limit are built on the next request.
+ * Attachments which thumbnail could not be built are remembered and not
+ * retried, the pattern is served for them.
+ *
+ * @author akaplanov@gmail.com (A. Kaplanov)
+ */
+@Singleton
+public class ThumbnailBuilder {
+  private static final Log LOG = Log.get(ThumbnailBuilder.class);
+
+  private static final int MAX_THUMBNAIL_WIDTH = 200;
+  private static final int MAX_THUMBNAIL_HEIGHT = 200;
+
+  /** Maximum count of thumbnails waiting for building. */
+  private static final int MAX_PENDING_THUMBNAILS = 100;
+
+  /** Maximum count of remembered attachments with failed thumbnail. */
+  private static final int MAX_FAILED_THUMBNAILS = 10000;
+
+  private final AttachmentStore store;
+  private final Executor executor;
+
+  /** Attachments with scheduled building of thumbnail. */
+  private final ConcurrentMap<AttachmentId, Boolean> pending = new ConcurrentHashMap<>();
+
+  /** Attachments which thumbnail failed to build. */
+  private final Cache<AttachmentId, Boolean> failed =
+      CacheBuilder.newBuilder().maximumSize(MAX_FAILED_THUMBNAILS).build();
+
+  @Inject
+  public ThumbnailBuilder(AttachmentStore store, @ThumbnailExecutor Executor executor) {
+    this.store = store;
+    this.executor = executor;
+  }
+
+  /**
+   * Reads size of the image from its header without decoding.
+   *
+   * @return the size of image, or null if the data is not an image.
+   */
+  public static Dimension readImageSize(AttachmentData data) throws IOException {
+    try (InputStream in = data.getInputStream();
+        ImageInputStream imageIn = ImageIO.createImageInputStream(in)) {
+      ImageReader reader = getReader(imageIn);
+      if (reader == null) {
+        return null;
+      }
+      try {
+        return new Dimension(reader.getWidth(0), reader.getHeight(0));
+      } finally {
+        reader.dispose();
+      }
+    }
+  }
+
+  /**
+   * Computes size of thumbnail of the image, keeping the aspect ratio.
+   */
+  public static Dimension getThumbnailSize(Dimension imageSize) {
+    int imageWidth = imageSize.width;
+    int imageHeight = imageSize.height;
+    Preconditions.checkState(imageHeight != 0);
+    Preconditions.checkState(imageWidth != 0);
+    int thumbnailWidth = imageWidth < MAX_THUMBNAIL_WIDTH ? imageWidth : MAX_THUMBNAIL_WIDTH;
+    int thumbnailHeight = imageHeight < MAX_THUMBNAIL_HEIGHT ? imageHeight : MAX_THUMBNAIL_HEIGHT;
+    if (imageWidth * thumbnailHeight < imageHeight * thumbnailWidth) {
+      thumbnailWidth = Math.max(1, imageWidth * thumbnailHeight / imageHeight);
+    } else {
+      thumbnailHeight = Math.max(1, imageHeight * thumbnailWidth / imageWidth);
+    }
+    return new Dimension(thumbnailWidth, thumbnailHeight);
+  }
+
+  /**
+   * @return true if building of the thumbnail of the attachment failed.
+   */
+  public boolean isFailed(AttachmentId attachmentId) {
+    return failed.getIfPresent(attachmentId) != null;
+  }
+
+  /**
+   * Schedules building of the thumbnail if it is not built, scheduled or
+   * failed yet.
+   */
+  public void schedule(final AttachmentId attachmentId) {
+    if (isFailed(attachmentId) || pending.size() >= MAX_PENDING_THUMBNAILS
+        || pending.putIfAbsent(attachmentId, Boolean.TRUE) != null) {
+      return;
+    }
+    try {
+      executor.execute(new Runnable() {
+
+        @Override
+        public void run() {
+          try {
+            if (store.getThumbnail(attachmentId) == null && !build(attachmentId)) {
+              failed.put(attachmentId, Boolean.TRUE);
+            }
+          } catch (IOException | RuntimeException ex) {
+            failed.put(attachmentId, Boolean.TRUE);
+            LOG.severe("Building thumbnail of attachment " + attachmentId, ex);
+          } finally {
+            pending.remove(attachmentId);
+          }
+        }
+      });
+    } catch (RejectedExecutionException ex) {
+      pending.remove(attachmentId);
+      LOG.warning("Building thumbnail of attachment " + attachmentId + " is rejected", ex);
+    }
+  }
+
+  /**
+   * Builds and stores the thumbnail.
+   *
+   * @return false if the attachment is missing or is not an image.
+   */
+  private boolean build(AttachmentId attachmentId) throws IOException {
+    AttachmentData data = store.getAttachment(attachmentId);
+    if (data == null) {
+      return false;
+    }
+    BufferedImage thumbnail;
+    try (InputStream in = data.getInputStream();
+        ImageInputStream imageIn = ImageIO.createImageInputStream(in)) {
+      ImageReader reader = getReader(imageIn);
+      if (reader == null) {
+        return false;
+      }
+      try {
+        Dimension imageSize = new Dimension(reader.getWidth(0), reader.getHeight(0));
+        Dimension thumbnailSize = getThumbnailSize(imageSize);
+        ImageReadParam param = reader.getDefaultReadParam();
+        int subsampling = Math.max(1, Math.min(imageSize.width / thumbnailSize.width,
+            imageSize.height / thumbnailSize.height));
+        param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+        thumbnail = scale(reader.read(0, param), thumbnailSize);
+      } finally {
+        reader.dispose();
+      }
+    }
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ImageIO.write(thumbnail, AttachmentService.THUMBNAIL_FORMAT_NAME, out);
+    store.storeThumnail(attachmentId, new ByteArrayInputStream(out.toByteArray()));
+    LOG.fine("Built thumbnail of attachment " + attachmentId);
+    return true;
+  }
+
+  private static BufferedImage scale(BufferedImage image, Dimension size) {
+    BufferedImage thumbnail =
+        new BufferedImage(size.width, size.height, BufferedImage.TYPE_INT_RGB);
+    Graphics2D g = thumbnail.createGraphics();
+    try {
+      g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+          RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+      g.setBackground(Color.BLACK);
+      g.clearRect(0, 0, size.width, size.height);
+      g.drawImage(image, 0, 0, size.width, size.height, null);
+    } finally {
+      g.dispose();
+    }
+    return thumbnail;
+  }
+
+  private static ImageReader getReader(ImageInputStream imageIn) {
+    if (imageIn == null) {
+      return null;
+    }
+    Iterator<ImageReader> readers = ImageIO.getImageReaders(imageIn);
+    if (!readers.hasNext()) {
+      return null;
+    }
+    ImageReader reader = readers.next();
+    reader.setInput(imageIn, true, true);
+    return reader;
+  }
+}
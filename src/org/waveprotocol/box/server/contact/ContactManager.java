@@ -44,6 +44,19 @@ public interface ContactManager {
    * @throws PersistenceException 
    */
   public List<Contact> getContacts(ParticipantId participant, long fromTime) throws PersistenceException;
+
+  /**
+   * Gets contacts of participant with the best scores at the time.
+   * The ranking is reused until contacts are changed or the time shifts
+   * noticeably, so the whole list is not scored on each call.
+   *
+   * @param participant
+   * @param count maximum count of contacts
+   * @param time the time of scoring
+   * @return contacts ordered by descending score
+   * @throws PersistenceException
+   */
+  public List<Contact> getTopContacts(ParticipantId participant, int count, long time) throws PersistenceException;
   
   /**
    * Appends call to contact, stores contact and updates interlucutrs info. 
@@ -36,6 +36,8 @@ import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.inject.Inject;
 
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import org.waveprotocol.box.server.executor.ExecutorAnnotations;
@@ -51,9 +53,30 @@ public class ContactManagerImpl implements ContactManager {
   private static final int READ_CACHE_MAX_SIZE = 10000;
   private static final int WRITE_DELAY_SEC = 20;
 
+  /**
+   * Period of reuse of computed ranking. Bonuses expire in a year, so the
+   * order changes negligibly in the period.
+   */
+  private static final long RANKING_REFRESH_MS = 60L * 60 * 1000;
+
   private final LoadingCache<ParticipantId, Map<ParticipantId, Contact>> contactsCache;
   private final Cache<ParticipantId, Map<ParticipantId, Contact>> contactsToWrite;
 
+  /** Contacts of participants ordered by descending score. */
+  private final Cache<ParticipantId, Ranking> rankings =
+      CacheBuilder.newBuilder().maximumSize(READ_CACHE_MAX_SIZE).build();
+
+  /** Contacts ordered by score at the time. */
+  private static class Ranking {
+    final long time;
+    final List<Contact> contacts;
+
+    Ranking(long time, List<Contact> contacts) {
+      this.time = time;
+      this.contacts = contacts;
+    }
+  }
+
   @Inject
   public ContactManagerImpl(final ContactStore contactStore,
       @ExecutorAnnotations.ContactExecutor ScheduledExecutorService executor) {
@@ -81,11 +104,7 @@ public class ContactManagerImpl implements ContactManager {
       public void onRemoval(RemovalNotification<ParticipantId, Map<ParticipantId, Contact>> notify) {
         try {
           if (notify.getCause() != RemovalCause.REPLACED) {
-            List<Contact> contacts = Lists.newArrayList();
-            for (Contact contact : notify.getValue().values()) {
-              contacts.add(contact);
-            }
-            contactStore.storeContacts(notify.getKey(), contacts);
+            contactStore.storeContacts(notify.getKey(), copyContacts(notify.getValue(), 0));
           }
         } catch (PersistenceException ex) {
           LOG.severe("Store contacts error", ex);
@@ -112,13 +131,27 @@ public class ContactManagerImpl implements ContactManager {
     } catch (ExecutionException ex) {
       throw new PersistenceException(ex);
     }
-    List<Contact> participants = Lists.newArrayList();
-    for (Contact contact : contacts.values()) {
-      if (contact.getLastContactTime() > fromTime) {
-        participants.add(contact);
+    return copyContacts(contacts, fromTime);
+  }
+
+  @Override
+  public List<Contact> getTopContacts(ParticipantId participant, int count, long time)
+      throws PersistenceException {
+    Ranking ranking = rankings.getIfPresent(participant);
+    if (ranking == null || Math.abs(time - ranking.time) >= RANKING_REFRESH_MS) {
+      Map<ParticipantId, Contact> contacts;
+      try {
+        contacts = contactsCache.get(participant);
+      } catch (ExecutionException ex) {
+        throw new PersistenceException(ex);
+      }
+      // Under the lock, so the ranking is not overwritten by the outdated one.
+      synchronized (contacts) {
+        ranking = new Ranking(time, rankContacts(copyContacts(contacts, 0), time));
+        rankings.put(participant, ranking);
       }
     }
-    return participants;
+    return ranking.contacts.subList(0, Math.min(count, ranking.contacts.size()));
   }
 
   @Override
@@ -139,21 +172,62 @@ public class ContactManagerImpl implements ContactManager {
     } catch (ExecutionException ex) {
       throw new PersistenceException(ex);
     }
-    Contact contact = contacts.get(interlocutor);
-    if (contact != null) {
-      long bonus = addBonus(contact.getLastContactTime(), contact.getScoreBonus(), time, outgoing, direct);
-      if (time > contact.getLastContactTime()) {
-        contact.setLastContactTime(time);
+    synchronized (contacts) {
+      Contact contact = contacts.get(interlocutor);
+      if (contact != null) {
+        long bonus = addBonus(contact.getLastContactTime(), contact.getScoreBonus(), time, outgoing, direct);
+        if (time > contact.getLastContactTime()) {
+          contact.setLastContactTime(time);
+        }
+        contact.setScoreBonus(bonus);
+      } else {
+        long bonus = getBonus(outgoing, direct);
+        contact = new ContactImpl(interlocutor, time, bonus);
+        contacts.put(interlocutor, contact);
       }
-      contact.setScoreBonus(bonus);
-    } else {
-      long bonus = getBonus(outgoing, direct);
-      contact = new ContactImpl(interlocutor, time, bonus);
-      contacts.put(interlocutor, contact);
+      rankings.invalidate(participant);
     }
     contactsToWrite.put(participant, contacts);
   }
 
+  /**
+   * Copies contacts modified after the time, the contacts are modified
+   * concurrently under lock of the map.
+   */
+  private static List<Contact> copyContacts(Map<ParticipantId, Contact> contacts, long fromTime) {
+    synchronized (contacts) {
+      List<Contact> copies = Lists.newArrayListWithCapacity(contacts.size());
+      for (Contact contact : contacts.values()) {
+        if (contact.getLastContactTime() > fromTime) {
+          copies.add(new ContactImpl(contact.getParticipantId(), contact.getLastContactTime(),
+              contact.getScoreBonus()));
+        }
+      }
+      return copies;
+    }
+  }
+
+  /**
+   * Orders contacts by descending score at the time. Scores are computed
+   * once per contact.
+   */
+  private static List<Contact> rankContacts(List<Contact> contacts, long time) {
+    final Map<Contact, Long> scores = Maps.newIdentityHashMap();
+    for (Contact contact : contacts) {
+      long lastContactTime = contact.getLastContactTime();
+      scores.put(contact, getScoreBonusAtTime(lastContactTime, contact.getScoreBonus(),
+          Math.max(time, lastContactTime)));
+    }
+    Collections.sort(contacts, new Comparator<Contact>() {
+
+      @Override
+      public int compare(Contact c1, Contact c2) {
+        return Long.compare(scores.get(c2), scores.get(c1));
+      }
+    });
+    return Collections.unmodifiableList(contacts);
+  }
+
   private static long addBonus(long lastContactTime, long lastBonus, long time,
       boolean outgoing, boolean direct) {
     long bonus = getBonus(outgoing, direct);
@@ -0,0 +1,121 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.waveprotocol.box.server.executor;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Policy of handling tasks when the queue of the executor is full.
+ *
+ * @author akaplanov@gmail.com (A. Kaplanov)
+ */
+public enum BackpressurePolicy {
+  /**
+   * The submitting thread waits for free space in the queue. A task submitted
+   * by a thread of the same pool is run by that thread, since the pool may wait
+   * for it to free the queue. Such a task runs ahead of the queued tasks, so
+   * the order of tasks is kept only for submitters outside the pool. Pools
+   * which tasks must keep order, like DeltaPersistExecutor, have unbounded
+   * queues and never reach this policy.
+   */
+  BLOCK,
+  /** The submitting thread runs the task itself. */
+  CALLER_RUNS,
+  /** The task is rejected with {@link RejectedExecutionException}. */
+  ABORT;
+
+  /**
+   * Parses policy from setting value, like "caller_runs".
+   */
+  public static BackpressurePolicy parse(String value) {
+    try {
+      return valueOf(value.trim().toUpperCase());
+    } catch (IllegalArgumentException ex) {
+      throw new IllegalArgumentException("Unknown executor rejection policy: " + value, ex);
+    }
+  }
+
+  /**
+   * Creates handler applying this policy and counting saturations by monitor.
+   */
+  RejectedExecutionHandler createHandler(ExecutorMonitor monitor) {
+    return createHandler(monitor, Collections.<Thread>emptySet());
+  }
+
+  /**
+   * Creates handler applying this policy and counting saturations by monitor.
+   *
+   * @param poolThreads threads of the executor, see {@link #trackThreads}.
+   */
+  RejectedExecutionHandler createHandler(final ExecutorMonitor monitor,
+      final Set<Thread> poolThreads) {
+    return new RejectedExecutionHandler() {
+
+      @Override
+      public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+        monitor.onRejected();
+        if (executor.isShutdown()) {
+          throw new RejectedExecutionException("Executor " + monitor.getName() + " is shut down");
+        }
+        switch (BackpressurePolicy.this) {
+          case BLOCK:
+            if (poolThreads.contains(Thread.currentThread())) {
+              task.run();
+              break;
+            }
+            try {
+              executor.getQueue().put(task);
+            } catch (InterruptedException ex) {
+              Thread.currentThread().interrupt();
+              throw new RejectedExecutionException("Interrupted while waiting for queue of "
+                  + monitor.getName(), ex);
+            }
+            break;
+          case CALLER_RUNS:
+            task.run();
+            break;
+          default:
+            throw new RejectedExecutionException("Queue of executor " + monitor.getName()
+                + " is full");
+        }
+      }
+    };
+  }
+
+  /**
+   * Wraps thread factory of the pool to collect its threads to the set.
+   */
+  static ThreadFactory trackThreads(final ThreadFactory threadFactory, final Set<Thread> threads) {
+    return new ThreadFactory() {
+
+      @Override
+      public Thread newThread(Runnable task) {
+        Thread thread = threadFactory.newThread(task);
+        threads.add(thread);
+        return thread;
+      }
+    };
+  }
+}
@@ -45,6 +45,11 @@ public interface ExecutorAnnotations {
   public @interface IndexExecutor {
   }
 
+  @Retention(RUNTIME)
+  @BindingAnnotation
+  public @interface SearchSubscriptionExecutor {
+  }
+
   @Retention(RUNTIME)
   @BindingAnnotation
   public @interface ListenerExecutor {
@@ -70,6 +75,11 @@ public interface ExecutorAnnotations {
   public @interface WaveletLoadingExecutor {
   }
 
+  @Retention(RUNTIME)
+  @BindingAnnotation
+  public @interface WaveWarmupExecutor {
+  }
+
   @Retention(RUNTIME)
   @BindingAnnotation
   public @interface DeltaPersistExecutor {
@@ -85,6 +95,11 @@ public interface ExecutorAnnotations {
   public @interface ContactExecutor {
   }
 
+  @Retention(RUNTIME)
+  @BindingAnnotation
+  public @interface RemakeContactsExecutor {
+  }
+
   @Retention(RUNTIME)
   @BindingAnnotation
   public @interface RobotConnectionExecutor {
@@ -99,4 +114,19 @@ public interface ExecutorAnnotations {
   @BindingAnnotation
   public @interface XmppExecutor {
   }
+
+  @Retention(RUNTIME)
+  @BindingAnnotation
+  public @interface ThumbnailExecutor {
+  }
+
+  @Retention(RUNTIME)
+  @BindingAnnotation
+  public @interface WaveBusExecutor {
+  }
+
+  @Retention(RUNTIME)
+  @BindingAnnotation
+  public @interface SearchExecutor {
+  }
 }
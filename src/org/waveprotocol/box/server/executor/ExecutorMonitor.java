@@ -0,0 +1,223 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.waveprotocol.box.server.executor;
+
+import com.google.common.collect.ImmutableList;
+
+import org.waveprotocol.box.server.stat.ConcurrentHistogram;
+import org.waveprotocol.box.stat.Measurement;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Monitors saturation of the thread pool: queue depth, active threads,
+ * rejections, time of tasks in queue and their run time by task type.
+ * Durations are in microseconds.
+ *
+ * @author akaplanov@gmail.com (A. Kaplanov)
+ */
+public class ExecutorMonitor {
+
+  /**
+   * Wait and run times of tasks of one type.
+   */
+  public static class TaskStats {
+    private final ConcurrentHistogram waitTime = new ConcurrentHistogram();
+    private final ConcurrentHistogram runTime = new ConcurrentHistogram();
+
+    void record(long waitMicros, long runMicros) {
+      waitTime.sample(toInt(waitMicros), 0);
+      runTime.sample(toInt(runMicros), 0);
+    }
+
+    public Measurement getWaitTime() {
+      return waitTime.getMeasurement();
+    }
+
+    public Measurement getRunTime() {
+      return runTime.getMeasurement();
+    }
+  }
+
+  private static final ConcurrentMap<String, ExecutorMonitor> monitors = new ConcurrentHashMap<>();
+
+  private final String name;
+  private final ThreadPoolExecutor executor;
+  private final int queueCapacity;
+  private final TaskStats totalStats = new TaskStats();
+  private final ConcurrentMap<String, TaskStats> taskStats = new ConcurrentHashMap<>();
+  private final AtomicLong rejectedCount = new AtomicLong();
+
+  /**
+   * Creates and registers monitor of the executor.
+   *
+   * @param queueCapacity capacity of the queue, 0 if unbounded.
+   */
+  public static ExecutorMonitor register(String name, ThreadPoolExecutor executor,
+      int queueCapacity) {
+    ExecutorMonitor monitor = new ExecutorMonitor(name, executor, queueCapacity);
+    monitors.put(name, monitor);
+    return monitor;
+  }
+
+  /**
+   * Gets monitors of all registered executors.
+   */
+  public static Collection<ExecutorMonitor> getMonitors() {
+    return ImmutableList.copyOf(monitors.values());
+  }
+
+  ExecutorMonitor(String name, ThreadPoolExecutor executor, int queueCapacity) {
+    this.name = name;
+    this.executor = executor;
+    this.queueCapacity = queueCapacity;
+  }
+
+  /**
+   * Wraps the task to measure its time in queue and run time.
+   *
+   * @param task the task to run.
+   * @param taskType the type of the task for statistic.
+   * @param delayMillis the delay before the task is due.
+   */
+  public Runnable monitor(final Runnable task, final String taskType, long delayMillis) {
+    final long dueTime = System.nanoTime() + delayMillis * 1000000L;
+    return new Runnable() {
+
+      @Override
+      public void run() {
+        long startTime = System.nanoTime();
+        try {
+          task.run();
+        } finally {
+          long endTime = System.nanoTime();
+          recordTask(taskType, Math.max(0, startTime - dueTime) / 1000,
+              (endTime - startTime) / 1000);
+        }
+      }
+    };
+  }
+
+  /**
+   * Wraps the callable to measure its time in queue and run time.
+   *
+   * @param task the callable to call.
+   * @param taskType the type of the task for statistic.
+   * @param delayMillis the delay before the task is due.
+   */
+  public <T> Callable<T> monitor(final Callable<T> task, final String taskType, long delayMillis) {
+    final long dueTime = System.nanoTime() + delayMillis * 1000000L;
+    return new Callable<T>() {
+
+      @Override
+      public T call() throws Exception {
+        long startTime = System.nanoTime();
+        try {
+          return task.call();
+        } finally {
+          long endTime = System.nanoTime();
+          recordTask(taskType, Math.max(0, startTime - dueTime) / 1000,
+              (endTime - startTime) / 1000);
+        }
+      }
+    };
+  }
+
+  /**
+   * Counts the rejected task.
+   */
+  public void onRejected() {
+    rejectedCount.incrementAndGet();
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public int getActiveCount() {
+    return executor.getActiveCount();
+  }
+
+  public int getPoolSize() {
+    return executor.getPoolSize();
+  }
+
+  public int getMaximumPoolSize() {
+    return executor.getMaximumPoolSize();
+  }
+
+  public int getQueueSize() {
+    return executor.getQueue().size();
+  }
+
+  /**
+   * @return capacity of the queue, 0 if unbounded.
+   */
+  public int getQueueCapacity() {
+    return queueCapacity;
+  }
+
+  public long getCompletedTaskCount() {
+    return executor.getCompletedTaskCount();
+  }
+
+  public long getRejectedCount() {
+    return rejectedCount.get();
+  }
+
+  public TaskStats getTotalStats() {
+    return totalStats;
+  }
+
+  public Map<String, TaskStats> getTaskStats() {
+    return taskStats;
+  }
+
+  /**
+   * Gets type of the task for statistic.
+   */
+  static String getTaskType(Object task) {
+    String type = task.getClass().getName();
+    return type.substring(type.lastIndexOf('.') + 1);
+  }
+
+  private void recordTask(String taskType, long waitMicros, long runMicros) {
+    totalStats.record(waitMicros, runMicros);
+    TaskStats stats = taskStats.get(taskType);
+    if (stats == null) {
+      TaskStats newStats = new TaskStats();
+      stats = taskStats.putIfAbsent(taskType, newStats);
+      if (stats == null) {
+        stats = newStats;
+      }
+    }
+    stats.record(waitMicros, runMicros);
+  }
+
+  private static int toInt(long value) {
+    return (int)Math.min(value, Integer.MAX_VALUE);
+  }
+}
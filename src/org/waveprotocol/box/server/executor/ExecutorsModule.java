@@ -28,13 +28,20 @@ import org.waveprotocol.box.server.executor.ExecutorAnnotations.DeltaPersistExec
 import org.waveprotocol.box.server.executor.ExecutorAnnotations.IndexExecutor;
 import org.waveprotocol.box.server.executor.ExecutorAnnotations.ListenerExecutor;
 import org.waveprotocol.box.server.executor.ExecutorAnnotations.LookupExecutor;
+import org.waveprotocol.box.server.executor.ExecutorAnnotations.RemakeContactsExecutor;
 import org.waveprotocol.box.server.executor.ExecutorAnnotations.RobotConnectionExecutor;
 import org.waveprotocol.box.server.executor.ExecutorAnnotations.RobotGatewayExecutor;
+import org.waveprotocol.box.server.executor.ExecutorAnnotations.SearchExecutor;
+import org.waveprotocol.box.server.executor.ExecutorAnnotations.SearchSubscriptionExecutor;
 import org.waveprotocol.box.server.executor.ExecutorAnnotations.StorageContinuationExecutor;
+import org.waveprotocol.box.server.executor.ExecutorAnnotations.ThumbnailExecutor;
+import org.waveprotocol.box.server.executor.ExecutorAnnotations.WaveBusExecutor;
 import org.waveprotocol.box.server.executor.ExecutorAnnotations.WaveletLoadingExecutor;
+import org.waveprotocol.box.server.executor.ExecutorAnnotations.WaveWarmupExecutor;
 import org.waveprotocol.box.server.executor.ExecutorAnnotations.XmppExecutor;
 import org.waveprotocol.box.server.executor.ExecutorAnnotations.StorageIndexingExecutor;
 
+import com.google.common.collect.MapMaker;
 import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.AbstractModule;
@@ -44,11 +51,17 @@ import com.google.inject.Provides;
 import com.google.inject.Singleton;
 import com.google.inject.name.Named;
 
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Executor;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Module with executors.
@@ -56,9 +69,24 @@ import java.util.concurrent.ThreadFactory;
  * @author akaplanov@gmail.com (A. Kaplanov)
  */
 public class ExecutorsModule extends AbstractModule {
+  /** Keep alive time of idle threads of cached pools. */
+  private static final long CACHED_THREAD_KEEP_ALIVE_SEC = 60;
+
+  /** Capacity of queues of fixed pools, 0 if unbounded. */
+  private final int queueCapacity;
+
+  /** Policy of handling tasks when the queue is full. */
+  private final BackpressurePolicy backpressurePolicy;
 
-  @Inject
   public ExecutorsModule() {
+    this(0, BackpressurePolicy.BLOCK.name());
+  }
+
+  @Inject
+  public ExecutorsModule(@Named(CoreSettings.EXECUTOR_QUEUE_CAPACITY) int queueCapacity,
+      @Named(CoreSettings.EXECUTOR_REJECTION_POLICY) String backpressurePolicy) {
+    this.queueCapacity = queueCapacity;
+    this.backpressurePolicy = BackpressurePolicy.parse(backpressurePolicy);
   }
 
   @Override
@@ -88,6 +116,23 @@ public class ExecutorsModule extends AbstractModule {
     return provideScheduledThreadPoolExecutor(executorProvider, 1, IndexExecutor.class.getSimpleName());
   }
 
+  @Provides
+  @Singleton
+  @SearchExecutor
+  protected Executor provideSearchExecutor(Provider<RequestScopeExecutor> executorProvider,
+      @Named(CoreSettings.SEARCH_EXECUTOR_THREAD_COUNT) int threadCount) {
+    return provideThreadPoolExecutor(executorProvider, threadCount, SearchExecutor.class.getSimpleName());
+  }
+
+  @Provides
+  @Singleton
+  @SearchSubscriptionExecutor
+  protected Executor provideSearchSubscriptionExecutor(Provider<RequestScopeExecutor> executorProvider,
+      @Named(CoreSettings.SEARCH_SUBSCRIPTION_EXECUTOR_THREAD_COUNT) int threadCount) {
+    return provideThreadPoolExecutor(executorProvider, threadCount,
+        SearchSubscriptionExecutor.class.getSimpleName());
+  }
+
   @Provides
   @Singleton
   @ListenerExecutor
@@ -128,12 +173,38 @@ public class ExecutorsModule extends AbstractModule {
     return provideThreadPoolExecutor(executorProvider, threadCount, WaveletLoadingExecutor.class.getSimpleName());
   }
 
+  @Provides
+  @Singleton
+  @WaveWarmupExecutor
+  protected Executor provideWaveWarmupExecutor(Provider<RequestScopeExecutor> executorProvider,
+      @Named(CoreSettings.WAVE_WARMUP_EXECUTOR_THREAD_COUNT) int threadCount) {
+    return provideThreadPoolExecutor(executorProvider, threadCount, Thread.MIN_PRIORITY,
+        WaveWarmupExecutor.class.getSimpleName());
+  }
+
+  @Provides
+  @Singleton
+  @ThumbnailExecutor
+  protected Executor provideThumbnailExecutor(Provider<RequestScopeExecutor> executorProvider,
+      @Named(CoreSettings.THUMBNAIL_EXECUTOR_THREAD_COUNT) int threadCount) {
+    return provideThreadPoolExecutor(executorProvider, threadCount, Thread.MIN_PRIORITY,
+        ThumbnailExecutor.class.getSimpleName());
+  }
+
+  @Provides
+  @Singleton
+  @WaveBusExecutor
+  protected ScheduledExecutorService provideWaveBusExecutor(Provider<ScheduledRequestScopeExecutor> executorProvider,
+      @Named(CoreSettings.WAVE_BUS_EXECUTOR_THREAD_COUNT) int threadCount) {
+    return provideScheduledThreadPoolExecutor(executorProvider, threadCount, WaveBusExecutor.class.getSimpleName());
+  }
+
   @Provides
   @Singleton
   @DeltaPersistExecutor
   protected Executor provideDeltaPersistExecutor(Provider<RequestScopeExecutor> executorProvider,
       @Named(CoreSettings.DELTA_PERSIST_EXECUTOR_THREAD_COUNT) int threadCount) {
-    return provideThreadPoolExecutor(executorProvider, threadCount, DeltaPersistExecutor.class.getSimpleName());
+    return provideOrderedThreadPoolExecutor(executorProvider, threadCount, DeltaPersistExecutor.class.getSimpleName());
   }
 
   @Provides
@@ -151,6 +222,15 @@ public class ExecutorsModule extends AbstractModule {
     return provideScheduledThreadPoolExecutor(executorProvider, 1, ContactExecutor.class.getSimpleName());
   }
 
+  @Provides
+  @Singleton
+  @RemakeContactsExecutor
+  protected Executor provideRemakeContactsExecutor(Provider<RequestScopeExecutor> executorProvider,
+      @Named(CoreSettings.REMAKE_CONTACTS_EXECUTOR_THREAD_COUNT) int threadCount) {
+    return provideThreadPoolExecutor(executorProvider, threadCount, Thread.MIN_PRIORITY,
+        RemakeContactsExecutor.class.getSimpleName());
+  }
+
   @Provides
   @Singleton
   @RobotConnectionExecutor
@@ -176,34 +256,65 @@ public class ExecutorsModule extends AbstractModule {
 
   private Executor provideThreadPoolExecutor(Provider<RequestScopeExecutor> executorProvider,
       int threadCount, String name) {
+    return provideThreadPoolExecutor(executorProvider, threadCount, Thread.NORM_PRIORITY, name);
+  }
+
+  /**
+   * Provides a fixed pool with unbounded queue, for tasks which must keep the
+   * order of submission. The blocking policy would run a task submitted by a
+   * thread of the pool ahead of the queued tasks.
+   */
+  private Executor provideOrderedThreadPoolExecutor(Provider<RequestScopeExecutor> executorProvider,
+      int threadCount, String name) {
+    return provideThreadPoolExecutor(executorProvider, threadCount, Thread.NORM_PRIORITY, name, 0);
+  }
+
+  private Executor provideThreadPoolExecutor(Provider<RequestScopeExecutor> executorProvider,
+      int threadCount, int priority, String name) {
+    return provideThreadPoolExecutor(executorProvider, threadCount, priority, name, queueCapacity);
+  }
+
+  /**
+   * @param queueCapacity capacity of the queue of fixed pool, 0 if unbounded.
+   */
+  private Executor provideThreadPoolExecutor(Provider<RequestScopeExecutor> executorProvider,
+      int threadCount, int priority, String name, int queueCapacity) {
     if (threadCount == 0) {
       return MoreExecutors.sameThreadExecutor();
     }
-    ThreadFactory threadFactory = new ThreadFactoryBuilder().setNameFormat(name).build();
-    ExecutorService executor;
+    Set<Thread> poolThreads = Collections.newSetFromMap(
+        new MapMaker().weakKeys().<Thread, Boolean>makeMap());
+    ThreadFactory threadFactory = BackpressurePolicy.trackThreads(
+        new ThreadFactoryBuilder().setNameFormat(name).setPriority(priority).build(), poolThreads);
+    ThreadPoolExecutor executor;
+    int capacity;
     if (threadCount < 0) {
-      executor = Executors.newCachedThreadPool(threadFactory);
-    } else if (threadCount == 1) {
-      executor = Executors.newSingleThreadExecutor(threadFactory);
+      capacity = 0;
+      executor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, CACHED_THREAD_KEEP_ALIVE_SEC,
+          TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), threadFactory);
     } else {
-      executor = Executors.newFixedThreadPool(threadCount, threadFactory);
+      capacity = queueCapacity;
+      BlockingQueue<Runnable> queue = capacity > 0 ?
+          new LinkedBlockingQueue<Runnable>(capacity) : new LinkedBlockingQueue<Runnable>();
+      executor = new ThreadPoolExecutor(threadCount, threadCount, 0, TimeUnit.MILLISECONDS, queue,
+          threadFactory);
     }
+    ExecutorMonitor monitor = ExecutorMonitor.register(name, executor, capacity);
+    executor.setRejectedExecutionHandler(backpressurePolicy.createHandler(monitor, poolThreads));
     RequestScopeExecutor scopeExecutor = executorProvider.get();
     scopeExecutor.setExecutor(executor, name);
+    scopeExecutor.setMonitor(monitor);
     return scopeExecutor;
   }
 
   private ScheduledExecutorService provideScheduledThreadPoolExecutor(
       Provider<ScheduledRequestScopeExecutor> executorProvider, int threadCount, String name) {
     ThreadFactory threadFactory = new ThreadFactoryBuilder().setNameFormat(name).build();
-    ScheduledExecutorService executor;
-    if (threadCount == 1) {
-      executor = Executors.newSingleThreadScheduledExecutor(threadFactory);
-    } else {
-      executor = Executors.newScheduledThreadPool(threadCount, threadFactory);
-    }
+    ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(threadCount, threadFactory);
+    ExecutorMonitor monitor = ExecutorMonitor.register(name, executor, 0);
     ScheduledRequestScopeExecutor scopeExecutor = executorProvider.get();
     scopeExecutor.setExecutor(executor, name);
+    scopeExecutor.setMonitor(monitor);
     return scopeExecutor;
   }
 }
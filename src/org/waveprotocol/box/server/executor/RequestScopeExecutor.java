@@ -46,6 +46,7 @@ public class RequestScopeExecutor implements Executor, Shutdownable {
   private final static Log LOG = Log.get(RequestScopeExecutor.class);
 
   private ExecutorService executor;
+  private ExecutorMonitor monitor;
 
   @Inject
   public RequestScopeExecutor() {
@@ -57,6 +58,13 @@ public class RequestScopeExecutor implements Executor, Shutdownable {
     ShutdownManager.getInstance().register(this, name, ShutdownPriority.Task);
   }
 
+  /**
+   * Sets monitor of the executor.
+   */
+  public void setMonitor(ExecutorMonitor monitor) {
+    this.monitor = monitor;
+  }
+
   @Override
   public void execute(final Runnable runnable) {
     Preconditions.checkNotNull(executor, "Executor is not defined.");
@@ -64,7 +72,7 @@ public class RequestScopeExecutor implements Executor, Shutdownable {
     final Map<Class, RequestScope.Value> values
       = Timing.isEnabled() ? Timing.cloneScopeValues() : null;
 
-    executor.submit(new Runnable() {
+    Runnable task = new Runnable() {
       @Override
       public void run() {
         if (values != null) {
@@ -79,7 +87,11 @@ public class RequestScopeExecutor implements Executor, Shutdownable {
           Timing.exitScope();
         }
       }
-    });
+    };
+    if (monitor != null) {
+      task = monitor.monitor(task, ExecutorMonitor.getTaskType(runnable), 0);
+    }
+    executor.submit(task);
   }
 
   @Override
@@ -51,6 +51,7 @@ public class ScheduledRequestScopeExecutor implements ScheduledExecutorService,
   private final static Logger LOG = Logger.getLogger(ScheduledRequestScopeExecutor.class.getName());
 
   private ScheduledExecutorService executor;
+  private ExecutorMonitor monitor;
 
   @Inject
   public ScheduledRequestScopeExecutor() {
@@ -65,16 +66,28 @@ public class ScheduledRequestScopeExecutor implements ScheduledExecutorService,
     ShutdownManager.getInstance().register(this, name, ShutdownPriority.Task);
   }
 
+  /**
+   * Sets monitor of the executor.
+   */
+  public void setMonitor(ExecutorMonitor monitor) {
+    this.monitor = monitor;
+  }
+
   @Override
   public ScheduledFuture<?> schedule(final Runnable runnable, final long delay, final TimeUnit unit) {
     Preconditions.checkNotNull(executor, "Executor is not defined.");
-    return executor.schedule(makeScopedRunnable(runnable), delay, unit);
+    return executor.schedule(monitor(makeScopedRunnable(runnable), runnable, unit.toMillis(delay)),
+        delay, unit);
   }
 
   @Override
   public <V> ScheduledFuture<V> schedule(Callable<V> callable, long l, TimeUnit tu) {
     Preconditions.checkNotNull(executor, "Executor is not defined.");
-    return executor.schedule(makeScopedCallable(callable), l, tu);
+    Callable<V> task = makeScopedCallable(callable);
+    if (monitor != null) {
+      task = monitor.monitor(task, ExecutorMonitor.getTaskType(callable), tu.toMillis(l));
+    }
+    return executor.schedule(task, l, tu);
   }
 
   @Override
@@ -152,7 +165,14 @@ public class ScheduledRequestScopeExecutor implements ScheduledExecutorService,
   @Override
   public void execute(Runnable r) {
     Preconditions.checkNotNull(executor, "Executor is not defined.");
-    executor.execute(makeScopedRunnable(r));
+    executor.execute(monitor(makeScopedRunnable(r), r, 0));
+  }
+
+  private Runnable monitor(Runnable task, Runnable originalTask, long delayMillis) {
+    if (monitor != null) {
+      return monitor.monitor(task, ExecutorMonitor.getTaskType(originalTask), delayMillis);
+    }
+    return task;
   }
 
   private Runnable makeScopedRunnable(final Runnable runnable) {
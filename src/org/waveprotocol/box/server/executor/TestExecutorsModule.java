@@ -40,10 +40,16 @@ public class TestExecutorsModule extends AbstractModule {
     bind(Key.get(Integer.class, Names.named(CoreSettings.LOOKUP_EXECUTOR_THREAD_COUNT))).toInstance(0);
     bind(Key.get(Integer.class, Names.named(CoreSettings.LISTENER_EXECUTOR_THREAD_COUNT))).toInstance(0);
     bind(Key.get(Integer.class, Names.named(CoreSettings.WAVELET_LOAD_EXECUTOR_THREAD_COUNT))).toInstance(0);
+    bind(Key.get(Integer.class, Names.named(CoreSettings.WAVE_WARMUP_EXECUTOR_THREAD_COUNT))).toInstance(0);
     bind(Key.get(Integer.class, Names.named(CoreSettings.DELTA_PERSIST_EXECUTOR_THREAD_COUNT))).toInstance(0);
     bind(Key.get(Integer.class, Names.named(CoreSettings.SNAPSHOT_PERSIST_EXECUTOR_THREAD_COUNT))).toInstance(0);
     bind(Key.get(Integer.class, Names.named(CoreSettings.BLOCK_PERSIST_EXECUTOR_THREAD_COUNT))).toInstance(0);
     bind(Key.get(Integer.class, Names.named(CoreSettings.ROBOT_CONNECTION_THREAD_COUNT))).toInstance(0);
     bind(Key.get(Integer.class, Names.named(CoreSettings.ROBOT_GATEWAY_THREAD_COUNT))).toInstance(0);
+    bind(Key.get(Integer.class, Names.named(CoreSettings.REMAKE_CONTACTS_EXECUTOR_THREAD_COUNT))).toInstance(0);
+    bind(Key.get(Integer.class, Names.named(CoreSettings.THUMBNAIL_EXECUTOR_THREAD_COUNT))).toInstance(0);
+    bind(Key.get(Integer.class, Names.named(CoreSettings.WAVE_BUS_EXECUTOR_THREAD_COUNT))).toInstance(0);
+    bind(Key.get(Integer.class, Names.named(CoreSettings.SEARCH_EXECUTOR_THREAD_COUNT))).toInstance(0);
+    bind(Key.get(Integer.class, Names.named(CoreSettings.SEARCH_SUBSCRIPTION_EXECUTOR_THREAD_COUNT))).toInstance(0);
   }
 }
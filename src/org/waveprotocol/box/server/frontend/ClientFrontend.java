@@ -51,6 +51,10 @@ public interface ClientFrontend {
 
   /**
    * Receives the result of a fetch wave request.
+   *
+   * Wavelets may be fetched concurrently, but the callback methods are never
+   * called concurrently, and {@link #onFinish} or {@link #onFailure} is called
+   * after the last {@link #onWaveletSuccess}.
    */
   interface FetchWaveViewRequestCallback {
     /**
@@ -19,8 +19,11 @@
 
 package org.waveprotocol.box.server.frontend;
 
+import org.waveprotocol.box.server.CoreSettings;
 import org.waveprotocol.box.server.waveserver.WaveBus;
 import org.waveprotocol.box.server.waveserver.WaveServerException;
+import org.waveprotocol.box.server.waveserver.WaveMap;
+import org.waveprotocol.box.server.waveserver.WaveWarmer;
 import org.waveprotocol.box.server.waveserver.WaveletProvider;
 import org.waveprotocol.box.server.waveserver.WaveletProvider.SubmitRequestCallback;
 import org.waveprotocol.box.server.waveserver.ByteStringMessage;
@@ -52,17 +55,21 @@ import com.google.common.util.concurrent.ListenableFutureTask;
 import com.google.common.util.concurrent.SettableFuture;
 
 import com.google.inject.Inject;
+import com.google.inject.name.Named;
 import com.google.protobuf.ByteString;
 
 import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
@@ -84,23 +91,30 @@ public class ClientFrontendImpl implements ClientFrontend, WaveBus.Subscriber {
   private final WaveletProvider waveletProvider;
   private final FragmentsFetcher fragmentsFetcher;
   private final SupplementProvider supplementProvider;
+  private final WaveWarmer waveWarmer;
   private final Executor executor;
+  private final int fetchConcurrency;
   private final WaveletSubscriptions subscriptions;
 
   /**
    * Constructor.
    *
    * @param waveletProvider
+   * @param fetchConcurrency maximum number of wavelets fetched concurrently for
+   *        one wave view request.
    */
   @Inject
   ClientFrontendImpl(WaveletProvider waveletProvider, FragmentsFetcher fragmentsFetcher,
-      SupplementProvider supplementReader, WaveBus waveBus,
-      @ExecutorAnnotations.ClientFrontendExecutor Executor executor) {
+      SupplementProvider supplementReader, WaveWarmer waveWarmer, WaveBus waveBus, WaveMap waveMap,
+      @ExecutorAnnotations.ClientFrontendExecutor Executor executor,
+      @Named(CoreSettings.WAVE_VIEW_FETCH_CONCURRENCY) int fetchConcurrency) {
     this.waveletProvider = waveletProvider;
     this.fragmentsFetcher = fragmentsFetcher;
     this.supplementProvider = supplementReader;
+    this.waveWarmer = waveWarmer;
     this.executor = executor;
-    this.subscriptions = new WaveletSubscriptions();
+    this.fetchConcurrency = Math.max(fetchConcurrency, 1);
+    this.subscriptions = new WaveletSubscriptions(waveMap);
     waveBus.subscribe(this);
   }
 
@@ -109,16 +123,21 @@ public class ClientFrontendImpl implements ClientFrontend, WaveBus.Subscriber {
    *
    * @param waveletProvider
    * @param supplementReader reader of user supplement.
+   * @param fetchConcurrency maximum number of wavelets fetched concurrently for
+   *        one wave view request.
    */
   @VisibleForTesting
   ClientFrontendImpl(
       WaveletProvider waveletProvider, FragmentsFetcher fragmentsFetcher,
-      SupplementProvider supplementReader, WaveletSubscriptions subscriptions,
-      @ExecutorAnnotations.WaveletLoadingExecutor Executor waveletLoadExecutor) {
+      SupplementProvider supplementReader, WaveWarmer waveWarmer, WaveletSubscriptions subscriptions,
+      @ExecutorAnnotations.WaveletLoadingExecutor Executor waveletLoadExecutor,
+      int fetchConcurrency) {
     this.waveletProvider = waveletProvider;
     this.fragmentsFetcher = fragmentsFetcher;
     this.supplementProvider = supplementReader;
+    this.waveWarmer = waveWarmer;
     this.executor = waveletLoadExecutor;
+    this.fetchConcurrency = Math.max(fetchConcurrency, 1);
     this.subscriptions = subscriptions;
   }
 
@@ -136,6 +155,7 @@ public class ClientFrontendImpl implements ClientFrontend, WaveBus.Subscriber {
       callback.onFailure(ReturnCode.NOT_LOGGED_IN, "Not logged in");
       return;
     }
+    waveWarmer.onWaveOpened(waveId);
 
     // Get wavelet Ids.
     final WaveView waveView;
@@ -162,6 +182,7 @@ public class ClientFrontendImpl implements ClientFrontend, WaveBus.Subscriber {
     final AtomicLong alreadyIndexed = new AtomicLong(0);
     final AtomicLong totalToIndexing = new AtomicLong(0);
     final AtomicReference<Exception> exception = new AtomicReference<>();
+    final FetchWaveViewRequestCallback serialCallback = new SerialFetchWaveViewRequestCallback(callback);
 
     // Open supplement wavelet.
     final SettableFuture<Supplement> supplementFuture = SettableFuture.create();
@@ -184,7 +205,7 @@ public class ClientFrontendImpl implements ClientFrontend, WaveBus.Subscriber {
               LOG.info("Replied: " + waveView.getUserDataWaveletId().toString()
                   + ", version " + buffer.getLastModifiedVersion().toString()
                   + ", segments " + rawFragments.keySet());
-              callback.onWaveletSuccess(waveView.getUserDataWaveletId(),
+              serialCallback.onWaveletSuccess(waveView.getUserDataWaveletId(),
                   buffer.getLastModifiedTime(), buffer.getLastModifiedVersion(),
                   rawFragments);
               somethingFetched.set(true);
@@ -206,30 +227,57 @@ public class ClientFrontendImpl implements ClientFrontend, WaveBus.Subscriber {
       supplementReplyFuture = ListenableFutureTask.create(task);
       executor.execute(supplementReplyFuture);
     }
-    // Open other wavelets.
-    for (final WaveletId waveletId : waveView.getWaveletIds()) {
-      final WaveletName waveletName = WaveletName.of(waveId, waveletId);
+    // Open other wavelets concurrently, the calling thread is one of the fetchers.
+    final Queue<WaveletId> pendingWaveletIds = new ConcurrentLinkedQueue<>();
+    for (WaveletId waveletId : waveView.getWaveletIds()) {
       if (!waveletId.equals(waveView.getUserDataWaveletId())) {
-        FragmentsBuffer buffer = new FragmentsBuffer(waveletName);
-        try {
-          if (fragmentsFetcher.fetchWavelet(buffer, loggedInUser, supplementFuture,
-              minBlipReplySize, maxBlipReplySize, maxBlipCount)) {
-            Map<SegmentId, RawFragment> rawFragments = buffer.getRawFragments();
-            LOG.info("Replied: " + waveletId.toString()
-                + ", version " + buffer.getLastModifiedVersion().toString()
-                + ", segments " + rawFragments.keySet());
-            callback.onWaveletSuccess(waveletId, buffer.getLastModifiedTime(), buffer.getLastModifiedVersion(),
-                rawFragments);
-            somethingFetched.set(true);
+        pendingWaveletIds.add(waveletId);
+      }
+    }
+    Runnable fetcher = new Runnable() {
+
+      @Override
+      public void run() {
+        WaveletId waveletId;
+        while (exception.get() == null && (waveletId = pendingWaveletIds.poll()) != null) {
+          WaveletName waveletName = WaveletName.of(waveId, waveletId);
+          FragmentsBuffer buffer = new FragmentsBuffer(waveletName);
+          Timer timer = Timing.start("Fetch " + waveletName.toString());
+          try {
+            if (fragmentsFetcher.fetchWavelet(buffer, loggedInUser, supplementFuture,
+                minBlipReplySize, maxBlipReplySize, maxBlipCount)) {
+              Map<SegmentId, RawFragment> rawFragments = buffer.getRawFragments();
+              LOG.info("Replied: " + waveletId.toString()
+                  + ", version " + buffer.getLastModifiedVersion().toString()
+                  + ", segments " + rawFragments.keySet());
+              serialCallback.onWaveletSuccess(waveletId, buffer.getLastModifiedTime(),
+                  buffer.getLastModifiedVersion(), rawFragments);
+              somethingFetched.set(true);
+            }
+          } catch (IndexingInProcessException ex) {
+            totalToIndexing.addAndGet(ex.getTargetVersion());
+            alreadyIndexed.addAndGet(ex.getCurrentVersion());
+          } catch (WaveServerException | RuntimeException ex) {
+            exception.compareAndSet(null, ex);
+          } finally {
+            Timing.stop(timer);
           }
-        } catch (IndexingInProcessException ex) {
-          totalToIndexing.addAndGet(ex.getTargetVersion());
-          alreadyIndexed.addAndGet(ex.getCurrentVersion());
-        } catch (WaveServerException ex) {
-          exception.set(ex);
-          break;
         }
       }
+    };
+    List<ListenableFutureTask<Void>> fetchTasks = new ArrayList<>();
+    for (int i = 1; i < Math.min(fetchConcurrency, pendingWaveletIds.size()); i++) {
+      ListenableFutureTask<Void> fetchTask = ListenableFutureTask.create(fetcher, null);
+      fetchTasks.add(fetchTask);
+      executor.execute(fetchTask);
+    }
+    fetcher.run();
+    for (ListenableFutureTask<Void> fetchTask : fetchTasks) {
+      try {
+        fetchTask.get();
+      } catch (InterruptedException | ExecutionException ex) {
+        exception.compareAndSet(null, ex);
+      }
     }
     // Waiting while supplement wavelet not yet be written to reply.
     if (supplementReplyFuture != null) {
@@ -241,15 +289,15 @@ public class ClientFrontendImpl implements ClientFrontend, WaveBus.Subscriber {
     // Send reply.
     if (totalToIndexing.get() != 0) {
       LOG.warning("Indexing in process for wave " + waveId + ", total " + totalToIndexing + ", indexed " + alreadyIndexed);
-      callback.onFailure(ReturnCode.INDEXING_IN_PROCESS, totalToIndexing + " " + alreadyIndexed);
+      serialCallback.onFailure(ReturnCode.INDEXING_IN_PROCESS, totalToIndexing + " " + alreadyIndexed);
     } else if (exception.get() != null) {
       LOG.severe("Failed to retrieve wave " + waveId, exception.get());
-      callback.onFailure(ReturnCode.INTERNAL_ERROR, "Wave server failure retrieving wave " + waveId);
+      serialCallback.onFailure(ReturnCode.INTERNAL_ERROR, "Wave server failure retrieving wave " + waveId);
     } else if (!somethingFetched.get()) {
       LOG.warning("No visible wavelets for " + loggedInUser + ", filter " + waveletIdFilter.toString());
-      callback.onFailure(ReturnCode.NOT_EXISTS, "No visible wavelets");
+      serialCallback.onFailure(ReturnCode.NOT_EXISTS, "No visible wavelets");
     } else {
-      callback.onFinish();
+      serialCallback.onFinish();
     }
   }
 
@@ -511,6 +559,34 @@ public class ClientFrontendImpl implements ClientFrontend, WaveBus.Subscriber {
     return unacknowledgedDeltaVersion.get();
   }
 
+  /**
+   * Serializes calls of the wrapped callback, so wavelets fetched concurrently
+   * are passed to it one by one.
+   */
+  private static class SerialFetchWaveViewRequestCallback implements FetchWaveViewRequestCallback {
+    private final FetchWaveViewRequestCallback callback;
+
+    SerialFetchWaveViewRequestCallback(FetchWaveViewRequestCallback callback) {
+      this.callback = callback;
+    }
+
+    @Override
+    public synchronized void onWaveletSuccess(WaveletId waveletId, long lastModifyTime,
+        HashedVersion lastModifyVersion, Map<SegmentId, RawFragment> fragments) {
+      callback.onWaveletSuccess(waveletId, lastModifyTime, lastModifyVersion, fragments);
+    }
+
+    @Override
+    public synchronized void onFinish() {
+      callback.onFinish();
+    }
+
+    @Override
+    public synchronized void onFailure(ReturnCode responseCode, String errorMessage) {
+      callback.onFailure(responseCode, errorMessage);
+    }
+  }
+
   private String generateChannelID() {
     return "ch" + channelCounter.addAndGet(1);
   }
@@ -32,13 +32,7 @@ import org.waveprotocol.box.stat.Timer;
 import org.waveprotocol.box.stat.Timing;
 import org.waveprotocol.box.stat.Timed;
 
-import org.waveprotocol.wave.model.conversation.DocumentBasedManifest;
 import org.waveprotocol.wave.model.conversation.ManifestBlip;
-import org.waveprotocol.wave.model.conversation.ManifestThread;
-import org.waveprotocol.wave.model.conversation.navigator.ManifestAdapter;
-import org.waveprotocol.wave.model.conversation.navigator.NavigatorImpl;
-import org.waveprotocol.wave.model.document.operation.DocInitialization;
-import org.waveprotocol.wave.model.document.operation.automaton.DocumentSchema;
 import org.waveprotocol.wave.model.id.IdUtil;
 import org.waveprotocol.wave.model.id.SegmentId;
 import org.waveprotocol.wave.model.id.WaveletName;
@@ -47,32 +41,44 @@ import org.waveprotocol.wave.model.supplement.ScreenPosition;
 import org.waveprotocol.wave.model.util.Pair;
 import org.waveprotocol.wave.model.version.HashedVersion;
 import org.waveprotocol.wave.model.wave.ParticipantId;
-import org.waveprotocol.wave.model.wave.data.impl.ObservablePluggableMutableDocument;
 import org.waveprotocol.wave.model.wave.data.impl.StartVersionHelper;
-import org.waveprotocol.wave.model.conversation.navigator.Navigator;
 import org.waveprotocol.wave.model.id.WaveletId;
-import org.waveprotocol.wave.model.util.CollectionUtils;
 import org.waveprotocol.wave.model.util.Preconditions;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import com.google.inject.Inject;
+import com.google.inject.Singleton;
 
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author akaplanov@gmail.com (A. Kaplanov)
  */
+@Singleton
 class FragmentsFetcher {
+  private static final int MANIFEST_CACHE_SIZE = 1000;
+  private static final int MANIFEST_CACHE_EXPIRATION_MIN = 10;
+
   private final WaveletProvider waveletProvider;
 
+  /** Manifest indexes by wavelet and version of last modification of manifest. */
+  private final Cache<Pair<WaveletName, Long>, ManifestIndex> manifestCache =
+      CacheBuilder.newBuilder().maximumSize(MANIFEST_CACHE_SIZE)
+      .expireAfterAccess(MANIFEST_CACHE_EXPIRATION_MIN, TimeUnit.MINUTES).build();
+
   @Inject
   FragmentsFetcher(WaveletProvider waveletProvider) {
     this.waveletProvider = waveletProvider;
@@ -122,22 +128,20 @@ class FragmentsFetcher {
             StartVersionHelper lookVersionHelper = new StartVersionHelper(supplement);
             // Second request obtains obligatory segments in specified version range.
             ReadableBlipSnapshot manifestSnapshot = (ReadableBlipSnapshot)manifestInterval.getSnapshot(lastModifiedVersion.getVersion());
-            DocumentBasedManifest manifest = getManifest(manifestSnapshot.getContent());
+            ManifestIndex manifest = getManifestIndex(waveletName, manifestSnapshot);
             ManifestBlip firstBlip = null;
             if (firstBlipId != null) {
-              firstBlip = findBlip(manifest.getRootThread(), firstBlipId);
+              firstBlip = manifest.getBlip(firstBlipId);
             }
-            NavigatorImpl<ManifestThread, ManifestBlip> navigator = new NavigatorImpl();
-            navigator.init(new ManifestAdapter(manifest));
             if (firstBlip == null) {
-              firstBlip = navigator.getFirstBlip(manifest.getRootThread());
+              firstBlip = manifest.getFirstBlip();
             }
             ImmutableSet.Builder<SegmentId> segmentIds = ImmutableSet.<SegmentId>builder().add(
               SegmentId.PARTICIPANTS_ID,
               SegmentId.MANIFEST_ID,
               SegmentId.TAGS_ID);
             if (maxBlipCount == -1 || maxBlipCount > 0 && firstBlip != null) {
-              segmentIds.add(SegmentId.ofBlipId(firstBlip.getId()));
+              segmentIds.add(SegmentId.ofBlipId(manifest.getBlipId(firstBlip)));
             }
             ReadableIndexSnapshot indexSnapshot = (ReadableIndexSnapshot)indexInterval.getSnapshot(
               lastModifiedVersion.getVersion());
@@ -147,7 +151,7 @@ class FragmentsFetcher {
             fetchFragmentsRequest(buffer, secondRequest);
             if (maxBlipCount > 1 && firstBlip != null) {
               // Next requests obtains optional segments.
-              Set<SegmentId> attendantBlips = getAttendantBlips(navigator, firstBlip, maxBlipCount - 1);
+              Set<SegmentId> attendantBlips = getAttendantBlips(manifest, firstBlip, maxBlipCount - 1);
               ranges = getRanges(waveletName.waveletId, attendantBlips, indexSnapshot,
                 lastModifiedVersion.getVersion(), lookVersionHelper);
               if (!ranges.isEmpty()) {
@@ -241,25 +245,24 @@ class FragmentsFetcher {
   }
 
   @Timed
-  private Set<SegmentId> getAttendantBlips(Navigator<ManifestThread, ManifestBlip> navigator,
-      ManifestBlip startBlip, final int maxCount) {
+  private Set<SegmentId> getAttendantBlips(ManifestIndex manifest, ManifestBlip startBlip,
+      final int maxCount) {
     LinkedHashSet<SegmentId> blips = new LinkedHashSet();
-    final List<ManifestBlip> nearestBlips = new LinkedList<>();
-    navigator.findNeighborBlips(CollectionUtils.newLinkedList(startBlip), new Receiver<ManifestBlip>() {
+    final List<ManifestBlip> nearestBlips = new ArrayList<>();
+    manifest.findNeighborBlips(startBlip, new Receiver<ManifestBlip>() {
 
       @Override
       public boolean put(ManifestBlip blip) {
         nearestBlips.add(blip);
         return maxCount == -1 || nearestBlips.size() < maxCount;
       }
-    }, false);
+    });
     for (ManifestBlip blip : nearestBlips) {
-      SegmentId segmentId = SegmentId.ofBlipId(blip.getId());
+      SegmentId segmentId = SegmentId.ofBlipId(manifest.getBlipId(blip));
       if (!blips.contains(segmentId)) {
-        List<ManifestBlip> parents = getNecessaryParentBlips(navigator, blip);
-        for (ManifestBlip parent : parents) {
+        for (ManifestBlip parent : manifest.getNecessaryParentBlips(blip)) {
           if (parent != startBlip) {
-            blips.add(SegmentId.ofBlipId(parent.getId()));
+            blips.add(SegmentId.ofBlipId(manifest.getBlipId(parent)));
           }
         }
         blips.add(segmentId);
@@ -271,43 +274,23 @@ class FragmentsFetcher {
     return blips;
   }
 
-  @Timed
-  private List<ManifestBlip> getNecessaryParentBlips(Navigator<ManifestThread, ManifestBlip> navigator,
-      ManifestBlip blip) {
-    List<ManifestBlip> parents = new LinkedList();
-    for (;;) {
-      ManifestBlip parent = navigator.getBlipParentBlip(blip);
-      if (parent == null) {
-        break;
-      }
-      ManifestThread thread = navigator.getBlipParentThread(blip);
-      if (thread.isInline()) {
-        parents.add(0, parent);
-      }
-      blip = parent;
-    }
-    return parents;
-  }
-
-
-  private DocumentBasedManifest getManifest(DocInitialization content) {
-    ObservablePluggableMutableDocument manifestDoc = new ObservablePluggableMutableDocument(
-      DocumentSchema.NO_SCHEMA_CONSTRAINTS, content);
-    return DocumentBasedManifest.createOnExisting(manifestDoc);
-  }
+  /**
+   * Gets index of the manifest from cache, or builds it. The index is shared
+   * by all fetches of the wavelet until the manifest is modified.
+   */
+  private ManifestIndex getManifestIndex(WaveletName waveletName,
+      final ReadableBlipSnapshot manifestSnapshot) throws WaveServerException {
+    try {
+      return manifestCache.get(Pair.of(waveletName, manifestSnapshot.getLastModifiedVersion()),
+          new Callable<ManifestIndex>() {
 
-  private ManifestBlip findBlip(ManifestThread thread, String blipId) {
-    for (ManifestBlip blip : thread.getBlips()) {
-      if (blip.getId().equals(blipId)) {
-        return blip;
-      }
-      for (ManifestThread th : blip.getReplies()) {
-        ManifestBlip b = findBlip(th, blipId);
-        if (b != null) {
-          return b;
+        @Override
+        public ManifestIndex call() {
+          return ManifestIndex.build(manifestSnapshot.getContent());
         }
-      }
+      });
+    } catch (ExecutionException | UncheckedExecutionException ex) {
+      throw new WaveServerException("Building of manifest index error", ex.getCause());
     }
-    return null;
   }
 }
@@ -0,0 +1,123 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.waveprotocol.box.server.frontend;
+
+import com.google.common.collect.ImmutableList;
+
+import org.waveprotocol.box.common.Receiver;
+import org.waveprotocol.wave.model.conversation.DocumentBasedManifest;
+import org.waveprotocol.wave.model.conversation.ManifestBlip;
+import org.waveprotocol.wave.model.conversation.ManifestThread;
+import org.waveprotocol.wave.model.conversation.navigator.ManifestAdapter;
+import org.waveprotocol.wave.model.conversation.navigator.NavigatorImpl;
+import org.waveprotocol.wave.model.document.operation.DocInitialization;
+import org.waveprotocol.wave.model.document.operation.automaton.DocumentSchema;
+import org.waveprotocol.wave.model.wave.data.impl.ObservablePluggableMutableDocument;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Index of conversation manifest of some version.
+ *
+ * Everything needed for selection of blips is computed on building, after
+ * that the index is not modified and may be shared by concurrent fetches of
+ * the wavelet. The manifest document is not read after building.
+ *
+ * @author akaplanov@gmail.com (A. Kaplanov)
+ */
+final class ManifestIndex {
+
+  private final NavigatorImpl<ManifestThread, ManifestBlip> navigator = new NavigatorImpl<>();
+  private final ManifestBlip firstBlip;
+  private final Map<String, ManifestBlip> blipsById = new HashMap<>();
+  private final Map<ManifestBlip, String> blipIds = new IdentityHashMap<>();
+
+  /** Parent blips shown together with the blip, from the top one. */
+  private final Map<ManifestBlip, List<ManifestBlip>> necessaryParents = new IdentityHashMap<>();
+
+  /**
+   * Builds index of the manifest.
+   *
+   * @param content the content of manifest document.
+   */
+  static ManifestIndex build(DocInitialization content) {
+    ObservablePluggableMutableDocument manifestDoc = new ObservablePluggableMutableDocument(
+      DocumentSchema.NO_SCHEMA_CONSTRAINTS, content);
+    return new ManifestIndex(DocumentBasedManifest.createOnExisting(manifestDoc));
+  }
+
+  private ManifestIndex(DocumentBasedManifest manifest) {
+    navigator.init(new ManifestAdapter(manifest));
+    firstBlip = navigator.getFirstBlip(manifest.getRootThread());
+    indexThread(manifest.getRootThread(), ImmutableList.<ManifestBlip>of());
+  }
+
+  /**
+   * @return the blip with the id, or null if there is no such blip.
+   */
+  ManifestBlip getBlip(String blipId) {
+    return blipsById.get(blipId);
+  }
+
+  /**
+   * @return the first blip of root thread, or null if there are no blips.
+   */
+  ManifestBlip getFirstBlip() {
+    return firstBlip;
+  }
+
+  String getBlipId(ManifestBlip blip) {
+    return blipIds.get(blip);
+  }
+
+  /**
+   * Gets parents of blip in inline threads, which should be shown together
+   * with the blip.
+   *
+   * @return parents ordered from the top one.
+   */
+  List<ManifestBlip> getNecessaryParentBlips(ManifestBlip blip) {
+    List<ManifestBlip> parents = necessaryParents.get(blip);
+    return parents != null ? parents : Collections.<ManifestBlip>emptyList();
+  }
+
+  /**
+   * Passes blips to the receiver in order of distance from the start blip.
+   */
+  void findNeighborBlips(ManifestBlip startBlip, Receiver<ManifestBlip> receiver) {
+    navigator.findNeighborBlips(Collections.singletonList(startBlip), receiver, false);
+  }
+
+  private void indexThread(ManifestThread thread, ImmutableList<ManifestBlip> parents) {
+    for (ManifestBlip blip : thread.getBlips()) {
+      String blipId = blip.getId();
+      // The first blip wins for duplicated ids, as in depth-first search.
+      if (!blipsById.containsKey(blipId)) {
+        blipsById.put(blipId, blip);
+      }
+      blipIds.put(blip, blipId);
+      necessaryParents.put(blip, parents);
+      for (ManifestThread reply : blip.getReplies()) {
+        indexThread(reply, reply.isInline()
+            ? ImmutableList.<ManifestBlip>builder().addAll(parents).add(blip).build()
+            : parents);
+      }
+    }
+  }
+}
@@ -24,6 +24,7 @@ import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Lists;
 import com.google.gxp.com.google.common.collect.Maps;
 
+import org.waveprotocol.box.server.waveserver.WaveMap;
 import org.waveprotocol.wave.model.id.WaveletName;
 import org.waveprotocol.wave.model.wave.ParticipantId;
 import org.waveprotocol.wave.util.logging.Log;
@@ -45,6 +46,17 @@ final class WaveletSubscriptions {
   private final ListMultimap<String, WaveletSubscription> connectionSubscriptions =
       LinkedListMultimap.create();
 
+  /** Map of waves to retain subscribed waves in memory, may be null. */
+  private final WaveMap waveMap;
+
+  public WaveletSubscriptions() {
+    this(null);
+  }
+
+  public WaveletSubscriptions(WaveMap waveMap) {
+    this.waveMap = waveMap;
+  }
+
   public synchronized WaveletSubscription subscribe(WaveletName waveletName, ParticipantId participantId,
       String channelId, String connectionId, ClientFrontend.UpdateChannelListener listener) {
     WaveletSubscription subscription =
@@ -52,13 +64,19 @@ final class WaveletSubscriptions {
     waveletSubscriptions.put(waveletName, subscription);
     channelSubscriptions.put(channelId, subscription);
     connectionSubscriptions.put(connectionId, subscription);
+    if (waveMap != null) {
+      waveMap.retainWave(waveletName.waveId);
+    }
     return subscription;
   }
 
   public synchronized void unsubscribe(WaveletSubscription subscription) {
-    waveletSubscriptions.remove(subscription.getWaveletName(), subscription);
+    boolean removed = waveletSubscriptions.remove(subscription.getWaveletName(), subscription);
     channelSubscriptions.remove(subscription.getChannelId());
     connectionSubscriptions.remove(subscription.getConnectionId(), subscription);
+    if (removed && waveMap != null) {
+      waveMap.releaseWave(subscription.getWaveletName().waveId);
+    }
   }
 
   public synchronized List<WaveletSubscription> getSubscriptions(WaveletName waveletName) {
@@ -18,6 +18,7 @@
  */
 package org.waveprotocol.box.server.persistence;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 
@@ -39,6 +40,14 @@ public interface AttachmentStore {
     public long getSize();
   }
 
+  /**
+   * Attachment data stored in a file, may be sent directly from the file.
+   */
+  interface FileAttachmentData extends AttachmentData {
+
+    public File getFile();
+  }
+
   /**
    * Fetch an attachment metadata.
    *
@@ -20,10 +20,16 @@
 package org.waveprotocol.box.server.persistence;
 
 import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
 import org.waveprotocol.box.server.persistence.AttachmentStore.AttachmentData;
+import org.waveprotocol.box.server.persistence.AttachmentStore.FileAttachmentData;
 import org.waveprotocol.wave.model.id.IdConstants;
 import org.waveprotocol.wave.model.id.WaveId;
 import org.waveprotocol.wave.model.id.WaveletId;
@@ -41,6 +47,8 @@ import org.waveprotocol.wave.util.logging.Log;
 public class AttachmentUtil {
   private static final Log LOG = Log.get(AttachmentUtil.class);
 
+  private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
   private AttachmentUtil() {}
 
   /**
@@ -59,6 +67,56 @@ public class AttachmentUtil {
     }
   }
 
+  /**
+   * Writes the part of attachment data to an output stream. Data stored in a
+   * file are transferred by the file channel without reading to the heap.
+   *
+   * @param data the attachment data.
+   * @param offset the offset of the part.
+   * @param length the length of the part.
+   * @param dest the OutputStream to write to.
+   * @throws IOException
+   */
+  public static void writeTo(AttachmentData data, long offset, long length, OutputStream dest)
+      throws IOException {
+    if (data instanceof FileAttachmentData) {
+      try (FileChannel channel = FileChannel.open(
+          ((FileAttachmentData) data).getFile().toPath(), StandardOpenOption.READ)) {
+        WritableByteChannel target = Channels.newChannel(dest);
+        long position = offset;
+        long end = offset + length;
+        while (position < end) {
+          long transferred = channel.transferTo(position, end - position, target);
+          if (transferred <= 0) {
+            throw new EOFException("Attachment data is shorter than " + end);
+          }
+          position += transferred;
+        }
+      }
+    } else {
+      try (InputStream source = data.getInputStream()) {
+        long skipped = 0;
+        while (skipped < offset) {
+          long count = source.skip(offset - skipped);
+          if (count <= 0) {
+            throw new EOFException("Attachment data is shorter than " + offset);
+          }
+          skipped += count;
+        }
+        byte[] buffer = new byte[(int) Math.min(COPY_BUFFER_SIZE, Math.max(length, 1))];
+        long remaining = length;
+        while (remaining > 0) {
+          int count = source.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+          if (count == -1) {
+            throw new EOFException("Attachment data is shorter than " + (offset + length));
+          }
+          dest.write(buffer, 0, count);
+          remaining -= count;
+        }
+      }
+    }
+  }
+
   /**
    * Write the attachment out to a string.
    *
@@ -19,6 +19,8 @@
 
 package org.waveprotocol.box.server.persistence.blocks;
 
+import com.google.common.util.concurrent.ListenableFuture;
+
 import org.waveprotocol.box.server.persistence.PersistenceException;
 
 import java.util.Collection;
@@ -41,4 +43,12 @@ interface WaveletBlockReader {
    * @param blockRequest the request.
    */
   Collection<Block> readBlocks(Set<String> blockIds) throws PersistenceException;
+
+  /**
+   * Reads blocks by Ids without blocking of the caller.
+   *
+   * @return future of the blocks, fails with {@link PersistenceException}
+   *         if the blocks can't be read.
+   */
+  ListenableFuture<Collection<Block>> readBlocksAsync(Set<String> blockIds);
 }
@@ -19,6 +19,8 @@
 
 package org.waveprotocol.box.server.persistence.blocks;
 
+import com.google.common.util.concurrent.ListenableFuture;
+
 import org.waveprotocol.box.server.persistence.PersistenceException;
 
 /**
@@ -36,4 +38,20 @@ interface WaveletBlockWriter {
    * Writes block index.
    */
   void writeBlockIndex(BlockIndex blockIndex) throws PersistenceException;
+
+  /**
+   * Writes block without blocking of the caller.
+   * The block is serialized before return, so it may be modified afterwards.
+   *
+   * @return future that is done when the block is stored.
+   */
+  ListenableFuture<Void> writeBlockAsync(Block block);
+
+  /**
+   * Writes block index without blocking of the caller.
+   * The index is serialized before return, so it may be modified afterwards.
+   *
+   * @return future that is done when the index is stored.
+   */
+  ListenableFuture<Void> writeBlockIndexAsync(BlockIndex blockIndex);
 }
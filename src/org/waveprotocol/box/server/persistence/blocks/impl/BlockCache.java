@@ -38,4 +38,15 @@ public class BlockCache {
   public Block getBlock(String blockId) {
     return cache.getIfPresent(blockId);
   }
+
+  /**
+   * Gets summary size of cached blocks.
+   */
+  public long getMemorySize() {
+    long size = 0;
+    for (Block block : cache.asMap().values()) {
+      size += block.getSize();
+    }
+    return size;
+  }
 }
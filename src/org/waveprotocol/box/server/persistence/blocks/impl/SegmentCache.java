@@ -29,6 +29,10 @@ import org.waveprotocol.wave.util.logging.Log;
 
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.collect.ConcurrentHashMultiset;
+import com.google.common.collect.Multiset;
 
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
@@ -44,10 +48,22 @@ import javax.annotation.Nullable;
 public class SegmentCache {
   private static final Log LOG = Log.get(SegmentCache.class);
 
+  /**
+   * Numbers of cached segments by wavelets.
+   */
+  private final Multiset<WaveletName> segmentCounts = ConcurrentHashMultiset.create();
+
   /**
    * Cache of segments.
    */
-  private final Cache<SegmentName, Segment> cache = CacheBuilder.newBuilder().softValues().build();
+  private final Cache<SegmentName, Segment> cache = CacheBuilder.newBuilder().softValues()
+      .removalListener(new RemovalListener<SegmentName, Segment>() {
+
+        @Override
+        public void onRemoval(RemovalNotification<SegmentName, Segment> rn) {
+          segmentCounts.remove(rn.getKey().waveletName);
+        }
+      }).build();
 
   /** Gets segment from cache.
    *
@@ -59,12 +75,13 @@ public class SegmentCache {
   }
 
   /** Gets segment from cache or create new. */
-  public Segment getOrCreateSegment(WaveletName waveletName, final SegmentId segmentId, final BlockFactory blockProvider) {
+  public Segment getOrCreateSegment(final WaveletName waveletName, final SegmentId segmentId, final BlockFactory blockProvider) {
     try {
       return cache.get(SegmentName.of(waveletName, segmentId), new Callable<Segment>(){
 
         @Override
         public Segment call() throws Exception {
+          segmentCounts.add(waveletName);
           return new SegmentImpl(segmentId, blockProvider);
         }
       });
@@ -78,6 +95,11 @@ public class SegmentCache {
     return cache.asMap().values();
   }
 
+  /** Gets number of cached segments of specified wavelet. */
+  public int getSegmentCount(WaveletName waveletName) {
+    return segmentCounts.count(waveletName);
+  }
+
   /** Removes segments of specified wavelet. */
   public void removeWavelet(WaveletName waveletName) {
     for (SegmentName segmentName : cache.asMap().keySet()) {
@@ -19,6 +19,8 @@
 
 package org.waveprotocol.box.server.persistence.deltas;
 
+import com.google.common.util.concurrent.ListenableFuture;
+
 import org.waveprotocol.box.server.persistence.PersistenceException;
 
 import java.util.Collection;
@@ -43,4 +45,15 @@ public interface WaveletDeltaRecordWriter {
      *         storage.
      */
     void append(Collection<WaveletDeltaRecord> deltas) throws PersistenceException;
+
+    /**
+     * Non-blocking call to append deltas to the end of the delta history.
+     * The returned future is done when the deltas have been durably stored,
+     * or fails with {@link PersistenceException} if anything goes wrong with
+     * the underlying storage. The next append may be started only after the
+     * previous one is done.
+     *
+     * @param deltas contiguous deltas, as for {@link #append}.
+     */
+    ListenableFuture<Void> appendAsync(Collection<WaveletDeltaRecord> deltas);
 }
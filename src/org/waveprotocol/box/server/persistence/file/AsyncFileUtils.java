@@ -0,0 +1,179 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.waveprotocol.box.server.persistence.file;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+
+import org.waveprotocol.box.server.persistence.PersistenceException;
+import org.waveprotocol.wave.util.logging.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Non-blocking reading and writing of files based on {@link AsynchronousFileChannel}.
+ * Completions are processed by the default channel group, so the count of threads
+ * doesn't depend on the count of files being read or written.
+ *
+ * @author akaplanov@gmail.com (A. Kaplanov)
+ */
+public class AsyncFileUtils {
+  private static final Log LOG = Log.get(AsyncFileUtils.class);
+
+  /**
+   * Reads the whole file.
+   *
+   * @return future of file content, fails with {@link PersistenceException}.
+   */
+  public static ListenableFuture<byte[]> readFile(File file) {
+    SettableFuture<byte[]> future = SettableFuture.create();
+    AsynchronousFileChannel channel;
+    ByteBuffer buffer;
+    try {
+      channel = AsynchronousFileChannel.open(file.toPath(), StandardOpenOption.READ);
+      long size = channel.size();
+      if (size > Integer.MAX_VALUE) {
+        closeChannel(channel, file);
+        future.setException(new PersistenceException("File " + file + " is too large"));
+        return future;
+      }
+      buffer = ByteBuffer.allocate((int)size);
+    } catch (IOException ex) {
+      future.setException(new PersistenceException(ex));
+      return future;
+    }
+    readNext(channel, buffer, file, future);
+    return future;
+  }
+
+  /**
+   * Writes the data to the file, replacing its content, and closes the file.
+   *
+   * @param force forces the data to the storage device before completion.
+   * @return future that fails with {@link PersistenceException}.
+   */
+  public static ListenableFuture<Void> writeFile(final File file, byte[] data, boolean force) {
+    final SettableFuture<Void> future = SettableFuture.create();
+    final AsynchronousFileChannel channel;
+    try {
+      channel = AsynchronousFileChannel.open(file.toPath(), StandardOpenOption.WRITE,
+          StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+    } catch (IOException ex) {
+      future.setException(new PersistenceException(ex));
+      return future;
+    }
+    final ListenableFuture<Void> writing = write(channel, ByteBuffer.wrap(data), 0, force);
+    writing.addListener(new Runnable() {
+
+      @Override
+      public void run() {
+        closeChannel(channel, file);
+        try {
+          writing.get();
+          future.set(null);
+        } catch (Exception ex) {
+          future.setException(ex.getCause() != null ? ex.getCause() : ex);
+        }
+      }
+    }, MoreExecutors.sameThreadExecutor());
+    return future;
+  }
+
+  /**
+   * Writes the buffer to the opened channel from the specified position.
+   *
+   * @param force forces the data to the storage device before completion.
+   * @return future that fails with {@link PersistenceException}.
+   */
+  public static ListenableFuture<Void> write(AsynchronousFileChannel channel, ByteBuffer buffer,
+      long position, boolean force) {
+    SettableFuture<Void> future = SettableFuture.create();
+    writeNext(channel, buffer, position, force, future);
+    return future;
+  }
+
+  private static void readNext(final AsynchronousFileChannel channel, final ByteBuffer buffer,
+      final File file, final SettableFuture<byte[]> future) {
+    if (!buffer.hasRemaining()) {
+      closeChannel(channel, file);
+      future.set(buffer.array());
+      return;
+    }
+    channel.read(buffer, buffer.position(), null, new CompletionHandler<Integer, Void>() {
+
+      @Override
+      public void completed(Integer count, Void attachment) {
+        if (count < 0) {
+          closeChannel(channel, file);
+          future.setException(new PersistenceException("Unexpected end of file " + file));
+        } else {
+          readNext(channel, buffer, file, future);
+        }
+      }
+
+      @Override
+      public void failed(Throwable ex, Void attachment) {
+        closeChannel(channel, file);
+        future.setException(new PersistenceException(ex));
+      }
+    });
+  }
+
+  private static void writeNext(final AsynchronousFileChannel channel, final ByteBuffer buffer,
+      final long position, final boolean force, final SettableFuture<Void> future) {
+    if (!buffer.hasRemaining()) {
+      try {
+        if (force) {
+          channel.force(true);
+        }
+        future.set(null);
+      } catch (IOException ex) {
+        future.setException(new PersistenceException(ex));
+      }
+      return;
+    }
+    channel.write(buffer, position, null, new CompletionHandler<Integer, Void>() {
+
+      @Override
+      public void completed(Integer count, Void attachment) {
+        writeNext(channel, buffer, position + count, force, future);
+      }
+
+      @Override
+      public void failed(Throwable ex, Void attachment) {
+        future.setException(new PersistenceException(ex));
+      }
+    });
+  }
+
+  private static void closeChannel(AsynchronousFileChannel channel, File file) {
+    try {
+      channel.close();
+    } catch (IOException ex) {
+      LOG.warning("Failed to close file " + file, ex);
+    }
+  }
+}
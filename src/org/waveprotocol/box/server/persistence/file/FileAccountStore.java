@@ -20,7 +20,6 @@
 package org.waveprotocol.box.server.persistence.file;
 
 import com.google.common.base.Preconditions;
-import com.google.common.collect.Maps;
 import com.google.inject.Inject;
 import com.google.inject.name.Named;
 
@@ -39,20 +38,32 @@ import org.waveprotocol.wave.util.logging.Log;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * A flat file based implementation of {@link AccountStore}
  *
+ * All accounts are read to memory on first access, so lookups don't touch
+ * the disk, including lookups of unknown addresses. Unreadable account files
+ * are skipped. Updates are written to files before they become visible.
+ *
  * @author tad.glines@gmail.com (Tad Glines)
  */
 public class FileAccountStore implements AccountStore {
   private static final String ACCOUNT_FILE_EXTENSION = ".account";
   private final String accountStoreBasePath;
-  private final Map<ParticipantId, AccountData> accounts = Maps.newHashMap();
-  private final LifeCycle lifeCycle = new LifeCycle(FileAccountStore.class.getSimpleName(), ShutdownPriority.Storage);
+  private final ConcurrentMap<ParticipantId, AccountData> accounts = new ConcurrentHashMap<>();
+  private volatile boolean loaded;
+
+  /** Serializes writing of account files. */
+  private final Object writeLock = new Object();
+
+  private final LifeCycle lifeCycle = new LifeCycle(FileAccountStore.class.getSimpleName(),
+      ShutdownPriority.Storage);
 
   private static final Log LOG = Log.get(FileAccountStore.class);
 
@@ -67,33 +78,22 @@ public class FileAccountStore implements AccountStore {
   public void initializeAccountStore() throws PersistenceException {
     FileUtils.performDirectoryChecks(accountStoreBasePath, ACCOUNT_FILE_EXTENSION, "account store",
         LOG);
+    ensureLoaded();
   }
 
   @Override
   public AccountData getAccount(ParticipantId id) throws PersistenceException {
-    lifeCycle.enter();
-    try {
-      synchronized (accounts) {
-        AccountData account = accounts.get(id);
-        if (account == null) {
-          account = readAccount(id);
-          if (account != null) {
-            accounts.put(id, account);
-          }
-        }
-        return account;
-      }
-    } finally {
-      lifeCycle.leave();
-    }
+    ensureLoaded();
+    return accounts.get(id);
   }
 
   @Override
   public void putAccount(AccountData account) throws PersistenceException {
+    Preconditions.checkNotNull(account);
+    ensureLoaded();
     lifeCycle.enter();
     try {
-      synchronized (accounts) {
-        Preconditions.checkNotNull(account);
+      synchronized (writeLock) {
         writeAccount(account);
         accounts.put(account.getId(), account);
       }
@@ -104,9 +104,10 @@ public class FileAccountStore implements AccountStore {
 
   @Override
   public void removeAccount(ParticipantId id) throws PersistenceException {
+    ensureLoaded();
     lifeCycle.enter();
     try {
-      synchronized (accounts) {
+      synchronized (writeLock) {
         File file = new File(participantIdToFileName(id));
         if (file.exists()) {
           if (!file.delete()) {
@@ -121,18 +122,46 @@ public class FileAccountStore implements AccountStore {
     }
   }
 
+  private void ensureLoaded() throws PersistenceException {
+    if (!loaded) {
+      synchronized (accounts) {
+        if (!loaded) {
+          readAccounts();
+          loaded = true;
+        }
+      }
+    }
+  }
+
   private String participantIdToFileName(ParticipantId id) {
     return accountStoreBasePath + File.separator + id.getAddress().toLowerCase()
         + ACCOUNT_FILE_EXTENSION;
   }
 
-  private AccountData readAccount(ParticipantId id) throws PersistenceException {
-    File accountFile = new File(participantIdToFileName(id));
+  private void readAccounts() throws PersistenceException {
+    File[] files = new File(accountStoreBasePath).listFiles(new FilenameFilter() {
+
+      @Override
+      public boolean accept(File dir, String name) {
+        return name.endsWith(ACCOUNT_FILE_EXTENSION);
+      }
+    });
+    if (files != null) {
+      for (File file : files) {
+        try {
+          AccountData account = readAccount(file);
+          accounts.put(account.getId(), account);
+        } catch (PersistenceException | RuntimeException ex) {
+          LOG.severe("Skipped unreadable account file " + file.getAbsolutePath(), ex);
+        }
+      }
+      LOG.info("Loaded " + accounts.size() + " accounts");
+    }
+  }
+
+  private AccountData readAccount(File accountFile) throws PersistenceException {
     FileInputStream file = null;
     try {
-      if (!accountFile.exists()) {
-        return null;
-      }
       file = new FileInputStream(accountFile);
       ProtoAccountData data = ProtoAccountData.newBuilder().mergeFrom(file).build();
       return ProtoAccountDataSerializer.deserialize(data);
@@ -31,6 +31,7 @@ import org.waveprotocol.box.attachment.proto.AttachmentMetadataProtoImpl;
 import org.waveprotocol.wave.media.model.AttachmentId;
 import org.waveprotocol.box.server.shutdown.LifeCycle;
 import org.waveprotocol.box.server.shutdown.ShutdownPriority;
+import org.waveprotocol.wave.util.logging.Log;
 
 import java.io.File;
 import java.io.FileInputStream;
@@ -39,9 +40,19 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
- * An implementation of AttachmentStore which uses files on disk
+ * An implementation of AttachmentStore which uses files on disk.
+ *
+ * Attachment data are stored in the content addressed {@link FileBlobStore},
+ * so equal uploads are stored once. Each attachment has a reference file with
+ * the hash of its blob. Attachments stored before are read from files named
+ * by attachment id, {@link #compact} moves them to the blob store.
  *
  * @author josephg@gmail.com (Joseph Gentle)
  * @author akaplanov@gmail.com (A. Kaplanov)
@@ -50,16 +61,24 @@ public class FileAttachmentStore implements AttachmentStore {
 
   private final String META_EXT = ".meta";
   private final String THUMBNAIL_EXT = ".thumbnail";
+  private static final String REF_EXT = ".ref";
+  private static final String TEMP_EXT = ".tmp";
+  private static final String BLOBS_DIRECTORY = "blobs";
+
+  private static final Log LOG = Log.get(FileAttachmentStore.class);
 
   /** The directory in which the attachments are stored. */
   private final String basePath;
 
+  private final FileBlobStore blobStore;
+
   private final LifeCycle lifeCycle = new LifeCycle(FileAttachmentStore.class.getSimpleName(), ShutdownPriority.Storage);
 
   @Inject
   public FileAttachmentStore(@Named(CoreSettings.ATTACHMENT_STORE_DIRECTORY) String basePath) {
     this.basePath = basePath;
     new File(basePath).mkdirs();
+    this.blobStore = new FileBlobStore(new File(basePath, BLOBS_DIRECTORY));
     lifeCycle.start();
   }
 
@@ -76,42 +95,20 @@ public class FileAttachmentStore implements AttachmentStore {
 
   @Override
   public AttachmentData getAttachment(AttachmentId attachmentId) throws IOException {
-    final File file = new File(getAttachmentPath(attachmentId));
-    if (!file.exists()) {
+    File file = getAttachmentFile(attachmentId);
+    if (file == null) {
       return null;
     }
-    return new AttachmentData() {
-
-      @Override
-      public InputStream getInputStream() throws IOException {
-        return new FileInputStream(file);
-      }
-
-      @Override
-      public long getSize() {
-        return file.length();
-      }
-    };
+    return createData(file);
   }
 
   @Override
   public AttachmentData getThumbnail(AttachmentId attachmentId) throws IOException {
-    final File file = new File(getThumbnailPath(attachmentId));
+    File file = new File(getThumbnailPath(attachmentId));
     if (!file.exists()) {
       return null;
     }
-    return new AttachmentData() {
-
-      @Override
-      public InputStream getInputStream() throws IOException {
-        return new FileInputStream(file);
-      }
-
-      @Override
-      public long getSize() {
-        return file.length();
-      }
-    };
+    return createData(file);
   }
 
   @Override
@@ -135,13 +132,11 @@ public class FileAttachmentStore implements AttachmentStore {
   public void storeAttachment(AttachmentId attachmentId, InputStream data) throws IOException {
     lifeCycle.enter();
     try {
-      File file = new File(getAttachmentPath(attachmentId));
-      if (file.exists()) {
+      File refFile = new File(getRefPath(attachmentId));
+      if (refFile.exists() || new File(getAttachmentPath(attachmentId)).exists()) {
         throw new IOException("Attachment already exists");
       }
-      FileOutputStream stream = new FileOutputStream(file);
-      writeTo(data, stream);
-      stream.close();
+      writeRef(refFile, blobStore.store(data));
     } finally {
       lifeCycle.leave();
     }
@@ -167,6 +162,11 @@ public class FileAttachmentStore implements AttachmentStore {
   public void deleteAttachment(AttachmentId attachmentId) {
     lifeCycle.enter();
     try {
+      // The blob is removed by compaction if it is not referenced anymore.
+      File refFile = new File(getRefPath(attachmentId));
+      if (refFile.exists()) {
+        refFile.delete();
+      }
       File file = new File(getAttachmentPath(attachmentId));
       if (file.exists()) {
         file.delete();
@@ -176,6 +176,110 @@ public class FileAttachmentStore implements AttachmentStore {
     }
   }
 
+  /**
+   * Moves attachments stored by id to the blob store and removes blobs which
+   * are not referenced by attachments. Must be run while the server is
+   * stopped.
+   */
+  public void compact() throws IOException {
+    File[] files = new File(basePath).listFiles();
+    if (files == null) {
+      throw new IOException("Can't list " + basePath);
+    }
+    int migrated = 0;
+    Map<String, Integer> refCounts = new HashMap<>();
+    for (File file : files) {
+      String name = file.getName();
+      if (!file.isFile() || name.endsWith(META_EXT) || name.endsWith(THUMBNAIL_EXT)
+          || name.endsWith(TEMP_EXT)) {
+        continue;
+      }
+      String hash;
+      if (name.endsWith(REF_EXT)) {
+        hash = readRef(file);
+      } else {
+        File refFile = new File(file.getPath() + REF_EXT);
+        if (refFile.exists()) {
+          // Moved by interrupted compaction, the reference is counted by itself.
+          file.delete();
+          continue;
+        }
+        // The file is removed only after the reference is written, so the
+        // attachment is not lost if compaction is interrupted.
+        try (InputStream in = new FileInputStream(file)) {
+          hash = blobStore.store(in);
+        }
+        writeRef(refFile, hash);
+        file.delete();
+        migrated++;
+      }
+      Integer count = refCounts.get(hash);
+      refCounts.put(hash, count == null ? 1 : count + 1);
+    }
+    FileBlobStore.SweepResult result = blobStore.sweep(refCounts.keySet());
+    int shared = 0;
+    for (int count : refCounts.values()) {
+      if (count > 1) {
+        shared++;
+      }
+    }
+    LOG.info("Attachment store compacted: " + migrated + " attachments moved to blobs, "
+        + refCounts.size() + " blobs are referenced, " + shared + " of them by several "
+        + "attachments, " + result.getRemovedBlobs() + " files of " + result.getRemovedBytes()
+        + " bytes removed");
+  }
+
+  /**
+   * @return the file with data of attachment, or null if there is no such
+   *         attachment.
+   */
+  private File getAttachmentFile(AttachmentId attachmentId) throws IOException {
+    File refFile = new File(getRefPath(attachmentId));
+    if (refFile.exists()) {
+      String hash = readRef(refFile);
+      File blob = blobStore.getBlob(hash);
+      if (blob == null) {
+        throw new IOException("No blob " + hash + " of attachment " + attachmentId);
+      }
+      return blob;
+    }
+    File file = new File(getAttachmentPath(attachmentId));
+    return file.exists() ? file : null;
+  }
+
+  private static String readRef(File refFile) throws IOException {
+    return new String(Files.readAllBytes(refFile.toPath()), StandardCharsets.US_ASCII).trim();
+  }
+
+  /**
+   * Writes the reference atomically, so it is never seen partially written.
+   */
+  private static void writeRef(File refFile, String hash) throws IOException {
+    File temp = new File(refFile.getPath() + TEMP_EXT);
+    Files.write(temp.toPath(), hash.getBytes(StandardCharsets.US_ASCII));
+    Files.move(temp.toPath(), refFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  private static AttachmentData createData(final File file) {
+    return new FileAttachmentData() {
+
+      @Override
+      public InputStream getInputStream() throws IOException {
+        return new FileInputStream(file);
+      }
+
+      @Override
+      public long getSize() {
+        return file.length();
+      }
+
+      @Override
+      public File getFile() {
+        return file;
+      }
+    };
+  }
+
   private String getMetadataPath(AttachmentId attachmentId) {
     return basePath + File.separatorChar + encodeId(attachmentId) + META_EXT;
   }
@@ -184,6 +288,10 @@ public class FileAttachmentStore implements AttachmentStore {
     return basePath + File.separatorChar + encodeId(attachmentId);
   }
 
+  private String getRefPath(AttachmentId attachmentId) {
+    return basePath + File.separatorChar + encodeId(attachmentId) + REF_EXT;
+  }
+
   private String getThumbnailPath(AttachmentId attachmentId) {
     return basePath + File.separatorChar + encodeId(attachmentId) + THUMBNAIL_EXT;
   }
@@ -0,0 +1,172 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.waveprotocol.box.server.persistence.file;
+
+import com.google.common.io.BaseEncoding;
+
+import org.waveprotocol.wave.util.logging.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Set;
+
+/**
+ * Content addressed store of blobs in files, keyed by SHA-256 hash of the
+ * content. Equal contents are stored once.
+ *
+ * The blob of hash "abcd..." is stored in file "ab/abcd...". Blobs are never
+ * changed, unreferenced blobs are removed by {@link #sweep}.
+ *
+ * @author akaplanov@gmail.com (A. Kaplanov)
+ */
+public class FileBlobStore {
+  private static final Log LOG = Log.get(FileBlobStore.class);
+
+  private static final String HASH_ALGORITHM = "SHA-256";
+  private static final String TEMP_PREFIX = "tmp-";
+  private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+  /** Result of the sweep. */
+  public static class SweepResult {
+    private int removedBlobs;
+    private long removedBytes;
+
+    public int getRemovedBlobs() {
+      return removedBlobs;
+    }
+
+    public long getRemovedBytes() {
+      return removedBytes;
+    }
+  }
+
+  private final File directory;
+
+  public FileBlobStore(File directory) {
+    this.directory = directory;
+    directory.mkdirs();
+  }
+
+  /**
+   * Stores the data. The data is hashed while being written to a temporary
+   * file, which is then moved to the blob or removed if the blob exists.
+   *
+   * @return the hash of the data.
+   */
+  public String store(InputStream data) throws IOException {
+    File temp = File.createTempFile(TEMP_PREFIX, null, directory);
+    try {
+      MessageDigest digest = newDigest();
+      try (OutputStream out = new DigestOutputStream(new FileOutputStream(temp), digest)) {
+        byte[] buffer = new byte[COPY_BUFFER_SIZE];
+        int length;
+        while ((length = data.read(buffer)) != -1) {
+          out.write(buffer, 0, length);
+        }
+      }
+      String hash = BaseEncoding.base16().lowerCase().encode(digest.digest());
+      moveToBlob(temp, hash);
+      return hash;
+    } finally {
+      temp.delete();
+    }
+  }
+
+  /**
+   * @return the file of the blob, or null if there is no such blob.
+   */
+  public File getBlob(String hash) {
+    File file = getBlobFile(hash);
+    return file.exists() ? file : null;
+  }
+
+  /**
+   * Removes blobs which are not referenced and abandoned temporary files.
+   * Must not be called concurrently with storing.
+   *
+   * @param referenced hashes of referenced blobs.
+   */
+  public SweepResult sweep(Set<String> referenced) {
+    SweepResult result = new SweepResult();
+    File[] entries = directory.listFiles();
+    if (entries == null) {
+      return result;
+    }
+    for (File entry : entries) {
+      if (entry.isDirectory()) {
+        File[] blobs = entry.listFiles();
+        if (blobs != null) {
+          for (File blob : blobs) {
+            if (!referenced.contains(blob.getName())) {
+              remove(blob, result);
+            }
+          }
+        }
+      } else if (entry.getName().startsWith(TEMP_PREFIX)) {
+        remove(entry, result);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @return true if the file is moved, false if the blob exists already.
+   */
+  private boolean moveToBlob(File file, String hash) throws IOException {
+    File blob = getBlobFile(hash);
+    if (blob.exists()) {
+      return false;
+    }
+    blob.getParentFile().mkdirs();
+    try {
+      Files.move(file.toPath(), blob.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    } catch (FileAlreadyExistsException e) {
+      // Stored concurrently.
+      return false;
+    }
+    return true;
+  }
+
+  private File getBlobFile(String hash) {
+    return new File(new File(directory, hash.substring(0, 2)), hash);
+  }
+
+  private static void remove(File file, SweepResult result) {
+    long length = file.length();
+    if (file.delete()) {
+      result.removedBlobs++;
+      result.removedBytes += length;
+    } else {
+      LOG.warning("Can't remove " + file);
+    }
+  }
+
+  private static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance(HASH_ALGORITHM);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
@@ -20,6 +20,12 @@
 package org.waveprotocol.box.server.persistence.file;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Function;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.protobuf.InvalidProtocolBufferException;
 
 import org.waveprotocol.box.server.persistence.PersistenceException;
@@ -39,6 +45,8 @@ import org.waveprotocol.wave.model.id.WaveletName;
 import org.waveprotocol.wave.model.util.CollectionUtils;
 import org.waveprotocol.wave.util.logging.Log;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -138,6 +146,45 @@ public class FileBlockAccess implements BlockAccess {
     }
   }
 
+  @Override
+  public ListenableFuture<Collection<Block>> readBlocksAsync(Set<String> blockIds) {
+    lifeCycle.enter();
+    ListenableFuture<Collection<Block>> future;
+    try {
+      List<ListenableFuture<Block>> futures = Lists.newArrayListWithCapacity(blockIds.size());
+      for (final String blockId : blockIds) {
+        futures.add(Futures.transform(
+            AsyncFileUtils.readFile(blockFile(basePath, waveletName, blockId)),
+            new AsyncFunction<byte[], Block>() {
+
+          @Override
+          public ListenableFuture<Block> apply(byte[] bytes) {
+            Timer timer = Timing.start("FileBlockAccess.deserializeBlock");
+            try {
+              return Futures.immediateFuture(BlockImpl.deserialize(new ByteArrayInputStream(bytes)));
+            } catch (IOException ex) {
+              return Futures.immediateFailedFuture(new PersistenceException(ex));
+            } finally {
+              Timing.stop(timer);
+            }
+          }
+        }));
+      }
+      future = Futures.transform(Futures.allAsList(futures),
+          new Function<List<Block>, Collection<Block>>() {
+
+        @Override
+        public Collection<Block> apply(List<Block> blocks) {
+          return blocks;
+        }
+      });
+    } catch (RuntimeException ex) {
+      lifeCycle.leave();
+      throw ex;
+    }
+    return leaveOnCompletion(future);
+  }
+
   @Override
   public synchronized void writeBlock(Block block) throws PersistenceException {
     lifeCycle.enter();
@@ -171,6 +218,42 @@ public class FileBlockAccess implements BlockAccess {
     }
   }
 
+  @Override
+  public ListenableFuture<Void> writeBlockAsync(Block block) {
+    lifeCycle.enter();
+    ListenableFuture<Void> future;
+    try {
+      LOG.info("Writing block " + block.getBlockId() + " : wavelet " + waveletName.toString());
+      Timer timer = Timing.start("FileBlockAccess.serializeBlock");
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      try {
+        block.serialize(out);
+      } finally {
+        Timing.stop(timer);
+      }
+      future = AsyncFileUtils.writeFile(blockFile(basePath, waveletName, block.getBlockId()),
+          out.toByteArray(), false);
+    } catch (RuntimeException ex) {
+      lifeCycle.leave();
+      throw ex;
+    }
+    return leaveOnCompletion(future);
+  }
+
+  @Override
+  public ListenableFuture<Void> writeBlockIndexAsync(BlockIndex segmentsIndex) {
+    lifeCycle.enter();
+    ListenableFuture<Void> future;
+    try {
+      future = AsyncFileUtils.writeFile(blockIndexFile(basePath, waveletName),
+          segmentsIndex.serialize().toByteArray(), false);
+    } catch (RuntimeException ex) {
+      lifeCycle.leave();
+      throw ex;
+    }
+    return leaveOnCompletion(future);
+  }
+
   public synchronized static void delete(WaveletName waveletName, String basePath) throws PersistenceException {
     String[] files = waveletDir(basePath, waveletName).list();
     for (String file : files) {
@@ -179,6 +262,21 @@ public class FileBlockAccess implements BlockAccess {
     waveletDir(basePath, waveletName).delete();
   }
 
+  /**
+   * Leaves the life cycle when asynchronous operation is completed, so
+   * shutdown waits for the pending I/O.
+   */
+  private <T> ListenableFuture<T> leaveOnCompletion(ListenableFuture<T> future) {
+    future.addListener(new Runnable() {
+
+      @Override
+      public void run() {
+        lifeCycle.leave();
+      }
+    }, MoreExecutors.sameThreadExecutor());
+    return future;
+  }
+
   private Block readBlockFile(String blockId) throws PersistenceException {
     LOG.fine("Reading block " + blockId + " ...");
     Timer timer = Timing.start("FileBlockAccess.readBlockFile");
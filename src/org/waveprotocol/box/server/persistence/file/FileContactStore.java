@@ -28,6 +28,7 @@ import org.waveprotocol.wave.util.logging.Log;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Striped;
 import com.google.inject.Inject;
 import com.google.inject.name.Named;
 
@@ -36,6 +37,8 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
 
 /**
  * A flat file based implementation of {@link ContactStore}
@@ -51,6 +54,9 @@ public class FileContactStore implements ContactStore {
 
   private final LifeCycle lifeCycle = new LifeCycle(FileContactStore.class.getSimpleName(), ShutdownPriority.Storage);
 
+  /** Serializes accesses to the file of participant, others are accessed in parallel. */
+  private final Striped<ReadWriteLock> locks = Striped.readWriteLock(64);
+
   @Override
   public synchronized void initializeContactStore() throws PersistenceException {
     FileUtils.performDirectoryChecks(contactStoreBasePath,
@@ -65,8 +71,10 @@ public class FileContactStore implements ContactStore {
   }
 
   @Override
-  public synchronized List<Contact> getContacts(ParticipantId participantId) throws PersistenceException {
+  public List<Contact> getContacts(ParticipantId participantId) throws PersistenceException {
     lifeCycle.enter();
+    Lock lock = locks.get(participantId).readLock();
+    lock.lock();
     try {
       LOG.info("Get contacts for " + participantId.getAddress());
       File file = getContactsFile(participantId);
@@ -89,14 +97,17 @@ public class FileContactStore implements ContactStore {
         FileUtils.closeAndIgnoreException(in, file, LOG);
       }
     } finally {
+      lock.unlock();
       lifeCycle.leave();
     }
   }
 
   @Override
-  public synchronized void storeContacts(ParticipantId participantId, List<Contact> contacts)
+  public void storeContacts(ParticipantId participantId, List<Contact> contacts)
       throws PersistenceException {
     lifeCycle.enter();
+    Lock lock = locks.get(participantId).writeLock();
+    lock.lock();
     try {
       LOG.info("Store contacts for " + participantId.getAddress());
       File file = getContactsFile(participantId);
@@ -120,6 +131,7 @@ public class FileContactStore implements ContactStore {
         FileUtils.closeAndIgnoreException(out, file, LOG);
       }
     } finally {
+      lock.unlock();
       lifeCycle.leave();
     }
   }
@@ -19,6 +19,10 @@ package org.waveprotocol.box.server.persistence.file;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 import com.google.protobuf.ByteString;
 import com.google.protobuf.InvalidProtocolBufferException;
 
@@ -40,11 +44,14 @@ import org.waveprotocol.wave.model.util.Pair;
 import org.waveprotocol.wave.model.version.HashedVersion;
 import org.waveprotocol.wave.util.logging.Log;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.io.RandomAccessFile;
-import java.nio.channels.Channels;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
@@ -82,6 +89,7 @@ public class FileDeltaAccess implements DeltaAccess {
   private static final Log LOG = Log.get(FileDeltaAccess.class);
 
   private final WaveletName waveletName;
+  private final File deltasPath;
   private final RandomAccessFile deltasFile;
   private final DeltaIndex deltasIndex;
 
@@ -89,6 +97,15 @@ public class FileDeltaAccess implements DeltaAccess {
   private long lastModifiedTime;
   private boolean isOpen;
 
+  /** Channel for asynchronous appends, opened on first use. */
+  private AsynchronousFileChannel asyncChannel;
+
+  /** Whether the asynchronous append is in progress. */
+  private boolean asyncAppending;
+
+  /** Start of the data being appended asynchronously, which is not visible to readers yet. */
+  private long asyncAppendOffset;
+
   final private LifeCycle lifeCycle = new LifeCycle(FileDeltaAccess.class.getSimpleName(), ShutdownPriority.Storage,
       new Shutdownable() {
     @Override
@@ -138,11 +155,12 @@ public class FileDeltaAccess implements DeltaAccess {
     try {
       Preconditions.checkNotNull(waveletName, "null wavelet name");
 
-      RandomAccessFile deltaFile = FileUtils.getOrCreateFile(deltasFile(basePath, waveletName));
+      File deltasPath = deltasFile(basePath, waveletName);
+      RandomAccessFile deltaFile = FileUtils.getOrCreateFile(deltasPath);
       setOrCheckFileHeader(deltaFile);
       DeltaIndex index = new DeltaIndex(indexFile(basePath, waveletName));
 
-      FileDeltaAccess collection = new FileDeltaAccess(waveletName, deltaFile, index);
+      FileDeltaAccess collection = new FileDeltaAccess(waveletName, deltasPath, deltaFile, index);
 
       index.openForCollection(collection);
       collection.initializeEndVersionAndTruncateTrailingJunk();
@@ -181,9 +199,10 @@ public class FileDeltaAccess implements DeltaAccess {
   /**
    * Create a new file delta collection for the given wavelet.
    */
-  public FileDeltaAccess(WaveletName waveletName, RandomAccessFile deltasFile,
+  public FileDeltaAccess(WaveletName waveletName, File deltasPath, RandomAccessFile deltasFile,
       DeltaIndex deltasIndex) {
     this.waveletName = waveletName;
+    this.deltasPath = deltasPath;
     this.deltasFile = deltasFile;
     this.deltasIndex = deltasIndex;
     this.isOpen = true;
@@ -265,6 +284,10 @@ public class FileDeltaAccess implements DeltaAccess {
     lifeCycle.enter();
     try {
       deltasFile.close();
+      if (asyncChannel != null) {
+        asyncChannel.close();
+        asyncChannel = null;
+      }
       deltasIndex.close();
       lastModifiedVersion = null;
       lastModifiedTime = 0;
@@ -280,6 +303,7 @@ public class FileDeltaAccess implements DeltaAccess {
     Timer timer = Timing.start("FileDeltaAccess.append");
     try {
       checkIsOpen();
+      Preconditions.checkState(!asyncAppending, "Asynchronous append is in progress");
       try {
         deltasFile.seek(deltasFile.length());
 
@@ -287,7 +311,7 @@ public class FileDeltaAccess implements DeltaAccess {
         for (WaveletDeltaRecord delta : deltas) {
           deltasIndex.addDelta(delta.getTransformedDelta().getAppliedAtVersion(), delta.getTransformedDelta().size(),
               deltasFile.getFilePointer());
-          writeDelta(delta);
+          deltasFile.write(serializeRecord(delta));
           lastDelta = delta;
         }
 
@@ -304,6 +328,70 @@ public class FileDeltaAccess implements DeltaAccess {
     }
   }
 
+  @Override
+  public synchronized ListenableFuture<Void> appendAsync(final Collection<WaveletDeltaRecord> deltas) {
+    final SettableFuture<Void> future = SettableFuture.create();
+    lifeCycle.enter();
+    final Timer timer = Timing.start("FileDeltaAccess.appendAsync");
+    boolean started = false;
+    try {
+      checkIsOpen();
+      Preconditions.checkState(!asyncAppending, "Asynchronous append is in progress");
+      final long startOffset = deltasFile.length();
+      final long[] offsets = new long[deltas.size()];
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      int i = 0;
+      for (WaveletDeltaRecord delta : deltas) {
+        offsets[i++] = startOffset + bytes.size();
+        bytes.write(serializeRecord(delta));
+      }
+      if (asyncChannel == null) {
+        asyncChannel = AsynchronousFileChannel.open(deltasPath.toPath(), StandardOpenOption.WRITE);
+      }
+      asyncAppending = true;
+      asyncAppendOffset = startOffset;
+      Futures.addCallback(AsyncFileUtils.write(asyncChannel, ByteBuffer.wrap(bytes.toByteArray()),
+          startOffset, true), new FutureCallback<Void>() {
+
+        @Override
+        public void onSuccess(Void result) {
+          try {
+            onAppended(deltas, offsets);
+            future.set(null);
+          } catch (IOException ex) {
+            future.setException(new PersistenceException(ex));
+          } finally {
+            Timing.stop(timer);
+            lifeCycle.leave();
+          }
+        }
+
+        @Override
+        public void onFailure(Throwable ex) {
+          try {
+            onAppendFailed();
+          } finally {
+            future.setException(ex);
+            Timing.stop(timer);
+            lifeCycle.leave();
+          }
+        }
+      });
+      started = true;
+    } catch (IOException ex) {
+      asyncAppending = false;
+      future.setException(new PersistenceException(ex));
+    } catch (RuntimeException ex) {
+      future.setException(ex);
+    } finally {
+      if (!started) {
+        Timing.stop(timer);
+        lifeCycle.leave();
+      }
+    }
+    return future;
+  }
+
   @Override
   public synchronized boolean isEmpty() {
     checkIsOpen();
@@ -420,6 +508,48 @@ public class FileDeltaAccess implements DeltaAccess {
     }
   }
 
+  /**
+   * Registers asynchronously written deltas in the index.
+   */
+  private synchronized void onAppended(Collection<WaveletDeltaRecord> deltas, long[] offsets)
+      throws IOException {
+    asyncAppending = false;
+    int i = 0;
+    WaveletDeltaRecord lastDelta = null;
+    for (WaveletDeltaRecord delta : deltas) {
+      deltasIndex.addDelta(delta.getTransformedDelta().getAppliedAtVersion(),
+          delta.getTransformedDelta().size(), offsets[i++]);
+      lastDelta = delta;
+    }
+    if (lastDelta != null) {
+      lastModifiedVersion = lastDelta.getTransformedDelta().getResultingVersion();
+      lastModifiedTime = lastDelta.getTransformedDelta().getApplicationTimestamp();
+    }
+  }
+
+  /**
+   * Truncates partially written deltas after failure of asynchronous append.
+   */
+  private synchronized void onAppendFailed() {
+    asyncAppending = false;
+    if (isOpen) {
+      try {
+        if (lastModifiedVersion != null) {
+          long offset = deltasIndex.getOffsetForEndVersion(lastModifiedVersion.getVersion());
+          if (offset != DeltaIndex.NO_RECORD_FOR_VERSION) {
+            deltasFile.seek(offset);
+            readDeltaRecord();
+            deltasFile.setLength(deltasFile.getFilePointer());
+          }
+        } else {
+          deltasFile.setLength(FILE_HEADER_LENGTH);
+        }
+      } catch (IOException ex) {
+        LOG.severe("Failed to truncate deltas of " + waveletName, ex);
+      }
+    }
+  }
+
   private void checkIsOpen() {
     Preconditions.checkState(isOpen, "Delta collection closed");
   }
@@ -489,7 +619,8 @@ public class FileDeltaAccess implements DeltaAccess {
   private WaveletDeltaRecord readDeltaRecord() throws IOException {
     Timer timer = Timing.start("FileDeltaAccess.readDeltaRecord");
     try {
-      if (deltasFile.length() == deltasFile.getFilePointer()) {
+      long end = asyncAppending ? asyncAppendOffset : deltasFile.length();
+      if (deltasFile.getFilePointer() >= end) {
         return null;
       }
 
@@ -546,20 +677,6 @@ public class FileDeltaAccess implements DeltaAccess {
     return deltaHeader;
   }
 
-  /**
-   * Write a header to the current location in the file
-   */
-  private void writeDeltaHeader(DeltaHeader header) throws IOException {
-    Timer timer = Timing.start("FileDeltaAccess.writeDeltaHeader");
-    try {
-      deltasFile.writeInt(header.protoVersion);
-      deltasFile.writeInt(header.appliedDeltaLength);
-      deltasFile.writeInt(header.transformedDeltaLength);
-    } finally {
-      Timing.stop(timer);
-    }
-  }
-
   /**
    * Read the applied delta at the current file position. After method call,
    * file position is directly after applied delta field.
@@ -579,25 +696,6 @@ public class FileDeltaAccess implements DeltaAccess {
     }
   }
 
-  /**
-   * Write an applied delta to the current position in the file. Returns number of bytes written.
-   */
-  private int writeAppliedDelta(ByteStringMessage<ProtocolAppliedWaveletDelta> delta)
-      throws IOException {
-    Timer timer = Timing.start("FileDeltaAccess.writeAppliedDelta");
-    try {
-      if (delta != null) {
-        byte[] bytes = delta.getByteArray();
-        deltasFile.write(bytes);
-        return bytes.length;
-      } else {
-        return 0;
-      }
-    } finally {
-      Timing.stop(timer);
-    }
-  }
-
   /**
    * Read a {@link TransformedWaveletDelta} from the current location in the file.
    */
@@ -624,42 +722,27 @@ public class FileDeltaAccess implements DeltaAccess {
   }
 
   /**
-   * Write a {@link TransformedWaveletDelta} to the file at the current location.
-   * @return length of written data
-   */
-  private int writeTransformedWaveletDelta(TransformedWaveletDelta delta) throws IOException {
-    Timer timer = Timing.start("FileDeltaAccess.writeTransformedWaveletDelta");
-    try {
-      long startingPosition = deltasFile.getFilePointer();
-      ProtoTransformedWaveletDelta protoDelta = ProtoDeltaStoreDataSerializer.serialize(delta);
-      OutputStream stream = Channels.newOutputStream(deltasFile.getChannel());
-      protoDelta.writeTo(stream);
-      return (int) (deltasFile.getFilePointer() - startingPosition);
-    } finally {
-      Timing.stop(timer);
-    }
-  }
-
-  /**
-   * Read a delta to the file. Does not move the file pointer before writing. Returns number of
-   * bytes written.
+   * Serializes a record of the deltas file: the header followed by the
+   * applied delta and the transformed delta.
    */
-  private long writeDelta(WaveletDeltaRecord delta) throws IOException {
-    Timer timer = Timing.start("FileDeltaAccess.writeTransformedWaveletDelta");
+  private byte[] serializeRecord(WaveletDeltaRecord delta) throws IOException {
+    Timer timer = Timing.start("FileDeltaAccess.serializeRecord");
     try {
-      // We'll write zeros in place of the header and come back & write it at the end.
-      long headerPointer = deltasFile.getFilePointer();
-      deltasFile.write(new byte[DeltaHeader.HEADER_LENGTH]);
-
-      int appliedLength = writeAppliedDelta(delta.getAppliedDelta());
-      int transformedLength = writeTransformedWaveletDelta(delta.getTransformedDelta());
-
-      long endPointer = deltasFile.getFilePointer();
-      deltasFile.seek(headerPointer);
-      writeDeltaHeader(new DeltaHeader(DELTA_FORMAT_VERSION, appliedLength, transformedLength));
-      deltasFile.seek(endPointer);
-
-      return endPointer - headerPointer;
+      byte[] applied = delta.getAppliedDelta() != null ?
+          delta.getAppliedDelta().getByteArray() : new byte[0];
+      byte[] transformed =
+          ProtoDeltaStoreDataSerializer.serialize(delta.getTransformedDelta()).toByteArray();
+      DeltaHeader header = new DeltaHeader(DELTA_FORMAT_VERSION, applied.length, transformed.length);
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream(
+          DeltaHeader.HEADER_LENGTH + applied.length + transformed.length);
+      DataOutputStream out = new DataOutputStream(bytes);
+      out.writeInt(header.protoVersion);
+      out.writeInt(header.appliedDeltaLength);
+      out.writeInt(header.transformedDeltaLength);
+      out.write(applied);
+      out.write(transformed);
+      out.flush();
+      return bytes.toByteArray();
     } finally {
       Timing.stop(timer);
     }
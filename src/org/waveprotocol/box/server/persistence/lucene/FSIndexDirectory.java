@@ -18,9 +18,14 @@
  */
 package org.waveprotocol.box.server.persistence.lucene;
 
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.io.Files;
 import com.google.inject.Inject;
 import com.google.inject.name.Named;
 
+import org.apache.lucene.index.IndexFileNameFilter;
+import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
 import org.waveprotocol.box.server.CoreSettings;
@@ -34,31 +39,109 @@ import java.io.IOException;
 /**
  * File system based {@link IndexDirectory}.
  *
+ * The index of one shard is stored in the root directory, so indexes built
+ * before sharding are opened as is. Shards of index with count of shards K
+ * are stored in subdirectories shards-K/0 ... shards-K/K-1. The count of
+ * shards of the active index is kept in the file shard_count.
+ *
  * @author Andrew Kaplanov
  */
 public class FSIndexDirectory implements IndexDirectory {
 
-  private Directory directory;
+  private static final String SHARD_COUNT_FILE = "shard_count";
+  private static final String SHARDS_DIR_PREFIX = "shards-";
+
+  private final File root;
+  private int shardCount;
 
   @Inject
-  public FSIndexDirectory(@Named(CoreSettings.INDEX_DIRECTORY) String directoryName) {
-    if (directory == null) {
-      File file;
-      try {
-        file = FileUtils.createDirIfNotExists(directoryName, "");
-      } catch (PersistenceException e) {
-        throw new IndexException("Cannot create index directory " + directoryName, e);
-      }
-      try {
-        directory = FSDirectory.open(file);
-      } catch (IOException e) {
-        throw new IndexException("Cannot open index directory " + directoryName, e);
+  public FSIndexDirectory(@Named(CoreSettings.INDEX_DIRECTORY) String directoryName,
+      @Named(CoreSettings.INDEX_SHARD_COUNT) int defaultShardCount) {
+    try {
+      root = FileUtils.createDirIfNotExists(directoryName, "");
+    } catch (PersistenceException e) {
+      throw new IndexException("Cannot create index directory " + directoryName, e);
+    }
+    try {
+      File shardCountFile = new File(root, SHARD_COUNT_FILE);
+      if (shardCountFile.exists()) {
+        shardCount = Integer.parseInt(Files.toString(shardCountFile, Charsets.UTF_8).trim());
+      } else {
+        // The index built before sharding remains active until resharding.
+        shardCount = IndexReader.indexExists(FSDirectory.open(root)) ? 1 : defaultShardCount;
+        writeShardCount(shardCount);
       }
+    } catch (IOException | NumberFormatException e) {
+      throw new IndexException("Cannot read count of shards of index " + directoryName, e);
     }
   }
 
   @Override
-  public Directory getDirectory() throws IndexException {
-    return directory;
+  public synchronized int getShardCount() throws IndexException {
+    return shardCount;
+  }
+
+  @Override
+  public Directory getShardDirectory(int shardCount, int shard) throws IndexException {
+    Preconditions.checkElementIndex(shard, shardCount);
+    File dir = getShardFile(shardCount, shard);
+    try {
+      FileUtils.createDirIfNotExists(dir.getPath(), "");
+      return FSDirectory.open(dir);
+    } catch (PersistenceException | IOException e) {
+      throw new IndexException("Cannot open index directory " + dir, e);
+    }
+  }
+
+  @Override
+  public synchronized void setShardCount(int shardCount) throws IndexException {
+    if (this.shardCount == shardCount) {
+      return;
+    }
+    int previousShardCount = this.shardCount;
+    try {
+      writeShardCount(shardCount);
+    } catch (IOException e) {
+      throw new IndexException("Cannot write count of shards of index " + root, e);
+    }
+    this.shardCount = shardCount;
+    if (previousShardCount == 1) {
+      for (File file : root.listFiles(IndexFileNameFilter.getFilter())) {
+        if (file.isFile()) {
+          file.delete();
+        }
+      }
+    } else {
+      delete(new File(root, SHARDS_DIR_PREFIX + previousShardCount));
+    }
+  }
+
+  private File getShardFile(int shardCount, int shard) {
+    if (shardCount == 1) {
+      return root;
+    }
+    return new File(new File(root, SHARDS_DIR_PREFIX + shardCount), Integer.toString(shard));
+  }
+
+  private void writeShardCount(int shardCount) throws IOException {
+    File tmpFile = new File(root, SHARD_COUNT_FILE + ".tmp");
+    Files.write(Integer.toString(shardCount), tmpFile, Charsets.UTF_8);
+    File shardCountFile = new File(root, SHARD_COUNT_FILE);
+    if (!tmpFile.renameTo(shardCountFile)) {
+      shardCountFile.delete();
+      if (!tmpFile.renameTo(shardCountFile)) {
+        throw new IOException("Cannot rename " + tmpFile + " to " + shardCountFile);
+      }
+    }
+  }
+
+  private static void delete(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        delete(child);
+      }
+    }
+    file.delete();
   }
 }
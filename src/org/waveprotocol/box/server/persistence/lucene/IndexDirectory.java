@@ -22,11 +22,32 @@ import org.apache.lucene.store.Directory;
 import org.waveprotocol.box.server.search.IndexException;
 
 /**
- * Provides the directory to store/access the index files.
+ * Provides the directories to store/access the index files.
+ *
+ * The index is split to shards, each shard is stored in own directory. The
+ * layout of directories depends on count of shards, so an index with another
+ * count of shards may be built beside the active one.
  *
  * @author Andrew Kaplanov
  */
 public interface IndexDirectory {
 
-  Directory getDirectory() throws IndexException;
+  /**
+   * @return the count of shards of the active index.
+   */
+  int getShardCount() throws IndexException;
+
+  /**
+   * Gets the directory of shard.
+   *
+   * @param shardCount the count of shards of the index.
+   * @param shard the number of shard, from 0 to shardCount - 1.
+   */
+  Directory getShardDirectory(int shardCount, int shard) throws IndexException;
+
+  /**
+   * Makes the index with the count of shards active. Directories of the
+   * previously active index are deleted, so its writers must be closed.
+   */
+  void setShardCount(int shardCount) throws IndexException;
 }
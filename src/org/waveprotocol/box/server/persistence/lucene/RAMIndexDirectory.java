@@ -18,10 +18,16 @@
  */
 package org.waveprotocol.box.server.persistence.lucene;
 
+import com.google.common.base.Preconditions;
+
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.RAMDirectory;
 import org.waveprotocol.box.server.search.IndexException;
 
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
 /**
  * RAM based {@link IndexDirectory}.
  *
@@ -29,10 +35,47 @@ import org.waveprotocol.box.server.search.IndexException;
  */
 public class RAMIndexDirectory implements IndexDirectory {
 
-  private final Directory directory =  new RAMDirectory();
+  /** Directories of shards by count of shards and number of shard. */
+  private final Map<String, Directory> directories = new HashMap<>();
+  private int shardCount;
+
+  public RAMIndexDirectory() {
+    this(1);
+  }
+
+  public RAMIndexDirectory(int shardCount) {
+    this.shardCount = shardCount;
+  }
+
+  @Override
+  public synchronized int getShardCount() throws IndexException {
+    return shardCount;
+  }
 
   @Override
-  public Directory getDirectory() throws IndexException {
+  public synchronized Directory getShardDirectory(int shardCount, int shard) throws IndexException {
+    Preconditions.checkElementIndex(shard, shardCount);
+    String key = shardCount + "/" + shard;
+    Directory directory = directories.get(key);
+    if (directory == null) {
+      directory = new RAMDirectory();
+      directories.put(key, directory);
+    }
     return directory;
   }
+
+  @Override
+  public synchronized void setShardCount(int shardCount) throws IndexException {
+    if (this.shardCount == shardCount) {
+      return;
+    }
+    String previousPrefix = this.shardCount + "/";
+    this.shardCount = shardCount;
+    Iterator<String> it = directories.keySet().iterator();
+    while (it.hasNext()) {
+      if (it.next().startsWith(previousPrefix)) {
+        it.remove();
+      }
+    }
+  }
 }
@@ -19,6 +19,9 @@
 
 package org.waveprotocol.box.server.persistence.memory;
 
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
 import org.waveprotocol.wave.model.id.WaveletName;
 import org.waveprotocol.wave.model.util.CollectionUtils;
 
@@ -83,6 +86,15 @@ public class MemoryBlockAccess implements BlockAccess {
     return result;
   }
 
+  @Override
+  public ListenableFuture<Collection<Block>> readBlocksAsync(Set<String> blockIds) {
+    try {
+      return Futures.immediateFuture(readBlocks(blockIds));
+    } catch (PersistenceException ex) {
+      return Futures.immediateFailedFuture(ex);
+    }
+  }
+
   @Override
   public synchronized void writeBlock(Block block) throws PersistenceException {
     blocksMap.put(block.getBlockId(), block);
@@ -92,4 +104,16 @@ public class MemoryBlockAccess implements BlockAccess {
   public synchronized void writeBlockIndex(BlockIndex blockIndex) throws PersistenceException {
     this.blockIndex = blockIndex;
   }
+
+  @Override
+  public synchronized ListenableFuture<Void> writeBlockAsync(Block block) {
+    blocksMap.put(block.getBlockId(), block);
+    return Futures.immediateFuture(null);
+  }
+
+  @Override
+  public synchronized ListenableFuture<Void> writeBlockIndexAsync(BlockIndex blockIndex) {
+    this.blockIndex = blockIndex;
+    return Futures.immediateFuture(null);
+  }
 }
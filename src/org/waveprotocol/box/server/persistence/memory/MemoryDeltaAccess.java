@@ -19,6 +19,8 @@ package org.waveprotocol.box.server.persistence.memory;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 
 import org.waveprotocol.box.common.Receiver;
 import org.waveprotocol.box.server.persistence.deltas.DeltaStore.DeltaAccess;
@@ -125,4 +127,10 @@ public class MemoryDeltaAccess implements DeltaAccess {
       }
     }
   }
+
+  @Override
+  public ListenableFuture<Void> appendAsync(Collection<WaveletDeltaRecord> newDeltas) {
+    append(newDeltas);
+    return Futures.immediateFuture(null);
+  }
 }
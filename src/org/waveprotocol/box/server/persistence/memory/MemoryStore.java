@@ -19,8 +19,6 @@
 
 package org.waveprotocol.box.server.persistence.memory;
 
-import com.google.common.collect.Maps;
-
 import org.waveprotocol.box.server.account.AccountData;
 import org.waveprotocol.box.server.persistence.AccountStore;
 import org.waveprotocol.box.server.persistence.PersistenceException;
@@ -104,7 +102,7 @@ public class MemoryStore implements SignerInfoStore, AccountStore, ContactStore
    *  ContactStore
    */
 
-  private Map<ParticipantId, List<Contact>> contacts = Maps.newHashMap();
+  private Map<ParticipantId, List<Contact>> contacts = new ConcurrentHashMap<>();
 
   @Override
   public void initializeContactStore() throws PersistenceException {
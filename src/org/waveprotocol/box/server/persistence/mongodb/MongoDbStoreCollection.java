@@ -19,6 +19,8 @@
 
 package org.waveprotocol.box.server.persistence.mongodb;
 
+import com.google.common.util.concurrent.ListenableFuture;
+
 import org.waveprotocol.box.server.persistence.PersistenceException;
 import org.waveprotocol.wave.model.id.WaveletName;
 import org.waveprotocol.wave.model.version.HashedVersion;
@@ -84,6 +86,11 @@ public class MongoDbStoreCollection implements DeltaStore.DeltaAccess {
     throw new UnsupportedOperationException();
   }
 
+  @Override
+  public ListenableFuture<Void> appendAsync(Collection<WaveletDeltaRecord> deltas) {
+    throw new UnsupportedOperationException();
+  }
+
   @Override
   public void close() throws IOException {
     throw new UnsupportedOperationException();
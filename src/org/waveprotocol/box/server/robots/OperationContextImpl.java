@@ -37,6 +37,7 @@ import com.google.wave.api.event.OperationErrorEvent;
 import org.waveprotocol.box.common.ThrowableReceiver;
 import org.waveprotocol.box.server.robots.util.ConversationUtil;
 import org.waveprotocol.box.server.robots.util.OperationUtil;
+import org.waveprotocol.box.server.util.WaveletDataUtil;
 import static org.waveprotocol.box.server.robots.util.OperationUtil.buildUserDataWaveletId;
 import static org.waveprotocol.box.server.robots.util.RobotsUtil.createEmptyRobotWavelet;
 import org.waveprotocol.box.server.waveserver.WaveServerException;
@@ -49,13 +50,9 @@ import org.waveprotocol.wave.model.id.InvalidIdException;
 import org.waveprotocol.wave.model.id.WaveId;
 import org.waveprotocol.wave.model.id.WaveletId;
 import org.waveprotocol.wave.model.id.WaveletName;
-import org.waveprotocol.wave.model.schema.SchemaCollection;
 import org.waveprotocol.wave.model.version.HashedVersion;
 import org.waveprotocol.wave.model.wave.ParticipantId;
-import org.waveprotocol.wave.model.wave.data.ObservableWaveletData;
 import org.waveprotocol.wave.model.wave.data.ReadableWaveletData;
-import org.waveprotocol.wave.model.wave.data.impl.ObservablePluggableMutableDocument;
-import org.waveprotocol.wave.model.wave.data.impl.WaveletDataImpl;
 import org.waveprotocol.wave.model.wave.opbased.OpBasedWavelet;
 import org.waveprotocol.wave.util.logging.Log;
 
@@ -70,9 +67,6 @@ import java.util.*;
 public class OperationContextImpl implements OperationContext, OperationResults {
 
   private static final Log LOG = Log.get(OperationContextImpl.class);
-  private static final ObservableWaveletData.Factory<? extends ObservableWaveletData> FACTORY =
-      WaveletDataImpl.Factory.create(
-          ObservablePluggableMutableDocument.createFactory(SchemaCollection.empty()));
 
   /**
    * Maps operation ID's to responses.
@@ -235,8 +229,10 @@ public class OperationContextImpl implements OperationContext, OperationResults
         opWavelet = wavelet.getOpBasedWavelet(participant);
         opWavelet.addParticipant(participant);
       } else {
-        ObservableWaveletData obsWavelet = FACTORY.create(snapshot);
-        wavelet = new RobotWaveletData(obsWavelet, snapshot.getHashedVersion());
+        // The snapshot is shared by the wave server, so the working copy is
+        // made of its view. Documents are built only when they are accessed.
+        wavelet = new RobotWaveletData(WaveletDataUtil.createView(snapshot),
+            snapshot.getHashedVersion());
         opWavelet = wavelet.getOpBasedWavelet(participant);
       }
       openedWavelets.put(waveletName, wavelet);
@@ -77,7 +77,8 @@ public class RobotWaveletData {
 
   /**
    * Constructs a new {@link RobotWaveletData}. The given
-   * {@link ReadableWaveletData} will be copied by the constructor.
+   * {@link ReadableWaveletData} will be copied by the constructor. Not built
+   * documents are copied without building, they are built on first access.
    *
    * @param snapshot the base {@link ReadableWaveletData} from which
    *        {@link OpBasedWavelet} are created.
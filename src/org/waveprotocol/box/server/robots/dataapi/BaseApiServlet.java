@@ -19,20 +19,23 @@
 
 package org.waveprotocol.box.server.robots.dataapi;
 
-import com.google.common.collect.Lists;
+import com.google.gson.stream.JsonWriter;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.wave.api.ApiIdSerializer;
 import com.google.wave.api.InvalidRequestException;
 import com.google.wave.api.JsonRpcResponse;
 import com.google.wave.api.OperationRequest;
+import com.google.wave.api.OperationType;
 import com.google.wave.api.ProtocolVersion;
 import com.google.wave.api.RobotSerializer;
 import com.google.wave.api.data.converter.EventDataConverterManager;
-import com.google.wave.api.impl.GsonFactory;
 
 import net.oauth.OAuthAccessor;
 import net.oauth.OAuthException;
 import net.oauth.OAuthMessage;
 import net.oauth.OAuthValidator;
 
+import org.waveprotocol.box.common.ThrowableReceiver;
 import org.waveprotocol.box.server.robots.OperationContext;
 import org.waveprotocol.box.server.robots.OperationContextImpl;
 import org.waveprotocol.box.server.robots.OperationResults;
@@ -45,23 +48,29 @@ import org.waveprotocol.box.attachment.AttachmentMetadata;
 import org.waveprotocol.box.server.attachment.AttachmentService;
 import org.waveprotocol.box.server.persistence.AttachmentStore.AttachmentData;
 import org.waveprotocol.box.server.persistence.AttachmentUtil;
+import org.waveprotocol.box.server.persistence.deltas.WaveletDeltaRecord;
 import org.waveprotocol.box.server.robots.active.ActiveApiServlet;
+import org.waveprotocol.box.server.serialize.OperationSerializer;
+import org.waveprotocol.box.server.waveserver.AccessControlException;
 import org.waveprotocol.box.server.waveserver.WaveServerException;
 
+import org.waveprotocol.wave.federation.Proto.ProtocolHashedVersion;
 import org.waveprotocol.wave.media.model.AttachmentId;
 import org.waveprotocol.wave.model.id.InvalidIdException;
 import org.waveprotocol.wave.model.wave.ParticipantId;
 import org.waveprotocol.wave.model.id.WaveletName;
+import org.waveprotocol.wave.model.version.HashedVersion;
 import org.waveprotocol.wave.util.logging.Log;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URISyntaxException;
 import java.util.Calendar;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 
 import javax.servlet.ServletException;
@@ -86,9 +95,18 @@ public abstract class BaseApiServlet extends HttpServlet {
   private static final WaveletProvider.SubmitRequestCallback LOGGING_REQUEST_LISTENER =
       new LoggingRequestListener(LOG);
   private static final String JSON_CONTENT_TYPE = "application/json";
+  private static final String BINARY_CONTENT_TYPE = "application/octet-stream";
 
   private static final String ATTACHMENT_PARAM = "attachment";
 
+  private static final String EXPORT_DELTAS_PARAM = "export_deltas";
+  private static final String WAVELET_ID_PARAM = "wavelet_id";
+  private static final String CURSOR_PARAM = "cursor";
+  private static final String TO_VERSION_PARAM = "to_version";
+
+  /** Size of deltas read from the store at once during export. */
+  private static final int EXPORT_DELTAS_BATCH_SIZE = 256 * 1024;
+
   private final RobotSerializer robotSerializer;
   private final EventDataConverterManager converterManager;
   private final WaveletProvider waveletProvider;
@@ -210,6 +228,141 @@ public abstract class BaseApiServlet extends HttpServlet {
     }
   }
 
+  /**
+   * Checks that the request is a request of deltas export.
+   */
+  protected static boolean isExportDeltasRequest(HttpServletRequest req) {
+    return req.getParameter(EXPORT_DELTAS_PARAM) != null;
+  }
+
+  /**
+   * Streams deltas of the wavelet in binary form.
+   *
+   * The request contains the wave id, the wavelet id, the cursor and optionally
+   * the end version. The cursor is the hashed version from which deltas are
+   * streamed. The response is a sequence of records, each of them is
+   * length-delimited {@link org.waveprotocol.wave.federation.Proto.ProtocolWaveletDelta}
+   * followed by length-delimited resulting {@link ProtocolHashedVersion}. The
+   * resulting version of the last received record is the cursor to resume
+   * the export from. Deltas are read from the store in batches. Errors before
+   * the first batch are reported by the status, later errors abort the
+   * response.
+   *
+   * @param req the request.
+   * @param resp the response.
+   * @param participant the participant which exports deltas.
+   * @throws IOException if encountered errors during writing of a response.
+   */
+  protected final void processExportDeltasRequest(HttpServletRequest req, HttpServletResponse resp,
+      ParticipantId participant) throws IOException {
+    WaveletName waveletName;
+    HashedVersion fromVersion;
+    HashedVersion toVersion;
+    try {
+      String waveletIdParam = req.getParameter(WAVELET_ID_PARAM);
+      String cursorParam = req.getParameter(CURSOR_PARAM);
+      if (waveletIdParam == null || cursorParam == null) {
+        resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Wavelet id and cursor are required");
+        return;
+      }
+      waveletName = WaveletName.of(
+          ApiIdSerializer.instance().deserialiseWaveId(req.getParameter(EXPORT_DELTAS_PARAM)),
+          ApiIdSerializer.instance().deserialiseWaveletId(waveletIdParam));
+      fromVersion = deserializeVersion(cursorParam);
+      String toVersionParam = req.getParameter(TO_VERSION_PARAM);
+      if (!waveletProvider.checkExistence(waveletName)) {
+        resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+        return;
+      }
+      if (!waveletProvider.checkAccessPermission(waveletName, participant)) {
+        resp.sendError(HttpServletResponse.SC_FORBIDDEN);
+        return;
+      }
+      toVersion = toVersionParam != null ? deserializeVersion(toVersionParam)
+          : waveletProvider.getLastModifiedVersion(waveletName);
+    } catch (InvalidIdException | InvalidProtocolBufferException ex) {
+      resp.sendError(HttpServletResponse.SC_BAD_REQUEST, ex.getMessage());
+      return;
+    } catch (WaveServerException ex) {
+      LOG.warning("Problem while authorizing user: " + participant + " for export", ex);
+      resp.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+      return;
+    }
+
+    OutputStream out = null;
+    try {
+      while (fromVersion.getVersion() < toVersion.getVersion()) {
+        ByteArrayOutputStream batch = new ByteArrayOutputStream();
+        HashedVersion batchVersion = readDeltasBatch(waveletName, fromVersion, toVersion, batch);
+        if (batchVersion == null) {
+          break;
+        }
+        // Status is sent with the first batch, so errors before it are reported by status.
+        if (out == null) {
+          resp.setContentType(BINARY_CONTENT_TYPE);
+          resp.setStatus(HttpServletResponse.SC_OK);
+          out = resp.getOutputStream();
+        }
+        batch.writeTo(out);
+        fromVersion = batchVersion;
+      }
+    } catch (AccessControlException ex) {
+      if (out == null) {
+        resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid cursor");
+        return;
+      }
+      // The stream is aborted, the client resumes from the last received record.
+      throw new IOException("Export of deltas of " + waveletName + " is interrupted", ex);
+    } catch (WaveServerException ex) {
+      LOG.warning("Export of deltas of " + waveletName + " failed", ex);
+      if (out == null) {
+        resp.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+        return;
+      }
+      throw new IOException("Export of deltas of " + waveletName + " is interrupted", ex);
+    }
+    if (out == null) {
+      resp.setContentType(BINARY_CONTENT_TYPE);
+      resp.setStatus(HttpServletResponse.SC_OK);
+      out = resp.getOutputStream();
+    }
+    out.flush();
+  }
+
+  /**
+   * Reads a batch of deltas into the buffer, so the delta store is not held
+   * while the batch is written to the client.
+   *
+   * @return the resulting version of the last read delta or null if there are
+   *         no deltas.
+   */
+  private HashedVersion readDeltasBatch(WaveletName waveletName, HashedVersion fromVersion,
+      HashedVersion toVersion, final ByteArrayOutputStream batch) throws WaveServerException {
+    final AtomicReference<HashedVersion> batchVersion = new AtomicReference<>();
+    waveletProvider.getDeltaHistory(waveletName, fromVersion, toVersion,
+        new ThrowableReceiver<WaveletDeltaRecord, WaveServerException>() {
+
+      @Override
+      public boolean put(WaveletDeltaRecord delta) throws WaveServerException {
+        try {
+          OperationSerializer.serialize(delta.getTransformedDelta()).writeDelimitedTo(batch);
+          OperationSerializer.serialize(delta.getResultingVersion()).writeDelimitedTo(batch);
+        } catch (IOException ex) {
+          throw new IllegalStateException(ex);
+        }
+        batchVersion.set(delta.getResultingVersion());
+        return batch.size() < EXPORT_DELTAS_BATCH_SIZE;
+      }
+    });
+    return batchVersion.get();
+  }
+
+  private static HashedVersion deserializeVersion(String param)
+      throws InvalidProtocolBufferException {
+    return OperationSerializer.deserialize(
+        ProtocolHashedVersion.parseFrom(Base64.decodeBase64(param)));
+  }
+
 	static private String encodeFileName(String fileName) throws UnsupportedEncodingException {
   	return "=?UTF-8?B?" + (new String(Base64.encodeBase64(fileName.getBytes("UTF-8")))) + "?=";
 	}
@@ -278,29 +431,38 @@ public abstract class BaseApiServlet extends HttpServlet {
       throws IOException {
     OperationUtil.submitDeltas(results, waveletProvider, LOGGING_REQUEST_LISTENER);
 
-    // Ensure that responses are returned in the same order as corresponding
-    // requests.
-    LinkedList<JsonRpcResponse> responses = Lists.newLinkedList();
-    for (OperationRequest operation : operations) {
-      String opId = operation.getId();
-      JsonRpcResponse response = results.getResponses().get(opId);
-      responses.addLast(response);
-    }
-
-    String jsonResponse =
-        robotSerializer.serialize(responses, GsonFactory.JSON_RPC_RESPONSE_LIST_TYPE, version);
-    LOG.fine("Returning the following Json: " + jsonResponse);
-
-    // Write the response back through the HttpServlet
+    // Write the response back through the HttpServlet. Responses are
+    // serialized one by one straight to the stream, in the same order as
+    // corresponding requests.
+    resp.setContentType(JSON_CONTENT_TYPE);
+    resp.setStatus(HttpServletResponse.SC_OK);
     try {
-      resp.setContentType(JSON_CONTENT_TYPE);
-      PrintWriter writer = resp.getWriter();
-      writer.append(jsonResponse);
+      JsonWriter writer = new JsonWriter(resp.getWriter());
+      writer.beginArray();
+      for (OperationRequest operation : operations) {
+        JsonRpcResponse response = results.getResponses().get(operation.getId());
+        if (LOG.isFineLoggable()) {
+          LOG.fine("Returning the following Json: "
+              + robotSerializer.serialize(response, JsonRpcResponse.class, version));
+        }
+        robotSerializer.serialize(response, JsonRpcResponse.class, version, writer);
+        if (isExportOperation(operation)) {
+          // Export responses may be large, so send each of them as a chunk
+          // and don't keep them in the buffer.
+          writer.flush();
+        }
+      }
+      writer.endArray();
       writer.flush();
-      resp.setStatus(HttpServletResponse.SC_OK);
     } catch (IOException e) {
       LOG.severe("IOException during writing of a response", e);
       throw e;
     }
   }
+
+  private static boolean isExportOperation(OperationRequest operation) {
+    OperationType type = OperationUtil.getOperationType(operation);
+    return type == OperationType.ROBOT_EXPORT_DELTAS || type == OperationType.ROBOT_EXPORT_SNAPSHOT
+        || type == OperationType.ROBOT_EXPORT_ATTACHMENT;
+  }
 }
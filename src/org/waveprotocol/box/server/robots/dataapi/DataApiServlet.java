@@ -84,7 +84,11 @@ public class DataApiServlet extends BaseApiServlet {
   protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
     ParticipantId participant = validateAndAuthorize(req, resp);
     if (participant != null) {
-      processGetAttachmentRequest(req, resp, participant);
+      if (isExportDeltasRequest(req)) {
+        processExportDeltasRequest(req, resp, participant);
+      } else {
+        processGetAttachmentRequest(req, resp, participant);
+      }
     }
   }
 
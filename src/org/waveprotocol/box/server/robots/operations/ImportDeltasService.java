@@ -26,6 +26,7 @@ import com.google.wave.api.JsonRpcConstant.ParamsProperty;
 
 import org.waveprotocol.box.server.robots.OperationContext;
 import org.waveprotocol.box.server.CoreSettings;
+import org.waveprotocol.box.server.waveserver.DeltaImporter;
 import org.waveprotocol.box.server.waveserver.WaveServerException;
 import org.waveprotocol.box.server.waveserver.WaveletProvider;
 import org.waveprotocol.box.server.robots.util.OperationUtil;
@@ -41,11 +42,15 @@ import org.waveprotocol.wave.model.wave.ParticipantId;
 import org.waveprotocol.wave.util.escapers.jvm.JavaUrlCodec;
 import org.waveprotocol.wave.clientserver.ReturnCode;
 
+import java.util.ArrayList;
 import java.util.Map;
 import java.util.List;
 
 /**
  * {@link OperationService} for the "importDeltas" operation.
+ * Deltas are written to the store directly by {@link DeltaImporter}, or
+ * submitted through the wave server one by one if the wave is loaded.
+ *
  * @author akaplanov@gmail.com (Andrew Kaplanov)
  */
 public class ImportDeltasService implements OperationService {
@@ -53,12 +58,14 @@ public class ImportDeltasService implements OperationService {
   private static final IdURIEncoderDecoder URI_CODEC = new IdURIEncoderDecoder(new JavaUrlCodec());
   private static final HashedVersionFactory HASH_FACTORY = new HashedVersionFactoryImpl(URI_CODEC);
   private final WaveletProvider waveletProvider;
+  private final DeltaImporter deltaImporter;
   private final String waveDomain;
 
   @Inject
-  public ImportDeltasService(WaveletProvider waveletProvider,
+  public ImportDeltasService(WaveletProvider waveletProvider, DeltaImporter deltaImporter,
       @Named(CoreSettings.WAVE_SERVER_DOMAIN) final String waveDomain) {
     this.waveletProvider = waveletProvider;
+    this.deltaImporter = deltaImporter;
     this.waveDomain = waveDomain;
   }
 
@@ -81,58 +88,72 @@ public class ImportDeltasService implements OperationService {
       List<byte[]> history =
           OperationUtil.getRequiredParameter(operation, ParamsProperty.RAW_DELTAS);
       WaveletName waveletName = WaveletName.of(waveId, waveletId);
+      List<ProtocolWaveletDelta> deltas = new ArrayList<ProtocolWaveletDelta>(history.size());
+      for (byte[] deltaBytes : history) {
+        try {
+          deltas.add(ProtocolWaveletDelta.parseFrom(deltaBytes));
+        } catch (InvalidProtocolBufferException ex) {
+          throw new InvalidRequestException("Parse delta", operation, ex);
+        }
+      }
       long importedFromVersion = -1;
-      if (!history.isEmpty()) {
-        for (byte[] deltaBytes : history) {
-          ProtocolWaveletDelta delta;
-          try {
-            delta = ProtocolWaveletDelta.parseFrom(deltaBytes);
-          } catch (InvalidProtocolBufferException ex) {
-            throw new InvalidRequestException("Parse delta", operation, ex);
-          }
-          HashedVersion currentVersion;
-          try {
-            if (waveletProvider.checkExistence(waveletName)) {
-              currentVersion = waveletProvider.getLastModifiedVersion(waveletName);
-            } else {
-              currentVersion = HASH_FACTORY.createVersionZero(waveletName);
-            }
-          } catch (WaveServerException ex) {
-            throw new InvalidRequestException("Get current version", operation, ex);
-          }
-          if (currentVersion.getVersion() == delta.getHashedVersion().getVersion()) {
-            if (importedFromVersion == -1) {
-              importedFromVersion = currentVersion.getVersion();
-            }
-            ProtocolWaveletDelta newDelta;
+      if (!deltas.isEmpty()) {
+        Long importedVersion;
+        try {
+          importedVersion = deltaImporter.importDeltas(waveletName, deltas);
+        } catch (WaveServerException ex) {
+          context.constructErrorResponse(operation, ex.getMessage());
+          return;
+        }
+        if (importedVersion != null) {
+          importedFromVersion = importedVersion;
+        } else {
+          // The wave is loaded, deltas are submitted through the wave server.
+          for (ProtocolWaveletDelta delta : deltas) {
+            HashedVersion currentVersion;
             try {
-              newDelta = setVersionHash(delta, currentVersion, waveletName);
-            } catch (InvalidParticipantAddress ex) {
-              throw new InvalidRequestException("Convert delta", operation, ex);
+              if (waveletProvider.checkExistence(waveletName)) {
+                currentVersion = waveletProvider.getLastModifiedVersion(waveletName);
+              } else {
+                currentVersion = HASH_FACTORY.createVersionZero(waveletName);
+              }
+            } catch (WaveServerException ex) {
+              throw new InvalidRequestException("Get current version", operation, ex);
             }
-            final StringBuffer error = new StringBuffer();
-            waveletProvider.submitRequest(waveletName, newDelta,
-                new WaveletProvider.SubmitRequestCallback() {
+            if (currentVersion.getVersion() == delta.getHashedVersion().getVersion()) {
+              if (importedFromVersion == -1) {
+                importedFromVersion = currentVersion.getVersion();
+              }
+              ProtocolWaveletDelta newDelta;
+              try {
+                newDelta = setVersionHash(delta, currentVersion, waveletName);
+              } catch (InvalidParticipantAddress ex) {
+                throw new InvalidRequestException("Convert delta", operation, ex);
+              }
+              final StringBuffer error = new StringBuffer();
+              waveletProvider.submitRequest(waveletName, newDelta,
+                  new WaveletProvider.SubmitRequestCallback() {
 
-                  @Override
-                  public void onSuccess(int operationsApplied, HashedVersion hashedVersionAfterApplication,
-                      long applicationTimestamp) {
-                  }
+                    @Override
+                    public void onSuccess(int operationsApplied, HashedVersion hashedVersionAfterApplication,
+                        long applicationTimestamp) {
+                    }
 
-                  @Override
-                  public void onFailure(ReturnCode responseCode, String errorMessage) {
-                    error.append(responseCode.toString() + " : " + errorMessage);
-                  }
-                });
-            if (error.length() != 0) {
-              context.constructErrorResponse(operation, error.toString());
+                    @Override
+                    public void onFailure(ReturnCode responseCode, String errorMessage) {
+                      error.append(responseCode.toString() + " : " + errorMessage);
+                    }
+                  });
+              if (error.length() != 0) {
+                context.constructErrorResponse(operation, error.toString());
+                return;
+              }
+            } else if (importedFromVersion != -1) {
+              context.constructErrorResponse(operation, "Expected wavelet version "
+                  + delta.getHashedVersion().getVersion() + ", but current version is " + currentVersion + "."
+                  + "Possibly wavelet is modified during import.");
               return;
             }
-          } else if (importedFromVersion != -1) {
-            context.constructErrorResponse(operation, "Expected wavelet version "
-                + delta.getHashedVersion().getVersion() + ", but current version is " + currentVersion + "."
-                + "Possibly wavelet is modified during import.");
-            return;
           }
         }
       }
@@ -25,6 +25,10 @@ import com.google.inject.Singleton;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.logging.Level;
 import org.apache.commons.fileupload.FileItem;
 import org.apache.commons.fileupload.FileItemFactory;
@@ -42,7 +46,6 @@ import com.google.inject.name.Named;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
-import java.util.Calendar;
 import java.util.List;
 
 import javax.servlet.ServletException;
@@ -54,6 +57,7 @@ import org.waveprotocol.box.attachment.AttachmentMetadata;
 import org.waveprotocol.box.server.CoreSettings;
 import org.waveprotocol.box.server.attachment.AttachmentService;
 import org.waveprotocol.box.server.persistence.AttachmentStore.AttachmentData;
+import org.waveprotocol.box.server.persistence.AttachmentStore.FileAttachmentData;
 import org.waveprotocol.box.server.persistence.AttachmentUtil;
 import org.waveprotocol.box.server.waveserver.WaveServerException;
 import org.waveprotocol.wave.media.model.AttachmentId;
@@ -74,6 +78,13 @@ public class AttachmentServlet extends HttpServlet {
   public static String THUMBNAIL_URL = "/thumbnail";
 
   public static String THUMBNAIL_PATTERN_FORMAT_NAME = "png";
+
+  /** Browsers may keep attachments for a year, they are never changed. */
+  private static final long CACHE_MAX_AGE_SECONDS = 365L * 24 * 60 * 60;
+
+  private static final String THUMBNAIL_ETAG_SUFFIX = "-thumbnail";
+
+  private static final String MULTIPART_BOUNDARY_PREFIX = "ATTACHMENT_BYTE_RANGES_";
   public static String THUMBNAIL_PATTERN_DEFAULT = "default";
 
   private static final Log LOG = Log.get(AttachmentServlet.class);
@@ -135,11 +146,12 @@ public class AttachmentServlet extends HttpServlet {
     }
 
     if (metadata == null) {
-      metadata = service.buildAndStoreMetadataWithThumbnail(attachmentId, waveletName, fileName, null);
+      metadata = service.buildAndStoreMetadata(attachmentId, waveletName, fileName, null);
     }
 
     String contentType;
     AttachmentData data;
+    boolean placeholder = false;
     if (request.getRequestURI().startsWith(ATTACHMENT_URL)) {
       contentType = metadata.getMimeType();
       data = service.getAttachment(attachmentId);
@@ -152,8 +164,10 @@ public class AttachmentServlet extends HttpServlet {
         contentType = AttachmentService.THUMBNAIL_MIME_TYPE;
         data = service.getThumbnail(attachmentId);
         if (data == null) {
-          response.sendError(HttpServletResponse.SC_NOT_FOUND);
-          return;
+          // The thumbnail is being built or failed, serve the pattern instead.
+          contentType = THUMBNAIL_PATTERN_FORMAT_NAME;
+          data = getThumbnailByContentType(metadata.getMimeType());
+          placeholder = true;
         }
       } else {
         contentType = THUMBNAIL_PATTERN_FORMAT_NAME;
@@ -169,19 +183,144 @@ public class AttachmentServlet extends HttpServlet {
     }
 
     boolean isImage = contentType != null && contentType.startsWith(CONTENT_TYPE_IMAGE);
-    response.setContentType(contentType);
-    response.setContentLength((int)data.getSize());
+    // Attachments are immutable, so the id identifies the content.
+    String etag = "\"" + attachmentId.serialise()
+        + (request.getRequestURI().startsWith(THUMBNAIL_URL) ? THUMBNAIL_ETAG_SUFFIX : "") + "\"";
+    long lastModified = data instanceof FileAttachmentData
+        ? ((FileAttachmentData) data).getFile().lastModified() : -1;
+    if (placeholder) {
+      response.setHeader("Cache-Control", "no-cache");
+    } else {
+      response.setHeader("ETag", etag);
+      if (lastModified > 0) {
+        response.setDateHeader("Last-Modified", lastModified);
+      }
+      response.setHeader("Cache-Control", "private, max-age=" + CACHE_MAX_AGE_SECONDS);
+      if (isNotModified(request, etag, lastModified)) {
+        response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        return;
+      }
+    }
+    response.setHeader("Accept-Ranges", "bytes");
     if (!isImage) {
       response.setHeader("Content-Disposition", "attachment; filename=\"" +
           encodeFileName(metadata.getFileName()) + "\"");
     }
-    response.setStatus(HttpServletResponse.SC_OK);
-    response.setDateHeader("Last-Modified", Calendar.getInstance().getTimeInMillis());
-    AttachmentUtil.writeTo(data.getInputStream(), response.getOutputStream());
+    long size = data.getSize();
+    List<ByteRange> ranges = null;
+    String rangeHeader = request.getHeader("Range");
+    if (rangeHeader != null && !placeholder && isRangeApplicable(request, etag, lastModified)) {
+      ranges = ByteRange.parse(rangeHeader, size);
+    }
+    if (ranges == null) {
+      response.setContentType(contentType);
+      response.setContentLengthLong(size);
+      response.setStatus(HttpServletResponse.SC_OK);
+      AttachmentUtil.writeTo(data, 0, size, response.getOutputStream());
+    } else if (ranges.isEmpty()) {
+      response.setHeader("Content-Range", "bytes */" + size);
+      response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+      return;
+    } else if (ranges.size() == 1) {
+      ByteRange range = ranges.get(0);
+      response.setContentType(contentType);
+      response.setContentLengthLong(range.getLength());
+      response.setHeader("Content-Range", range.toContentRange(size));
+      response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+      AttachmentUtil.writeTo(data, range.getStart(), range.getLength(), response.getOutputStream());
+    } else {
+      writeMultipartRanges(response, data, contentType, size, ranges);
+    }
 
     LOG.info("Fetched attachment with id '" + attachmentId + "'");
   }
 
+  /**
+   * Checks conditional headers of the request. If-None-Match takes precedence
+   * over If-Modified-Since.
+   */
+  private static boolean isNotModified(HttpServletRequest request, String etag,
+      long lastModified) {
+    String ifNoneMatch = request.getHeader("If-None-Match");
+    if (ifNoneMatch != null) {
+      return matchesETag(ifNoneMatch, etag);
+    }
+    if (lastModified > 0) {
+      long ifModifiedSince = getDateHeader(request, "If-Modified-Since");
+      return ifModifiedSince != -1 && lastModified / 1000 <= ifModifiedSince / 1000;
+    }
+    return false;
+  }
+
+  /**
+   * Checks If-Range header, the range is ignored if the content is changed.
+   */
+  private static boolean isRangeApplicable(HttpServletRequest request, String etag,
+      long lastModified) {
+    String ifRange = request.getHeader("If-Range");
+    if (ifRange == null) {
+      return true;
+    }
+    ifRange = ifRange.trim();
+    if (ifRange.startsWith("\"")) {
+      return ifRange.equals(etag);
+    }
+    long date = getDateHeader(request, "If-Range");
+    return lastModified > 0 && date != -1 && lastModified / 1000 == date / 1000;
+  }
+
+  private static boolean matchesETag(String header, String etag) {
+    for (String tag : header.split(",")) {
+      tag = tag.trim();
+      if (tag.startsWith("W/")) {
+        tag = tag.substring(2);
+      }
+      if (tag.equals("*") || tag.equals(etag)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static long getDateHeader(HttpServletRequest request, String name) {
+    try {
+      return request.getDateHeader(name);
+    } catch (IllegalArgumentException e) {
+      return -1;
+    }
+  }
+
+  /**
+   * Writes multipart/byteranges response.
+   */
+  private static void writeMultipartRanges(HttpServletResponse response, AttachmentData data,
+      String contentType, long size, List<ByteRange> ranges) throws IOException {
+    String boundary =
+        MULTIPART_BOUNDARY_PREFIX + Long.toHexString(ThreadLocalRandom.current().nextLong());
+    List<byte[]> partHeaders = new ArrayList<>(ranges.size());
+    long contentLength = 0;
+    for (ByteRange range : ranges) {
+      String partHeader = "\r\n--" + boundary + "\r\n"
+          + (contentType != null ? "Content-Type: " + contentType + "\r\n" : "")
+          + "Content-Range: " + range.toContentRange(size) + "\r\n\r\n";
+      byte[] bytes = partHeader.getBytes(StandardCharsets.ISO_8859_1);
+      partHeaders.add(bytes);
+      contentLength += bytes.length + range.getLength();
+    }
+    byte[] end = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.ISO_8859_1);
+    contentLength += end.length;
+    response.setContentType("multipart/byteranges; boundary=" + boundary);
+    response.setContentLengthLong(contentLength);
+    response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+    OutputStream out = response.getOutputStream();
+    for (int i = 0; i < ranges.size(); i++) {
+      ByteRange range = ranges.get(i);
+      out.write(partHeaders.get(i));
+      AttachmentUtil.writeTo(data, range.getStart(), range.getLength(), out);
+    }
+    out.write(end);
+  }
+
 	static private String encodeFileName(String fileName) throws UnsupportedEncodingException {
   	return "=?UTF-8?B?" + (new String(Base64.encodeBase64(fileName.getBytes("UTF-8")))) + "?=";
 	}
@@ -290,7 +429,7 @@ public class AttachmentServlet extends HttpServlet {
       file = new File(thumbnailPattternsDirectory, THUMBNAIL_PATTERN_DEFAULT);
     }
     final File thumbFile = file;
-    return new AttachmentData() {
+    return new FileAttachmentData() {
 
       @Override
       public InputStream getInputStream() throws IOException {
@@ -301,6 +440,11 @@ public class AttachmentServlet extends HttpServlet {
       public long getSize() {
         return thumbFile.length();
       }
+
+      @Override
+      public File getFile() {
+        return thumbFile;
+      }
     };
   }
 
@@ -61,6 +61,7 @@ import org.waveprotocol.box.server.persistence.AccountStore;
 import org.waveprotocol.box.server.robots.agent.welcome.WelcomeRobot;
 import org.waveprotocol.box.server.util.RegistrationUtil;
 import org.waveprotocol.box.server.util.UrlParameters;
+import org.waveprotocol.box.server.waveserver.WaveWarmer;
 import org.waveprotocol.wave.model.id.WaveIdentifiers;
 import org.waveprotocol.wave.model.wave.InvalidParticipantAddress;
 import org.waveprotocol.wave.model.wave.ParticipantId;
@@ -95,6 +96,7 @@ public class AuthenticationServlet extends HttpServlet {
   private final boolean isLoginPageDisabled;
   private boolean failedClientAuth = false;
   private final WelcomeRobot welcomeBot;
+  private final WaveWarmer waveWarmer;
   private final String analyticsAccount;
 
   @Inject
@@ -105,7 +107,7 @@ public class AuthenticationServlet extends HttpServlet {
       @Named(CoreSettings.CLIENTAUTH_CERT_DOMAIN) String clientAuthCertDomain,
       @Named(CoreSettings.DISABLE_REGISTRATION) boolean isRegistrationDisabled,
       @Named(CoreSettings.DISABLE_LOGINPAGE) boolean isLoginPageDisabled,
-      WelcomeRobot welcomeBot,
+      WelcomeRobot welcomeBot, WaveWarmer waveWarmer,
       @Named(CoreSettings.ANALYTICS_ACCOUNT) String analyticsAccount) {
     Preconditions.checkNotNull(accountStore, "AccountStore is null");
     Preconditions.checkNotNull(configuration, "Configuration is null");
@@ -119,6 +121,7 @@ public class AuthenticationServlet extends HttpServlet {
     this.isRegistrationDisabled = isRegistrationDisabled;
     this.isLoginPageDisabled = isLoginPageDisabled;
     this.welcomeBot = welcomeBot;
+    this.waveWarmer = waveWarmer;
     this.analyticsAccount = analyticsAccount;
   }
 
@@ -242,6 +245,7 @@ public class AuthenticationServlet extends HttpServlet {
     sessionManager.setLoggedInUser(session, loggedInAddress);
     LOG.info("Authenticated user " + loggedInAddress);
     RegistrationUtil.createGreetingIfNotExists(loggedInAddress, welcomeBot);
+    waveWarmer.warmUpInbox(loggedInAddress);
 
     redirectLoggedInUser(req, resp);
   }
@@ -0,0 +1,133 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.waveprotocol.box.server.rpc;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Range of bytes of the HTTP Range header.
+ *
+ * @author akaplanov@gmail.com (A. Kaplanov)
+ */
+final class ByteRange {
+
+  private static final String BYTES_UNIT = "bytes=";
+
+  /**
+   * Maximum count of ranges in the request, the whole content is sent for
+   * requests with more ranges.
+   */
+  static final int MAX_RANGES = 16;
+
+  private final long start;
+  private final long end;
+
+  ByteRange(long start, long end) {
+    this.start = start;
+    this.end = end;
+  }
+
+  /**
+   * Parses the Range header.
+   *
+   * @param header the value of header.
+   * @param size the size of the content.
+   * @return satisfiable ranges in order of the header, empty list if no
+   *         range is satisfiable, or null if the header should be ignored
+   *         and the whole content should be sent.
+   */
+  static List<ByteRange> parse(String header, long size) {
+    if (!header.startsWith(BYTES_UNIT)) {
+      return null;
+    }
+    String[] specs = header.substring(BYTES_UNIT.length()).split(",");
+    if (specs.length > MAX_RANGES) {
+      return null;
+    }
+    List<ByteRange> ranges = new ArrayList<>(specs.length);
+    for (String spec : specs) {
+      spec = spec.trim();
+      int dash = spec.indexOf('-');
+      if (dash == -1) {
+        return null;
+      }
+      try {
+        String first = spec.substring(0, dash).trim();
+        String last = spec.substring(dash + 1).trim();
+        if (first.isEmpty()) {
+          // Suffix range: last N bytes.
+          long suffixLength = Long.parseLong(last);
+          if (suffixLength < 0) {
+            return null;
+          }
+          if (suffixLength > 0 && size > 0) {
+            ranges.add(new ByteRange(Math.max(0, size - suffixLength), size - 1));
+          }
+        } else {
+          long start = Long.parseLong(first);
+          long end = last.isEmpty() ? Long.MAX_VALUE : Long.parseLong(last);
+          if (start < 0 || end < start) {
+            return null;
+          }
+          if (start < size) {
+            ranges.add(new ByteRange(start, Math.min(end, size - 1)));
+          }
+        }
+      } catch (NumberFormatException e) {
+        return null;
+      }
+    }
+    return ranges;
+  }
+
+  long getStart() {
+    return start;
+  }
+
+  long getEnd() {
+    return end;
+  }
+
+  long getLength() {
+    return end - start + 1;
+  }
+
+  /**
+   * @return the value of Content-Range header.
+   */
+  String toContentRange(long size) {
+    return "bytes " + start + "-" + end + "/" + size;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (!(obj instanceof ByteRange)) {
+      return false;
+    }
+    ByteRange other = (ByteRange) obj;
+    return start == other.start && end == other.end;
+  }
+
+  @Override
+  public int hashCode() {
+    return (int) (start * 31 + end);
+  }
+
+  @Override
+  public String toString() {
+    return start + "-" + end;
+  }
+}
@@ -84,9 +84,24 @@ public final class FetchContactsServlet extends HttpServlet {
     }
     ContactRequest contactRequest = parseContactRequest(req);
     long clientTimestamp = contactRequest.getTimestamp();
+    // If count is specified, only the best ranked contacts are returned.
+    int count = -1;
+    if (req.getParameter("count") != null) {
+      try {
+        count = Integer.parseInt(req.getParameter("count"));
+      } catch (NumberFormatException ex) {
+        resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid count");
+        return;
+      }
+    }
+    long currentTimestamp = Calendar.getInstance().getTimeInMillis();
     List<Contact> contacts = new ArrayList<Contact>();
     try {
-      contacts = contactManager.getContacts(participantId, clientTimestamp);
+      if (count >= 0) {
+        contacts = contactManager.getTopContacts(participantId, count, currentTimestamp);
+      } else {
+        contacts = contactManager.getContacts(participantId, clientTimestamp);
+      }
     } catch (PersistenceException ex) {
       LOG.severe("Get contacts error", ex);
     }
@@ -94,7 +109,6 @@ public final class FetchContactsServlet extends HttpServlet {
     resp.setStatus(HttpServletResponse.SC_OK);
     resp.setHeader("Cache-Control", "no-store");
     try {
-      long currentTimestamp = Calendar.getInstance().getTimeInMillis();
       ContactResponse response = serializeContacts(contacts, currentTimestamp);
       JsonElement responseJson = serializer.toJson(response);
       resp.getWriter().append(responseJson.toString());
@@ -16,6 +16,7 @@ import org.waveprotocol.box.server.authentication.GoogleAuthentication;
 import org.waveprotocol.box.server.authentication.SessionManager;
 import org.waveprotocol.box.server.robots.agent.welcome.WelcomeRobot;
 import org.waveprotocol.box.server.util.RegistrationUtil;
+import org.waveprotocol.box.server.waveserver.WaveWarmer;
 import org.waveprotocol.wave.model.wave.InvalidParticipantAddress;
 import org.waveprotocol.wave.model.wave.ParticipantId;
 
@@ -28,15 +29,18 @@ public class GoogleAuthenticationCallbackServlet extends AbstractAuthorizationCo
 
   private final SessionManager sessionManager;
   private final WelcomeRobot welcomeBot;
+  private final WaveWarmer waveWarmer;
   private final GoogleAuthentication authentication;
 
   @Inject
   public GoogleAuthenticationCallbackServlet(
       SessionManager sessionManager,
       WelcomeRobot welcomeBot,
+      WaveWarmer waveWarmer,
       GoogleAuthentication authentication) {
     this.sessionManager = sessionManager;
     this.welcomeBot = welcomeBot;
+    this.waveWarmer = waveWarmer;
     this.authentication = authentication;
   }
 
@@ -48,6 +52,7 @@ public class GoogleAuthenticationCallbackServlet extends AbstractAuthorizationCo
       sessionManager.setLoggedInUser(session, participant);
       LOG.info("Authenticated user " + participant.getAddress());
       RegistrationUtil.createGreetingIfNotExists(participant, welcomeBot);
+      waveWarmer.warmUpInbox(participant);
     } catch (InvalidParticipantAddress ex) {
       throw new IOException(ex);
     }
@@ -25,7 +25,9 @@ import org.waveprotocol.box.contact.ContactsProto.ContactResponse;
 import org.waveprotocol.box.contact.proto.ContactResponseProtoImpl;
 import org.waveprotocol.box.profile.ProfilesProto.ProfileResponse;
 import org.waveprotocol.box.profile.proto.ProfileResponseProtoImpl;
+import org.waveprotocol.box.search.SearchProto.SearchRequest;
 import org.waveprotocol.box.search.SearchProto.SearchResponse;
+import org.waveprotocol.box.search.proto.SearchRequestProtoImpl;
 import org.waveprotocol.box.search.proto.SearchResponseProtoImpl;
 import org.waveprotocol.box.searches.SearchesProto.Searches;
 import org.waveprotocol.box.searches.proto.SearchesProtoImpl;
@@ -168,6 +170,7 @@ public final class ProtoSerializer {
     add(CancelRpc.class, CancelRpcProtoImpl.class);
     add(RpcFinished.class, RpcFinishedProtoImpl.class);
 
+    add(SearchRequest.class, SearchRequestProtoImpl.class);
     add(SearchResponse.class, SearchResponseProtoImpl.class);
     add(Searches.class, SearchesProtoImpl.class);
     add(ProfileResponse.class, ProfileResponseProtoImpl.class);
@@ -17,11 +17,19 @@ package org.waveprotocol.box.server.rpc;
 
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import com.google.inject.name.Named;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -33,6 +41,7 @@ import org.waveprotocol.box.common.ThrowableReceiver;
 import org.waveprotocol.box.server.CoreSettings;
 import org.waveprotocol.box.server.contact.ContactManager;
 import org.waveprotocol.box.server.contact.ContactsRecorder;
+import org.waveprotocol.box.server.executor.ExecutorAnnotations.RemakeContactsExecutor;
 import org.waveprotocol.box.server.waveserver.WaveServerException;
 import org.waveprotocol.box.server.persistence.deltas.WaveletDeltaRecord;
 import org.waveprotocol.box.server.waveserver.WaveletProvider;
@@ -66,13 +75,16 @@ public class RemakeContactsServlet extends HttpServlet {
   private final ContactManager contactManager;
   private final WaveletProvider waveletProvider;
   private final String waveDomain;
+  private final Executor executor;
 
   @Inject
   private RemakeContactsServlet(ContactManager contactManager, WaveletProvider waveletProvider,
-      @Named(CoreSettings.WAVE_SERVER_DOMAIN) final String waveDomain) {
+      @Named(CoreSettings.WAVE_SERVER_DOMAIN) final String waveDomain,
+      @RemakeContactsExecutor Executor executor) {
     this.contactManager = contactManager;
     this.waveletProvider = waveletProvider;
     this.waveDomain = waveDomain;
+    this.executor = executor;
   }
 
   @Override
@@ -87,32 +99,59 @@ public class RemakeContactsServlet extends HttpServlet {
     }
   }
 
+  /**
+   * Remakes contacts from history of all waves. Waves are processed in
+   * parallel, the result doesn't depend on order of calls.
+   */
   public synchronized void remakeContacts() throws WaveletStateException, WaveServerException {
-    ExceptionalIterator<WaveId, WaveServerException> witr = waveletProvider.getWaveIds();
-    int i=0;
-    while (witr.hasNext()) {
-      WaveId waveId = witr.next();
-      try {
-        ImmutableSet<WaveletId> wavelets = waveletProvider.getWaveletIds(waveId);
-        for (WaveletId wavelet : wavelets) {
-          WaveletName waveletName = WaveletName.of(waveId, wavelet);
-          HashedVersion committedVersion = waveletProvider.getLastCommittedVersion(waveletName);
-          final Set<ParticipantId> participants = Sets.newHashSet();
-          waveletProvider.getDeltaHistory(WaveletName.of(waveId, wavelet),
-              HASH_FACTORY.createVersionZero(waveletName), committedVersion,
-              new ThrowableReceiver<WaveletDeltaRecord, WaveServerException>() {
+    final AtomicInteger remadeCount = new AtomicInteger();
+    List<ListenableFuture<Void>> tasks = new ArrayList<>();
+    try {
+      ExceptionalIterator<WaveId, WaveServerException> witr = waveletProvider.getWaveIds();
+      while (witr.hasNext()) {
+        final WaveId waveId = witr.next();
+        ListenableFutureTask<Void> task = ListenableFutureTask.create(new Runnable() {
 
-            @Override
-            public boolean put(WaveletDeltaRecord delta) {
-              ContactsRecorder.updateContacts(participants, delta.getTransformedDelta(), contactManager, waveDomain);
-              return true;
+          @Override
+          public void run() {
+            try {
+              remakeContacts(waveId);
+              LOG.info("Contacts on " + remadeCount.incrementAndGet() + " waves has been remade");
+            } catch (Exception ex) {
+              LOG.log(Level.SEVERE, "Remaking contacts on wave " + waveId.serialise() + " error",  ex);
             }
-          });
-        }
-        LOG.info("Contacts on " + ++i + " waves has been remade");
-      } catch (Exception ex) {
-        LOG.log(Level.SEVERE, "Remaking contacts on wave " + waveId.serialise() + " error",  ex);
+          }
+        }, null);
+        tasks.add(task);
+        executor.execute(task);
+      }
+    } finally {
+      try {
+        Futures.successfulAsList(tasks).get();
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      } catch (ExecutionException ex) {
+        LOG.log(Level.SEVERE, "Remaking contacts error", ex);
       }
     }
   }
+
+  private void remakeContacts(WaveId waveId) throws WaveletStateException, WaveServerException {
+    ImmutableSet<WaveletId> wavelets = waveletProvider.getWaveletIds(waveId);
+    for (WaveletId wavelet : wavelets) {
+      WaveletName waveletName = WaveletName.of(waveId, wavelet);
+      HashedVersion committedVersion = waveletProvider.getLastCommittedVersion(waveletName);
+      final Set<ParticipantId> participants = Sets.newHashSet();
+      waveletProvider.getDeltaHistory(WaveletName.of(waveId, wavelet),
+          HASH_FACTORY.createVersionZero(waveletName), committedVersion,
+          new ThrowableReceiver<WaveletDeltaRecord, WaveServerException>() {
+
+        @Override
+        public boolean put(WaveletDeltaRecord delta) {
+          ContactsRecorder.updateContacts(participants, delta.getTransformedDelta(), contactManager, waveDomain);
+          return true;
+        }
+      });
+    }
+  }
 }
@@ -0,0 +1,79 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.waveprotocol.box.server.rpc;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import org.waveprotocol.box.server.search.LuceneSearchImpl;
+import org.waveprotocol.box.server.search.SearchProvider;
+import org.waveprotocol.wave.util.logging.Log;
+
+import java.io.IOException;
+import java.util.logging.Level;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Changes the count of shards of the Lucene index online.
+ *
+ * Usage: /reshard_index?shards=N. The index is rebuilt from all waves while
+ * the current one serves queries, the request is completed after that.
+ *
+ * @author akaplanov@gmail.com (A. Kaplanov)
+ */
+@SuppressWarnings("serial")
+@Singleton
+public class ReshardIndexServlet extends HttpServlet {
+
+  private static final Log LOG = Log.get(ReshardIndexServlet.class);
+
+  private final SearchProvider searchProvider;
+
+  @Inject
+  private ReshardIndexServlet(SearchProvider searchProvider) {
+    this.searchProvider = searchProvider;
+  }
+
+  @Override
+  protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+    if (!(searchProvider instanceof LuceneSearchImpl)) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Search index is not sharded");
+      return;
+    }
+    int shardCount;
+    try {
+      shardCount = Integer.parseInt(request.getParameter("shards"));
+    } catch (NumberFormatException ex) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid count of shards");
+      return;
+    }
+    if (shardCount <= 0) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid count of shards");
+      return;
+    }
+    try {
+      ((LuceneSearchImpl) searchProvider).reshard(shardCount);
+      response.setStatus(HttpServletResponse.SC_OK);
+      response.getOutputStream().write(("done").getBytes());
+    } catch (Exception ex) {
+      LOG.log(Level.SEVERE, "Resharding of index failed", ex);
+      throw new IOException(ex);
+    }
+  }
+}
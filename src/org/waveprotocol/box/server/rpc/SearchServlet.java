@@ -33,6 +33,7 @@ import org.waveprotocol.box.server.authentication.SessionManager;
 import org.waveprotocol.box.server.robots.OperationServiceRegistry;
 import org.waveprotocol.box.server.robots.util.ConversationUtil;
 import org.waveprotocol.box.server.rpc.ProtoSerializer.SerializationException;
+import org.waveprotocol.box.server.waveserver.WaveWarmer;
 import org.waveprotocol.box.server.waveserver.WaveletProvider;
 import org.waveprotocol.box.webclient.search.SearchService;
 import org.waveprotocol.wave.model.wave.ParticipantId;
@@ -64,6 +65,7 @@ public class SearchServlet extends AbstractSearchServlet {
   private static final Log LOG = Log.get(SearchServlet.class);
 
   private final ProtoSerializer serializer;
+  private final WaveWarmer waveWarmer;
 
   /**
    * Constructs SearchResponse which is a protobuf generated class from the
@@ -112,9 +114,11 @@ public class SearchServlet extends AbstractSearchServlet {
   @Inject
   public SearchServlet(SessionManager sessionManager, EventDataConverterManager converterManager,
       @Named("DataApiRegistry") OperationServiceRegistry operationRegistry,
-      WaveletProvider waveletProvider, ConversationUtil conversationUtil, ProtoSerializer serializer) {
+      WaveletProvider waveletProvider, ConversationUtil conversationUtil, ProtoSerializer serializer,
+      WaveWarmer waveWarmer) {
     super(conversationUtil, converterManager, waveletProvider, sessionManager, operationRegistry);
     this.serializer = serializer;
+    this.waveWarmer = waveWarmer;
   }
 
   /**
@@ -136,9 +140,10 @@ public class SearchServlet extends AbstractSearchServlet {
     LOG.fine("Results: " + searchResult.getNumResults() + ", total: " + totalGuess);
     SearchResponse searchResponse = serializeSearchResult(searchResult, totalGuess);
     serializeObjectToServlet(searchResponse, response);
+    waveWarmer.warmUp(user, searchResult.getDigests());
   }
 
-  private int computeTotalResultsNumberGuess(SearchRequest searchRequest, SearchResult searchResult) {
+  static int computeTotalResultsNumberGuess(SearchRequest searchRequest, SearchResult searchResult) {
     // The Data API does not return the total size of the search result, even
     // though the searcher knows it. The only approximate knowledge that can be
     // gleaned from the Data API is whether there are more search results beyond
@@ -0,0 +1,263 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.waveprotocol.box.server.rpc;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.SetMultimap;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import com.google.protobuf.RpcCallback;
+import com.google.protobuf.RpcController;
+import com.google.wave.api.SearchResult;
+
+import org.waveprotocol.box.search.SearchProto;
+import org.waveprotocol.box.search.SearchProto.SearchRequest;
+import org.waveprotocol.box.search.SearchProto.SearchResponse;
+import org.waveprotocol.box.server.CoreSettings;
+import org.waveprotocol.box.server.executor.ExecutorAnnotations.SearchSubscriptionExecutor;
+import org.waveprotocol.box.server.search.SearchBusSubscriber;
+import org.waveprotocol.box.server.search.SearchProvider;
+import org.waveprotocol.box.server.waveserver.WaveWarmer;
+import org.waveprotocol.wave.model.id.WaveId;
+import org.waveprotocol.wave.model.wave.ParticipantId;
+import org.waveprotocol.wave.model.wave.ParticipantIdUtil;
+import org.waveprotocol.wave.util.logging.Log;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Streams search results to clients over the RPC channel instead of polling
+ * of the search servlet.
+ *
+ * The subscription keeps the last result sent to the client. On update of the
+ * index of a wave the query is repeated only for subscriptions which may be
+ * affected: ones of participants of the wave and ones with the wave in the
+ * last result. The result is sent only if it differs from the last one.
+ *
+ * @author akaplanov@gmail.com (A. Kaplanov)
+ */
+@Singleton
+public class SearchSubscriptionServiceImpl implements
+    SearchProto.SearchSubscriptionService.Interface, SearchBusSubscriber.IndexListener {
+
+  private static final Log LOG = Log.get(SearchSubscriptionServiceImpl.class);
+
+  /**
+   * Subscription of a client to the query.
+   */
+  private static final class Subscription {
+    private final ParticipantId user;
+    private final SearchRequest request;
+    private final RpcCallback<SearchResponse> callback;
+
+    /** Is set while the refresh is waiting in the executor queue. */
+    private final AtomicBoolean refreshScheduled = new AtomicBoolean();
+
+    /**
+     * Serializes refreshes of the subscription on the executor threads, so an
+     * older result is never sent after a newer one.
+     */
+    private final Object refreshLock = new Object();
+
+    /** Waves of the last result. Guarded by the service. */
+    private Set<String> waveIds = Collections.emptySet();
+
+    private SearchResponse lastResponse;
+    private boolean closed = false;
+
+    Subscription(ParticipantId user, SearchRequest request, RpcCallback<SearchResponse> callback) {
+      this.user = user;
+      this.request = request;
+      this.callback = callback;
+    }
+
+    synchronized boolean isClosed() {
+      return closed;
+    }
+
+    /**
+     * Sends the response if it differs from the last one.
+     *
+     * @return true if the response is sent.
+     */
+    synchronized boolean send(SearchResponse response) {
+      if (closed || response.equals(lastResponse)) {
+        return false;
+      }
+      lastResponse = response;
+      callback.run(response);
+      return true;
+    }
+
+    /**
+     * Finishes the stream.
+     */
+    synchronized void close() {
+      if (!closed) {
+        closed = true;
+        callback.run(null);
+      }
+    }
+  }
+
+  private final SearchProvider searchProvider;
+  private final WaveWarmer waveWarmer;
+  private final Executor executor;
+  private final String sharedDomainParticipant;
+
+  /** Subscriptions by users. Guarded by this. */
+  private final SetMultimap<ParticipantId, Subscription> subscriptionsByUser =
+      HashMultimap.create();
+
+  /** Subscriptions by waves of their last results. Guarded by this. */
+  private final SetMultimap<String, Subscription> subscriptionsByWave = HashMultimap.create();
+
+  @Inject
+  public SearchSubscriptionServiceImpl(SearchProvider searchProvider, WaveWarmer waveWarmer,
+      @SearchSubscriptionExecutor Executor executor,
+      @Named(CoreSettings.WAVE_SERVER_DOMAIN) String waveDomain) {
+    this.searchProvider = searchProvider;
+    this.waveWarmer = waveWarmer;
+    this.executor = executor;
+    this.sharedDomainParticipant =
+        ParticipantIdUtil.makeUnsafeSharedDomainParticipantId(waveDomain).getAddress();
+  }
+
+  public void registerServices(ServerRpcProvider server) {
+    server.registerService(SearchProto.SearchSubscriptionService.newReflectiveService(this));
+  }
+
+  @Override
+  public void subscribe(RpcController controller, SearchRequest request,
+      RpcCallback<SearchResponse> done) {
+    ParticipantId user = ((ServerRpcController) controller).getLoggedInUser();
+    if (user == null) {
+      controller.setFailed("User is not logged in");
+      return;
+    }
+    LOG.fine("Subscription of " + user + " to query " + request.getQuery());
+    final Subscription subscription = new Subscription(user, request, done);
+    synchronized (this) {
+      subscriptionsByUser.put(user, subscription);
+    }
+    controller.notifyOnCancel(new RpcCallback<Object>() {
+
+      @Override
+      public void run(Object parameter) {
+        unsubscribe(subscription);
+      }
+    });
+    scheduleRefresh(subscription);
+  }
+
+  @Override
+  public void onIndexUpdated(final Set<WaveId> waveIds) {
+    executor.execute(new Runnable() {
+
+      @Override
+      public void run() {
+        for (Subscription subscription : getAffectedSubscriptions(waveIds)) {
+          scheduleRefresh(subscription);
+        }
+      }
+    });
+  }
+
+  /**
+   * Collects subscriptions affected by any of the waves, so each of them is
+   * refreshed once per batch of updates.
+   */
+  private Set<Subscription> getAffectedSubscriptions(Set<WaveId> waveIds) {
+    Set<Subscription> subscriptions = new HashSet<>();
+    for (WaveId waveId : waveIds) {
+      SearchResult.Digest digest = searchProvider.findWave(waveId, null);
+      synchronized (this) {
+        subscriptions.addAll(subscriptionsByWave.get(waveId.serialise()));
+        if (digest != null) {
+          if (digest.getParticipants().contains(sharedDomainParticipant)) {
+            subscriptions.addAll(subscriptionsByUser.values());
+            return subscriptions;
+          }
+          for (String participant : digest.getParticipants()) {
+            subscriptions.addAll(subscriptionsByUser.get(ParticipantId.ofUnsafe(participant)));
+          }
+        }
+      }
+    }
+    return subscriptions;
+  }
+
+  private void scheduleRefresh(final Subscription subscription) {
+    if (subscription.refreshScheduled.compareAndSet(false, true)) {
+      executor.execute(new Runnable() {
+
+        @Override
+        public void run() {
+          synchronized (subscription.refreshLock) {
+            subscription.refreshScheduled.set(false);
+            refresh(subscription);
+          }
+        }
+      });
+    }
+  }
+
+  private void refresh(Subscription subscription) {
+    if (subscription.isClosed()) {
+      return;
+    }
+    SearchRequest request = subscription.request;
+    SearchResult result = searchProvider.search(request.getQuery(), request.getIndex(),
+        request.getNumResults(), subscription.user);
+    SearchResponse response = SearchServlet.serializeSearchResult(result,
+        SearchServlet.computeTotalResultsNumberGuess(request, result));
+    if (subscription.send(response)) {
+      Set<String> waveIds = new HashSet<>();
+      for (SearchResponse.Digest digest : response.getDigestsList()) {
+        waveIds.add(digest.getWaveId());
+      }
+      synchronized (this) {
+        if (subscriptionsByUser.containsEntry(subscription.user, subscription)) {
+          for (String waveId : subscription.waveIds) {
+            subscriptionsByWave.remove(waveId, subscription);
+          }
+          for (String waveId : waveIds) {
+            subscriptionsByWave.put(waveId, subscription);
+          }
+          subscription.waveIds = waveIds;
+        }
+      }
+      waveWarmer.warmUp(subscription.user, result.getDigests());
+    }
+  }
+
+  private void unsubscribe(Subscription subscription) {
+    LOG.fine("Cancelled subscription of " + subscription.user + " to query "
+        + subscription.request.getQuery());
+    synchronized (this) {
+      subscriptionsByUser.remove(subscription.user, subscription);
+      for (String waveId : subscription.waveIds) {
+        subscriptionsByWave.remove(waveId, subscription);
+      }
+      subscription.waveIds = Collections.emptySet();
+    }
+    subscription.close();
+  }
+}
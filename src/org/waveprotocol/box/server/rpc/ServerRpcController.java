@@ -48,4 +48,12 @@ public interface ServerRpcController extends RpcController, Runnable {
    * Call the pending cancellation callback, if there is one.
    */
   void cancel();
+
+  /**
+   * Cancels this controller like {@link #cancel()}, unless it is already
+   * cancelled.
+   *
+   * @return true if the controller was cancelled by this call.
+   */
+  boolean cancelIfNotCancelled();
 }
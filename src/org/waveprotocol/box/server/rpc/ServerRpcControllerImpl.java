@@ -155,10 +155,17 @@ public class ServerRpcControllerImpl implements ServerRpcController {
 
   @Override
   public void cancel() {
+    if (!cancelIfNotCancelled()) {
+      throw new IllegalStateException("Can't cancel RPC, already cancelled.");
+    }
+  }
+
+  @Override
+  public boolean cancelIfNotCancelled() {
     RpcCallback<Object> runCallback = null;
     synchronized (statusLock) {
       if (cancelled) {
-        throw new IllegalStateException("Can't cancel RPC, already cancelled.");
+        return false;
       }
       cancelled = true;
       if (cancelCallback != null && !complete) {
@@ -168,6 +175,7 @@ public class ServerRpcControllerImpl implements ServerRpcController {
     if (runCallback != null) {
       runCallback.run(null);
     }
+    return true;
   }
 
   /**
@@ -202,6 +202,9 @@ public class ServerRpcProvider {
 
     private final ServerRpcProvider provider;
 
+    // Set when the connection is closed, responses are not sent after that.
+    private volatile boolean disconnected = false;
+
     /**
      * @param loggedInUser The currently logged in user, or null if no user is
      *        logged in.
@@ -296,7 +299,9 @@ public class ServerRpcProvider {
                         }
                         activeRpcs.remove(sequenceNo);
                       }
-                      sendMessage(sequenceNo, message);
+                      if (!disconnected) {
+                        sendMessage(sequenceNo, message);
+                      }
                       if (profilingTimer != null) {
                         Timing.stop(profilingTimer);
                       }
@@ -316,6 +321,7 @@ public class ServerRpcProvider {
 
     @Override
     public void disconnect(String connectionId) {
+      disconnected = true;
       Message message = DisconnectRequest.getDefaultInstance();
       final RegisteredServiceMethod serviceMethod =
           provider.registeredServices.get(message.getDescriptorForType());
@@ -327,6 +333,12 @@ public class ServerRpcProvider {
         }
       });
       provider.threadPool.execute(controller);
+      // Streaming RPCs of the connection can't be cancelled by the client anymore.
+      // A concurrent CancelRpc may cancel an RPC at the same time.
+      for (ServerRpcController activeRpc : activeRpcs.values()) {
+        activeRpc.cancelIfNotCancelled();
+      }
+      activeRpcs.clear();
     }
   }
 
@@ -19,6 +19,7 @@
 
 package org.waveprotocol.box.server.rpc;
 
+import org.waveprotocol.wave.clientserver.ClientServer.TransportAuthenticationRequest;
 import org.waveprotocol.wave.clientserver.Rpc;
 import org.waveprotocol.wave.util.logging.Log;
 
@@ -67,7 +68,6 @@ public class WebSocketClientRpcChannel implements ClientRpcChannel {
         final ClientRpcController controller;
         synchronized (activeMethodMap) {
           controller = activeMethodMap.get(sequenceNo);
-          // TODO: remove controller from activeMethodMap
         }
         if (message instanceof Rpc.RpcFinished) {
           Rpc.RpcFinished finished = (Rpc.RpcFinished) message;
@@ -79,6 +79,11 @@ public class WebSocketClientRpcChannel implements ClientRpcChannel {
         } else {
           controller.response(message);
         }
+        if (controller.status() == ClientRpcController.Status.COMPLETE) {
+          synchronized (activeMethodMap) {
+            activeMethodMap.remove(sequenceNo);
+          }
+        }
       }
 
       @Override
@@ -91,6 +96,18 @@ public class WebSocketClientRpcChannel implements ClientRpcChannel {
     LOG.fine("Opened a new WebSocketClientRpcChannel to " + serverAddress);
   }
 
+  /**
+   * Authenticates the connection by the session token, as the web client does.
+   * The server doesn't reply, RPCs called after this are made on behalf of
+   * the user of the session.
+   *
+   * @param token the session cookie obtained on sign in.
+   */
+  public void authenticate(String token) {
+    clientChannel.sendMessage(lastSequenceNumber.incrementAndGet(),
+        TransportAuthenticationRequest.newBuilder().setToken(token).build());
+  }
+
   @Override
   public void close() {
     try {
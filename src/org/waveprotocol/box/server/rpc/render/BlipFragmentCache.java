@@ -0,0 +1,159 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.waveprotocol.box.server.rpc.render;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import org.waveprotocol.wave.model.id.SegmentId;
+import org.waveprotocol.wave.model.id.WaveletName;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of rendered HTML of blip documents.
+ *
+ * The fragment is keyed by the wavelet and the segment of the blip and is
+ * valid for the last modified version of the blip only, so after an edit of
+ * the wave only modified blips are rendered again and other fragments are
+ * reused on assembling of the thread structure. The cache is shared by the
+ * rendering to the static HTML store and by the on-demand rendering.
+ *
+ * @author akaplanov@gmail.com (A. Kaplanov)
+ */
+@Singleton
+public class BlipFragmentCache {
+
+  /** Default total length of cached fragments in chars. */
+  private static final long DEFAULT_MAXIMUM_WEIGHT = 32 * 1024 * 1024;
+
+  /** Segment of the wavelet. */
+  private static final class Key {
+    private final WaveletName waveletName;
+    private final SegmentId segmentId;
+
+    Key(WaveletName waveletName, SegmentId segmentId) {
+      this.waveletName = waveletName;
+      this.segmentId = segmentId;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) o;
+      return waveletName.equals(other.waveletName) && segmentId.equals(other.segmentId);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * waveletName.hashCode() + segmentId.hashCode();
+    }
+  }
+
+  /** Rendered HTML of some version of the blip. */
+  private static final class Fragment {
+    private final long version;
+    private final String html;
+
+    Fragment(long version, String html) {
+      this.version = version;
+      this.html = html;
+    }
+  }
+
+  /**
+   * Only the last rendered version of the segment is kept, so fragments of
+   * old versions are replaced instead of waiting for eviction.
+   */
+  private final Cache<Key, Fragment> fragments;
+
+  private final AtomicLong hitCount = new AtomicLong();
+  private final AtomicLong missCount = new AtomicLong();
+
+  @Inject
+  public BlipFragmentCache() {
+    this(DEFAULT_MAXIMUM_WEIGHT);
+  }
+
+  BlipFragmentCache(long maximumWeight) {
+    fragments = CacheBuilder.newBuilder()
+        .maximumWeight(maximumWeight)
+        .weigher(new Weigher<Key, Fragment>() {
+
+          @Override
+          public int weigh(Key key, Fragment fragment) {
+            return fragment.html.length();
+          }
+        })
+        .build();
+  }
+
+  /**
+   * Gets HTML of the blip document, renders it if there is no fragment of
+   * this version.
+   *
+   * @param waveletName the name of wavelet of the blip.
+   * @param blipId the id of the blip.
+   * @param version the last modified version of the blip.
+   * @param renderer renders the blip document.
+   * @return the rendered HTML.
+   */
+  public String get(WaveletName waveletName, String blipId, long version,
+      Callable<String> renderer) {
+    Key key = new Key(waveletName, SegmentId.ofBlipId(blipId));
+    Fragment fragment = fragments.getIfPresent(key);
+    if (fragment != null && fragment.version == version) {
+      hitCount.incrementAndGet();
+      return fragment.html;
+    }
+    missCount.incrementAndGet();
+    String html;
+    try {
+      html = Preconditions.checkNotNull(renderer.call(), "Rendered null HTML");
+    } catch (RuntimeException ex) {
+      throw ex;
+    } catch (Exception ex) {
+      throw new RuntimeException("Failed to render blip " + blipId + " of " + waveletName, ex);
+    }
+    if (fragment == null || fragment.version < version) {
+      fragments.put(key, new Fragment(version, html));
+    }
+    return html;
+  }
+
+  /**
+   * @return the count of fragments taken from the cache.
+   */
+  public long getHitCount() {
+    return hitCount.get();
+  }
+
+  /**
+   * @return the count of rendered fragments.
+   */
+  public long getMissCount() {
+    return missCount.get();
+  }
+}
@@ -23,7 +23,6 @@ import com.google.wave.api.BlipThread;
 import com.google.wave.api.InvalidRequestException;
 import com.google.wave.api.OperationRequest;
 import com.google.wave.api.ParticipantProfile;
-import com.google.wave.api.data.converter.ContextResolver;
 import com.google.wave.api.data.converter.EventDataConverter;
 import com.google.wave.api.impl.EventMessageBundle;
 import com.google.wave.api.impl.WaveletData;
@@ -58,6 +57,7 @@ import org.waveprotocol.wave.model.conversation.ObservableConversation;
 import org.waveprotocol.wave.model.conversation.ObservableConversationView;
 import org.waveprotocol.wave.model.id.WaveId;
 import org.waveprotocol.wave.model.id.WaveletId;
+import org.waveprotocol.wave.model.id.WaveletName;
 import org.waveprotocol.wave.model.supplement.ReadableSupplementedWave;
 import org.waveprotocol.wave.model.supplement.ScreenPosition;
 import org.waveprotocol.wave.model.supplement.SimpleWantedEvaluationSet;
@@ -82,6 +82,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
 
 /**
  * {@link OperationService} for the "fetchWave" operation.
@@ -408,17 +409,6 @@ public class RenderWaveService implements OperationService {
     }
   };
 
-  public static final DocRefRenderer HTML_DOC_RENDERER = new DocRefRenderer() {
-
-    @Override
-    public UiBuilder render(
-        ConversationBlip blip,
-        IdentityMap<ConversationThread, UiBuilder> replies) {
-      return UiBuilder.Constant.of(
-          EscapeUtils.fromSafeConstant("[" + blip.getId() + "]"));
-    }
-  };
-
   @SuppressWarnings("unchecked")
   private static <T> T makeCssProxy(Class<T> clazz) {
     return (T) Proxy.newProxyInstance(clazz.getClassLoader(),
@@ -434,7 +424,48 @@ public class RenderWaveService implements OperationService {
   }
 
 
-  private RenderWaveService() {
+  /**
+   * Renders blip documents to HTML, blips of the wavelet are converted to API
+   * objects one at a time and only on miss of the fragment cache.
+   */
+  private static final class DocumentRenderer {
+    private final EventDataConverter converter;
+    private final ParticipantId participant;
+    private final Wavelet wavelet;
+    private final Conversation conversation;
+    private final ContentRenderer contentRenderer = new ContentRenderer();
+
+    /** API wavelet, built on the first miss. */
+    private com.google.wave.api.Wavelet apiWavelet;
+    private final Map<String, BlipThread> threads = new HashMap<>();
+
+    DocumentRenderer(EventDataConverter converter, ParticipantId participant, Wavelet wavelet,
+        Conversation conversation) {
+      this.converter = converter;
+      this.participant = participant;
+      this.wavelet = wavelet;
+      this.conversation = conversation;
+    }
+
+    String render(ConversationBlip conversationBlip) {
+      EventMessageBundle messages = new EventMessageBundle(participant.getAddress(), "");
+      if (apiWavelet == null) {
+        WaveletData waveletData = converter.toWaveletData(wavelet, conversation, messages);
+        apiWavelet = com.google.wave.api.Wavelet.deserialize(null, new HashMap<String, Blip>(),
+            threads, waveletData);
+      }
+      BlipData blipData = converter.toBlipData(conversationBlip, wavelet, messages);
+      threads.putAll(messages.getThreads());
+      Blip blip = Blip.deserialize(null, apiWavelet, blipData);
+      return contentRenderer.renderHtml(blip.getContent(), blip.getAnnotations(),
+          blip.getElements(), blip.getContributors());
+    }
+  }
+
+  private final BlipFragmentCache fragmentCache;
+
+  private RenderWaveService(BlipFragmentCache fragmentCache) {
+    this.fragmentCache = fragmentCache;
   }
 
   public String exec(
@@ -463,49 +494,37 @@ public class RenderWaveService implements OperationService {
             ServiceUtil.buildSupplement(waveId, waveletId, context, participant), conversationView);
     String path = JavaWaverefEncoder.encodeToUriPathSegment(WaveRef.of(
         waveId, waveletId));
+    ObservableConversation conversation = conversationView.getRoot();
+    final WaveletName waveletName = WaveletName.of(waveId, waveletId);
+    final DocumentRenderer documentRenderer = new DocumentRenderer(context.getConverter(),
+        participant, opBasedWavelet, conversation);
+    DocRefRenderer docRenderer = new DocRefRenderer() {
+
+      @Override
+      public UiBuilder render(final ConversationBlip blip,
+          IdentityMap<ConversationThread, UiBuilder> replies) {
+        String html = fragmentCache.get(waveletName, blip.getId(), blip.getLastModifiedVersion(),
+            new Callable<String>() {
+
+              @Override
+              public String call() {
+                return documentRenderer.render(blip);
+              }
+            });
+        return UiBuilder.Constant.of(EscapeUtils.fromSafeConstant(html));
+      }
+    };
     HtmlRenderer renderer = FullHtmlWaveRendererImpl.create(
             conversationView, profileManagerImpl,
             new HtmlShallowBlipRenderer(profileManagerImpl, EMPTY_SUPPLEMENTED_WAVE),
             new ViewIdMapper(ModelIdMapperImpl.create(conversationView, "UC")), readStateMonitor,
-            FIXED, HTML_DOC_RENDERER, RESOURCES, "/#" + path);
+            FIXED, docRenderer, RESOURCES, "/#" + path);
 
-    String html;
-    ObservableConversation conversation = conversationView.getRoot();
     if (blipId == null) {
-      html = renderer.renderWave(conversationView);
+      return renderer.renderWave(conversationView);
     } else {
-      ConversationBlip blip = conversation.getBlip(blipId);
-      html = renderer.renderBlip(blip);
-    }
-
-    EventMessageBundle messages =
-      mapWaveletToMessageBundle(context.getConverter(), participant, opBasedWavelet, conversation);
-
-    Map<String, Blip> blips = new HashMap<>();
-    Map<String, BlipThread> threads = new HashMap<>();
-    WaveletData waveletData = context.getConverter().toWaveletData(opBasedWavelet, conversation,
-        messages);
-    com.google.wave.api.Wavelet wavelet = com.google.wave.api.Wavelet.deserialize(null, blips,
-        threads,  waveletData);
-
-    threads.putAll(messages.getThreads());
-    for (Map.Entry<String, BlipData> entry : messages.getBlipData().entrySet()) {
-      BlipData blipData = context.getConverter().toBlipData(conversation.getBlip(entry.getKey()),
-          opBasedWavelet, messages);
-      Blip tempBlip = Blip.deserialize(null, wavelet, blipData);
-      blips.put(tempBlip.getBlipId(), tempBlip);
+      return renderer.renderBlip(conversation.getBlip(blipId));
     }
-
-    ContentRenderer contentRenderer = new ContentRenderer();
-    for (Map.Entry<java.lang.String,com.google.wave.api.Blip> entry : wavelet.getBlips().entrySet()) {
-      com.google.wave.api.Blip blip = entry.getValue();
-      String blipHtml = contentRenderer.renderHtml(blip.getContent(), blip.getAnnotations(),
-          blip.getElements(), blip.getContributors());
-      // TODO (Yuri Z.) Make it more efficient and safe.
-      String htmlId = "[" + blip.getBlipId() + "]";
-      html = html.replace(htmlId, blipHtml);
-    }
-    return html;
   }
 
   @Override
@@ -546,24 +565,7 @@ public class RenderWaveService implements OperationService {
 
   }
 
-  /**
-   * Maps a wavelet and its conversation to a new {@link EventMessageBundle}.
-   *
-   * @param converter to convert to API objects.
-   * @param participant the participant who the bundle is for.
-   * @param wavelet the wavelet to put in the bundle.
-   * @param conversation the conversation to put in the bundle.
-   */
-  private EventMessageBundle mapWaveletToMessageBundle(EventDataConverter converter,
-      ParticipantId participant, Wavelet wavelet, Conversation conversation) {
-    EventMessageBundle messages = new EventMessageBundle(participant.getAddress(), "");
-    WaveletData waveletData = converter.toWaveletData(wavelet, conversation, messages);
-    messages.setWaveletData(waveletData);
-    ContextResolver.addAllBlipsToEventMessages(messages, conversation, wavelet, converter);
-    return messages;
-  }
-
-  public static RenderWaveService create() {
-    return new RenderWaveService();
+  public static RenderWaveService create(BlipFragmentCache fragmentCache) {
+    return new RenderWaveService(fragmentCache);
   }
 }
\ No newline at end of file
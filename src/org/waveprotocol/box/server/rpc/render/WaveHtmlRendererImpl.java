@@ -68,6 +68,7 @@ public class WaveHtmlRendererImpl implements WaveHtmlRenderer, WaveHtmlRendererB
   private final WaveletProvider waveletProvider;
   private final ConversationUtil conversationUtil;
   private final WaveHtmlStore waveHtmlStore;
+  private final BlipFragmentCache fragmentCache;
   private final String waveDomain;
   private final ParticipantId sharedParticipant;
 
@@ -83,12 +84,13 @@ public class WaveHtmlRendererImpl implements WaveHtmlRenderer, WaveHtmlRendererB
   @Inject
   public WaveHtmlRendererImpl(EventDataConverterManager converterManager,
       WaveletProvider waveletProvider, ConversationUtil conversationUtil,
-      WaveHtmlStore waveHtmlStore,
+      WaveHtmlStore waveHtmlStore, BlipFragmentCache fragmentCache,
       @Named(CoreSettings.WAVE_SERVER_DOMAIN) String waveDomain) {
     this.converterManager = converterManager;
     this.waveletProvider = waveletProvider;
     this.conversationUtil = conversationUtil;
     this.waveHtmlStore = waveHtmlStore;
+    this.fragmentCache = fragmentCache;
     this.waveDomain = waveDomain;
     this.sharedParticipant = ParticipantIdUtil.makeUnsafeSharedDomainParticipantId(waveDomain);
   }
@@ -148,7 +150,8 @@ public class WaveHtmlRendererImpl implements WaveHtmlRenderer, WaveHtmlRendererB
       html = HtmlRenderer.NO_CONVERSATIONS;
     }
     waveHtmlStore.writeHtml(waveId, html);
-    LOG.info("HTML of wave " + waveId.serialise() + " was rendered");
+    LOG.info("HTML of wave " + waveId.serialise() + " was rendered, fragment cache hits: "
+        + fragmentCache.getHitCount() + ", misses: " + fragmentCache.getMissCount());
   }
 
   private String fetchRenderedWavelet(WaveId waveId, WaveletId waveletId, String blipId,
@@ -160,7 +163,8 @@ public class WaveHtmlRendererImpl implements WaveHtmlRenderer, WaveHtmlRendererB
         + waveletId != null ? waveletId.serialise() : "");
     String html = null;
     try {
-      html = RenderWaveService.create().exec(waveId, waveletId, blipId, viewer, context);
+      html = RenderWaveService.create(fragmentCache).exec(
+          waveId, waveletId, blipId, viewer, context);
     } catch (InvalidRequestException ex) {
       LOG.log(Level.SEVERE, "Render to HTML error", ex);
     }
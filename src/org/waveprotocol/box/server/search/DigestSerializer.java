@@ -0,0 +1,183 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.waveprotocol.box.server.search;
+
+import com.google.common.base.Charsets;
+import com.google.wave.api.SearchResult.Digest;
+
+import org.waveprotocol.wave.model.supplement.WaveDigestSupplement;
+import org.waveprotocol.wave.model.wave.ParticipantId;
+import org.waveprotocol.wave.model.wave.WaveDigest;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+/**
+ * Compact binary form of the wave digest with supplements of participants.
+ *
+ * The form is stored in one field of the index document, so a search hit is
+ * materialized to {@link Digest} by one read of stored field instead of
+ * loading of a stored field per digest property.
+ *
+ * @author akaplanov@gmail.com (A. Kaplanov)
+ */
+final class DigestSerializer {
+
+  private static final int FORMAT_VERSION = 1;
+
+  private DigestSerializer() {
+  }
+
+  /**
+   * Serializes the digest and supplements.
+   */
+  static byte[] serialize(WaveDigest digest, Map<ParticipantId, WaveDigestSupplement> supplements) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+    DataOutputStream out = new DataOutputStream(bytes);
+    try {
+      out.writeByte(FORMAT_VERSION);
+      writeString(out, digest.getWaveId());
+      writeString(out, digest.getTitle());
+      writeString(out, digest.getSnippet());
+      writeString(out, digest.getCreator());
+      writeVarLong(out, digest.getParticipants().size());
+      for (String participant : digest.getParticipants()) {
+        writeString(out, participant);
+      }
+      writeVarLong(out, digest.getBlipCount());
+      out.writeLong(digest.getCreated());
+      out.writeLong(digest.getLastModified());
+      writeVarLong(out, supplements.size());
+      for (Map.Entry<ParticipantId, WaveDigestSupplement> entry : supplements.entrySet()) {
+        writeString(out, entry.getKey().getAddress());
+        writeString(out, entry.getValue().getFolder());
+        writeVarLong(out, entry.getValue().getUnreadCount());
+      }
+      out.flush();
+    } catch (IOException ex) {
+      throw new IllegalStateException("Writing to memory failed", ex);
+    }
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Deserializes the digest with supplement of viewer.
+   *
+   * @param viewer the viewer, or null to get the digest without supplement.
+   * @throws IOException if the form is corrupted.
+   */
+  static Digest deserialize(byte[] bytes, @Nullable ParticipantId viewer) throws IOException {
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+    int version = in.readUnsignedByte();
+    if (version != FORMAT_VERSION) {
+      throw new IOException("Unknown format version of digest " + version);
+    }
+    String waveId = readString(in);
+    String title = readString(in);
+    String snippet = readString(in);
+    String creator = readString(in);
+    int participantCount = readCount(in);
+    List<String> participants = new ArrayList<String>(participantCount);
+    for (int i = 0; i < participantCount; i++) {
+      participants.add(readString(in));
+    }
+    int blipCount = (int) readVarLong(in);
+    long created = in.readLong();
+    long lastModified = in.readLong();
+    WaveDigest digest = new WaveDigest(waveId, title, snippet, creator, participants, blipCount,
+        created, lastModified);
+    WaveDigestSupplement supplement = null;
+    if (viewer != null) {
+      String viewerAddress = viewer.getAddress();
+      String folder = null;
+      int unreadCount = blipCount;
+      int supplementCount = readCount(in);
+      for (int i = 0; i < supplementCount; i++) {
+        String address = readString(in);
+        String supplementFolder = readString(in);
+        int supplementUnreadCount = (int) readVarLong(in);
+        if (viewerAddress.equals(address)) {
+          folder = supplementFolder;
+          unreadCount = supplementUnreadCount;
+          break;
+        }
+      }
+      supplement = new WaveDigestSupplement(folder, unreadCount);
+    }
+    return new Digest(digest, supplement);
+  }
+
+  /**
+   * Writes the string as UTF-8 bytes prefixed by length plus one, zero
+   * stands for null.
+   */
+  private static void writeString(DataOutputStream out, @Nullable String value)
+      throws IOException {
+    if (value == null) {
+      writeVarLong(out, 0);
+    } else {
+      byte[] bytes = value.getBytes(Charsets.UTF_8);
+      writeVarLong(out, bytes.length + 1);
+      out.write(bytes);
+    }
+  }
+
+  @Nullable
+  private static String readString(DataInputStream in) throws IOException {
+    int length = readCount(in);
+    if (length == 0) {
+      return null;
+    }
+    byte[] bytes = new byte[length - 1];
+    in.readFully(bytes);
+    return new String(bytes, Charsets.UTF_8);
+  }
+
+  private static int readCount(DataInputStream in) throws IOException {
+    long count = readVarLong(in);
+    if (count < 0 || count > Integer.MAX_VALUE) {
+      throw new IOException("Invalid count " + count);
+    }
+    return (int) count;
+  }
+
+  private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+    while ((value & ~0x7FL) != 0) {
+      out.writeByte((int) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    out.writeByte((int) value);
+  }
+
+  private static long readVarLong(DataInputStream in) throws IOException {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      int b = in.readUnsignedByte();
+      value |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("Malformed variable length number");
+  }
+}
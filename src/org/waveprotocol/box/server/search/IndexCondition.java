@@ -25,17 +25,17 @@ public class IndexCondition {
 
   public enum Field {
     WAVE_ID("waveId", false, true),
-    CREATOR("creator", false, true),
-    PARTICIPANTS("participants", false, true),
-    TITLE("title", true, true),
-    SNIPPET("snippet", false, true),
-    BLIP_COUNT("blipCount", false, true),
+    CREATOR("creator", false, false),
+    PARTICIPANTS("participants", false, false),
+    TITLE("title", true, false),
+    SNIPPET("snippet", false, false),
+    BLIP_COUNT("blipCount", false, false),
     CONTENT("content", true, false),
-    CREATED("created", false, true),
-    LAST_MODIFIED("lastModified", false, true),
+    CREATED("created", false, false),
+    LAST_MODIFIED("lastModified", false, false),
     TAG("tag", true, false),
-    IN_("in_", false, true),
-    UNREAD_COUNT_("unreadCount_", false, true);
+    IN_("in_", false, false),
+    UNREAD_COUNT_("unreadCount_", false, false);
 
     private final String name;
     private final boolean analyzed;
@@ -15,9 +15,11 @@
 package org.waveprotocol.box.server.search;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.ListenableFutureTask;
+import com.google.common.util.concurrent.Striped;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import com.google.inject.name.Named;
@@ -28,35 +30,33 @@ import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldSelector;
+import org.apache.lucene.document.FieldSelectorResult;
 import org.apache.lucene.document.Fieldable;
-import org.apache.lucene.index.CorruptIndexException;
+import org.apache.lucene.document.NumericField;
 import org.apache.lucene.index.FieldInvertState;
-import org.apache.lucene.index.IndexWriter;
-import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriterConfig.OpenMode;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.queryParser.ParseException;
 import org.apache.lucene.search.BooleanClause.Occur;
 import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.DefaultSimilarity;
-import org.apache.lucene.search.FieldCache.LongParser;
+import org.apache.lucene.search.FieldCache;
 import org.apache.lucene.search.IndexSearcher;
-import org.apache.lucene.search.NRTManager;
-import org.apache.lucene.search.NRTManagerReopenThread;
 import org.apache.lucene.search.PhraseQuery;
 import org.apache.lucene.search.Query;
-import org.apache.lucene.search.ScoreDoc;
-import org.apache.lucene.search.SearcherManager;
 import org.apache.lucene.search.SearcherWarmer;
 import org.apache.lucene.search.Similarity;
 import org.apache.lucene.search.Sort;
 import org.apache.lucene.search.SortField;
 import org.apache.lucene.search.TermQuery;
-import org.apache.lucene.search.TopDocs;
 import org.apache.lucene.store.AlreadyClosedException;
+import org.apache.lucene.util.ReaderUtil;
 import org.apache.lucene.util.Version;
 
 import org.waveprotocol.box.common.DeltaSequence;
+import org.waveprotocol.box.common.ExceptionalIterator;
 import org.waveprotocol.box.search.query.QueryParser;
 import org.waveprotocol.box.search.query.SearchQuery;
 import org.waveprotocol.box.server.CoreSettings;
@@ -88,24 +88,32 @@ import org.waveprotocol.wave.model.wave.data.WaveViewData;
 import java.io.Closeable;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import org.waveprotocol.box.server.waveletstate.IndexingInProcessException;
-import org.waveprotocol.wave.model.operation.OperationException;
 
 /**
  * Lucene based implementation of {@link PerUserWaveViewHandler}.
  *
+ * The index is split to shards by hash of wave id, see {@link ShardedIndex}.
+ * The count of shards may be changed online by {@link #reshard}.
+ *
  * @author yurize@apache.org (Yuri Zelikov)
  * @author akaplanov@gmail.com (Andrew Kaplanov)
  */
@@ -115,35 +123,50 @@ public class LuceneSearchImpl implements WaveIndexer, SearchProvider, SearchBusS
   private static final Logger LOG = Logger.getLogger(LuceneSearchImpl.class
       .getName());
 
-  private static class WaveSearchWarmer implements SearcherWarmer {
+  /** Stored field with the serialized digest and supplements, see {@link DigestSerializer}. */
+  private static final String DIGEST_FIELD = "digest";
 
-    WaveSearchWarmer(String waveDomain) {
-    }
+  /** Numeric field to sort by last modified time. */
+  private static final String LAST_MODIFIED_SORT_FIELD = "lastModifiedSort";
+
+  /**
+   * Loads the digest field only. Documents indexed before the digest field
+   * are loaded completely.
+   */
+  private static final FieldSelector DIGEST_SELECTOR = new FieldSelector() {
 
     @Override
-    public void warm(IndexSearcher searcher) throws IOException {
-      // TODO (Yuri Z): Run some diverse searches, searching against all
-      // fields.
+    public FieldSelectorResult accept(String fieldName) {
+      return DIGEST_FIELD.equals(fieldName)
+          ? FieldSelectorResult.LOAD_AND_BREAK : FieldSelectorResult.LOAD;
     }
-  }
+  };
 
-  private LongParser longParser = new LongParser() {
+  private static class WaveSearchWarmer implements SearcherWarmer {
+
+    WaveSearchWarmer(String waveDomain) {
+    }
 
     @Override
-    public long parseLong(String value) {
-      if (value == null || value.isEmpty()) {
-        return 0;
+    public void warm(IndexSearcher searcher) throws IOException {
+      // Loads sort values of new segments, so the first query after reopen
+      // doesn't load them.
+      List<IndexReader> readers = new ArrayList<IndexReader>();
+      ReaderUtil.gatherSubReaders(readers, searcher.getIndexReader());
+      for (IndexReader reader : readers) {
+        FieldCache.DEFAULT.getLongs(reader, LAST_MODIFIED_SORT_FIELD,
+            FieldCache.NUMERIC_UTILS_LONG_PARSER);
       }
-      return Long.parseLong(value);
     }
-  };
+  }
 
   /** Current indexing waves **/
   private static ConcurrentHashMap<WaveId, ListenableFutureTask<Void>> indexingWaves =
       new ConcurrentHashMap<WaveId, ListenableFutureTask<Void>>();
 
-  /** Commit task **/
-  AtomicReference<ListenableFutureTask<Void>> commitTask = new AtomicReference<ListenableFutureTask<Void>>();
+  /** Listeners of index updates **/
+  private final CopyOnWriteArraySet<IndexListener> indexListeners =
+      new CopyOnWriteArraySet<IndexListener>();
 
   /** Delay between wave indexing **/
   private static final long WAVE_INDEXING_DELAY_SEC = 10;
@@ -151,39 +174,57 @@ public class LuceneSearchImpl implements WaveIndexer, SearchProvider, SearchBusS
   /** Delay between commit **/
   private static final long WAVE_COMMIT_DELAY_SEC = 60;
 
-  private static final Version LUCENE_VERSION = Version.LUCENE_35;
+  /** Delay of reopening and notifying of listeners after index update **/
+  private static final long INDEX_NOTIFY_DELAY_MS = 500;
 
-  /** Minimum time until a new reader can be opened. */
-  private static final double MIN_STALE_SEC = 0.025;
+  /** Waves updated since the last notification of listeners. Guarded by itself. **/
+  private final Set<WaveId> updatedWaves = new HashSet<WaveId>();
 
-  /** Maximum time until a new reader must be opened. */
-  private static final double MAX_STALE_SEC = 1.0;
+  private static final Version LUCENE_VERSION = Version.LUCENE_35;
 
   private final QueryParser queryParser = new QueryParser(new RegExpWrapFactoryImpl());
 
   private final Analyzer analyzer;
   private final TextCollator textCollator;
-  private final IndexWriter indexWriter;
+  private final IndexDirectory directory;
   private final ScheduledExecutorService indexExecutor;
+  private final Executor searchExecutor;
   private final Similarity similarity;
-  private final NRTManager nrtManager;
-  private final NRTManagerReopenThread nrtManagerReopenThread;
+  private final SearcherWarmer warmer;
   private final WaveMap waveMap;
   private final WaveDigester digester;
   private final String waveDomain;
   private final String sharedDomainParticipant;
   private boolean isClosed = false;
 
+  /** The active index. Is replaced under write lock of indexLock. */
+  private volatile ShardedIndex index;
+
+  /** The index being built by resharding, receives updates too. */
+  private volatile ShardedIndex reshardingIndex;
+
+  /** Guards the active index against closing while it's used. */
+  private final ReadWriteLock indexLock = new ReentrantReadWriteLock();
+
+  /** Serializes indexing of the same wave. */
+  private final Striped<Lock> waveLocks = Striped.lock(64);
+
+  /** Serializes resharding. */
+  private final Object reshardLock = new Object();
+
   @Inject
   public LuceneSearchImpl(IndexDirectory directory, WaveMap waveMap,
       WaveDigester digester, TextCollator textCollator,
       @Named(CoreSettings.WAVE_SERVER_DOMAIN) final String waveDomain,
-      @ExecutorAnnotations.IndexExecutor ScheduledExecutorService indexExecutor) {
+      @ExecutorAnnotations.IndexExecutor ScheduledExecutorService indexExecutor,
+      @ExecutorAnnotations.SearchExecutor Executor searchExecutor) {
+    this.directory = directory;
     this.textCollator = textCollator;
     this.waveMap = waveMap;
     this.digester = digester;
     this.waveDomain = waveDomain;
     this.indexExecutor = indexExecutor;
+    this.searchExecutor = searchExecutor;
     sharedDomainParticipant = ParticipantIdUtil.makeUnsafeSharedDomainParticipantId(waveDomain).getAddress();
     analyzer = new StandardAnalyzer(LUCENE_VERSION, StandardAnalyzer.STOP_WORDS_SET);
     similarity = new DefaultSimilarity() {
@@ -203,18 +244,20 @@ public class LuceneSearchImpl implements WaveIndexer, SearchProvider, SearchBusS
       }
 
     };
+    warmer = new WaveSearchWarmer(waveDomain);
     try {
-      IndexWriterConfig config = new IndexWriterConfig(LUCENE_VERSION, analyzer);
-      config.setOpenMode(OpenMode.CREATE_OR_APPEND);
-      config.setSimilarity(similarity);
-      indexWriter = new IndexWriter(directory.getDirectory(), config);
-      nrtManager = new NRTManager(indexWriter, new WaveSearchWarmer(waveDomain));
+      index = openIndex(directory.getShardCount(), OpenMode.CREATE_OR_APPEND);
     } catch (IOException ex) {
       throw new IndexException(ex);
     }
+    LOG.info("Opened the Lucene index of " + index.getShardCount() + " shards");
+    indexExecutor.execute(new Runnable() {
 
-    nrtManagerReopenThread = new NRTManagerReopenThread(nrtManager, MAX_STALE_SEC, MIN_STALE_SEC);
-    nrtManagerReopenThread.start();
+      @Override
+      public void run() {
+        reindexWavesWithoutSortField();
+      }
+    });
 
     ShutdownManager.getInstance().register(new Shutdownable() {
 
@@ -239,44 +282,158 @@ public class LuceneSearchImpl implements WaveIndexer, SearchProvider, SearchBusS
       throw new AlreadyClosedException("Already closed");
     }
     isClosed = true;
+    indexLock.writeLock().lock();
     try {
-      nrtManager.close();
+      index.close();
       if (analyzer != null) {
         analyzer.close();
       }
-      nrtManagerReopenThread.close();
-      indexWriter.close();
     } catch (IOException ex) {
       LOG.log(Level.SEVERE, "Failed to close the Lucene index", ex);
+    } finally {
+      indexLock.writeLock().unlock();
     }
     LOG.info("Successfully closed the Lucene index...");
   }
 
   /**
-   * Ensures that the index is up to date. Exits quickly if no changes were done
-   * to the index.
+   * Ensures that the index of the wave is up to date. Exits quickly if no
+   * changes were done to the index.
    *
    * @throws IOException if something goes wrong.
    */
-  public void forceReopen() throws IOException {
-    nrtManager.maybeReopen(true);
+  public void forceReopen(WaveId waveId) throws IOException {
+    indexLock.readLock().lock();
+    try {
+      index.reopen(waveId);
+    } finally {
+      indexLock.readLock().unlock();
+    }
   }
 
   @Override
-  public synchronized void updateIndex(WaveId waveId) throws WaveletStateException, WaveServerException {
+  public void updateIndex(WaveId waveId) throws WaveletStateException, WaveServerException {
     Preconditions.checkNotNull(waveId);
+    LOG.info("Updating index for wave " + waveId.serialise());
+    indexWave(waveId, false);
+    LOG.info("Index for wave " + waveId.serialise() + " has been updated");
+  }
+
+  /**
+   * Rebuilds the index with another count of shards. The current index serves
+   * queries and updates until the new one is built from all waves, updates
+   * during resharding are written to both indexes.
+   *
+   * @param shardCount the new count of shards.
+   */
+  public void reshard(int shardCount) throws WaveServerException, InterruptedException {
+    Preconditions.checkArgument(shardCount > 0, "Count of shards must be positive");
+    synchronized (reshardLock) {
+      if (shardCount == index.getShardCount()) {
+        LOG.info("The index has " + shardCount + " shards already");
+        return;
+      }
+      LOG.info("Resharding the index to " + shardCount + " shards...");
+      ShardedIndex target;
+      try {
+        target = openIndex(shardCount, OpenMode.CREATE);
+      } catch (IOException ex) {
+        throw new IndexException("Failed to open index of " + shardCount + " shards", ex);
+      }
+      reshardingIndex = target;
+      ShardedIndex previous = null;
+      try {
+        ExceptionalIterator<WaveId, WaveServerException> waveIds = waveMap.getWaveIds();
+        int count = 0;
+        while (waveIds.hasNext()) {
+          WaveId waveId = waveIds.next();
+          for (;;) {
+            try {
+              indexWave(waveId, true);
+            } catch (IndexingInProcessException ex) {
+              Thread.sleep(1000);
+              continue;
+            } catch (WaveServerException | IndexException ex) {
+              LOG.log(Level.SEVERE, "Resharding of wave " + waveId.serialise() + " failed", ex);
+            }
+            break;
+          }
+          if (++count % 1000 == 0) {
+            LOG.info(count + " waves have been resharded");
+          }
+        }
+        target.commit();
+        indexLock.writeLock().lock();
+        try {
+          previous = index;
+          index = target;
+          reshardingIndex = null;
+        } finally {
+          indexLock.writeLock().unlock();
+        }
+      } catch (IOException ex) {
+        throw new IndexException("Failed to commit index of " + shardCount + " shards", ex);
+      } finally {
+        if (previous == null) {
+          abortResharding(target);
+        }
+      }
+      try {
+        previous.close();
+      } catch (IOException ex) {
+        LOG.log(Level.SEVERE, "Failed to close the previous index", ex);
+      }
+      directory.setShardCount(shardCount);
+      LOG.info("The index has been resharded to " + shardCount + " shards");
+    }
+  }
+
+  private void abortResharding(ShardedIndex target) {
+    indexLock.writeLock().lock();
+    try {
+      reshardingIndex = null;
+      target.close();
+    } catch (IOException ex) {
+      LOG.log(Level.SEVERE, "Failed to close the resharding index", ex);
+    } finally {
+      indexLock.writeLock().unlock();
+    }
+  }
+
+  private ShardedIndex openIndex(int shardCount, OpenMode openMode) throws IOException {
+    return new ShardedIndex(directory, shardCount, openMode, analyzer, similarity, warmer,
+        searchExecutor);
+  }
+
+  /**
+   * Writes the document of wave to the active index and to the resharding one.
+   *
+   * @param reshardingOnly whether to write to the resharding index only.
+   */
+  private void indexWave(WaveId waveId, boolean reshardingOnly)
+      throws WaveletStateException, WaveServerException {
+    Lock waveLock = waveLocks.get(waveId);
+    waveLock.lock();
     try {
       WaveViewData waveData = waveMap.getWaveViewData(waveId);
-      // TODO (Yuri Z): Update documents instead of totally removing and adding.
-      LOG.info("Updating index for wave " + waveId.serialise());
-      removeIndex(waveId);
-      addIndex(waveId, waveData);
-      sheduleCommitIndex();
-      LOG.info("Index for wave " + waveId.serialise() + " has been updated");
-    } catch (CorruptIndexException e) {
-      throw new IndexException(waveId.serialise(), e);
+      Document doc = makeDocument(waveId, waveData);
+      indexLock.readLock().lock();
+      try {
+        if (!reshardingOnly) {
+          index.updateWave(waveId, doc);
+          index.scheduleCommit(waveId, indexExecutor, WAVE_COMMIT_DELAY_SEC);
+        }
+        ShardedIndex resharding = reshardingIndex;
+        if (resharding != null) {
+          resharding.updateWave(waveId, doc);
+        }
+      } finally {
+        indexLock.readLock().unlock();
+      }
     } catch (IOException e) {
       throw new IndexException(waveId.serialise(), e);
+    } finally {
+      waveLock.unlock();
     }
   }
 
@@ -289,6 +446,29 @@ public class LuceneSearchImpl implements WaveIndexer, SearchProvider, SearchBusS
   public void waveletCommitted(WaveletName waveletName, HashedVersion version) {
   }
 
+  /**
+   * Schedules reindexing of waves indexed before the numeric sort field, such
+   * waves would be sorted as modified at 0 otherwise.
+   */
+  private void reindexWavesWithoutSortField() {
+    Set<WaveId> waveIds;
+    indexLock.readLock().lock();
+    try {
+      waveIds = index.findWavesWithoutField(LAST_MODIFIED_SORT_FIELD);
+    } catch (IOException | RuntimeException e) {
+      LOG.log(Level.SEVERE, "Failed to find waves without the sort field", e);
+      return;
+    } finally {
+      indexLock.readLock().unlock();
+    }
+    if (!waveIds.isEmpty()) {
+      LOG.info(waveIds.size() + " waves are indexed before the sort field, reindexing");
+      for (WaveId waveId : waveIds) {
+        sheduleUpdateIndex(waveId);
+      }
+    }
+  }
+
   private ListenableFutureTask<Void> sheduleUpdateIndex(final WaveId waveId) {
     synchronized (indexingWaves) {
       ListenableFutureTask<Void> task = indexingWaves.get(waveId);
@@ -300,6 +480,7 @@ public class LuceneSearchImpl implements WaveIndexer, SearchProvider, SearchBusS
             indexingWaves.remove(waveId);
             try {
               updateIndex(waveId);
+              fireIndexUpdated(waveId);
             } catch (IndexingInProcessException e) {
               sheduleUpdateIndex(waveId);
             } catch (Throwable e) {
@@ -316,35 +497,69 @@ public class LuceneSearchImpl implements WaveIndexer, SearchProvider, SearchBusS
     }
   }
 
-  private ListenableFutureTask<Void> sheduleCommitIndex() {
-    ListenableFutureTask<Void> task = commitTask.get();
-    if (task == null) {
-      task = ListenableFutureTask.create(new Callable<Void>() {
-
-        @Override
-        public Void call() throws Exception {
-          commitTask.set(null);
-          try {
-            LOG.info("Commiting indexes...");
-            indexWriter.commit();
-            LOG.info("Commiting indexes is complete");
-          } catch (IndexException e) {
-            LOG.log(Level.SEVERE, "Index commit failed", e);
-            throw e;
-          }
-          return null;
+  @Override
+  public void addIndexListener(IndexListener listener) {
+    indexListeners.add(listener);
+  }
+
+  @Override
+  public void removeIndexListener(IndexListener listener) {
+    indexListeners.remove(listener);
+  }
+
+  /**
+   * Schedules notification of listeners, so updates of many waves cause one
+   * reopen and one notification.
+   */
+  private void fireIndexUpdated(WaveId waveId) {
+    if (!indexListeners.isEmpty()) {
+      synchronized (updatedWaves) {
+        if (updatedWaves.isEmpty()) {
+          indexExecutor.schedule(new Runnable() {
+
+            @Override
+            public void run() {
+              notifyIndexUpdated();
+            }
+          }, INDEX_NOTIFY_DELAY_MS, TimeUnit.MILLISECONDS);
         }
-      });
-      commitTask.set(task);
-      indexExecutor.schedule(task, WAVE_COMMIT_DELAY_SEC, TimeUnit.SECONDS);
+        updatedWaves.add(waveId);
+      }
+    }
+  }
+
+  private void notifyIndexUpdated() {
+    Set<WaveId> waveIds;
+    synchronized (updatedWaves) {
+      waveIds = ImmutableSet.copyOf(updatedWaves);
+      updatedWaves.clear();
+    }
+    try {
+      // Makes the changes visible to listeners, otherwise they may search
+      // until the next reopen of the reader.
+      indexLock.readLock().lock();
+      try {
+        index.reopen(waveIds);
+      } finally {
+        indexLock.readLock().unlock();
+      }
+    } catch (IOException e) {
+      LOG.log(Level.SEVERE, "Failed to reopen index", e);
+    }
+    for (IndexListener listener : indexListeners) {
+      listener.onIndexUpdated(waveIds);
     }
-    return task;
   }
 
-  private void addIndex(WaveId waveId, WaveViewData waveData) throws CorruptIndexException, IOException, WaveletStateException {
+  /**
+   * Makes the document of wave.
+   *
+   * @return the document or null if the wave has no participants.
+   */
+  private Document makeDocument(WaveId waveId, WaveViewData waveData) throws WaveletStateException {
     Document doc = new Document();
     addWaveFieldsToIndex(waveId, waveData, doc);
-    nrtManager.addDocument(doc);
+    return doc.getFields().isEmpty() ? null : doc;
   }
 
   private void addWaveFieldsToIndex(WaveId waveId, WaveViewData waveData, Document doc) throws WaveletStateException {
@@ -352,10 +567,12 @@ public class LuceneSearchImpl implements WaveIndexer, SearchProvider, SearchBusS
     WaveDigest digest = digestWithSupplements.getDigest();
     Map<ParticipantId, WaveDigestSupplement> supplements = digestWithSupplements.getSupplements();
     if (digest.getParticipants().size() > 0) {
+      // The digest is the first field, so loading of document stops on it.
+      doc.add(new Field(DIGEST_FIELD, DigestSerializer.serialize(digest, supplements)));
       addField(doc, IndexCondition.Field.WAVE_ID, digest.getWaveId());
       addField(doc, IndexCondition.Field.CREATOR, digest.getCreator());
       for (String participant : digest.getParticipants()) {
-        doc.add(new Field(IndexCondition.Field.PARTICIPANTS.toString(), participant, Field.Store.YES, Field.Index.NOT_ANALYZED_NO_NORMS));
+        doc.add(new Field(IndexCondition.Field.PARTICIPANTS.toString(), participant, Field.Store.NO, Field.Index.NOT_ANALYZED_NO_NORMS));
       }
       addField(doc, IndexCondition.Field.TITLE, digest.getTitle());
       addField(doc, IndexCondition.Field.CONTENT, digest.getTitle());
@@ -373,6 +590,9 @@ public class LuceneSearchImpl implements WaveIndexer, SearchProvider, SearchBusS
       }
       addField(doc, IndexCondition.Field.CREATED, Long.toString(digest.getCreated()));
       addField(doc, IndexCondition.Field.LAST_MODIFIED, Long.toString(digest.getLastModified()));
+      // Only one term per document is indexed, it's enough for sorting.
+      doc.add(new NumericField(LAST_MODIFIED_SORT_FIELD, Integer.MAX_VALUE, Field.Store.NO, true)
+          .setLongValue(digest.getLastModified()));
       for (ParticipantId participantId : supplements.keySet()) {
         WaveDigestSupplement supplement = supplements.get(participantId);
         addField(doc, IndexCondition.Field.IN_, IndexCondition.Field.IN_.toString() + participantId.getAddress(),
@@ -397,11 +617,6 @@ public class LuceneSearchImpl implements WaveIndexer, SearchProvider, SearchBusS
         field.isAnalyzed()?Field.Index.ANALYZED_NO_NORMS:Field.Index.NOT_ANALYZED_NO_NORMS));
   }
 
-  private void removeIndex(WaveId waveId)
-      throws CorruptIndexException, IOException {
-    nrtManager.deleteDocuments(new Term(IndexCondition.Field.WAVE_ID.toString(), waveId.serialise()));
-  }
-
   @Override
   public SearchResult search(String query, int startAt, int numResults, ParticipantId viewer) {
     LOG.fine("Search query '" + query + "' from user: " + viewer + " [" + startAt + ", "
@@ -448,24 +663,17 @@ public class LuceneSearchImpl implements WaveIndexer, SearchProvider, SearchBusS
       LOG.fine("Search query " + allQuery.toString());
       List<SortField> sortFields = new LinkedList<SortField>();
       sortFields.add(SortField.FIELD_SCORE);
-      sortFields.add(new SortField(IndexCondition.Field.LAST_MODIFIED.toString(), longParser, true));
-      SearcherManager searcherManager = nrtManager.getSearcherManager(true);
-      IndexSearcher indexSearcher = searcherManager.acquire();
+      sortFields.add(new SortField(LAST_MODIFIED_SORT_FIELD, FieldCache.NUMERIC_UTILS_LONG_PARSER, true));
+      List<Document> docs;
+      indexLock.readLock().lock();
       try {
-        indexSearcher.setSimilarity(similarity);
-        TopDocs hints = indexSearcher.search(allQuery, startAt+numResults,
-            new Sort(sortFields.toArray(new SortField[sortFields.size()])));
-        for (int i=startAt; i < hints.scoreDocs.length; i++) {
-          try {
-            ScoreDoc hint = hints.scoreDocs[i];
-            Document doc = indexSearcher.doc(hint.doc);
-            result.addDigest(parseDigest(doc, viewer));
-          } catch (IOException ex) {
-            LOG.log(Level.SEVERE, "Get digest from index", ex);
-          }
-        }
+        docs = index.search(allQuery, startAt, numResults,
+            new Sort(sortFields.toArray(new SortField[sortFields.size()])), DIGEST_SELECTOR);
       } finally {
-        searcherManager.release(indexSearcher);
+        indexLock.readLock().unlock();
+      }
+      for (Document doc : docs) {
+        result.addDigest(parseDigest(doc, viewer));
       }
     } catch (ParseException ex) {
       LOG.log(Level.SEVERE, "Search failed: " + query, ex);
@@ -477,22 +685,32 @@ public class LuceneSearchImpl implements WaveIndexer, SearchProvider, SearchBusS
 
   @Override
   public Digest findWave(WaveId waveId, ParticipantId viewer) {
-    TermQuery query = new TermQuery(new Term(IndexCondition.Field.WAVE_ID.toString(), waveId.serialise()));
-    SearcherManager searcherManager = nrtManager.getSearcherManager(true);
-    IndexSearcher indexSearcher = searcherManager.acquire();
+    indexLock.readLock().lock();
     try {
-      TopDocs hints = indexSearcher.search(query, 1);
-      if (hints.totalHits != 0) {
-        ScoreDoc hint = hints.scoreDocs[0];
-        return parseDigest(indexSearcher.doc(hint.doc), null);
+      Document doc = index.findWave(waveId, DIGEST_SELECTOR);
+      if (doc != null) {
+        return parseDigest(doc, null);
       }
     } catch (IOException ex) {
       LOG.log(Level.SEVERE, "Search wave " + waveId.serialise() + " failed", ex);
+    } finally {
+      indexLock.readLock().unlock();
     }
     return null;
   }
 
-  private Digest parseDigest(Document doc, ParticipantId viewer) {
+  private Digest parseDigest(Document doc, ParticipantId viewer) throws IOException {
+    byte[] digest = doc.getBinaryValue(DIGEST_FIELD);
+    if (digest != null) {
+      return DigestSerializer.deserialize(digest, viewer);
+    }
+    return parseStoredFields(doc, viewer);
+  }
+
+  /**
+   * Parses the digest of document indexed before the digest field.
+   */
+  private Digest parseStoredFields(Document doc, ParticipantId viewer) {
     String waveId = doc.get(IndexCondition.Field.WAVE_ID.toString());
     String title = doc.get(IndexCondition.Field.TITLE.toString());
     String snippet = doc.get(IndexCondition.Field.SNIPPET.toString());
@@ -120,6 +120,15 @@ public class MemorySearchImpl implements WaveIndexer, SearchProvider, SearchBusS
     throw new UnsupportedOperationException("Not supported yet.");
   }
 
+  @Override
+  public void addIndexListener(IndexListener listener) {
+    // There is no index.
+  }
+
+  @Override
+  public void removeIndexListener(IndexListener listener) {
+  }
+
   @Override
   public void close() throws IOException {
   }
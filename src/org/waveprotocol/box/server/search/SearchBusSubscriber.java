@@ -16,7 +16,9 @@
 package org.waveprotocol.box.server.search;
 
 import java.io.Closeable;
+import java.util.Set;
 import org.waveprotocol.box.server.waveserver.WaveBus;
+import org.waveprotocol.wave.model.id.WaveId;
 
 
 /**
@@ -24,4 +26,20 @@ import org.waveprotocol.box.server.waveserver.WaveBus;
  */
 public interface SearchBusSubscriber extends WaveIndexer, SearchProvider, WaveBus.Subscriber, Closeable  {
 
+  /**
+   * Listener of index updates.
+   */
+  interface IndexListener {
+    /**
+     * Notifies the listener that indexes of the waves are updated and changes
+     * are visible to search. Updates of a short period are notified at once.
+     *
+     * @param waveIds the ids of updated waves.
+     */
+    void onIndexUpdated(Set<WaveId> waveIds);
+  }
+
+  void addIndexListener(IndexListener listener);
+
+  void removeIndexListener(IndexListener listener);
 }
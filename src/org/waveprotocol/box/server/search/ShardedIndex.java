@@ -0,0 +1,429 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.waveprotocol.box.server.search;
+
+import com.google.common.util.concurrent.ListenableFutureTask;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.FieldSelector;
+import org.apache.lucene.document.MapFieldSelector;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.IndexWriterConfig.OpenMode;
+import org.apache.lucene.index.MultiReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.FieldCache;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.NRTManager;
+import org.apache.lucene.search.NRTManagerReopenThread;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.SearcherWarmer;
+import org.apache.lucene.search.Similarity;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.ReaderUtil;
+import org.apache.lucene.util.Version;
+
+import org.waveprotocol.box.server.persistence.lucene.IndexDirectory;
+import org.waveprotocol.wave.model.id.WaveId;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+
+/**
+ * Lucene index of waves split to shards by hash of wave id.
+ *
+ * Each shard has own writer, near-real-time reader and commit schedule, so
+ * indexing and commits of one shard don't stall others. Queries are executed
+ * on segments of all shards in parallel.
+ *
+ * @author akaplanov@gmail.com (A. Kaplanov)
+ */
+final class ShardedIndex implements Closeable {
+
+  private static final Logger LOG = Logger.getLogger(ShardedIndex.class.getName());
+
+  private static final Version LUCENE_VERSION = Version.LUCENE_35;
+
+  /** Minimum time until a new reader can be opened. */
+  private static final double MIN_STALE_SEC = 0.025;
+
+  /** Maximum time until a new reader must be opened. */
+  private static final double MAX_STALE_SEC = 1.0;
+
+  /**
+   * Index of one shard.
+   */
+  private static final class Shard implements Closeable {
+    private final int number;
+    private final IndexWriter indexWriter;
+    private final NRTManager nrtManager;
+    private final NRTManagerReopenThread reopenThread;
+    private final AtomicReference<ListenableFutureTask<Void>> commitTask =
+        new AtomicReference<>();
+
+    Shard(int number, IndexWriter indexWriter, SearcherWarmer warmer) throws IOException {
+      this.number = number;
+      this.indexWriter = indexWriter;
+      nrtManager = new NRTManager(indexWriter, warmer);
+      reopenThread = new NRTManagerReopenThread(nrtManager, MAX_STALE_SEC, MIN_STALE_SEC);
+      reopenThread.setName("NRT Reopen Thread " + number);
+      reopenThread.start();
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        nrtManager.close();
+        reopenThread.close();
+      } finally {
+        indexWriter.close();
+      }
+    }
+  }
+
+  /**
+   * Adapts the executor to search segments in parallel. A task is executed
+   * in the calling thread if the executor is overloaded.
+   */
+  private static final class SearchExecutorService extends AbstractExecutorService {
+    private final Executor executor;
+
+    SearchExecutorService(Executor executor) {
+      this.executor = executor;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+      try {
+        executor.execute(command);
+      } catch (RejectedExecutionException ex) {
+        command.run();
+      }
+    }
+
+    @Override
+    public void shutdown() {
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+      return Collections.emptyList();
+    }
+
+    @Override
+    public boolean isShutdown() {
+      return false;
+    }
+
+    @Override
+    public boolean isTerminated() {
+      return false;
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) {
+      return false;
+    }
+  }
+
+  private final Shard[] shards;
+  private final Similarity similarity;
+  private final ExecutorService searchExecutor;
+  private volatile boolean closed = false;
+
+  /**
+   * Opens shards of the index.
+   *
+   * @param directory the directories of shards.
+   * @param shardCount the count of shards.
+   * @param openMode the mode to open shards, {@link OpenMode#CREATE} to
+   *        start an empty index.
+   * @param searchExecutor the executor to search on shards in parallel.
+   */
+  ShardedIndex(IndexDirectory directory, int shardCount, OpenMode openMode, Analyzer analyzer,
+      Similarity similarity, SearcherWarmer warmer, Executor searchExecutor) throws IOException {
+    this.similarity = similarity;
+    this.searchExecutor = new SearchExecutorService(searchExecutor);
+    shards = new Shard[shardCount];
+    try {
+      for (int i = 0; i < shardCount; i++) {
+        IndexWriterConfig config = new IndexWriterConfig(LUCENE_VERSION, analyzer);
+        config.setOpenMode(openMode);
+        config.setSimilarity(similarity);
+        shards[i] = new Shard(i,
+            new IndexWriter(directory.getShardDirectory(shardCount, i), config), warmer);
+      }
+    } catch (IOException | RuntimeException ex) {
+      try {
+        closeShards();
+      } catch (IOException closeEx) {
+        // Is logged, the opening failure is thrown.
+      }
+      throw ex;
+    }
+  }
+
+  /**
+   * @return the number of shard of the wave.
+   */
+  static int shardOf(WaveId waveId, int shardCount) {
+    return (waveId.serialise().hashCode() & Integer.MAX_VALUE) % shardCount;
+  }
+
+  int getShardCount() {
+    return shards.length;
+  }
+
+  /**
+   * Replaces the document of wave.
+   *
+   * @param doc the new document, or null to delete the wave from the index.
+   */
+  void updateWave(WaveId waveId, @Nullable Document doc) throws IOException {
+    NRTManager nrtManager = getShard(waveId).nrtManager;
+    Term term = waveTerm(waveId);
+    if (doc != null) {
+      nrtManager.updateDocument(term, doc);
+    } else {
+      nrtManager.deleteDocuments(term);
+    }
+  }
+
+  /**
+   * Makes recent changes of the shard of wave visible to search.
+   */
+  void reopen(WaveId waveId) throws IOException {
+    getShard(waveId).nrtManager.maybeReopen(true);
+  }
+
+  /**
+   * Makes recent changes of the shards of waves visible to search, each shard
+   * is reopened once.
+   */
+  void reopen(Iterable<WaveId> waveIds) throws IOException {
+    Set<Shard> shards = new HashSet<>();
+    for (WaveId waveId : waveIds) {
+      shards.add(getShard(waveId));
+    }
+    for (Shard shard : shards) {
+      shard.nrtManager.maybeReopen(true);
+    }
+  }
+
+  /**
+   * Schedules commit of the shard of wave, if not scheduled yet. Commits of
+   * shards are staggered over the delay, so shards don't sync at once.
+   */
+  void scheduleCommit(WaveId waveId, ScheduledExecutorService executor, long delaySec) {
+    final Shard shard = getShard(waveId);
+    if (shard.commitTask.get() == null) {
+      ListenableFutureTask<Void> task = ListenableFutureTask.create(new Callable<Void>() {
+
+        @Override
+        public Void call() throws Exception {
+          shard.commitTask.set(null);
+          if (!closed) {
+            try {
+              commit(shard);
+            } catch (IOException | RuntimeException e) {
+              LOG.log(Level.SEVERE, "Index commit of shard " + shard.number + " failed", e);
+              throw e;
+            }
+          }
+          return null;
+        }
+      });
+      if (shard.commitTask.compareAndSet(null, task)) {
+        long delayMs = TimeUnit.SECONDS.toMillis(delaySec);
+        executor.schedule(task, delayMs + delayMs * shard.number / shards.length,
+            TimeUnit.MILLISECONDS);
+      }
+    }
+  }
+
+  /**
+   * Commits all shards.
+   */
+  void commit() throws IOException {
+    for (Shard shard : shards) {
+      commit(shard);
+    }
+  }
+
+  /**
+   * Searches the query on all shards.
+   *
+   * Readers of shards are combined, so term statistics and scores are the
+   * same as of one index, and segments of all shards are searched in
+   * parallel.
+   *
+   * @param fieldSelector selects stored fields to load, or null to load all.
+   * @return documents of the result from startAt.
+   */
+  List<Document> search(Query query, int startAt, int numResults, Sort sort,
+      FieldSelector fieldSelector) throws IOException {
+    SearcherManager[] searcherManagers = new SearcherManager[shards.length];
+    IndexSearcher[] searchers = new IndexSearcher[shards.length];
+    try {
+      IndexReader[] readers = new IndexReader[shards.length];
+      for (int i = 0; i < shards.length; i++) {
+        searcherManagers[i] = shards[i].nrtManager.getSearcherManager(true);
+        searchers[i] = searcherManagers[i].acquire();
+        readers[i] = searchers[i].getIndexReader();
+      }
+      if (shards.length == 1) {
+        return search(searchers[0], query, startAt, numResults, sort, fieldSelector);
+      }
+      MultiReader reader = new MultiReader(readers, false);
+      try {
+        return search(new IndexSearcher(reader, searchExecutor), query, startAt, numResults,
+            sort, fieldSelector);
+      } finally {
+        reader.close();
+      }
+    } finally {
+      for (int i = 0; i < shards.length; i++) {
+        if (searchers[i] != null) {
+          searcherManagers[i].release(searchers[i]);
+        }
+      }
+    }
+  }
+
+  /**
+   * Finds the document of wave in its shard.
+   *
+   * @param fieldSelector selects stored fields to load, or null to load all.
+   * @return the document or null if the wave is not indexed.
+   */
+  @Nullable
+  Document findWave(WaveId waveId, FieldSelector fieldSelector) throws IOException {
+    SearcherManager searcherManager = getShard(waveId).nrtManager.getSearcherManager(true);
+    IndexSearcher indexSearcher = searcherManager.acquire();
+    try {
+      TopDocs hits = indexSearcher.search(new TermQuery(waveTerm(waveId)), 1);
+      if (hits.totalHits != 0) {
+        return indexSearcher.doc(hits.scoreDocs[0].doc, fieldSelector);
+      }
+      return null;
+    } finally {
+      searcherManager.release(indexSearcher);
+    }
+  }
+
+  /**
+   * Finds waves which documents have no value of the field, for example
+   * documents indexed before the field was introduced.
+   */
+  Set<WaveId> findWavesWithoutField(String field) throws IOException {
+    FieldSelector waveIdSelector = new MapFieldSelector(IndexCondition.Field.WAVE_ID.toString());
+    Set<WaveId> waveIds = new HashSet<>();
+    for (Shard shard : shards) {
+      SearcherManager searcherManager = shard.nrtManager.getSearcherManager(true);
+      IndexSearcher indexSearcher = searcherManager.acquire();
+      try {
+        List<IndexReader> readers = new ArrayList<>();
+        ReaderUtil.gatherSubReaders(readers, indexSearcher.getIndexReader());
+        for (IndexReader reader : readers) {
+          Bits docsWithField = FieldCache.DEFAULT.getDocsWithField(reader, field);
+          for (int doc = 0; doc < reader.maxDoc(); doc++) {
+            if (!docsWithField.get(doc) && !reader.isDeleted(doc)) {
+              String waveId = reader.document(doc, waveIdSelector).get(
+                  IndexCondition.Field.WAVE_ID.toString());
+              waveIds.add(WaveId.deserialise(waveId));
+            }
+          }
+        }
+      } finally {
+        searcherManager.release(indexSearcher);
+      }
+    }
+    return waveIds;
+  }
+
+  /**
+   * Closes shards, recent changes are committed.
+   */
+  @Override
+  public void close() throws IOException {
+    closed = true;
+    closeShards();
+  }
+
+  private void closeShards() throws IOException {
+    IOException failure = null;
+    for (Shard shard : shards) {
+      if (shard != null) {
+        try {
+          shard.close();
+        } catch (IOException ex) {
+          LOG.log(Level.SEVERE, "Failed to close index shard " + shard.number, ex);
+          failure = ex;
+        }
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  private Shard getShard(WaveId waveId) {
+    return shards[shardOf(waveId, shards.length)];
+  }
+
+  private static void commit(Shard shard) throws IOException {
+    LOG.info("Commiting index shard " + shard.number + "...");
+    shard.indexWriter.commit();
+    LOG.info("Commiting index shard " + shard.number + " is complete");
+  }
+
+  private static Term waveTerm(WaveId waveId) {
+    return new Term(IndexCondition.Field.WAVE_ID.toString(), waveId.serialise());
+  }
+
+  private List<Document> search(IndexSearcher searcher, Query query, int startAt, int numResults,
+      Sort sort, FieldSelector fieldSelector) throws IOException {
+    searcher.setSimilarity(similarity);
+    TopDocs hits = searcher.search(query, startAt + numResults, sort);
+    List<Document> docs = new ArrayList<>();
+    for (int i = startAt; i < hits.scoreDocs.length; i++) {
+      docs.add(searcher.doc(hits.scoreDocs[i].doc, fieldSelector));
+    }
+    return docs;
+  }
+}
@@ -0,0 +1,104 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.waveprotocol.box.server.stat;
+
+import org.waveprotocol.box.stat.Histogram;
+import org.waveprotocol.box.stat.Measurement;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Lock-free histogram of durations.
+ * Samples are counted in stripes selected by thread, so concurrent threads
+ * mostly don't write the same memory. Stripes are merged on reading.
+ * Recording of a sample doesn't allocate memory after the stripe is created.
+ *
+ * @author akaplanov@gmail.com (A. Kaplanov)
+ */
+public class ConcurrentHistogram {
+  private static final int MAX_STRIPES = 32;
+
+  private static final int STRIPES = stripesCount(Runtime.getRuntime().availableProcessors());
+
+  /** Index of sum of durations in the stripe, after bucket counts. */
+  private static final int TOTAL_INDEX = Histogram.BUCKET_COUNT;
+
+  private final AtomicReferenceArray<AtomicLongArray> stripes = new AtomicReferenceArray<>(STRIPES);
+  private final AtomicInteger low = new AtomicInteger(Integer.MAX_VALUE);
+  private final AtomicInteger high = new AtomicInteger(0);
+  private volatile int threshold;
+
+  /**
+   * Records a sample.
+   */
+  public void sample(int duration, int threshold) {
+    AtomicLongArray stripe = getStripe();
+    stripe.incrementAndGet(Histogram.bucketIndex(duration));
+    stripe.addAndGet(TOTAL_INDEX, duration);
+    int current;
+    while (duration < (current = low.get()) && !low.compareAndSet(current, duration)) {
+    }
+    while (duration > (current = high.get()) && !high.compareAndSet(current, duration)) {
+    }
+    if (this.threshold != threshold) {
+      this.threshold = threshold;
+    }
+  }
+
+  /**
+   * Merges stripes to the measurement.
+   */
+  public Measurement getMeasurement() {
+    long[] buckets = new long[Histogram.BUCKET_COUNT];
+    long numSamples = 0;
+    long total = 0;
+    for (int i = 0; i < STRIPES; i++) {
+      AtomicLongArray stripe = stripes.get(i);
+      if (stripe != null) {
+        for (int b = 0; b < Histogram.BUCKET_COUNT; b++) {
+          long count = stripe.get(b);
+          buckets[b] += count;
+          numSamples += count;
+        }
+        total += stripe.get(TOTAL_INDEX);
+      }
+    }
+    return new Measurement(numSamples, total, low.get(), high.get(), buckets, threshold);
+  }
+
+  private AtomicLongArray getStripe() {
+    int index = (int)Thread.currentThread().getId() & (STRIPES - 1);
+    AtomicLongArray stripe = stripes.get(index);
+    if (stripe == null) {
+      stripes.compareAndSet(index, null, new AtomicLongArray(Histogram.BUCKET_COUNT + 1));
+      stripe = stripes.get(index);
+    }
+    return stripe;
+  }
+
+  private static int stripesCount(int processors) {
+    int count = 1;
+    while (count < processors * 2 && count < MAX_STRIPES) {
+      count <<= 1;
+    }
+    return count;
+  }
+}
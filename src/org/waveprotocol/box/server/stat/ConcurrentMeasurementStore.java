@@ -0,0 +1,74 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.waveprotocol.box.server.stat;
+
+import org.waveprotocol.box.stat.Measurement;
+import org.waveprotocol.box.stat.MeasurementStore;
+import org.waveprotocol.wave.model.util.Pair;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Measurement store for the server, doesn't block threads that record measurements.
+ *
+ * @author akaplanov@gmail.com (A. Kaplanov)
+ */
+public class ConcurrentMeasurementStore implements MeasurementStore {
+
+  public static final MeasurementStore.Factory FACTORY = new MeasurementStore.Factory() {
+
+    @Override
+    public MeasurementStore create() {
+      return new ConcurrentMeasurementStore();
+    }
+  };
+
+  private final ConcurrentMap<String, ConcurrentHistogram> histograms = new ConcurrentHashMap<>();
+
+  @Override
+  public void sample(String name, int duration, int threshold) {
+    ConcurrentHistogram histogram = histograms.get(name);
+    if (histogram == null) {
+      ConcurrentHistogram newHistogram = new ConcurrentHistogram();
+      histogram = histograms.putIfAbsent(name, newHistogram);
+      if (histogram == null) {
+        histogram = newHistogram;
+      }
+    }
+    histogram.sample(duration, threshold);
+  }
+
+  @Override
+  public List<Pair<String, Measurement>> getMeasurements() {
+    List<Pair<String, Measurement>> list = new LinkedList<>();
+    for (Map.Entry<String, ConcurrentHistogram> entry : histograms.entrySet()) {
+      list.add(Pair.of(entry.getKey(), entry.getValue().getMeasurement()));
+    }
+    return list;
+  }
+
+  @Override
+  public void clear() {
+    histograms.clear();
+  }
+}
@@ -22,11 +22,20 @@ import com.google.inject.Singleton;
 
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.waveprotocol.box.server.executor.ExecutorMonitor;
+import org.waveprotocol.box.server.waveserver.QueuedWaveBusSubscriber;
+import org.waveprotocol.box.stat.Measurement;
 import org.waveprotocol.box.stat.Timing;
 
 /**
@@ -40,18 +49,26 @@ public class StatuszServlet extends HttpServlet {
   private final String SHOW_SESSION_MEASUREMENTS = "session-measurements";
   private final String SHOW_GLOBAL_MEASUREMENTS = "global-measurements";
   private final String SHOW_STATS = "stats";
+  private final String SHOW_EXECUTORS = "executors";
+  private final String SHOW_WAVE_BUS = "wavebus";
+  private final String FORMAT_JSON = "json";
 
   @Override
   protected void service(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+    String show = req.getParameter("show");
+    if (show == null) {
+      show = SHOW_SESSION_MEASUREMENTS;
+    }
+    if (FORMAT_JSON.equals(req.getParameter("format"))) {
+      exportMeasurements(show, resp);
+      return;
+    }
+
     resp.setContentType("text/html");
 
     PrintWriter writer = resp.getWriter();
     writeHeader(writer);
 
-    String show = req.getParameter("show");
-    if (show == null) {
-      show = SHOW_SESSION_MEASUREMENTS;
-    }
     switch (show) {
       case SHOW_SESSION_MEASUREMENTS:
         writeSessionMeasurements(writer);
@@ -62,6 +79,12 @@ public class StatuszServlet extends HttpServlet {
       case SHOW_STATS:
         writeStats(writer);
         break;
+      case SHOW_EXECUTORS:
+        writeExecutors(writer);
+        break;
+      case SHOW_WAVE_BUS:
+        writeWaveBus(writer);
+        break;
     }
   }
 
@@ -69,6 +92,38 @@ public class StatuszServlet extends HttpServlet {
     writer.write("<a href=\"?show=" + SHOW_SESSION_MEASUREMENTS + "\">Session measurements</a>");
     writer.write(" | <a href=\"?show=" + SHOW_GLOBAL_MEASUREMENTS + "\">Global measurements</a>");
     writer.write(" | <a href=\"?show=" + SHOW_STATS + "\">Stats</a>");
+    writer.write(" | <a href=\"?show=" + SHOW_EXECUTORS + "\">Executors</a>");
+    writer.write(" | <a href=\"?show=" + SHOW_WAVE_BUS + "\">Wave bus</a>");
+    writer.write(" | <a href=\"?show=" + SHOW_GLOBAL_MEASUREMENTS + "&format=" + FORMAT_JSON
+        + "\">Export</a>");
+  }
+
+  /**
+   * Writes measurements as JSON for monitoring tools.
+   */
+  protected void exportMeasurements(String show, HttpServletResponse resp) throws IOException {
+    String json;
+    switch (show) {
+      case SHOW_SESSION_MEASUREMENTS:
+        json = Timing.exportSessionStatistics();
+        break;
+      case SHOW_GLOBAL_MEASUREMENTS:
+        json = Timing.exportGlobalStatistics();
+        break;
+      case SHOW_EXECUTORS:
+        json = renderExecutorsJson();
+        break;
+      case SHOW_WAVE_BUS:
+        json = renderWaveBusJson();
+        break;
+      default:
+        resp.sendError(HttpServletResponse.SC_BAD_REQUEST,
+            "Only measurements, executors and wave bus can be exported");
+        return;
+    }
+    resp.setContentType("application/json");
+    resp.setCharacterEncoding("UTF-8");
+    resp.getWriter().write(json);
   }
 
   protected void writeSessionMeasurements(PrintWriter writer) {
@@ -85,4 +140,176 @@ public class StatuszServlet extends HttpServlet {
     writer.write(Timing.renderTitle("Stats", 2));
     writer.write(Timing.renderStats());
   }
+
+  protected void writeExecutors(PrintWriter writer) {
+    writer.write(Timing.renderTitle("Executors", 2));
+    writer.write("<div style=\"font-size: 0.9em; padding:4px\">"
+        + "Times are in milliseconds, wait is time from submission to start of the task.");
+    writer.write("<table><tr style=\"font-style: oblique\"><td>Name</td>"
+        + "<td>Active</td><td>Threads</td><td>Queue</td><td>Completed</td><td>Saturated</td>"
+        + "<td>Wait 50%</td><td>Wait 99%</td><td>Wait max</td>"
+        + "<td>Run 50%</td><td>Run 99%</td><td>Run max</td></tr>");
+    for (ExecutorMonitor monitor : sortedMonitors()) {
+      writer.write("<tr style=\"font-weight: bold\"><td>" + monitor.getName() + "</td>"
+          + "<td>" + monitor.getActiveCount() + "</td>"
+          + "<td>" + monitor.getPoolSize() + "/" + formatLimit(monitor.getMaximumPoolSize()) + "</td>"
+          + "<td>" + monitor.getQueueSize() + "/" + formatLimit(monitor.getQueueCapacity()) + "</td>"
+          + "<td>" + monitor.getCompletedTaskCount() + "</td>"
+          + "<td>" + monitor.getRejectedCount() + "</td>"
+          + renderTaskStatsCells(monitor.getTotalStats()) + "</tr>");
+      for (Map.Entry<String, ExecutorMonitor.TaskStats> entry :
+          new TreeMap<>(monitor.getTaskStats()).entrySet()) {
+        writer.write("<tr><td>&nbsp;&nbsp;" + entry.getKey() + "</td>"
+            + "<td></td><td></td><td></td>"
+            + "<td>" + entry.getValue().getRunTime().getNumSamples() + "</td><td></td>"
+            + renderTaskStatsCells(entry.getValue()) + "</tr>");
+      }
+    }
+    writer.write("</table></div>");
+  }
+
+  protected void writeWaveBus(PrintWriter writer) {
+    writer.write(Timing.renderTitle("Wave bus queues", 2));
+    writer.write("<div style=\"font-size: 0.9em; padding:4px\">"
+        + "Lag is time in milliseconds from queueing of the first update of a wavelet to delivery.");
+    writer.write("<table><tr style=\"font-style: oblique\"><td>Name</td>"
+        + "<td>Queue</td><td>In flight</td><td>Rate limit</td><td>Received</td>"
+        + "<td>Coalesced</td><td>Delivered</td><td>Overflowed</td><td>Failed</td>"
+        + "<td>Lag now</td><td>Lag 50%</td><td>Lag 99%</td><td>Lag max</td></tr>");
+    for (QueuedWaveBusSubscriber queue : sortedWaveBusQueues()) {
+      Measurement lag = queue.getDeliveryLag();
+      writer.write("<tr><td>" + queue.getName() + "</td>"
+          + "<td>" + queue.getQueueSize() + "/" + formatLimit(queue.getQueueCapacity()) + "</td>"
+          + "<td>" + queue.getInFlightCount() + "/" + queue.getConcurrency() + "</td>"
+          + "<td>" + (queue.getMaxDeliveriesPerSecond() > 0
+              ? queue.getMaxDeliveriesPerSecond() + "/s" : "&infin;") + "</td>"
+          + "<td>" + queue.getReceivedCount() + "</td>"
+          + "<td>" + queue.getCoalescedCount() + "</td>"
+          + "<td>" + queue.getDeliveredCount() + "</td>"
+          + "<td>" + queue.getOverflowCount() + "</td>"
+          + "<td>" + queue.getFailedCount() + "</td>"
+          + "<td>" + queue.getLagMillis() + "</td>"
+          + "<td>" + lag.getPercentile(50) + "</td>"
+          + "<td>" + lag.getPercentile(99) + "</td>"
+          + "<td>" + lag.getHigh() + "</td></tr>");
+    }
+    writer.write("</table></div>");
+  }
+
+  private static String renderTaskStatsCells(ExecutorMonitor.TaskStats stats) {
+    Measurement wait = stats.getWaitTime();
+    Measurement run = stats.getRunTime();
+    return "<td>" + formatMicros(wait.getPercentile(50)) + "</td>"
+        + "<td>" + formatMicros(wait.getPercentile(99)) + "</td>"
+        + "<td>" + formatMicros(wait.getHigh()) + "</td>"
+        + "<td>" + formatMicros(run.getPercentile(50)) + "</td>"
+        + "<td>" + formatMicros(run.getPercentile(99)) + "</td>"
+        + "<td>" + formatMicros(run.getHigh()) + "</td>";
+  }
+
+  private static String renderExecutorsJson() {
+    StringBuilder builder = new StringBuilder("[");
+    boolean first = true;
+    for (ExecutorMonitor monitor : sortedMonitors()) {
+      if (!first) {
+        builder.append(",");
+      }
+      first = false;
+      builder.append("\n{\"name\":\"").append(monitor.getName()).append("\"")
+          .append(",\"active\":").append(monitor.getActiveCount())
+          .append(",\"poolSize\":").append(monitor.getPoolSize())
+          .append(",\"maxPoolSize\":").append(monitor.getMaximumPoolSize())
+          .append(",\"queueSize\":").append(monitor.getQueueSize())
+          .append(",\"queueCapacity\":").append(monitor.getQueueCapacity())
+          .append(",\"completed\":").append(monitor.getCompletedTaskCount())
+          .append(",\"saturated\":").append(monitor.getRejectedCount())
+          .append(",\"total\":").append(renderTaskStatsJson(monitor.getTotalStats()))
+          .append(",\"tasks\":{");
+      boolean firstTask = true;
+      for (Map.Entry<String, ExecutorMonitor.TaskStats> entry :
+          new TreeMap<>(monitor.getTaskStats()).entrySet()) {
+        if (!firstTask) {
+          builder.append(",");
+        }
+        firstTask = false;
+        builder.append("\"").append(entry.getKey()).append("\":")
+            .append(renderTaskStatsJson(entry.getValue()));
+      }
+      builder.append("}}");
+    }
+    return builder.append("\n]").toString();
+  }
+
+  private static String renderTaskStatsJson(ExecutorMonitor.TaskStats stats) {
+    Measurement wait = stats.getWaitTime();
+    Measurement run = stats.getRunTime();
+    return "{\"count\":" + run.getNumSamples()
+        + ",\"waitMicros\":{\"p50\":" + wait.getPercentile(50) + ",\"p95\":"
+        + wait.getPercentile(95) + ",\"p99\":" + wait.getPercentile(99) + ",\"max\":"
+        + wait.getHigh() + "}"
+        + ",\"runMicros\":{\"p50\":" + run.getPercentile(50) + ",\"p95\":"
+        + run.getPercentile(95) + ",\"p99\":" + run.getPercentile(99) + ",\"max\":"
+        + run.getHigh() + "}}";
+  }
+
+  private static String renderWaveBusJson() {
+    StringBuilder builder = new StringBuilder("[");
+    boolean first = true;
+    for (QueuedWaveBusSubscriber queue : sortedWaveBusQueues()) {
+      if (!first) {
+        builder.append(",");
+      }
+      first = false;
+      Measurement lag = queue.getDeliveryLag();
+      builder.append("\n{\"name\":\"").append(queue.getName()).append("\"")
+          .append(",\"queueSize\":").append(queue.getQueueSize())
+          .append(",\"queueCapacity\":").append(queue.getQueueCapacity())
+          .append(",\"inFlight\":").append(queue.getInFlightCount())
+          .append(",\"concurrency\":").append(queue.getConcurrency())
+          .append(",\"maxDeliveriesPerSecond\":").append(queue.getMaxDeliveriesPerSecond())
+          .append(",\"received\":").append(queue.getReceivedCount())
+          .append(",\"coalesced\":").append(queue.getCoalescedCount())
+          .append(",\"delivered\":").append(queue.getDeliveredCount())
+          .append(",\"overflowed\":").append(queue.getOverflowCount())
+          .append(",\"failed\":").append(queue.getFailedCount())
+          .append(",\"lagMillis\":").append(queue.getLagMillis())
+          .append(",\"deliveryLagMillis\":{\"p50\":").append(lag.getPercentile(50))
+          .append(",\"p95\":").append(lag.getPercentile(95))
+          .append(",\"p99\":").append(lag.getPercentile(99))
+          .append(",\"max\":").append(lag.getHigh()).append("}}");
+    }
+    return builder.append("\n]").toString();
+  }
+
+  private static List<QueuedWaveBusSubscriber> sortedWaveBusQueues() {
+    List<QueuedWaveBusSubscriber> queues = new ArrayList<>(QueuedWaveBusSubscriber.getQueues());
+    Collections.sort(queues, new Comparator<QueuedWaveBusSubscriber>() {
+
+      @Override
+      public int compare(QueuedWaveBusSubscriber q1, QueuedWaveBusSubscriber q2) {
+        return q1.getName().compareTo(q2.getName());
+      }
+    });
+    return queues;
+  }
+
+  private static List<ExecutorMonitor> sortedMonitors() {
+    List<ExecutorMonitor> monitors = new ArrayList<>(ExecutorMonitor.getMonitors());
+    Collections.sort(monitors, new Comparator<ExecutorMonitor>() {
+
+      @Override
+      public int compare(ExecutorMonitor m1, ExecutorMonitor m2) {
+        return m1.getName().compareTo(m2.getName());
+      }
+    });
+    return monitors;
+  }
+
+  private static String formatLimit(int limit) {
+    return limit <= 0 || limit == Integer.MAX_VALUE ? "&infin;" : Integer.toString(limit);
+  }
+
+  private static String formatMicros(int micros) {
+    return String.format("%.1f", micros / 1000.0);
+  }
 }
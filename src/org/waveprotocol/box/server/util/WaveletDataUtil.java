@@ -20,6 +20,7 @@
 package org.waveprotocol.box.server.util;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
@@ -33,16 +34,20 @@ import org.waveprotocol.wave.model.id.WaveletName;
 import org.waveprotocol.wave.model.operation.OperationException;
 import org.waveprotocol.wave.model.operation.wave.TransformedWaveletDelta;
 import org.waveprotocol.wave.model.operation.wave.WaveletOperation;
+import org.waveprotocol.wave.model.raw.RawBlipSnapshot;
 import org.waveprotocol.wave.model.schema.SchemaCollection;
 import org.waveprotocol.wave.model.version.HashedVersion;
 import org.waveprotocol.wave.model.wave.ParticipantId;
 import org.waveprotocol.wave.model.wave.data.ObservableWaveletData;
+import org.waveprotocol.wave.model.wave.data.ReadableBlipData;
 import org.waveprotocol.wave.model.wave.data.ReadableWaveletData;
 import org.waveprotocol.wave.model.wave.data.WaveViewData;
 import org.waveprotocol.wave.model.wave.data.WaveletData;
 import org.waveprotocol.wave.model.wave.data.impl.EmptyWaveletSnapshot;
+import org.waveprotocol.wave.model.wave.data.impl.LazyContentBlipDataImpl;
 import org.waveprotocol.wave.model.wave.data.impl.ObservablePluggableMutableDocument;
 import org.waveprotocol.wave.model.wave.data.impl.WaveletDataImpl;
+import org.waveprotocol.wave.model.wave.data.impl.WaveletFragmentDataImpl;
 
 /**
  * Utility methods for {@link WaveletData}.
@@ -56,6 +61,10 @@ public final class WaveletDataUtil {
       WaveletDataImpl.Factory.create(
           ObservablePluggableMutableDocument.createFactory(SchemaCollection.empty()));
 
+  private static final ObservableWaveletData.Factory<WaveletFragmentDataImpl> VIEW_FACTORY =
+      WaveletFragmentDataImpl.Factory.create(
+          ObservablePluggableMutableDocument.createFactory(SchemaCollection.empty()));
+
   private WaveletDataUtil() {
   }
 
@@ -190,6 +199,54 @@ public final class WaveletDataUtil {
     }
   }
 
+  /**
+   * Creates a view of an immutable wavelet snapshot.
+   *
+   * Participants and metadata are taken from the snapshot, blips are deferred.
+   * The document of a blip is created on first access to the blip, from the
+   * raw snapshot of the source blip if it is not created yet, so documents
+   * which are not read are never built. The view may be read concurrently
+   * with other readers of the snapshot and modified without affecting it.
+   *
+   * @param wavelet the snapshot, must not be modified.
+   * @return A mutable view.
+   */
+  public static ObservableWaveletData createView(final ReadableWaveletData wavelet) {
+    Timer timer = Timing.start("WaveletDataUtil.createView");
+    try {
+      WaveletFragmentDataImpl view = VIEW_FACTORY.create(new EmptyWaveletSnapshot(
+          wavelet.getWaveId(), wavelet.getWaveletId(), wavelet.getCreator(),
+          wavelet.getHashedVersion(), wavelet.getCreationTime()));
+      for (ParticipantId participant : wavelet.getParticipants()) {
+        view.addParticipant(participant, null);
+      }
+      for (final String documentId : wavelet.getDocumentIds()) {
+        final ReadableBlipData blip = wavelet.getBlip(documentId);
+        LazyContentBlipDataImpl.SnapshotSource source = null;
+        if (blip instanceof LazyContentBlipDataImpl) {
+          source = ((LazyContentBlipDataImpl)blip).getSnapshotSource();
+        }
+        if (source == null) {
+          source = new LazyContentBlipDataImpl.SnapshotSource() {
+
+            @Override
+            public RawBlipSnapshot getSnapshot() {
+              return new RawBlipSnapshot(null, documentId, blip.getAuthor(),
+                  ImmutableSet.copyOf(blip.getContributors()), blip.getContent().asOperation(),
+                  blip.getCreationTime(), blip.getCreationVersion(),
+                  blip.getLastModifiedTime(), blip.getLastModifiedVersion());
+            }
+          };
+        }
+        view.createDeferredBlip(documentId, source);
+      }
+      view.setLastModifiedTime(wavelet.getLastModifiedTime());
+      return view;
+    } finally {
+      Timing.stop(timer);
+    }
+  }
+
   /**
    * @return true if the wave has conversational root wavelet.
    */
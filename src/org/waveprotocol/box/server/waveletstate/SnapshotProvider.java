@@ -27,24 +27,34 @@ import org.waveprotocol.box.stat.Timed;
 import org.waveprotocol.wave.model.id.SegmentId;
 import org.waveprotocol.wave.model.id.WaveletName;
 import org.waveprotocol.wave.model.operation.OperationException;
+import org.waveprotocol.wave.model.raw.RawBlipSnapshot;
 import org.waveprotocol.wave.model.schema.SchemaCollection;
 import org.waveprotocol.wave.model.version.HashedVersion;
 import org.waveprotocol.wave.model.wave.ParticipantId;
 import org.waveprotocol.wave.model.wave.data.ObservableWaveletData;
 import org.waveprotocol.wave.model.wave.data.impl.EmptyWaveletSnapshot;
 import org.waveprotocol.wave.model.wave.data.impl.ObservablePluggableMutableDocument;
-import org.waveprotocol.wave.model.wave.data.impl.WaveletDataImpl;
+import org.waveprotocol.wave.model.wave.data.impl.LazyContentBlipDataImpl;
+import org.waveprotocol.wave.model.wave.data.impl.WaveletFragmentDataImpl;
 
 import java.util.Map;
 
 /**
+ * Makes wavelet snapshots from segment intervals.
+ * Blips of the snapshot are deferred: the blip snapshot is requested from
+ * the interval and the document is created on first access to the blip,
+ * so readers of metadata and participants don't pay for the documents.
  *
  * @author akaplanov@gmail.com (A. Kaplanov)
  */
 public class SnapshotProvider {
   
+  private static final ObservableWaveletData.Factory<WaveletFragmentDataImpl> WAVELET_FACTORY =
+      WaveletFragmentDataImpl.Factory.create(
+          ObservablePluggableMutableDocument.createFactory(SchemaCollection.empty()));
+
   @Timed
-  public static ObservableWaveletData makeSnapshot(WaveletName waveletName, HashedVersion version, Map<SegmentId, Interval> intervals) throws OperationException {
+  public static ObservableWaveletData makeSnapshot(WaveletName waveletName, final HashedVersion version, Map<SegmentId, Interval> intervals) throws OperationException {
     ParticipantId creator = null;
     long creationTime = 0;
     Interval indexInterval = intervals.get(SegmentId.INDEX_ID);
@@ -64,10 +74,7 @@ public class SnapshotProvider {
       lastModifiedTime = participantsInterval.getLastModifiedTime(version.getVersion());
     }
     // Create empty wavelet.
-    ObservableWaveletData.Factory<? extends ObservableWaveletData> factory =
-        WaveletDataImpl.Factory.create(
-            ObservablePluggableMutableDocument.createFactory(SchemaCollection.empty()));
-    ObservableWaveletData wavelet = factory.create(new EmptyWaveletSnapshot(waveletName.waveId,
+    WaveletFragmentDataImpl wavelet = WAVELET_FACTORY.create(new EmptyWaveletSnapshot(waveletName.waveId,
         waveletName.waveletId, creator, version, creationTime));
     // Add participants.
     if (participantsSnapshot != null) {
@@ -75,16 +82,20 @@ public class SnapshotProvider {
         wavelet.addParticipant(participant, null);
       }
     }
-    // Add blips.
+    // Add deferred blips.
     for (Map.Entry<SegmentId, Interval> entry : intervals.entrySet()) {
       if (entry.getKey().isBlip()) {
-        ReadableBlipSnapshot snapshot = (ReadableBlipSnapshot)entry.getValue().getSnapshot(version.getVersion());
-        wavelet.createBlip(entry.getKey().getBlipId(), snapshot.getAuthor(),
-          snapshot.getContributors(), snapshot.getContent(),
-          snapshot.getCreationTime(), snapshot.getCreationVersion(),
-          snapshot.getLastModifiedTime(), snapshot.getLastModifiedVersion());
-        if (snapshot.getLastModifiedTime() > lastModifiedTime) {
-          lastModifiedTime = snapshot.getLastModifiedTime();
+        final Interval interval = entry.getValue();
+        wavelet.createDeferredBlip(entry.getKey().getBlipId(), new LazyContentBlipDataImpl.SnapshotSource() {
+
+          @Override
+          public RawBlipSnapshot getSnapshot() {
+            return ((ReadableBlipSnapshot)interval.getSnapshot(version.getVersion())).getRawSnapshot();
+          }
+        });
+        long blipModifiedTime = interval.getLastModifiedTime(version.getVersion());
+        if (blipModifiedTime > lastModifiedTime) {
+          lastModifiedTime = blipModifiedTime;
         }
       }
     }
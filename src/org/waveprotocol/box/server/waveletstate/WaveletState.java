@@ -50,6 +50,11 @@ public interface WaveletState {
    */
   WaveletName getWaveletName();
 
+  /**
+   * Gets estimated size in bytes of the state data resident in memory.
+   */
+  long getMemorySize();
+
   /**
    * Clears state and sore.
    */
@@ -20,6 +20,9 @@
 package org.waveprotocol.box.server.waveletstate.block;
 
 import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListenableFutureTask;
 import com.google.common.util.concurrent.MoreExecutors;
@@ -78,7 +81,7 @@ public class BlockWaveletStateImpl implements BlockWaveletState {
   /** Block store. */
   private final BlockStore blockStore;
 
-  /** Executor for reading, saving blocks and close store. */
+  /** Executor for scheduling of blocks saving and processing of read blocks. */
   private final ScheduledExecutorService persistExecutor;
 
   /** Block Id generator. */
@@ -91,20 +94,32 @@ public class BlockWaveletStateImpl implements BlockWaveletState {
   private Set<Block> blocksToWrite = CollectionUtils.newHashSet();
 
   /** Saving blocks task. */
-  private final Callable savingTask = new Callable() {
+  private final Callable<ListenableFuture<Void>> savingTask = new Callable<ListenableFuture<Void>>() {
 
       @Override
-      public Object call() throws Exception {
-        try {
-          writeWaitingBlocks();
-        } catch (Exception ex) {
-          LOG.severe("Writing blocks error", ex);
-          writingFailed = true;
-        }
-        return null;
+      public ListenableFuture<Void> call() {
+        final SettableFuture<Void> future = SettableFuture.create();
+        Futures.addCallback(writeWaitingBlocks(), new FutureCallback<Void>() {
+
+          @Override
+          public void onSuccess(Void result) {
+            future.set(null);
+          }
+
+          @Override
+          public void onFailure(Throwable ex) {
+            LOG.severe("Writing blocks error", ex);
+            writingFailed = true;
+            future.set(null);
+          }
+        });
+        return future;
       }
     };
 
+  /** Future of the last started saving of blocks. */
+  private ListenableFuture<Void> savingFuture = Futures.immediateFuture(null);
+
   /** Block cache. */
   private final BlockCache blockCache = new BlockCache();
 
@@ -173,20 +188,37 @@ public class BlockWaveletStateImpl implements BlockWaveletState {
 
       @Override
       public void run() {
-        writeLock.lock();
+        ListenableFuture<Void> writing;
         try {
           Preconditions.checkNotNull(blockAccess, "Store is not opened.");
-          writeWaitingBlocks();
-          blockAccess.close();
-          LOG.info("Block wavelet state of " + waveletName.toString() + " is closed.");
-          blockAccess = null;
-          closing = false;
-          future.set(null);
-        } catch (PersistenceException | IOException ex) {
+          writing = writeWaitingBlocks();
+        } catch (RuntimeException ex) {
           future.setException(ex);
-        } finally {
-          writeLock.unlock();
+          return;
         }
+        Futures.addCallback(writing, new FutureCallback<Void>() {
+
+          @Override
+          public void onSuccess(Void result) {
+            writeLock.lock();
+            try {
+              blockAccess.close();
+              LOG.info("Block wavelet state of " + waveletName.toString() + " is closed.");
+              blockAccess = null;
+              closing = false;
+              future.set(null);
+            } catch (IOException ex) {
+              future.setException(ex);
+            } finally {
+              writeLock.unlock();
+            }
+          }
+
+          @Override
+          public void onFailure(Throwable ex) {
+            future.setException(ex);
+          }
+        });
       }
     }, MoreExecutors.sameThreadExecutor());
     return future;
@@ -195,9 +227,9 @@ public class BlockWaveletStateImpl implements BlockWaveletState {
   @Override
   public ListenableFuture flush() {
     checkOpenedOrClosing();
-    ListenableFutureTask future = ListenableFutureTask.create(savingTask);
-    persistExecutor.execute(future);
-    return future;
+    ListenableFutureTask<ListenableFuture<Void>> task = ListenableFutureTask.create(savingTask);
+    persistExecutor.execute(task);
+    return Futures.dereference(task);
   }
 
   @Override
@@ -279,6 +311,11 @@ public class BlockWaveletStateImpl implements BlockWaveletState {
     return waveletName;
   }
 
+  @Override
+  public long getMemorySize() {
+    return blockCache.getMemorySize();
+  }
+
   @Override
   public Pair<HashedVersion, Long> getLastModifiedVersionAndTime() {
     return blockIndex.getLastModifiedVersionAndTime();
@@ -322,9 +359,53 @@ public class BlockWaveletStateImpl implements BlockWaveletState {
     }
   }
 
+  /**
+   * Starts writing of waiting blocks and then of the block index.
+   * Savings are performed one after another.
+   *
+   * @return future that is done when the blocks and the index are stored.
+   */
+  ListenableFuture<Void> writeWaitingBlocks() {
+    final SettableFuture<Void> future = SettableFuture.create();
+    ListenableFuture<Void> previousSaving;
+    writeLock.lock();
+    try {
+      previousSaving = savingFuture;
+      savingFuture = future;
+    } finally {
+      writeLock.unlock();
+    }
+    previousSaving.addListener(new Runnable() {
+
+      @Override
+      public void run() {
+        ListenableFuture<Void> writing;
+        try {
+          writing = startWritingWaitingBlocks();
+        } catch (RuntimeException ex) {
+          writing = Futures.immediateFailedFuture(ex);
+        }
+        Futures.addCallback(writing, new FutureCallback<Void>() {
+
+          @Override
+          public void onSuccess(Void result) {
+            future.set(null);
+          }
+
+          @Override
+          public void onFailure(Throwable ex) {
+            future.setException(ex);
+          }
+        });
+      }
+    }, MoreExecutors.sameThreadExecutor());
+    return future;
+  }
+
   @Timed
-  void writeWaitingBlocks() throws PersistenceException {
-    Set<Block> blocks;
+  ListenableFuture<Void> startWritingWaitingBlocks() {
+    final Set<Block> blocks;
+    List<ListenableFuture<Void>> blockFutures = CollectionUtils.newLinkedList();
     writeLock.lock();
     try {
       blocks = blocksToWrite;
@@ -340,17 +421,29 @@ public class BlockWaveletStateImpl implements BlockWaveletState {
           }
         });
         for (Block block : blockList) {
-          blockAccess.writeBlock(block);
+          blockFutures.add(blockAccess.writeBlockAsync(block));
         }
       }
-      if (!blocks.isEmpty() || blockIndex.isConsistent() != consistent) {
-        checkOpenedOrClosing();
-        blockIndex.setConsistent(consistent);
-        blockAccess.writeBlockIndex(blockIndex);
-      }
     } finally {
       writeLock.unlock();
     }
+    return Futures.transform(Futures.allAsList(blockFutures), new AsyncFunction<List<Void>, Void>() {
+
+      @Override
+      public ListenableFuture<Void> apply(List<Void> input) {
+        writeLock.lock();
+        try {
+          if (!blocks.isEmpty() || blockIndex.isConsistent() != consistent) {
+            checkOpenedOrClosing();
+            blockIndex.setConsistent(consistent);
+            return blockAccess.writeBlockIndexAsync(blockIndex);
+          }
+          return Futures.immediateFuture(null);
+        } finally {
+          writeLock.unlock();
+        }
+      }
+    });
   }
 
   Collection<ListenableFuture<Block>> executeReadBlocksRequest(final Set<String> blockIds) {
@@ -360,29 +453,35 @@ public class BlockWaveletStateImpl implements BlockWaveletState {
       futures.add(future);
       readBlocksFutures.put(blockId, future);
     }
-    persistExecutor.execute(new Runnable() {
+    ListenableFuture<Collection<Block>> reading;
+    try {
+      reading = blockAccess.readBlocksAsync(blockIds);
+    } catch (RuntimeException ex) {
+      reading = Futures.immediateFailedFuture(ex);
+    }
+    Futures.addCallback(reading, new FutureCallback<Collection<Block>>() {
 
       @Override
-      public void run() {
-        try {
-          Collection<Block> blocks = blockAccess.readBlocks(blockIds);
-          for (Block block : blocks) {
-            registerBlock(block);
-            SettableFuture<Block> future = readBlocksFutures.remove(block.getBlockId());
-            if (future != null) {
-              future.set(block);
-            }
+      public void onSuccess(Collection<Block> blocks) {
+        for (Block block : blocks) {
+          registerBlock(block);
+          SettableFuture<Block> future = readBlocksFutures.remove(block.getBlockId());
+          if (future != null) {
+            future.set(block);
           }
-        } catch (Exception ex) {
-          for (String blockId : blockIds) {
-            SettableFuture<Block> future = readBlocksFutures.remove(blockId);
-            if (future != null) {
-              future.setException(ex);
-            }
+        }
+      }
+
+      @Override
+      public void onFailure(Throwable ex) {
+        for (String blockId : blockIds) {
+          SettableFuture<Block> future = readBlocksFutures.remove(blockId);
+          if (future != null) {
+            future.setException(ex);
           }
         }
       }
-    });
+    }, persistExecutor);
     return futures;
   }
 
@@ -46,8 +46,11 @@ import org.waveprotocol.wave.util.logging.Log;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListenableFutureTask;
+import com.google.common.util.concurrent.SettableFuture;
 import com.google.inject.Inject;
 import com.google.inject.assistedinject.Assisted;
 
@@ -58,6 +61,7 @@ import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentNavigableMap;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
 import java.io.IOException;
@@ -78,9 +82,15 @@ public class DeltaWaveletStateImpl implements DeltaWaveletState {
   private static final IdURIEncoderDecoder URI_CODEC = new IdURIEncoderDecoder(new JavaUrlCodec());
   private static final HashedVersionFactory HASH_FACTORY = new HashedVersionFactoryImpl(URI_CODEC);
 
+  /**
+   * Ratio of memory occupied by cached delta record to size of serialized
+   * applied delta: the serialized delta itself and the transformed delta.
+   */
+  private static final int DELTA_MEMORY_FACTOR = 3;
+
   private HashedVersion versionZero;
 
-  /** Executor for writing deltas and closing store. */
+  /** Executor for starting of delta writes, processing of their completion and closing store. */
   private final Executor persistExecutor;
 
   /** The name of wavelet. */
@@ -98,8 +108,8 @@ public class DeltaWaveletStateImpl implements DeltaWaveletState {
    */
   private HashedVersion latestVersionToPersist = null;
 
-  /** The persist task that will be executed next. */
-  private ListenableFutureTask<Void> nextPersistTask = null;
+  /** The future of persisting that will be started next. */
+  private SettableFuture<Void> nextPersistFuture = null;
 
   /** The persist task that will be executed when closing. */
   private ListenableFutureTask<Void> closingFutureTask = null;
@@ -107,63 +117,6 @@ public class DeltaWaveletStateImpl implements DeltaWaveletState {
   /** Closing is deferred because a persist task in flight. */
   private boolean deferredClosing = false;
 
-  /**
-   * Processes the persist task and checks if there is another task to do when
-   * one task is done. In such a case, it writes all waiting to be persisted
-   * deltas to persistent storage in one operation.
-   */
-  private final Callable<Void> persisterTask = new Callable<Void>() {
-    @Override
-    public Void call() throws PersistenceException {
-      HashedVersion last;
-      HashedVersion version;
-      checkOpened();
-      readLock.lock();
-      try {
-        last = lastPersistedVersion;
-        version = latestVersionToPersist;
-      } finally {
-        readLock.unlock();
-      }
-      if (last != null && version.getVersion() <= last.getVersion()) {
-        LOG.info("Attempt to persist version " + version
-            + " smaller than last persisted version " + last);
-        // Done, version is already persisted.
-        version = last;
-      } else {
-        ImmutableList.Builder<WaveletDeltaRecord> deltasBuilder = ImmutableList.builder();
-        HashedVersion v = (last == null) ? versionZero : last;
-        do {
-          WaveletDeltaRecord d = cachedDeltas.get(v);
-          deltasBuilder.add(d);
-          v = d.getResultingVersion();
-        } while (v.getVersion() < version.getVersion());
-        Preconditions.checkState(v.equals(version));
-        ImmutableList<WaveletDeltaRecord> deltas = deltasBuilder.build();
-        deltaAccess.append(deltas);
-      }
-      writeLock.lock();
-      try {
-        Preconditions.checkState(last == lastPersistedVersion,
-            "lastPersistedVersion changed while we were writing to storage");
-        lastPersistedVersion = version;
-        if (nextPersistTask != null) {
-          persistExecutor.execute(nextPersistTask);
-          nextPersistTask = null;
-        } else {
-          latestVersionToPersist = null;
-          if (deferredClosing) {
-            persistExecutor.execute(closingFutureTask);
-            deferredClosing = false;
-          }
-        }
-      } finally {
-        writeLock.unlock();
-      }
-      return null;
-    }
-  };
-
   /** Closes store. */
   private final Callable<Void> closingTask = new Callable<Void>() {
     @Override
@@ -184,6 +137,9 @@ public class DeltaWaveletStateImpl implements DeltaWaveletState {
   private final ConcurrentNavigableMap<HashedVersion, WaveletDeltaRecord> cachedDeltas =
       new ConcurrentSkipListMap<>();
 
+  /** Estimated memory size of cached deltas. */
+  private final AtomicLong cachedDeltasSize = new AtomicLong();
+
   /** Current version of wavelet. */
   private volatile HashedVersion lastModifiedVersion;
 
@@ -273,6 +229,11 @@ public class DeltaWaveletStateImpl implements DeltaWaveletState {
     return waveletName;
   }
 
+  @Override
+  public long getMemorySize() {
+    return cachedDeltasSize.get();
+  }
+
   @Override
   public HashedVersion getLastModifiedVersion() {
     return lastModifiedVersion;
@@ -478,6 +439,7 @@ public class DeltaWaveletStateImpl implements DeltaWaveletState {
           lastModifiedVersion);
 
       cachedDeltas.put(deltaRecord.getAppliedAtVersion(), deltaRecord);
+      cachedDeltasSize.addAndGet(getMemorySize(deltaRecord));
       lastModifiedVersion = deltaRecord.getResultingVersion();
       lastModifiedTime = deltaRecord.getApplicationTimestamp();
     } finally {
@@ -502,15 +464,15 @@ public class DeltaWaveletStateImpl implements DeltaWaveletState {
         } else {
           latestVersionToPersist = version;
         }
-        if (nextPersistTask == null) {
-          nextPersistTask = ListenableFutureTask.<Void>create(persisterTask);
+        if (nextPersistFuture == null) {
+          nextPersistFuture = SettableFuture.create();
         }
-        return nextPersistTask;
+        return nextPersistFuture;
       } else {
         latestVersionToPersist = version;
-        ListenableFutureTask<Void> resultTask = ListenableFutureTask.<Void>create(persisterTask);
-        persistExecutor.execute(resultTask);
-        return resultTask;
+        SettableFuture<Void> future = SettableFuture.create();
+        startPersisting(future);
+        return future;
       }
     } finally {
       writeLock.unlock();
@@ -520,7 +482,11 @@ public class DeltaWaveletStateImpl implements DeltaWaveletState {
   @Override
   public void flush(HashedVersion version) {
     checkOpened();
-    cachedDeltas.remove(cachedDeltas.lowerKey(version));
+    HashedVersion flushedVersion = cachedDeltas.lowerKey(version);
+    WaveletDeltaRecord flushedDelta = flushedVersion != null ? cachedDeltas.remove(flushedVersion) : null;
+    if (flushedDelta != null) {
+      cachedDeltasSize.addAndGet(-getMemorySize(flushedDelta));
+    }
     if (LOG.isFineLoggable()) {
       LOG.fine("Flushed deltas up to version " + version);
     }
@@ -531,6 +497,122 @@ public class DeltaWaveletStateImpl implements DeltaWaveletState {
     throw new UnsupportedOperationException();
   }
 
+  /**
+   * Schedules writing of all waiting to be persisted deltas to persistent storage
+   * in one operation.
+   */
+  private void startPersisting(final SettableFuture<Void> future) {
+    persistExecutor.execute(new Runnable() {
+
+      @Override
+      public void run() {
+        appendDeltas(future);
+      }
+    });
+  }
+
+  /**
+   * Starts asynchronous appending of the deltas up to the latest version to persist.
+   * The persist executor isn't blocked while the deltas are written.
+   */
+  private void appendDeltas(final SettableFuture<Void> future) {
+    final HashedVersion last;
+    final HashedVersion version;
+    readLock.lock();
+    try {
+      last = lastPersistedVersion;
+      version = latestVersionToPersist;
+    } finally {
+      readLock.unlock();
+    }
+    if (last != null && version.getVersion() <= last.getVersion()) {
+      LOG.info("Attempt to persist version " + version
+          + " smaller than last persisted version " + last);
+      // Done, version is already persisted.
+      onPersisted(last, last, future);
+      return;
+    }
+    ListenableFuture<Void> appending;
+    try {
+      checkOpened();
+      ImmutableList.Builder<WaveletDeltaRecord> deltasBuilder = ImmutableList.builder();
+      HashedVersion v = (last == null) ? versionZero : last;
+      do {
+        WaveletDeltaRecord d = cachedDeltas.get(v);
+        deltasBuilder.add(d);
+        v = d.getResultingVersion();
+      } while (v.getVersion() < version.getVersion());
+      Preconditions.checkState(v.equals(version));
+      appending = deltaAccess.appendAsync(deltasBuilder.build());
+    } catch (RuntimeException ex) {
+      onPersistFailed(future, ex);
+      return;
+    }
+    Futures.addCallback(appending, new FutureCallback<Void>() {
+
+      @Override
+      public void onSuccess(Void result) {
+        onPersisted(last, version, future);
+      }
+
+      @Override
+      public void onFailure(Throwable ex) {
+        onPersistFailed(future, ex);
+      }
+    }, persistExecutor);
+  }
+
+  /**
+   * Checks if there is another persisting to do when one is done.
+   */
+  private void onPersisted(HashedVersion last, HashedVersion version, SettableFuture<Void> future) {
+    writeLock.lock();
+    try {
+      Preconditions.checkState(last == lastPersistedVersion,
+          "lastPersistedVersion changed while we were writing to storage");
+      lastPersistedVersion = version;
+      if (nextPersistFuture != null) {
+        startPersisting(nextPersistFuture);
+        nextPersistFuture = null;
+      } else {
+        latestVersionToPersist = null;
+        executeDeferredClosing();
+      }
+    } finally {
+      writeLock.unlock();
+    }
+    future.set(null);
+  }
+
+  /**
+   * Fails the persisting and the waiting one, so the next persist request
+   * starts again from the last persisted version.
+   */
+  private void onPersistFailed(SettableFuture<Void> future, Throwable ex) {
+    LOG.severe("Failed to persist deltas of " + waveletName, ex);
+    SettableFuture<Void> next;
+    writeLock.lock();
+    try {
+      next = nextPersistFuture;
+      nextPersistFuture = null;
+      latestVersionToPersist = null;
+      executeDeferredClosing();
+    } finally {
+      writeLock.unlock();
+    }
+    future.setException(ex);
+    if (next != null) {
+      next.setException(ex);
+    }
+  }
+
+  private void executeDeferredClosing() {
+    if (deferredClosing) {
+      persistExecutor.execute(closingFutureTask);
+      deferredClosing = false;
+    }
+  }
+
   /**
    * @return An entry keyed by a hashed version with the given version number,
    *         if any, otherwise null.
@@ -645,4 +727,8 @@ public class DeltaWaveletStateImpl implements DeltaWaveletState {
       readLock.unlock();
     }
   }
+
+  private static long getMemorySize(WaveletDeltaRecord deltaRecord) {
+    return (long)deltaRecord.getAppliedDelta().getByteString().size() * DELTA_MEMORY_FACTOR;
+  }
 }
\ No newline at end of file
@@ -66,6 +66,7 @@ import org.waveprotocol.box.server.waveletstate.block.BlockWaveletState;
 import org.waveprotocol.box.server.waveletstate.IndexingState;
 import org.waveprotocol.box.server.waveletstate.SnapshotProvider;
 import org.waveprotocol.box.server.shutdown.LifeCycle;
+import org.waveprotocol.box.server.util.WaveletDataUtil;
 import org.waveprotocol.box.server.shutdown.ShutdownPriority;
 import org.waveprotocol.box.stat.Timed;
 import org.waveprotocol.box.stat.Timer;
@@ -130,6 +131,9 @@ public class SegmentWaveletStateImpl implements SegmentWaveletState {
   private static final IdURIEncoderDecoder URI_CODEC = new IdURIEncoderDecoder(new JavaUrlCodec());
   private static final HashedVersionFactory HASH_FACTORY = new HashedVersionFactoryImpl(URI_CODEC);
 
+  /** Estimated memory size of segment structures, apart of blocks data. */
+  private static final int SEGMENT_MEMORY_SIZE = 1024;
+
   /** The last modified version of wavelet. */
   private HashedVersion lastModifiedVersion = HashedVersion.unsigned(0);
 
@@ -139,6 +143,12 @@ public class SegmentWaveletStateImpl implements SegmentWaveletState {
   /** The indexing state of wavelet. */
   private IndexingState indexingState;
 
+  /**
+   * The snapshot of last requested version. It is never passed out, consumers
+   * of the same update get own views of it.
+   */
+  private volatile ReadableWaveletData lastSnapshot;
+
   /** Locks. */
   private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
   private final ReentrantReadWriteLock.ReadLock readLock = lock.readLock();
@@ -231,6 +241,12 @@ public class SegmentWaveletStateImpl implements SegmentWaveletState {
     return waveletName;
   }
 
+  @Override
+  public long getMemorySize() {
+    return (long)segmentCache.getSegmentCount(waveletName) * SEGMENT_MEMORY_SIZE
+        + blockState.getMemorySize();
+  }
+
   @Timed
   @Override
   public Set<SegmentId> getSegmentIds(final long version) throws WaveletStateException {
@@ -283,9 +299,15 @@ public class SegmentWaveletStateImpl implements SegmentWaveletState {
     if (version.getVersion() == 0) {
       return null;
     }
+    ReadableWaveletData snapshot = lastSnapshot;
+    if (snapshot != null && snapshot.getHashedVersion().equals(version)) {
+      return WaveletDataUtil.createView(snapshot);
+    }
     Map<SegmentId, Interval> intervals = getIntervals(version.getVersion());
     try {
-      return SnapshotProvider.makeSnapshot(waveletName, version, intervals);
+      snapshot = SnapshotProvider.makeSnapshot(waveletName, version, intervals);
+      lastSnapshot = snapshot;
+      return WaveletDataUtil.createView(snapshot);
     } catch (OperationException ex) {
       throw new WaveletStateException(ex);
     }
@@ -406,6 +428,7 @@ public class SegmentWaveletStateImpl implements SegmentWaveletState {
       markAsInconsistent();
       segmentCache.removeWavelet(waveletName);
       lastModifiedVersion = HashedVersion.unsigned(0);
+      lastSnapshot = null;
       indexingState = null;
       blockState.clear();
     } finally {
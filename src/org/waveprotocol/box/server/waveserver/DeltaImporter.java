@@ -0,0 +1,289 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.waveprotocol.box.server.waveserver;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.Striped;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.protobuf.InvalidProtocolBufferException;
+
+import org.waveprotocol.box.common.ThrowableReceiver;
+import org.waveprotocol.box.server.persistence.PersistenceException;
+import org.waveprotocol.box.server.persistence.blocks.BlockIndex;
+import org.waveprotocol.box.server.persistence.blocks.BlockStore;
+import org.waveprotocol.box.server.persistence.deltas.DeltaStore;
+import org.waveprotocol.box.server.persistence.deltas.WaveletDeltaRecord;
+import org.waveprotocol.box.server.serialize.OperationSerializer;
+import org.waveprotocol.box.server.util.WaveletDataUtil;
+import org.waveprotocol.wave.federation.Proto.ProtocolAppliedWaveletDelta;
+import org.waveprotocol.wave.federation.Proto.ProtocolSignedDelta;
+import org.waveprotocol.wave.federation.Proto.ProtocolWaveletDelta;
+import org.waveprotocol.wave.model.id.IdURIEncoderDecoder;
+import org.waveprotocol.wave.model.id.WaveletName;
+import org.waveprotocol.wave.model.operation.OperationException;
+import org.waveprotocol.wave.model.operation.wave.TransformedWaveletDelta;
+import org.waveprotocol.wave.model.operation.wave.WaveletDelta;
+import org.waveprotocol.wave.model.version.HashedVersion;
+import org.waveprotocol.wave.model.version.HashedVersionFactory;
+import org.waveprotocol.wave.model.version.HashedVersionFactoryImpl;
+import org.waveprotocol.wave.model.wave.data.ObservableWaveletData;
+import org.waveprotocol.wave.util.escapers.jvm.JavaUrlCodec;
+import org.waveprotocol.wave.util.logging.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+
+import javax.annotation.Nullable;
+
+/**
+ * Imports wavelet history directly to the delta store.
+ *
+ * The wave is not loaded during import. Deltas are verified by applying to
+ * the wavelet data and appended to the store by large batches, the writing of
+ * a batch is overlapped with the preparing of the next one. The segments are
+ * not updated, the block index is marked as inconsistent instead, so
+ * segments are built once by synchronization on the next loading of the wave.
+ *
+ * @author akaplanov@gmail.com (A. Kaplanov)
+ */
+@Singleton
+public class DeltaImporter {
+  private static final Log LOG = Log.get(DeltaImporter.class);
+
+  private static final IdURIEncoderDecoder URI_CODEC = new IdURIEncoderDecoder(new JavaUrlCodec());
+  private static final HashedVersionFactory HASH_FACTORY = new HashedVersionFactoryImpl(URI_CODEC);
+
+  /** Maximum count of deltas in one append to the store. */
+  private static final int APPEND_BATCH_SIZE = 1000;
+
+  private final DeltaStore deltaStore;
+  private final BlockStore blockStore;
+  private final WaveMap waveMap;
+  private final CertificateManager certificateManager;
+  private final WaveletNotificationSubscriber notifiee;
+
+  /** Serializes imports to the same wave. */
+  private final Striped<Lock> waveLocks = Striped.lock(64);
+
+  @Inject
+  public DeltaImporter(DeltaStore deltaStore, BlockStore blockStore, WaveMap waveMap,
+      CertificateManager certificateManager, WaveletNotificationSubscriber notifiee) {
+    this.deltaStore = deltaStore;
+    this.blockStore = blockStore;
+    this.waveMap = waveMap;
+    this.certificateManager = certificateManager;
+    this.notifiee = notifiee;
+  }
+
+  /**
+   * Imports deltas to the wavelet if its wave is not loaded.
+   *
+   * @param waveletName the name of wavelet.
+   * @param deltas contiguous deltas, ones below the current version of the
+   *        wavelet are checked against the stored history and skipped.
+   * @return the version from which deltas are imported, -1 if all deltas are
+   *         skipped, or null if the wave is loaded and deltas should be
+   *         submitted through the wave server.
+   * @throws WaveServerException if deltas can't be applied or stored.
+   */
+  @Nullable
+  public Long importDeltas(WaveletName waveletName, List<ProtocolWaveletDelta> deltas)
+      throws WaveServerException {
+    Lock lock = waveLocks.get(waveletName.waveId);
+    lock.lock();
+    try {
+      if (!waveMap.reserveWaveForImport(waveletName.waveId)) {
+        return null;
+      }
+      List<WaveletDeltaRecord> records;
+      try {
+        records = appendDeltas(waveletName, deltas);
+      } finally {
+        waveMap.releaseImportedWave(waveletName.waveId);
+      }
+      if (records.isEmpty()) {
+        return -1L;
+      }
+      LOG.info("Imported " + records.size() + " deltas to " + waveletName);
+      ImmutableSet<String> domainsToNotify = ImmutableSet.of(waveletName.waveId.getDomain());
+      notifiee.waveletUpdate(waveletName, ImmutableList.copyOf(records), domainsToNotify);
+      notifiee.waveletCommitted(waveletName,
+          records.get(records.size() - 1).getResultingVersion(), domainsToNotify);
+      return records.get(0).getAppliedAtVersion().getVersion();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private List<WaveletDeltaRecord> appendDeltas(WaveletName waveletName,
+      List<ProtocolWaveletDelta> deltas) throws WaveServerException {
+    List<WaveletDeltaRecord> records = new ArrayList<>();
+    try (DeltaStore.DeltaAccess deltaAccess = deltaStore.open(waveletName)) {
+      ObservableWaveletData wavelet = null;
+      HashedVersion currentVersion;
+      if (deltaAccess.isEmpty()) {
+        currentVersion = HASH_FACTORY.createVersionZero(waveletName);
+      } else {
+        currentVersion = deltaAccess.getLastModifiedVersion();
+      }
+      ListenableFuture<Void> appending = Futures.immediateFuture(null);
+      List<WaveletDeltaRecord> batch = new ArrayList<>();
+      long nextVersion = -1;
+      for (ProtocolWaveletDelta delta : deltas) {
+        long version = delta.getHashedVersion().getVersion();
+        if (nextVersion != -1 && version != nextVersion) {
+          throw new WaveServerException("Deltas are not contiguous, expected version "
+              + nextVersion + ", but delta version is " + version);
+        }
+        if (delta.getOperationCount() == 0) {
+          throw new WaveServerException("Empty delta at version " + version);
+        }
+        nextVersion = version + delta.getOperationCount();
+        if (version < currentVersion.getVersion()) {
+          checkStoredDelta(deltaAccess, delta);
+          continue;
+        }
+        if (version > currentVersion.getVersion()) {
+          throw new WaveServerException("Expected wavelet version " + currentVersion.getVersion()
+              + ", but delta version is " + version);
+        }
+        if (wavelet == null && !deltaAccess.isEmpty()) {
+          wavelet = readWavelet(deltaAccess);
+          markInconsistent(waveletName);
+        }
+        WaveletDeltaRecord record = buildDeltaRecord(delta, currentVersion);
+        try {
+          if (wavelet == null) {
+            wavelet = WaveletDataUtil.buildWaveletFromFirstDelta(waveletName,
+                record.getTransformedDelta());
+          } else {
+            WaveletDataUtil.applyWaveletDelta(record.getTransformedDelta(), wavelet);
+          }
+        } catch (OperationException ex) {
+          throw new WaveServerException("Delta at version " + version + " can't be applied", ex);
+        }
+        records.add(record);
+        batch.add(record);
+        currentVersion = record.getResultingVersion();
+        if (batch.size() == APPEND_BATCH_SIZE) {
+          waitAppending(appending);
+          appending = deltaAccess.appendAsync(batch);
+          batch = new ArrayList<>();
+        }
+      }
+      waitAppending(appending);
+      if (!batch.isEmpty()) {
+        deltaAccess.append(batch);
+      }
+    } catch (PersistenceException | IOException ex) {
+      throw new WaveServerException("Failed to import deltas to " + waveletName, ex);
+    }
+    return records;
+  }
+
+  /**
+   * Checks that the delta below the current version is the same as the stored
+   * one, so the import continues the stored history rather than a diverged one.
+   */
+  private static void checkStoredDelta(DeltaStore.DeltaAccess deltaAccess,
+      ProtocolWaveletDelta delta) throws IOException, WaveServerException {
+    long version = delta.getHashedVersion().getVersion();
+    WaveletDeltaRecord stored = deltaAccess.getDeltaByStartVersion(version);
+    WaveletDelta imported = OperationSerializer.deserialize(delta);
+    if (stored == null || !stored.getTransformedDelta().getAuthor().equals(imported.getAuthor())
+        || !Iterables.elementsEqual(stored.getTransformedDelta(), imported)) {
+      throw new WaveServerException("Delta at version " + version
+          + " doesn't match the stored history");
+    }
+  }
+
+  private WaveletDeltaRecord buildDeltaRecord(ProtocolWaveletDelta delta,
+      HashedVersion currentVersion) throws WaveServerException {
+    ProtocolWaveletDelta hashedDelta = ProtocolWaveletDelta.newBuilder(delta)
+        .setHashedVersion(OperationSerializer.serialize(currentVersion)).build();
+    ProtocolSignedDelta signedDelta =
+        certificateManager.signDelta(ByteStringMessage.serializeMessage(hashedDelta));
+    ByteStringMessage<ProtocolAppliedWaveletDelta> appliedDelta =
+        AppliedDeltaUtil.buildAppliedDelta(signedDelta, currentVersion,
+            hashedDelta.getOperationCount(), System.currentTimeMillis());
+    try {
+      TransformedWaveletDelta transformedDelta = AppliedDeltaUtil.buildTransformedDelta(
+          appliedDelta, OperationSerializer.deserialize(hashedDelta));
+      return new WaveletDeltaRecord(currentVersion, appliedDelta, transformedDelta);
+    } catch (InvalidProtocolBufferException ex) {
+      throw new WaveServerException("Invalid delta at version " + currentVersion.getVersion(), ex);
+    }
+  }
+
+  /**
+   * Builds the wavelet from deltas stored before import.
+   */
+  private static ObservableWaveletData readWavelet(DeltaStore.DeltaAccess deltaAccess)
+      throws IOException, WaveServerException {
+    final List<ObservableWaveletData> wavelet = new ArrayList<>(1);
+    final WaveletName waveletName = deltaAccess.getWaveletName();
+    deltaAccess.getDeltasFromVersion(0, new ThrowableReceiver<WaveletDeltaRecord, IOException>() {
+
+      @Override
+      public boolean put(WaveletDeltaRecord record) throws IOException {
+        try {
+          if (wavelet.isEmpty()) {
+            wavelet.add(WaveletDataUtil.buildWaveletFromFirstDelta(waveletName,
+                record.getTransformedDelta()));
+          } else {
+            WaveletDataUtil.applyWaveletDelta(record.getTransformedDelta(), wavelet.get(0));
+          }
+        } catch (OperationException ex) {
+          throw new IOException(ex);
+        }
+        return true;
+      }
+    });
+    if (wavelet.isEmpty()) {
+      throw new WaveServerException("No stored deltas of " + waveletName);
+    }
+    return wavelet.get(0);
+  }
+
+  /**
+   * Marks the block index as inconsistent, so segments are synchronized with
+   * imported deltas on the next loading.
+   */
+  private void markInconsistent(WaveletName waveletName) throws PersistenceException, IOException {
+    try (BlockStore.BlockAccess blockAccess = blockStore.open(waveletName)) {
+      BlockIndex blockIndex = blockAccess.readBlockIndex();
+      if (blockIndex.isConsistent()) {
+        blockIndex.setConsistent(false);
+        blockAccess.writeBlockIndex(blockIndex);
+      }
+    }
+  }
+
+  private static void waitAppending(ListenableFuture<Void> appending) throws PersistenceException {
+    try {
+      FutureUtil.getResultOrPropagateException(appending, PersistenceException.class);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new PersistenceException(ex);
+    }
+  }
+}
@@ -61,6 +61,7 @@ public class DeltaWaveletStateMap {
   public interface DeltaWaveletStateAccessor {
     DeltaWaveletState get() throws WaveletStateException;
     DeltaWaveletState getIfPresent() throws WaveletStateException;
+    long getMemorySize();
     ListenableFuture close();
   }
 
@@ -154,6 +155,19 @@ public class DeltaWaveletStateMap {
         return getState(future);
       }
 
+      @Override
+      public long getMemorySize() {
+        ListenableFuture<DeltaWaveletState> future = states.getIfPresent(waveletName);
+        if (future == null || !future.isDone()) {
+          return 0;
+        }
+        try {
+          return future.get().getMemorySize();
+        } catch (InterruptedException | ExecutionException ex) {
+          return 0;
+        }
+      }
+
       @Override
       public ListenableFuture close() {
         states.invalidate(waveletName);
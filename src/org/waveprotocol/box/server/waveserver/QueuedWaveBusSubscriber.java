@@ -0,0 +1,497 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.waveprotocol.box.server.waveserver;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+import org.waveprotocol.box.common.DeltaSequence;
+import org.waveprotocol.box.common.ThrowableReceiver;
+import org.waveprotocol.box.server.persistence.deltas.WaveletDeltaRecord;
+import org.waveprotocol.box.server.stat.ConcurrentHistogram;
+import org.waveprotocol.box.stat.Measurement;
+import org.waveprotocol.wave.model.id.WaveletName;
+import org.waveprotocol.wave.model.operation.wave.TransformedWaveletDelta;
+import org.waveprotocol.wave.model.version.HashedVersion;
+import org.waveprotocol.wave.util.logging.Log;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Delivers wave bus notifications to a background subscriber through its own
+ * bounded queue, so the dispatching thread is never delayed by the subscriber.
+ *
+ * Updates of a wavelet waiting in the queue are coalesced into one entry with
+ * contiguous version ranges and the latest committed version. Entries are
+ * delivered in order of arrival, not more than one at a time for a wavelet,
+ * with limited concurrency and rate. When the queue is full, deltas of new
+ * wavelets are not kept, only their version range is, and they are read from
+ * the wavelet history on delivery.
+ *
+ * @author akaplanov@gmail.com (A. Kaplanov)
+ */
+public class QueuedWaveBusSubscriber implements WaveBus.Subscriber {
+  private static final Log LOG = Log.get(QueuedWaveBusSubscriber.class);
+
+  /**
+   * Limits of the queue and of delivery to the subscriber.
+   */
+  public static final class Policy {
+    private final int queueCapacity;
+    private final int concurrency;
+    private final double maxDeliveriesPerSecond;
+
+    /**
+     * @param queueCapacity the maximum number of wavelets waiting for delivery.
+     * @param concurrency the maximum number of wavelets delivered at once.
+     * @param maxDeliveriesPerSecond the maximum rate of deliveries, 0 if
+     *        unlimited.
+     */
+    public Policy(int queueCapacity, int concurrency, double maxDeliveriesPerSecond) {
+      Preconditions.checkArgument(queueCapacity > 0, "Queue capacity must be positive");
+      Preconditions.checkArgument(concurrency > 0, "Concurrency must be positive");
+      Preconditions.checkArgument(maxDeliveriesPerSecond >= 0, "Rate must not be negative");
+      this.queueCapacity = queueCapacity;
+      this.concurrency = concurrency;
+      this.maxDeliveriesPerSecond = maxDeliveriesPerSecond;
+    }
+  }
+
+  /**
+   * Coalesced notifications of the wavelet waiting for delivery.
+   */
+  private static final class PendingUpdate {
+    private final WaveletName waveletName;
+
+    /** Time of the first notification, in nanoseconds. */
+    private final long enqueueTime;
+
+    /** Contiguous version ranges of deltas. */
+    private final List<DeltaSequence> ranges = new ArrayList<>(1);
+
+    private HashedVersion committedVersion;
+
+    /** Is set if the entry was added to the full queue, deltas are not kept then. */
+    private final boolean fromHistory;
+
+    /** Start version of deltas to read from history, -1 if none. */
+    private long historyStartVersion = -1;
+
+    /** End version of deltas to read from history. */
+    private HashedVersion historyEndVersion;
+
+    PendingUpdate(WaveletName waveletName, long enqueueTime, boolean fromHistory) {
+      this.waveletName = waveletName;
+      this.enqueueTime = enqueueTime;
+      this.fromHistory = fromHistory;
+    }
+
+    /**
+     * Appends deltas to the last range if they are contiguous with it.
+     *
+     * @return true if the deltas are joined with queued ones.
+     */
+    boolean addDeltas(DeltaSequence deltas) {
+      if (!ranges.isEmpty()) {
+        int last = ranges.size() - 1;
+        DeltaSequence range = ranges.get(last);
+        if (range.getEndVersion().getVersion() == deltas.getStartVersion()) {
+          ranges.set(last, DeltaSequence.join(range, deltas));
+          return true;
+        }
+      }
+      ranges.add(deltas);
+      return false;
+    }
+
+    /**
+     * Extends the version range of deltas to read from history.
+     */
+    void addHistory(DeltaSequence deltas) {
+      if (historyStartVersion < 0 || deltas.getStartVersion() < historyStartVersion) {
+        historyStartVersion = deltas.getStartVersion();
+      }
+      if (historyEndVersion == null
+          || historyEndVersion.getVersion() < deltas.getEndVersion().getVersion()) {
+        historyEndVersion = deltas.getEndVersion();
+      }
+    }
+
+    /**
+     * Keeps the latest committed version.
+     *
+     * @return true if the version replaces a queued one.
+     */
+    boolean setCommittedVersion(HashedVersion version) {
+      boolean replaced = committedVersion != null;
+      if (committedVersion == null || committedVersion.getVersion() < version.getVersion()) {
+        committedVersion = version;
+      }
+      return replaced;
+    }
+  }
+
+  private static final ConcurrentMap<String, QueuedWaveBusSubscriber> queues =
+      new ConcurrentHashMap<>();
+
+  private final String name;
+  private final WaveBus.Subscriber delegate;
+  private final Policy policy;
+  private final WaveletProvider waveletProvider;
+  private final ScheduledExecutorService executor;
+  private final long deliveryIntervalNanos;
+
+  /** Waiting wavelets in order of arrival. Guarded by this. */
+  private final LinkedHashMap<WaveletName, PendingUpdate> pending = new LinkedHashMap<>();
+
+  /** Count of waiting entries without deltas. Guarded by this. */
+  private int historyEntryCount = 0;
+
+  /** Wavelets being delivered. Guarded by this. */
+  private final Set<WaveletName> inFlight = new HashSet<>();
+
+  /** Earliest time of the next delivery by the rate. Guarded by this. */
+  private long nextDeliveryTime;
+
+  /** Is set while the drain is waiting in the executor. Guarded by this. */
+  private boolean drainScheduled = false;
+
+  /** Is set after overflow of the queue until it is drained. Guarded by this. */
+  private boolean overflowed = false;
+
+  private final AtomicLong receivedCount = new AtomicLong();
+  private final AtomicLong coalescedCount = new AtomicLong();
+  private final AtomicLong deliveredCount = new AtomicLong();
+  private final AtomicLong overflowCount = new AtomicLong();
+  private final AtomicLong failedCount = new AtomicLong();
+
+  /** Time from the first queued notification to the delivery, in milliseconds. */
+  private final ConcurrentHistogram deliveryLag = new ConcurrentHistogram();
+
+  private final Runnable drainTask = new Runnable() {
+
+    @Override
+    public void run() {
+      drain();
+    }
+  };
+
+  /**
+   * Creates and registers the queue of the subscriber.
+   *
+   * @param name the name of the queue for statistic.
+   * @param delegate the subscriber to deliver notifications.
+   * @param policy limits of the queue and of delivery.
+   * @param waveletProvider the provider to read deltas not kept on overflow.
+   * @param executor the executor to deliver notifications.
+   */
+  public static QueuedWaveBusSubscriber create(String name, WaveBus.Subscriber delegate,
+      Policy policy, WaveletProvider waveletProvider, ScheduledExecutorService executor) {
+    QueuedWaveBusSubscriber subscriber =
+        new QueuedWaveBusSubscriber(name, delegate, policy, waveletProvider, executor);
+    queues.put(name, subscriber);
+    return subscriber;
+  }
+
+  /**
+   * Gets queues of all registered subscribers.
+   */
+  public static Collection<QueuedWaveBusSubscriber> getQueues() {
+    return ImmutableList.copyOf(queues.values());
+  }
+
+  QueuedWaveBusSubscriber(String name, WaveBus.Subscriber delegate, Policy policy,
+      WaveletProvider waveletProvider, ScheduledExecutorService executor) {
+    this.name = name;
+    this.delegate = delegate;
+    this.policy = policy;
+    this.waveletProvider = waveletProvider;
+    this.executor = executor;
+    this.deliveryIntervalNanos = policy.maxDeliveriesPerSecond > 0
+        ? (long) (TimeUnit.SECONDS.toNanos(1) / policy.maxDeliveriesPerSecond) : 0;
+    this.nextDeliveryTime = System.nanoTime();
+  }
+
+  @Override
+  public void waveletUpdate(WaveletName waveletName, DeltaSequence deltas) {
+    if (deltas.isEmpty()) {
+      return;
+    }
+    receivedCount.incrementAndGet();
+    synchronized (this) {
+      PendingUpdate update = getOrAddPending(waveletName);
+      if (update.fromHistory) {
+        update.addHistory(deltas);
+        overflowCount.incrementAndGet();
+      } else if (update.addDeltas(deltas)) {
+        coalescedCount.incrementAndGet();
+      }
+      scheduleDrain(0);
+    }
+  }
+
+  @Override
+  public void waveletCommitted(WaveletName waveletName, HashedVersion version) {
+    receivedCount.incrementAndGet();
+    synchronized (this) {
+      PendingUpdate update = getOrAddPending(waveletName);
+      if (update.setCommittedVersion(version)) {
+        coalescedCount.incrementAndGet();
+      }
+      scheduleDrain(0);
+    }
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public synchronized int getQueueSize() {
+    return pending.size();
+  }
+
+  public int getQueueCapacity() {
+    return policy.queueCapacity;
+  }
+
+  public synchronized int getInFlightCount() {
+    return inFlight.size();
+  }
+
+  public int getConcurrency() {
+    return policy.concurrency;
+  }
+
+  public double getMaxDeliveriesPerSecond() {
+    return policy.maxDeliveriesPerSecond;
+  }
+
+  /**
+   * @return the count of received notifications.
+   */
+  public long getReceivedCount() {
+    return receivedCount.get();
+  }
+
+  /**
+   * @return the count of notifications merged with queued ones.
+   */
+  public long getCoalescedCount() {
+    return coalescedCount.get();
+  }
+
+  /**
+   * @return the count of delivered wavelet entries.
+   */
+  public long getDeliveredCount() {
+    return deliveredCount.get();
+  }
+
+  /**
+   * @return the count of notifications whose deltas were not kept because of
+   *         full queue and are read from history.
+   */
+  public long getOverflowCount() {
+    return overflowCount.get();
+  }
+
+  /**
+   * @return the count of deliveries failed by the subscriber.
+   */
+  public long getFailedCount() {
+    return failedCount.get();
+  }
+
+  /**
+   * @return the age of the oldest waiting entry in milliseconds, 0 if the
+   *         queue is empty.
+   */
+  public synchronized long getLagMillis() {
+    if (pending.isEmpty()) {
+      return 0;
+    }
+    long enqueueTime = pending.values().iterator().next().enqueueTime;
+    return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - enqueueTime);
+  }
+
+  /**
+   * @return times from queueing to delivery in milliseconds.
+   */
+  public Measurement getDeliveryLag() {
+    return deliveryLag.getMeasurement();
+  }
+
+  @Override
+  public String toString() {
+    return "Queue " + name + " of " + delegate;
+  }
+
+  /**
+   * Gets the waiting entry of the wavelet or adds a new one. If the queue is
+   * full, the new entry does not keep deltas.
+   */
+  private PendingUpdate getOrAddPending(WaveletName waveletName) {
+    PendingUpdate update = pending.get(waveletName);
+    if (update == null) {
+      boolean full = isFull();
+      if (full) {
+        historyEntryCount++;
+        if (!overflowed) {
+          overflowed = true;
+          LOG.warning("Wave bus queue " + name + " is full, deltas of new wavelets will be read "
+              + "from history");
+        }
+      }
+      update = new PendingUpdate(waveletName, System.nanoTime(), full);
+      pending.put(waveletName, update);
+    }
+    return update;
+  }
+
+  /**
+   * @return true if the count of waiting entries with deltas reached the
+   *         capacity.
+   */
+  private boolean isFull() {
+    return pending.size() - historyEntryCount >= policy.queueCapacity;
+  }
+
+  private void scheduleDrain(long delayNanos) {
+    if (!drainScheduled) {
+      drainScheduled = true;
+      executor.schedule(drainTask, delayNanos, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  /**
+   * Starts delivery of waiting entries within limits of the policy.
+   */
+  private synchronized void drain() {
+    drainScheduled = false;
+    while (inFlight.size() < policy.concurrency && !pending.isEmpty()) {
+      long now = System.nanoTime();
+      if (deliveryIntervalNanos > 0 && now - nextDeliveryTime < 0) {
+        scheduleDrain(nextDeliveryTime - now);
+        break;
+      }
+      PendingUpdate update = takeNext();
+      if (update == null) {
+        break;
+      }
+      if (deliveryIntervalNanos > 0) {
+        nextDeliveryTime = Math.max(nextDeliveryTime, now - deliveryIntervalNanos)
+            + deliveryIntervalNanos;
+      }
+      inFlight.add(update.waveletName);
+      deliveryLag.sample((int) Math.min(
+          TimeUnit.NANOSECONDS.toMillis(now - update.enqueueTime), Integer.MAX_VALUE), 0);
+      executor.execute(deliverTask(update));
+    }
+    if (overflowed && !isFull()) {
+      overflowed = false;
+      LOG.info("Wave bus queue " + name + " keeps deltas again, " + overflowCount.get()
+          + " overflowed in total");
+    }
+  }
+
+  /**
+   * Removes the oldest entry of a wavelet which is not being delivered.
+   */
+  private PendingUpdate takeNext() {
+    Iterator<Map.Entry<WaveletName, PendingUpdate>> it = pending.entrySet().iterator();
+    while (it.hasNext()) {
+      PendingUpdate update = it.next().getValue();
+      if (!inFlight.contains(update.waveletName)) {
+        it.remove();
+        if (update.fromHistory) {
+          historyEntryCount--;
+        }
+        return update;
+      }
+    }
+    return null;
+  }
+
+  private Runnable deliverTask(final PendingUpdate update) {
+    return new Runnable() {
+
+      @Override
+      public void run() {
+        try {
+          deliver(update);
+        } finally {
+          synchronized (QueuedWaveBusSubscriber.this) {
+            inFlight.remove(update.waveletName);
+            scheduleDrain(0);
+          }
+        }
+      }
+    };
+  }
+
+  private void deliver(PendingUpdate update) {
+    try {
+      for (DeltaSequence deltas : update.ranges) {
+        delegate.waveletUpdate(update.waveletName, deltas);
+      }
+      if (update.historyStartVersion >= 0) {
+        DeltaSequence deltas = readHistory(update.waveletName, update.historyStartVersion,
+            update.historyEndVersion);
+        if (!deltas.isEmpty()) {
+          delegate.waveletUpdate(update.waveletName, deltas);
+        }
+      }
+      if (update.committedVersion != null) {
+        delegate.waveletCommitted(update.waveletName, update.committedVersion);
+      }
+      deliveredCount.incrementAndGet();
+    } catch (RuntimeException | WaveServerException e) {
+      failedCount.incrementAndGet();
+      LOG.severe("Exception in delivery of " + update.waveletName + " to wave bus subscriber "
+          + delegate, e);
+    }
+  }
+
+  /**
+   * Reads deltas which were not kept in the queue from the wavelet history.
+   */
+  private DeltaSequence readHistory(WaveletName waveletName, long startVersion,
+      HashedVersion endVersion) throws WaveServerException {
+    HashedVersion start = waveletProvider.getNearestHashedVersion(waveletName, startVersion);
+    final List<TransformedWaveletDelta> deltas = new ArrayList<>();
+    waveletProvider.getDeltaHistory(waveletName, start, endVersion,
+        new ThrowableReceiver<WaveletDeltaRecord, WaveServerException>() {
+
+          @Override
+          public boolean put(WaveletDeltaRecord delta) {
+            deltas.add(delta.getTransformedDelta());
+            return true;
+          }
+        });
+    return DeltaSequence.of(deltas);
+  }
+}
@@ -49,6 +49,12 @@ import java.util.concurrent.ExecutionException;
 final class Wave {
   private static final Logger LOG = Logger.getLogger(Wave.class.getName());
 
+  /** Estimated memory size of wave structures, apart of wavelets. */
+  private static final int WAVE_MEMORY_SIZE = 1024;
+
+  /** Estimated memory size of wavelet container, apart of wavelet states. */
+  private static final int WAVELET_MEMORY_SIZE = 1024;
+
   private class WaveletCreator<T extends WaveletContainer> extends CacheLoader<WaveletId, T> {
     private final WaveletContainer.Factory<T> factory;
 
@@ -72,6 +78,15 @@ final class Wave {
   private final LoadingCache<WaveletId, RemoteWaveletContainer> remoteWavelets;
   private final WaveletNotificationSubscriber notifiee;
 
+  /** Memory size estimated at last weighing. */
+  private volatile long weighedMemorySize;
+
+  /** Time of last weighing. */
+  private volatile long weighingTime;
+
+  /** Serializes weighings, not to hold the wave lock while estimating. */
+  private final Object weighingLock = new Object();
+
   /**
    * Creates a wave. The {@code lookupWavelets} future is examined only when a
    * query is first made.
@@ -98,6 +113,54 @@ final class Wave {
     return Futures.<Void>successfulAsList(futures);
   }
 
+  /**
+   * Estimates size in bytes of the wave data resident in memory.
+   */
+  long getMemorySize() {
+    long size = WAVE_MEMORY_SIZE;
+    for (WaveletContainer wavelet :
+        Iterables.concat(localWavelets.asMap().values(), remoteWavelets.asMap().values())) {
+      size += WAVELET_MEMORY_SIZE + wavelet.getMemorySize();
+    }
+    return size;
+  }
+
+  /**
+   * Estimates memory size and remembers it as weighed.
+   *
+   * @return change of the weighed memory size.
+   */
+  long weigh() {
+    synchronized (weighingLock) {
+      long previousSize = weighedMemorySize;
+      weighedMemorySize = getMemorySize();
+      weighingTime = System.currentTimeMillis();
+      return weighedMemorySize - previousSize;
+    }
+  }
+
+  /**
+   * Forgets the last weighing.
+   *
+   * @return the forgotten memory size.
+   */
+  long resetWeighing() {
+    synchronized (weighingLock) {
+      long previousSize = weighedMemorySize;
+      weighedMemorySize = 0;
+      weighingTime = 0;
+      return previousSize;
+    }
+  }
+
+  long getWeighedMemorySize() {
+    return weighedMemorySize;
+  }
+
+  long getWeighingTime() {
+    return weighingTime;
+  }
+
   synchronized ImmutableSet<WaveletId> getWaveletIds() throws WaveletStateException {
     ImmutableSet.Builder builder = ImmutableSet.builder();
     try {
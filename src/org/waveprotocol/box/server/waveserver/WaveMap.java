@@ -19,12 +19,17 @@
 
 package org.waveprotocol.box.server.waveserver;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
+import com.google.common.cache.RemovalCause;
 import com.google.common.cache.RemovalListener;
 import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.ConcurrentHashMultiset;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Multiset;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListenableFutureTask;
 import com.google.common.util.concurrent.MoreExecutors;
@@ -40,13 +45,16 @@ import org.waveprotocol.box.server.persistence.deltas.DeltaStore;
 import org.waveprotocol.box.server.shutdown.LifeCycle;
 import org.waveprotocol.box.server.shutdown.ShutdownPriority;
 import org.waveprotocol.box.server.shutdown.Shutdownable;
+import org.waveprotocol.box.server.stat.ConcurrentHistogram;
 import org.waveprotocol.box.server.util.WaveletDataUtil;
 import org.waveprotocol.box.server.waveletstate.WaveletStateException;
+import org.waveprotocol.box.stat.Measurement;
+import org.waveprotocol.box.stat.Stat;
+import org.waveprotocol.box.stat.Statistic;
 import org.waveprotocol.box.stat.Timed;
 import org.waveprotocol.wave.model.id.WaveId;
 import org.waveprotocol.wave.model.id.WaveletId;
 import org.waveprotocol.wave.model.id.WaveletName;
-import org.waveprotocol.wave.model.wave.data.ObservableWaveletData;
 import org.waveprotocol.wave.model.wave.data.WaveViewData;
 import org.waveprotocol.wave.model.wave.data.impl.WaveViewDataImpl;
 
@@ -55,10 +63,12 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.waveprotocol.wave.model.wave.data.ReadableWaveletData;
@@ -66,6 +76,9 @@ import org.waveprotocol.wave.model.wave.data.ReadableWaveletData;
 /**
  * A collection of wavelets, local and remote, cached in memory.
  *
+ * Waves are evicted from cache by estimated memory size. Waves having active
+ * subscriptions are kept in memory after eviction until they are released.
+ *
  * @author soren@google.com (Soren Lassen) - All wavelets stored in memory
  * @author akaplanov@gmail.com (Andrew Kaplanov) - Cache release
  */
@@ -74,9 +87,70 @@ public class WaveMap {
 
   private static final Logger LOG = Logger.getLogger(WaveMap.class.getName());
 
+  /** Default minimal interval between weighings of the wave. */
+  private static final long REWEIGHING_INTERVAL_MS = 10000;
+
+  @Stat(name = "wave-cache-evicted-waves", help = "Waves evicted from cache by memory budget or size")
+  private static final AtomicLong evictedWaves = new AtomicLong();
+
+  @Stat(name = "wave-cache-expired-waves", help = "Waves expired from cache after last access")
+  private static final AtomicLong expiredWaves = new AtomicLong();
+
+  @Stat(name = "wave-cache-retained-waves",
+      help = "Evicted waves which are kept in memory now because of active subscriptions")
+  private static final AtomicLong retainedEvictedWaves = new AtomicLong();
+
+  @Stat(name = "wave-cache-memory-size",
+      help = "Estimated memory size of cached waves and retained evicted waves, bytes")
+  private static final AtomicLong memorySize = new AtomicLong();
+
+  private static final ConcurrentHistogram closingLatency = new ConcurrentHistogram();
+
+  @Stat(name = "wave-closing-latency", help = "Time of closing of removed waves")
+  private static final Object closingLatencyStat = new Object() {
+
+    @Override
+    public String toString() {
+      Measurement measurement = closingLatency.getMeasurement();
+      if (measurement.getNumSamples() == 0) {
+        return "-";
+      }
+      return "count " + measurement.getNumSamples()
+          + ", average " + measurement.getAverage() + " ms"
+          + ", 95% " + measurement.getPercentile(95) + " ms"
+          + ", highest " + measurement.getHigh() + " ms";
+    }
+  };
+
+  static {
+    Statistic.trackClass(WaveMap.class);
+  }
+
   private final LoadingCache<WaveId, Wave> waves;
   private final Map<WaveId, ListenableFuture> closingWaves = new ConcurrentHashMap<>();
 
+  /** Is cache limited by memory budget. */
+  private final boolean weighed;
+
+  /** Minimal interval between weighings of the wave. */
+  private volatile long reweighingInterval = REWEIGHING_INTERVAL_MS;
+
+  /** Counts of active subscriptions by wave. */
+  private final Multiset<WaveId> retainedWaves = ConcurrentHashMultiset.create();
+
+  /** Waves evicted from cache, but having active subscriptions. */
+  private final Map<WaveId, Wave> evictedRetainedWaves = new ConcurrentHashMap<>();
+
+  /** Marks the wave which stores are written directly by importer in {@link #waveHolders}. */
+  private static final int IMPORTING = -1;
+
+  /**
+   * Number of instances of the wave being loaded, loaded or closing, or
+   * {@link #IMPORTING} if the wave is reserved by importer. Makes loading and
+   * importing of the wave exclusive.
+   */
+  private final ConcurrentMap<WaveId, Integer> waveHolders = new ConcurrentHashMap<>();
+
   /**
    * Returns a future whose result is the ids of stored wavelets in the given wave.
    * Any failure is reported as a {@link PersistenceException}.
@@ -102,6 +176,12 @@ public class WaveMap {
     @Override
     public void shutdown() {
       waves.invalidateAll();
+      for (WaveId waveId : evictedRetainedWaves.keySet()) {
+        Wave wave = evictedRetainedWaves.remove(waveId);
+        if (wave != null) {
+          closeRetainedWave(waveId, wave);
+        }
+      }
       for (Map.Entry<WaveId, ListenableFuture> entry : closingWaves.entrySet()) {
         try {
           entry.getValue().get(1, TimeUnit.SECONDS);
@@ -121,35 +201,60 @@ public class WaveMap {
       @Named(CoreSettings.WAVE_SERVER_DOMAIN) final String waveDomain,
       @Named(CoreSettings.WAVE_CACHE_SIZE) final int waveCacheSize,
       @Named(CoreSettings.WAVE_CACHE_EXPIRE) final int waveCacheExpire,
+      @Named(CoreSettings.WAVE_CACHE_MEMORY_BUDGET) final int waveCacheMemoryBudget,
       WaveDigester digester,
       @ExecutorAnnotations.LookupExecutor final Executor lookupExecutor) {
     this.store = store;
+    this.weighed = waveCacheMemoryBudget > 0;
 
-    waves = CacheBuilder.newBuilder()
-        .maximumSize(waveCacheSize)
+    CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder();
+    if (weighed) {
+      builder.maximumWeight((long)waveCacheMemoryBudget * 1024)
+          .weigher(new Weigher<WaveId, Wave>() {
+
+        // Is called under the cache lock, so only takes the size estimated by getWave().
+        @Override
+        public int weigh(WaveId waveId, Wave wave) {
+          return (int)Math.min(Math.max(wave.getWeighedMemorySize() / 1024, 1), Integer.MAX_VALUE);
+        }
+      });
+    } else {
+      builder.maximumSize(waveCacheSize);
+    }
+    waves = builder
         .expireAfterAccess(waveCacheExpire, TimeUnit.MINUTES)
         .removalListener(new RemovalListener<WaveId, Wave>() {
       @Override
       public void onRemoval(final RemovalNotification<WaveId, Wave> rn) {
-        LOG.info("Wave " + rn.getKey() + " is evicted, current cache size " + waves.size());
-        final ListenableFuture future = rn.getValue().close();
-        closingWaves.put(rn.getKey(), future);
-        future.addListener(new Runnable() {
-
-          @Override
-          public void run() {
-            try {
-              future.get();
-            } catch (InterruptedException | ExecutionException ex) {
-              LOG.log(Level.WARNING, "Closing wave exception", ex);
-            }
-            closingWaves.remove(rn.getKey());
+        if (rn.getCause() == RemovalCause.REPLACED) {
+          // The wave is re-weighed.
+          return;
+        }
+        Wave wave = rn.getValue();
+        if (rn.wasEvicted() && retainedWaves.contains(rn.getKey())) {
+          // Stays in memory, so its weight stays in the memory size.
+          retainEvictedWave(rn.getKey(), wave);
+          return;
+        }
+        memorySize.addAndGet(-wave.resetWeighing());
+        if (rn.wasEvicted()) {
+          if (rn.getCause() == RemovalCause.EXPIRED) {
+            expiredWaves.incrementAndGet();
+          } else {
+            evictedWaves.incrementAndGet();
           }
-        }, MoreExecutors.sameThreadExecutor());
+        }
+        LOG.info("Wave " + rn.getKey() + " is evicted, current cache size " + waves.size());
+        closeWave(rn.getKey(), wave);
       }
     }).build(new CacheLoader<WaveId, Wave>() {
       @Override
       public Wave load(WaveId waveId) throws Exception {
+        Wave evictedWave = evictedRetainedWaves.remove(waveId);
+        if (evictedWave != null) {
+          retainedEvictedWaves.decrementAndGet();
+          return evictedWave;
+        }
         ListenableFuture<ImmutableSet<WaveletId>> lookedupWavelets =
             lookupWavelets(waveId, store, lookupExecutor);
         ListenableFuture closingFuture = closingWaves.get(waveId);
@@ -160,15 +265,173 @@ public class WaveMap {
             throw new WaveletStateException("Previous instance is not closed", ex);
           }
         }
-        return new Wave(waveId, lookedupWavelets, notifiee, localFactory, remoteFactory, waveDomain);
+        if (!holdWave(waveId)) {
+          throw new WaveletStateException("Wave " + waveId + " is being imported");
+        }
+        try {
+          return new Wave(waveId, lookedupWavelets, notifiee, localFactory, remoteFactory, waveDomain);
+        } catch (RuntimeException ex) {
+          unholdWave(waveId);
+          throw ex;
+        }
       }
     });
     lifeCycle.start();
   }
 
+  /**
+   * Protects the wave from eviction until the matching call of
+   * {@link #releaseWave}. Is called per active wavelet subscription.
+   */
+  public void retainWave(WaveId waveId) {
+    retainedWaves.add(waveId);
+  }
+
+  /**
+   * Removes the protection set by {@link #retainWave}. Closes the wave if
+   * it was evicted from cache while retained.
+   */
+  public void releaseWave(WaveId waveId) {
+    if (retainedWaves.remove(waveId, 1) == 1) {
+      Wave wave = evictedRetainedWaves.remove(waveId);
+      if (wave != null) {
+        closeRetainedWave(waveId, wave);
+      }
+    }
+  }
+
+  /**
+   * Holds the evicted wave in memory until it is released or requested again.
+   */
+  private void retainEvictedWave(WaveId waveId, Wave wave) {
+    retainedEvictedWaves.incrementAndGet();
+    evictedRetainedWaves.put(waveId, wave);
+    // The wave might be released while putting.
+    if (!retainedWaves.contains(waveId) && evictedRetainedWaves.remove(waveId, wave)) {
+      closeRetainedWave(waveId, wave);
+    }
+  }
+
+  /**
+   * Closes the evicted wave which was held in memory by subscriptions.
+   */
+  private void closeRetainedWave(WaveId waveId, Wave wave) {
+    retainedEvictedWaves.decrementAndGet();
+    memorySize.addAndGet(-wave.resetWeighing());
+    closeWave(waveId, wave);
+  }
+
+  private void closeWave(final WaveId waveId, Wave wave) {
+    final long startTime = System.currentTimeMillis();
+    final ListenableFuture future = wave.close();
+    closingWaves.put(waveId, future);
+    future.addListener(new Runnable() {
+
+      @Override
+      public void run() {
+        try {
+          future.get();
+        } catch (InterruptedException | ExecutionException ex) {
+          LOG.log(Level.WARNING, "Closing wave exception", ex);
+        }
+        closingLatency.sample((int)(System.currentTimeMillis() - startTime), 0);
+        closingWaves.remove(waveId);
+        unholdWave(waveId);
+      }
+    }, MoreExecutors.sameThreadExecutor());
+  }
+
+  /**
+   * Gets the wave from cache and re-weighs it if the estimation is outdated.
+   */
+  private Wave getWave(WaveId waveId) throws ExecutionException {
+    Wave wave = waves.get(waveId);
+    if (weighed && System.currentTimeMillis() - wave.getWeighingTime() >= reweighingInterval) {
+      memorySize.addAndGet(wave.weigh());
+      // Replacing of the wave by itself makes cache to take the new weight.
+      if (!waves.asMap().replace(waveId, wave, wave) && evictedRetainedWaves.get(waveId) != wave) {
+        // The wave is removed and closed while weighing.
+        memorySize.addAndGet(-wave.resetWeighing());
+      }
+    }
+    return wave;
+  }
+
+  @VisibleForTesting
+  void setReweighingInterval(long reweighingInterval) {
+    this.reweighingInterval = reweighingInterval;
+  }
+
+  @VisibleForTesting
+  static long getRetainedEvictedWaveCount() {
+    return retainedEvictedWaves.get();
+  }
+
+  @VisibleForTesting
+  static long getMemorySize() {
+    return memorySize.get();
+  }
+
+  /**
+   * Checks that the wave is loaded to the cache.
+   */
+  public boolean isWaveLoaded(WaveId waveId) {
+    return waves.getIfPresent(waveId) != null || evictedRetainedWaves.containsKey(waveId);
+  }
+
+  /**
+   * Reserves the wave for writing to its stores directly. The wave can't be
+   * loaded until {@link #releaseImportedWave} is called.
+   *
+   * @return false if the wave is loaded, closing or reserved already.
+   */
+  public boolean reserveWaveForImport(WaveId waveId) {
+    return waveHolders.putIfAbsent(waveId, IMPORTING) == null;
+  }
+
+  /**
+   * Removes the reservation set by {@link #reserveWaveForImport}.
+   */
+  public void releaseImportedWave(WaveId waveId) {
+    waveHolders.remove(waveId, IMPORTING);
+  }
+
+  /**
+   * Counts the new instance of the wave.
+   *
+   * @return false if the wave is reserved by importer.
+   */
+  private boolean holdWave(WaveId waveId) {
+    for (;;) {
+      Integer holders = waveHolders.get(waveId);
+      if (holders == null) {
+        if (waveHolders.putIfAbsent(waveId, 1) == null) {
+          return true;
+        }
+      } else if (holders == IMPORTING) {
+        return false;
+      } else if (waveHolders.replace(waveId, holders, holders + 1)) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Uncounts the closed instance of the wave.
+   */
+  private void unholdWave(WaveId waveId) {
+    for (;;) {
+      Integer holders = waveHolders.get(waveId);
+      if (holders == 1 ? waveHolders.remove(waveId, holders)
+          : waveHolders.replace(waveId, holders, holders - 1)) {
+        return;
+      }
+    }
+  }
+
   public ImmutableSet<WaveletId> getWaveletIds(WaveId waveId) throws WaveletStateException {
     try {
-      return waves.get(waveId).getWaveletIds();
+      return getWave(waveId).getWaveletIds();
     } catch (ExecutionException e) {
       throw new WaveletStateException("Failed to get wave " + waveId, e);
     }
@@ -176,7 +439,7 @@ public class WaveMap {
 
   public LocalWaveletContainer getLocalWavelet(WaveletName waveletName) throws WaveletStateException {
     try {
-      return waves.get(waveletName.waveId).getLocalWavelet(waveletName.waveletId);
+      return getWave(waveletName.waveId).getLocalWavelet(waveletName.waveletId);
     } catch (ExecutionException e) {
       throw new WaveletStateException("Failed to get wave " + waveletName.waveId, e);
     }
@@ -184,7 +447,7 @@ public class WaveMap {
 
   public RemoteWaveletContainer getRemoteWavelet(WaveletName waveletName) throws WaveletStateException {
     try {
-      return waves.get(waveletName.waveId).getRemoteWavelet(waveletName.waveletId);
+      return getWave(waveletName.waveId).getRemoteWavelet(waveletName.waveletId);
     } catch (ExecutionException e) {
       throw new WaveletStateException("Failed to get wave " + waveletName.waveId, e);
     }
@@ -192,7 +455,7 @@ public class WaveMap {
 
   public LocalWaveletContainer getOrCreateLocalWavelet(WaveletName waveletName) throws WaveletStateException {
     try {
-      return waves.get(waveletName.waveId).getOrCreateLocalWavelet(waveletName.waveletId);
+      return getWave(waveletName.waveId).getOrCreateLocalWavelet(waveletName.waveletId);
     } catch (ExecutionException e) {
       throw new RuntimeException("Failed to get wave " + waveletName.waveId, e);
     }
@@ -200,16 +463,25 @@ public class WaveMap {
 
   public RemoteWaveletContainer getOrCreateRemoteWavelet(WaveletName waveletName) throws WaveletStateException {
     try {
-      return waves.get(waveletName.waveId).getOrCreateRemoteWavelet(waveletName.waveletId);
+      return getWave(waveletName.waveId).getOrCreateRemoteWavelet(waveletName.waveletId);
     } catch (ExecutionException e) {
       throw new RuntimeException("Failed to get wave " + waveletName.waveId, e);
     }
   }
 
+  /**
+   * Gets views of the local wavelets of the wave. The views share data with
+   * the current snapshots, documents are built on first access.
+   */
   @Timed
   public WaveViewData getWaveViewData(WaveId waveId) throws WaveletStateException {
     Set<WaveletId> wavelets = new HashSet<WaveletId>();
-    Wave wave = waves.getUnchecked(waveId);
+    Wave wave;
+    try {
+      wave = getWave(waveId);
+    } catch (ExecutionException e) {
+      throw new WaveletStateException("Failed to get wave " + waveId, e);
+    }
     wavelets.addAll(wave.getWaveletIds());
     WaveViewData view = WaveViewDataImpl.create(waveId);
     for (WaveletId waveletId : wavelets) {
@@ -217,10 +489,7 @@ public class WaveMap {
       if (wavelet != null) {
         ReadableWaveletData snapshot = wavelet.getSnapshot();
         if (snapshot != null) {
-          ObservableWaveletData waveletData = WaveletDataUtil.copyWavelet(snapshot);
-          if (waveletData != null) {
-            view.addWavelet(waveletData);
-          }
+          view.addWavelet(WaveletDataUtil.createView(snapshot));
         }
       }
     }
@@ -0,0 +1,269 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.waveprotocol.box.server.waveserver;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableMap;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import com.google.wave.api.ApiIdSerializer;
+import com.google.wave.api.SearchResult;
+
+import org.waveprotocol.box.common.Receiver;
+import org.waveprotocol.box.search.query.QueryCondition;
+import org.waveprotocol.box.server.CoreSettings;
+import org.waveprotocol.box.server.executor.ExecutorAnnotations;
+import org.waveprotocol.box.server.persistence.blocks.Interval;
+import org.waveprotocol.box.server.persistence.blocks.VersionRange;
+import org.waveprotocol.box.server.search.SearchProvider;
+import org.waveprotocol.box.stat.Stat;
+import org.waveprotocol.box.stat.Statistic;
+import org.waveprotocol.wave.model.id.IdUtil;
+import org.waveprotocol.wave.model.id.InvalidIdException;
+import org.waveprotocol.wave.model.id.SegmentId;
+import org.waveprotocol.wave.model.id.WaveId;
+import org.waveprotocol.wave.model.id.WaveletId;
+import org.waveprotocol.wave.model.id.WaveletName;
+import org.waveprotocol.wave.model.util.Pair;
+import org.waveprotocol.wave.model.version.HashedVersion;
+import org.waveprotocol.wave.model.wave.ParticipantId;
+import org.waveprotocol.wave.util.logging.Log;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Loads waves which the user is likely to open soon to the {@link WaveMap}
+ * and the segment cache, so the first opening of these waves does not wait
+ * for the storage.
+ *
+ * Warm-up is made on low priority executor and is skipped when free heap is
+ * less than configured limit.
+ *
+ * @author akaplanov@gmail.com (A. Kaplanov)
+ */
+@Singleton
+public class WaveWarmer {
+  private static final Log LOG = Log.get(WaveWarmer.class);
+
+  @Stat(name = "warmup-requested-waves", help = "Waves requested to warm up")
+  private static final AtomicLong requestedWaves = new AtomicLong();
+
+  @Stat(name = "warmup-warmed-waves", help = "Waves loaded by warm-up")
+  private static final AtomicLong warmedWaves = new AtomicLong();
+
+  @Stat(name = "warmup-resident-waves", help = "Waves skipped by warm-up as already loaded")
+  private static final AtomicLong residentWaves = new AtomicLong();
+
+  @Stat(name = "warmup-memory-skipped-waves", help = "Waves skipped by warm-up because of lack of memory")
+  private static final AtomicLong memorySkippedWaves = new AtomicLong();
+
+  @Stat(name = "warmup-failed-waves", help = "Waves failed to warm up")
+  private static final AtomicLong failedWaves = new AtomicLong();
+
+  @Stat(name = "warmup-hits", help = "Opened waves which were loaded by warm-up")
+  private static final AtomicLong hits = new AtomicLong();
+
+  @Stat(name = "warmup-misses", help = "Opened waves which were loaded from the storage on open")
+  private static final AtomicLong misses = new AtomicLong();
+
+  @Stat(name = "warmup-hit-rate", help = "Percent of opened waves which were loaded by warm-up")
+  private static final Object hitRate = new Object() {
+
+    @Override
+    public String toString() {
+      long total = hits.get() + misses.get();
+      return total != 0 ? Long.toString(hits.get() * 100 / total) + "%" : "-";
+    }
+  };
+
+  static {
+    Statistic.trackClass(WaveWarmer.class);
+  }
+
+  private final WaveletProvider waveletProvider;
+  private final WaveMap waveMap;
+  private final SearchProvider searchProvider;
+  private final Executor executor;
+  private final int warmupCount;
+  private final int minFreeMemoryPercent;
+
+  /** Waves are waiting for warm-up. */
+  private final Set<WaveId> pendingWaves =
+      Collections.newSetFromMap(new ConcurrentHashMap<WaveId, Boolean>());
+
+  /** Warmed waves, which are not opened yet. */
+  private final Cache<WaveId, Boolean> warmedWaveIds;
+
+  @Inject
+  public WaveWarmer(WaveletProvider waveletProvider, WaveMap waveMap, SearchProvider searchProvider,
+      @ExecutorAnnotations.WaveWarmupExecutor Executor executor,
+      @Named(CoreSettings.WAVE_WARMUP_COUNT) int warmupCount,
+      @Named(CoreSettings.WAVE_WARMUP_MIN_FREE_MEMORY) int minFreeMemoryPercent,
+      @Named(CoreSettings.WAVE_CACHE_SIZE) int waveCacheSize,
+      @Named(CoreSettings.WAVE_CACHE_EXPIRE) int waveCacheExpire) {
+    this.waveletProvider = waveletProvider;
+    this.waveMap = waveMap;
+    this.searchProvider = searchProvider;
+    this.executor = executor;
+    this.warmupCount = warmupCount;
+    this.minFreeMemoryPercent = minFreeMemoryPercent;
+    this.warmedWaveIds = CacheBuilder.newBuilder()
+        .maximumSize(waveCacheSize)
+        .expireAfterWrite(waveCacheExpire, TimeUnit.MINUTES)
+        .build();
+  }
+
+  /**
+   * Warms up top waves of the user's inbox.
+   */
+  public void warmUpInbox(final ParticipantId user) {
+    if (warmupCount <= 0 || !hasEnoughMemory()) {
+      return;
+    }
+    executor.execute(new Runnable() {
+
+      @Override
+      public void run() {
+        SearchResult result = searchProvider.search(QueryCondition.INBOX.toString(), 0, warmupCount, user);
+        warmUp(user, result.getDigests());
+      }
+    });
+  }
+
+  /**
+   * Warms up top waves of the search result.
+   */
+  public void warmUp(final ParticipantId user, List<SearchResult.Digest> digests) {
+    if (warmupCount <= 0) {
+      return;
+    }
+    for (SearchResult.Digest digest : digests.subList(0, Math.min(warmupCount, digests.size()))) {
+      final WaveId waveId;
+      try {
+        waveId = ApiIdSerializer.instance().deserialiseWaveId(digest.getWaveId());
+      } catch (InvalidIdException ex) {
+        LOG.warning("Invalid wave id in digest " + digest.getWaveId(), ex);
+        continue;
+      }
+      if (waveMap.isWaveLoaded(waveId)) {
+        continue;
+      }
+      requestedWaves.incrementAndGet();
+      if (!hasEnoughMemory()) {
+        memorySkippedWaves.incrementAndGet();
+        return;
+      }
+      if (pendingWaves.add(waveId)) {
+        executor.execute(new Runnable() {
+
+          @Override
+          public void run() {
+            try {
+              warmUpWave(user, waveId);
+            } finally {
+              pendingWaves.remove(waveId);
+            }
+          }
+        });
+      }
+    }
+  }
+
+  /**
+   * Notifies that the user opens the wave.
+   */
+  public void onWaveOpened(WaveId waveId) {
+    boolean warmed = warmedWaveIds.getIfPresent(waveId) != null;
+    if (warmed) {
+      warmedWaveIds.invalidate(waveId);
+    }
+    // Wave which is still in memory is not loaded on open, so it is not a miss.
+    if (!waveMap.isWaveLoaded(waveId)) {
+      misses.incrementAndGet();
+    } else if (warmed) {
+      hits.incrementAndGet();
+    }
+  }
+
+  @VisibleForTesting
+  static long getHits() {
+    return hits.get();
+  }
+
+  @VisibleForTesting
+  static long getMisses() {
+    return misses.get();
+  }
+
+  @VisibleForTesting
+  void warmUpWave(ParticipantId user, WaveId waveId) {
+    if (waveMap.isWaveLoaded(waveId)) {
+      residentWaves.incrementAndGet();
+      return;
+    }
+    if (!hasEnoughMemory()) {
+      memorySkippedWaves.incrementAndGet();
+      return;
+    }
+    try {
+      for (WaveletId waveletId : waveletProvider.getWaveletIds(waveId)) {
+        WaveletName waveletName = WaveletName.of(waveId, waveletId);
+        if (!waveletProvider.checkAccessPermission(waveletName, user)) {
+          continue;
+        }
+        HashedVersion version = waveletProvider.getLastModifiedVersion(waveletName);
+        if (version != null && version.getVersion() != 0 && IdUtil.isConversationalId(waveletId)) {
+          // Index and manifest are obtained first on every wavelet fetch.
+          VersionRange range = VersionRange.of(version.getVersion(), version.getVersion());
+          waveletProvider.getIntervals(waveletName,
+              ImmutableMap.of(SegmentId.INDEX_ID, range, SegmentId.MANIFEST_ID, range), false,
+              new Receiver<Pair<SegmentId, Interval>>() {
+
+                @Override
+                public boolean put(Pair<SegmentId, Interval> interval) {
+                  return true;
+                }
+              });
+        }
+      }
+      warmedWaveIds.put(waveId, true);
+      warmedWaves.incrementAndGet();
+    } catch (WaveServerException | RuntimeException ex) {
+      failedWaves.incrementAndGet();
+      LOG.info("Failed to warm up wave " + waveId + ": " + ex.getMessage());
+    }
+  }
+
+  private boolean hasEnoughMemory() {
+    Runtime runtime = Runtime.getRuntime();
+    long maxMemory = runtime.maxMemory();
+    long freeMemory = maxMemory - (runtime.totalMemory() - runtime.freeMemory());
+    return freeMemory * 100 >= maxMemory * minFreeMemoryPercent;
+  }
+}
@@ -68,6 +68,9 @@ interface WaveletContainer {
   /** Returns true if wavelet is corrupted. */
   boolean isCorrupted();
 
+  /** Returns estimated size in bytes of the wavelet data resident in memory. */
+  long getMemorySize();
+
   /** Returns the name of the wavelet. */
   WaveletName getWaveletName();
 
@@ -44,14 +44,19 @@ import org.waveprotocol.wave.model.operation.wave.WaveletDelta;
 import org.waveprotocol.wave.model.version.HashedVersion;
 import org.waveprotocol.wave.model.wave.ParticipantId;
 import org.waveprotocol.wave.model.wave.ParticipantIdUtil;
+import org.waveprotocol.wave.model.wave.data.ObservableWaveletData;
 import org.waveprotocol.wave.model.wave.data.ReadableWaveletData;
 import org.waveprotocol.box.common.Receiver;
 import org.waveprotocol.wave.model.util.Pair;
 import org.waveprotocol.wave.util.logging.Log;
+import org.waveprotocol.box.stat.Timer;
+import org.waveprotocol.box.stat.Timing;
 
 import com.google.protobuf.InvalidProtocolBufferException;
 
 import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.util.concurrent.ListenableFuture;
@@ -83,6 +88,12 @@ public abstract class WaveletContainerImpl implements WaveletContainer {
 
   private static final int AWAIT_LOAD_TIMEOUT_MS = 50000;
 
+  /** Maximal count of cached historical snapshots of the wavelet. */
+  private static final int HISTORY_SNAPSHOTS_CACHE_SIZE = 8;
+
+  /** Maximal distance in versions to derive snapshot from the cached one by forward deltas. */
+  private static final long MAX_DERIVING_DISTANCE = 100;
+
   protected enum State {
     /** Everything is working fine. */
     OK,
@@ -127,6 +138,10 @@ public abstract class WaveletContainerImpl implements WaveletContainer {
   private final Executor storageIndexingExecutor;
   private final Executor storageContinuationExecutor;
 
+  /** Recently requested historical snapshots. */
+  private final Cache<HashedVersion, ReadableWaveletData> historySnapshots = CacheBuilder.newBuilder()
+      .maximumSize(HISTORY_SNAPSHOTS_CACHE_SIZE).softValues().build();
+
   /**
    * Constructs an empty WaveletContainer for a wavelet.
    * WaveletData is not set until a delta has been applied.
@@ -264,6 +279,16 @@ public abstract class WaveletContainerImpl implements WaveletContainer {
     return state == State.CORRUPTED;
   }
 
+  @Override
+  public long getMemorySize() {
+    long size = deltaStateAccessor.getMemorySize();
+    SegmentWaveletState segmentState = segmentWaveletState;
+    if (segmentState != null) {
+      size += segmentState.getMemorySize();
+    }
+    return size;
+  }
+
   @Override
   public WaveletName getWaveletName() {
     return waveletName;
@@ -292,7 +317,22 @@ public abstract class WaveletContainerImpl implements WaveletContainer {
   public ReadableWaveletData getSnapshot(HashedVersion version) throws WaveletStateException {
     awaitLoad();
     checkStateOk();
-    return segmentWaveletState.getSnapshot(version);
+    if (version.equals(segmentWaveletState.getLastModifiedVersion())) {
+      return segmentWaveletState.getSnapshot(version);
+    }
+    ReadableWaveletData snapshot = historySnapshots.getIfPresent(version);
+    if (snapshot == null) {
+      snapshot = deriveSnapshot(version);
+      if (snapshot == null) {
+        snapshot = segmentWaveletState.getSnapshot(version);
+      }
+      if (snapshot == null) {
+        return null;
+      }
+      historySnapshots.put(version, snapshot);
+    }
+    // Cached snapshot is shared, so every consumer gets own view of it.
+    return WaveletDataUtil.createView(snapshot);
   }
 
   @Override
@@ -496,6 +536,54 @@ public abstract class WaveletContainerImpl implements WaveletContainer {
         storageContinuationExecutor);
   }
 
+  /**
+   * Derives snapshot of specified version from the nearest previous cached snapshot
+   * by applying of forward deltas.
+   *
+   * @return derived snapshot or null if there is no suitable cached snapshot.
+   */
+  private ReadableWaveletData deriveSnapshot(HashedVersion version) {
+    ReadableWaveletData base = null;
+    for (ReadableWaveletData snapshot : historySnapshots.asMap().values()) {
+      long distance = version.getVersion() - snapshot.getVersion();
+      if (distance > 0 && distance <= MAX_DERIVING_DISTANCE
+          && (base == null || snapshot.getVersion() > base.getVersion())) {
+        base = snapshot;
+      }
+    }
+    if (base == null) {
+      return null;
+    }
+    Timer timer = Timing.start("WaveletContainerImpl.deriveSnapshot");
+    try {
+      final ObservableWaveletData wavelet = WaveletDataUtil.copyWavelet(base);
+      deltaStateAccessor.get().getDeltaHistory(base.getHashedVersion(), version,
+          new ThrowableReceiver<WaveletDeltaRecord, WaveletStateException>() {
+
+        @Override
+        public boolean put(WaveletDeltaRecord delta) throws WaveletStateException {
+          try {
+            WaveletDataUtil.applyWaveletDelta(delta.getTransformedDelta(), wavelet);
+          } catch (OperationException ex) {
+            throw new WaveletStateException(ex);
+          }
+          return true;
+        }
+      });
+      if (!wavelet.getHashedVersion().equals(version)) {
+        LOG.warning("Derived snapshot of " + getWaveletName() + " has version "
+            + wavelet.getHashedVersion() + " instead of " + version);
+        return null;
+      }
+      return wavelet;
+    } catch (WaveletStateException | RuntimeException ex) {
+      LOG.warning("Failed to derive snapshot of " + getWaveletName() + " version " + version, ex);
+      return null;
+    } finally {
+      Timing.stop(timer);
+    }
+  }
+
   protected ReadableWaveletData accessSnapshot() throws WaveletStateException {
     return segmentWaveletState.getSnapshot();
   }
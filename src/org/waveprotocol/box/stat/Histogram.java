@@ -0,0 +1,90 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.waveprotocol.box.stat;
+
+/**
+ * Log-linear bucketing of durations in the manner of HDR histograms.
+ * Durations below {@link #SUB_BUCKETS} milliseconds have exact buckets, each
+ * greater power of two is split into {@link #SUB_BUCKETS} equal buckets, so
+ * the relative error of percentiles doesn't exceed 1 / {@link #SUB_BUCKETS}.
+ *
+ * @author akaplanov@gmail.com (A. Kaplanov)
+ */
+public class Histogram {
+  /** Count of linear buckets per power of two. */
+  public static final int SUB_BUCKETS = 8;
+
+  private static final int SUB_BUCKET_BITS = 3;
+
+  /** Count of buckets covering all non-negative int values. */
+  public static final int BUCKET_COUNT = SUB_BUCKETS + (31 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+  private Histogram() {
+  }
+
+  /**
+   * Gets index of the bucket of the value. Negative values go to the first bucket.
+   */
+  public static int bucketIndex(int value) {
+    if (value < SUB_BUCKETS) {
+      return value < 0 ? 0 : value;
+    }
+    int exponent = 31 - Integer.numberOfLeadingZeros(value);
+    int subBucket = (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+    return SUB_BUCKETS + (exponent - SUB_BUCKET_BITS) * SUB_BUCKETS + subBucket;
+  }
+
+  /**
+   * Gets the highest value of the bucket.
+   */
+  public static int bucketUpperBound(int index) {
+    if (index < SUB_BUCKETS) {
+      return index;
+    }
+    int exponent = (index - SUB_BUCKETS) / SUB_BUCKETS + SUB_BUCKET_BITS;
+    int subBucket = (index - SUB_BUCKETS) % SUB_BUCKETS;
+    long lowerBound = (long)(SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS);
+    long upperBound = lowerBound + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+    return (int)Math.min(upperBound, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Gets the value at the given percentile of the bucket counts.
+   *
+   * @param counts counts of samples in the buckets.
+   * @param numSamples sum of the counts.
+   * @param percentile percentile in range 0..100.
+   * @return the upper bound of the bucket containing the percentile, or 0 if there are no samples.
+   */
+  public static int percentile(long[] counts, long numSamples, double percentile) {
+    if (numSamples == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long)Math.ceil(percentile / 100 * numSamples));
+    long cumulative = 0;
+    for (int i = 0; i < counts.length; i++) {
+      cumulative += counts[i];
+      if (cumulative >= rank) {
+        return bucketUpperBound(i);
+      }
+    }
+    return bucketUpperBound(counts.length - 1);
+  }
+}
@@ -24,56 +24,95 @@ package org.waveprotocol.box.stat;
  * @author David Byttow
  * @author akaplanov@gmail.com (A. Kaplanov)
  */
-class Measurement {
-  private int average;
+public class Measurement {
+  private long total;
+  private long numSamples;
   private int high;
   private int low;
-  private int total;
-  private int numSamples;
   private int threshold;
 
+  /** Counts of samples by {@link Histogram} buckets, allocated with the second sample. */
+  private long[] buckets;
+
   Measurement() {
     this.low = Integer.MAX_VALUE;
     this.high = 0;
   }
 
+  /**
+   * Creates measurement from collected samples.
+   *
+   * @param buckets counts of samples by {@link Histogram} buckets.
+   */
+  public Measurement(long numSamples, long total, int low, int high, long[] buckets,
+      int threshold) {
+    this.numSamples = numSamples;
+    this.total = total;
+    this.low = low;
+    this.high = high;
+    this.buckets = buckets;
+    this.threshold = threshold;
+  }
+
   /**
    * Samples with a new delta.
    *
    * @param delta the duration of the current sample.
    */
   synchronized void sample(int delta) {
+    if (numSamples == 1 && buckets == null) {
+      buckets = new long[Histogram.BUCKET_COUNT];
+      buckets[Histogram.bucketIndex(low)]++;
+    }
+    if (buckets != null) {
+      buckets[Histogram.bucketIndex(delta)]++;
+    }
     ++numSamples;
     low = Math.min(delta, low);
     high = Math.max(delta, high);
     total += delta;
-    average = total / numSamples;
   }
 
-  int getAverage() {
-    return average;
+  public int getAverage() {
+    return numSamples != 0 ? (int)(total / numSamples) : 0;
   }
 
-  int getHigh() {
+  public int getHigh() {
     return high;
   }
 
-  int getLow() {
+  public int getLow() {
     return low;
   }
 
-  int getTotal() {
+  public long getTotal() {
     return total;
   }
 
-  int getNumSamples() {
+  public long getNumSamples() {
     return numSamples;
   }
 
+  /**
+   * Gets approximate duration at the given percentile.
+   *
+   * @param percentile percentile in range 0..100.
+   */
+  public synchronized int getPercentile(double percentile) {
+    if (numSamples == 0) {
+      return 0;
+    }
+    if (buckets == null) {
+      return high;
+    }
+    int value = Histogram.percentile(buckets, numSamples, percentile);
+    return Math.max(low, Math.min(high, value));
+  }
+
   /**
    * @return threshold time considered "too slow"
    */
-  int getThreshold() {
+  public int getThreshold() {
     return threshold;
   }
 
@@ -84,14 +123,18 @@ class Measurement {
   @Override
   public String toString() {
     if (numSamples == 0) {
-      return "<td></td> <td></td> <td></td> <td></td> <td></td>";
+      return "<td></td> <td></td> <td></td> <td></td> <td></td> <td></td> <td></td> <td></td>";
     } else if (numSamples == 1) {
-      return new StringBuilder().append("<td></td> <td></td> <td></td> <td></td> <td>").
+      return new StringBuilder().append("<td></td> <td></td> <td></td> <td></td> <td></td>").
+              append(" <td></td> <td></td> <td>").
               append(formatMillis(total)).append("</td>").toString();
     } else {
       return new StringBuilder().append("<td>").append(numSamples).append("</td>").
-              append(" <td>").append(formatMillis(average)).append("</td>").
+              append(" <td>").append(formatMillis(getAverage())).append("</td>").
               append(" <td>").append(formatMillis(low)).append("</td>").
+              append(" <td>").append(formatMillis(getPercentile(50))).append("</td>").
+              append(" <td>").append(formatMillis(getPercentile(95))).append("</td>").
+              append(" <td>").append(formatMillis(getPercentile(99))).append("</td>").
               append(" <td>").append(formatMillis(high)).append("</td>").
               append(" <td>").append(formatMillis(total)).append("</td>").toString();
     }
@@ -0,0 +1,69 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.waveprotocol.box.stat;
+
+import org.waveprotocol.wave.model.util.Pair;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Measurement store synchronized on itself. Used on the client and as default store.
+ *
+ * @author akaplanov@gmail.com (A. Kaplanov)
+ */
+class SimpleMeasurementStore implements MeasurementStore {
+
+  static final MeasurementStore.Factory FACTORY = new MeasurementStore.Factory() {
+
+    @Override
+    public MeasurementStore create() {
+      return new SimpleMeasurementStore();
+    }
+  };
+
+  private final Map<String, Measurement> measurements = new HashMap<>();
+
+  @Override
+  public synchronized void sample(String name, int duration, int threshold) {
+    Measurement m = measurements.get(name);
+    if (m == null) {
+      measurements.put(name, m = new Measurement());
+    }
+    m.sample(duration);
+    m.setThreshold(threshold);
+  }
+
+  @Override
+  public synchronized List<Pair<String, Measurement>> getMeasurements() {
+    LinkedList<Pair<String, Measurement>> list = new LinkedList<>();
+    for (Map.Entry<String, Measurement> entry : measurements.entrySet()) {
+      list.add(Pair.of(entry.getKey(), entry.getValue()));
+    }
+    return list;
+  }
+
+  @Override
+  public synchronized void clear() {
+    measurements.clear();
+  }
+}
@@ -20,8 +20,8 @@ package org.waveprotocol.box.stat;
 
 import com.google.gwt.core.shared.GWT;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Collects global and request-based statistic.
@@ -30,12 +30,21 @@ import java.util.Map;
  */
 class StatRecorder {
 
-  private final StatStore globalStore = new StatStore();
-  private final Map<String, StatStore> sessionsStore = new HashMap<>();
+  private volatile MeasurementStore.Factory measurementStoreFactory = SimpleMeasurementStore.FACTORY;
+  private final StatStore globalStore = new StatStore(measurementStoreFactory.create());
+  private final ConcurrentMap<String, StatStore> sessionsStore = new ConcurrentHashMap<>();
 
   StatRecorder() {
   }
 
+  /**
+   * Sets factory of measurement stores. Resets global measurements.
+   */
+  synchronized void setMeasurementStoreFactory(MeasurementStore.Factory factory) {
+    measurementStoreFactory = factory;
+    globalStore.setMeasurementStore(factory.create());
+  }
+
   /**
    * Gets global statistic.
    */
@@ -43,11 +52,17 @@ class StatRecorder {
     return globalStore;
   }
 
-  synchronized StatStore getSessionStore() {
-    if (getSessionContext() != null) {
-      StatStore store = sessionsStore.get(getSessionContext().getSessionKey());
+  StatStore getSessionStore() {
+    SessionContext sessionContext = getSessionContext();
+    if (sessionContext != null) {
+      String sessionKey = sessionContext.getSessionKey();
+      StatStore store = sessionsStore.get(sessionKey);
       if (store == null) {
-        sessionsStore.put(getSessionContext().getSessionKey(), store = new StatStore());
+        StatStore newStore = new StatStore(measurementStoreFactory.create());
+        store = sessionsStore.putIfAbsent(sessionKey, newStore);
+        if (store == null) {
+          store = newStore;
+        }
       }
       return store;
     }
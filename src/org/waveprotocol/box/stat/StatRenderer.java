@@ -80,6 +80,33 @@ class StatRenderer {
     return builder.toString();
   }
 
+  /**
+   * Renders measurements as JSON array, durations are in milliseconds.
+   */
+  String renderJson(List<Pair<String, Measurement>> measurements) {
+    StringBuilder builder = new StringBuilder("[");
+    boolean first = true;
+    for (Pair<String, Measurement> entry : measurements) {
+      Measurement m = entry.second;
+      if (!first) {
+        builder.append(",");
+      }
+      first = false;
+      builder.append("\n{\"name\":\"").append(escapeJson(entry.first)).append("\"")
+          .append(",\"count\":").append(m.getNumSamples())
+          .append(",\"total\":").append(m.getTotal())
+          .append(",\"average\":").append(m.getAverage())
+          .append(",\"low\":").append(m.getNumSamples() != 0 ? m.getLow() : 0)
+          .append(",\"p50\":").append(m.getPercentile(50))
+          .append(",\"p95\":").append(m.getPercentile(95))
+          .append(",\"p99\":").append(m.getPercentile(99))
+          .append(",\"max\":").append(m.getHigh())
+          .append(",\"threshold\":").append(m.getThreshold())
+          .append("}");
+    }
+    return builder.append("\n]").toString();
+  }
+
   String renderTitle(String title, int level) {
     StringBuilder builder = new StringBuilder();
     return builder.append("<h")
@@ -130,7 +157,7 @@ class StatRenderer {
 
       @Override
       public int compare(Pair<String, Measurement> p1, Pair<String, Measurement> p2) {
-        return -Integer.compare(p1.second.getTotal(), p2.second.getTotal());
+        return -Long.compare(p1.second.getTotal(), p2.second.getTotal());
       }
     });
 
@@ -158,6 +185,9 @@ class StatRenderer {
         .append("<td><center>Count</center></td>")
         .append("<td><center>Average<br>(sec)</center></td>")
         .append("<td><center>Lowest<br>(sec)</center></td>")
+        .append("<td><center>50%<br>(sec)</center></td>")
+        .append("<td><center>95%<br>(sec)</center></td>")
+        .append("<td><center>99%<br>(sec)</center></td>")
         .append("<td><center>Highest<br>(sec)</center></td>")
         .append("<td><center>Total<br>(sec)</center></td>")
         .append("</tr>");
@@ -167,6 +197,21 @@ class StatRenderer {
     builder.append("</table>");
   }
 
+  private static String escapeJson(String value) {
+    StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '"' || c == '\\') {
+        builder.append('\\').append(c);
+      } else if (c < ' ') {
+        builder.append(' ');
+      } else {
+        builder.append(c);
+      }
+    }
+    return builder.toString();
+  }
+
   private static String getSpaces(int spaces) {
     char[] array = new char[spaces];
     Arrays.fill(array, ' ');
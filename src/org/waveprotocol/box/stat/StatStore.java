@@ -18,11 +18,9 @@
  */
 package org.waveprotocol.box.stat;
 
-import java.util.HashMap;
 import java.util.LinkedList;
 
 import java.util.List;
-import java.util.Map;
 import java.util.Queue;
 
 import org.waveprotocol.wave.model.util.Pair;
@@ -39,18 +37,18 @@ class StatStore {
 
   private volatile int queueSize = 0;
   private final Queue<ExecutionNode> profiledRequests = new LinkedList<>();
-  private final Map<String, Measurement> measurements = new HashMap<>();
+  private volatile MeasurementStore measurements;
 
-  StatStore() {
+  StatStore(MeasurementStore measurements) {
+    this.measurements = measurements;
   }
 
-  synchronized void recordMeasurement(String name, String module, int duration, int threshold) {
-    Measurement m = measurements.get(name);
-    if (m == null) {
-      measurements.put(name, m = new Measurement());
-    }
-    m.sample(duration);
-    m.setThreshold(threshold);
+  void setMeasurementStore(MeasurementStore measurements) {
+    this.measurements = measurements;
+  }
+
+  void recordMeasurement(String name, String module, int duration, int threshold) {
+    measurements.sample(name, duration, threshold);
   }
 
   synchronized void storeRequest(ExecutionNode node) {
@@ -65,12 +63,8 @@ class StatStore {
     }
   }
 
-  synchronized List<Pair<String, Measurement>> getMeasurements() {
-    LinkedList<Pair<String, Measurement>> list = new LinkedList<>();
-    for (Map.Entry<String, Measurement> entry : measurements.entrySet()) {
-      list.add(Pair.of(entry.getKey(), entry.getValue()));
-    }
-    return list;
+  List<Pair<String, Measurement>> getMeasurements() {
+    return measurements.getMeasurements();
   }
 
   synchronized List<ExecutionNode> getProfiledRequests() {
@@ -47,7 +47,7 @@ public class StatToSpreadsheetConverterUtil {
   private static String processLine(String line) {
     line = removeDuplicates(line, "\t");
     String[] values = line.split("\t");
-    if (values.length == 6) {
+    if (values.length == 9) {
       return line;
     }
     if (values.length == 2) {
@@ -55,6 +55,9 @@ public class StatToSpreadsheetConverterUtil {
           + "\t1"             // Count
           + "\t" + values[1]  // Average
           + "\t" + values[1]  // Lowest
+          + "\t" + values[1]  // 50%
+          + "\t" + values[1]  // 95%
+          + "\t" + values[1]  // 99%
           + "\t" + values[1]  // Highest
           + "\t" + values[1]; // Total
     }
@@ -48,6 +48,13 @@ public class Timing {
     Timing.enabled = enabled;
   }
 
+  /**
+   * Sets factory of stores for global and session measurements.
+   */
+  static public void setMeasurementStoreFactory(MeasurementStore.Factory factory) {
+    statsRecorder.setMeasurementStoreFactory(factory);
+  }
+
   /**
    * Gets enable state.
    */
@@ -244,6 +251,20 @@ public class Timing {
             statsRecorder.getSessionStore().getProfiledRequests());
   }
 
+  /**
+   * Exports measurements for all program as JSON.
+   */
+  static public String exportGlobalStatistics() {
+    return renderer.renderJson(statsRecorder.getGlobalStore().getMeasurements());
+  }
+
+  /**
+   * Exports measurements for current session as JSON. Server only.
+   */
+  static public String exportSessionStatistics() {
+    return renderer.renderJson(statsRecorder.getSessionStore().getMeasurements());
+  }
+
   /**
    * Renders tracked statistic.
    */
@@ -0,0 +1,67 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.waveprotocol.box.webclient.client;
+
+import org.waveprotocol.box.search.SearchResponse;
+import org.waveprotocol.box.search.jso.SearchRequestJsoImpl;
+import org.waveprotocol.box.webclient.search.JsoSearchBuilderImpl;
+import org.waveprotocol.box.webclient.search.SearchService.Callback;
+import org.waveprotocol.box.webclient.search.SearchSubscriptionService;
+
+/**
+ * Implementation of {@link SearchSubscriptionService} over the web socket.
+ *
+ * @author akaplanov@gmail.com (A. Kaplanov)
+ */
+public final class RemoteSearchSubscriptionService implements SearchSubscriptionService {
+
+  private final WaveWebSocketClient socket;
+
+  public RemoteSearchSubscriptionService(WaveWebSocketClient socket) {
+    this.socket = socket;
+  }
+
+  @Override
+  public Subscription subscribe(String query, int numResults, final Callback callback) {
+    if (!socket.isConnected()) {
+      return null;
+    }
+    SearchRequestJsoImpl request = SearchRequestJsoImpl.create();
+    request.setQuery(query);
+    request.setIndex(0);
+    request.setNumResults(numResults);
+    final int requestId = socket.subscribeSearch(request,
+        new WaveWebSocketClient.StreamCallback<SearchResponse>() {
+
+      @Override
+      public void run(SearchResponse response) {
+        callback.onSuccess(response.getQuery(), response.getTotalResults(),
+            JsoSearchBuilderImpl.deserializeDigests(response));
+      }
+
+      @Override
+      public void onFinished(String error) {
+        callback.onFailure(error != null ? error : "Subscription is finished");
+      }
+    });
+    return new Subscription() {
+
+      @Override
+      public void cancel() {
+        socket.cancelStream(requestId);
+      }
+    };
+  }
+}
@@ -34,6 +34,7 @@ import org.waveprotocol.wave.communication.gwt.JsonMessage;
 import org.waveprotocol.wave.communication.json.JsonException;
 import org.waveprotocol.wave.model.util.CollectionUtils;
 import org.waveprotocol.wave.model.util.IntMap;
+import org.waveprotocol.wave.model.util.ReadableIntMap;
 import org.waveprotocol.wave.client.debug.logger.DomLogger;
 import org.waveprotocol.wave.common.logging.LoggerBundle;
 
@@ -53,8 +54,13 @@ import org.waveprotocol.wave.clientserver.jso.FetchFragmentsRequestJsoImpl;
 import org.waveprotocol.wave.clientserver.jso.FetchFragmentsResponseJsoImpl;
 import org.waveprotocol.wave.clientserver.jso.EmptyResponseJsoImpl;
 import org.waveprotocol.wave.clientserver.jso.RpcFinishedJsoImpl;
+import org.waveprotocol.wave.clientserver.jso.CancelRpcJsoImpl;
 import org.waveprotocol.wave.clientserver.EmptyResponse;
 
+import org.waveprotocol.box.search.SearchResponse;
+import org.waveprotocol.box.search.jso.SearchRequestJsoImpl;
+import org.waveprotocol.box.search.jso.SearchResponseJsoImpl;
+
 import org.waveprotocol.box.stat.Timer;
 import org.waveprotocol.box.stat.Timing;
 
@@ -85,6 +91,11 @@ public class WaveWebSocketClient implements WaveSocket.WaveSocketCallback {
 
   private static final String TRANSPORT_AUTHENTICATION_REQUEST = "TransportAuthenticationRequest";
 
+  private static final String SEARCH_REQUEST = "SearchRequest";
+  private static final String SEARCH_RESPONSE = "SearchResponse";
+
+  private static final String CANCEL_RPC = "CancelRpc";
+
   private static final String EMPTY_RESPONSE = "EmptyResponse";
 
   private static final String RPC_FINISHED = "RpcFinished";
@@ -119,6 +130,20 @@ public class WaveWebSocketClient implements WaveSocket.WaveSocketCallback {
     void onFinished(String error);
   }
 
+  /**
+   * Callback of the stream of responses.
+   */
+  public interface StreamCallback<R> extends ResponseCallback<R> {
+    /**
+     * Notifies that the stream is finished by the server or by the loss of
+     * connection.
+     *
+     * @param error the error text, or null if the stream is finished without
+     *        error.
+     */
+    void onFinished(String error);
+  }
+
   /**
    * Envelope for delivering arbitrary messages. Each envelope has a sequence
    * number and a message. The format must match the format used in the server's
@@ -156,6 +181,7 @@ public class WaveWebSocketClient implements WaveSocket.WaveSocketCallback {
 
   private WaveSocket socket;
   private final IntMap<ResponseCallback> requestsCallbacks;
+  private final IntMap<StreamCallback> streamsCallbacks;
 
   private enum ConnectState {
     CONNECTED, CONNECTING, DISCONNECTED
@@ -198,6 +224,7 @@ public class WaveWebSocketClient implements WaveSocket.WaveSocketCallback {
     this.websocketNotAvailable = websocketNotAvailable;
     this.urlBase = urlBase;
     requestsCallbacks = CollectionUtils.createIntMap();
+    streamsCallbacks = CollectionUtils.createIntMap();
     socket = WaveSocketFactory.create(websocketNotAvailable, urlBase, this);
   }
 
@@ -209,6 +236,13 @@ public class WaveWebSocketClient implements WaveSocket.WaveSocketCallback {
     listeners.remove(listener);
   }
 
+  /**
+   * @return true if the connection is established.
+   */
+  public boolean isConnected() {
+    return connected == ConnectState.CONNECTED;
+  }
+
   /**
    * Opens this connection.
    */
@@ -251,6 +285,19 @@ public class WaveWebSocketClient implements WaveSocket.WaveSocketCallback {
   @Override
   public void onDisconnect() {
     connected = ConnectState.DISCONNECTED;
+    // Streams are cancelled by the server on disconnection.
+    final List<StreamCallback> finishedStreams = new LinkedList<StreamCallback>();
+    streamsCallbacks.each(new ReadableIntMap.ProcV<StreamCallback>() {
+
+      @Override
+      public void apply(int requestId, StreamCallback callback) {
+        finishedStreams.add(callback);
+      }
+    });
+    streamsCallbacks.clear();
+    for (StreamCallback callback : finishedStreams) {
+      callback.onFinished("Connection is lost");
+    }
     for (ConnectionListener listener : listeners) {
       listener.onDisconnected();
     }
@@ -290,10 +337,22 @@ public class WaveWebSocketClient implements WaveSocket.WaveSocketCallback {
       processNotStreamResponse(seqno, wrapper.<FetchWaveViewResponseJsoImpl>getPayload());
     } else if (EMPTY_RESPONSE.equals(messageType)) {
       processNotStreamResponse(seqno, wrapper.<EmptyResponseJsoImpl>getPayload());
+    } else if (SEARCH_RESPONSE.equals(messageType)) {
+      ResponseCallback callback = streamsCallbacks.get(seqno);
+      if (callback != null) {
+        callback.run(wrapper.<SearchResponseJsoImpl>getPayload());
+      } else {
+        // The subscription is cancelled.
+        LOG.trace().log("Skipped response of cancelled stream " + seqno);
+      }
     } else if (RPC_FINISHED.equals(messageType)) {
-      for (ConnectionListener listener : listeners) {
-        RpcFinishedJsoImpl status = wrapper.<RpcFinishedJsoImpl>getPayload();
-        if (status.getFailed()) {
+      RpcFinishedJsoImpl status = wrapper.<RpcFinishedJsoImpl>getPayload();
+      StreamCallback callback = streamsCallbacks.get(seqno);
+      if (callback != null) {
+        streamsCallbacks.remove(seqno);
+        callback.onFinished(status.getFailed() ? status.getErrorText() : null);
+      } else if (status.getFailed()) {
+        for (ConnectionListener listener : listeners) {
           listener.onFinished(status.getErrorText());
         }
       }
@@ -330,6 +389,29 @@ public class WaveWebSocketClient implements WaveSocket.WaveSocketCallback {
     send(MessageWrapper.create(requestId, CLOSE_WAVELET_CHANNEL_REQUEST, message));
   }
 
+  /**
+   * Subscribes to results of the search query. The server sends the current
+   * result and then each changed one until the subscription is cancelled.
+   *
+   * @return the id of request to cancel the subscription.
+   */
+  public int subscribeSearch(SearchRequestJsoImpl message, StreamCallback<SearchResponse> callback) {
+    int requestId = sequenceNo++;
+    streamsCallbacks.put(requestId, callback);
+    send(MessageWrapper.create(requestId, SEARCH_REQUEST, message));
+    return requestId;
+  }
+
+  /**
+   * Cancels the stream, the callback of the stream is not called after that.
+   */
+  public void cancelStream(int requestId) {
+    if (streamsCallbacks.containsKey(requestId)) {
+      streamsCallbacks.remove(requestId);
+      send(MessageWrapper.create(requestId, CANCEL_RPC, CancelRpcJsoImpl.create()));
+    }
+  }
+
   private void processNotStreamResponse(int seqno, JsonMessage message) {
     ResponseCallback callback = requestsCallbacks.get(seqno);
     if (callback != null) {
@@ -475,7 +475,8 @@ public class WebClient implements EntryPoint {
       }
     };
 
-    Search search = SimpleSearch.create(RemoteSearchService.create(), waveStore);
+    Search search = SimpleSearch.create(RemoteSearchService.create(),
+        new RemoteSearchSubscriptionService(websocket), waveStore);
     search.addListener(searchPanelRenderer);
     SearchesService searchesService = new RemoteSearchesService();
     searchPresenter = SearchPresenter.create(search, searchesService,
@@ -139,6 +139,13 @@ public final class JsoSearchBuilderImpl implements SearchBuilder {
     }
   }
 
+  /**
+   * Constructs digest snapshots of the search response.
+   */
+  public static List<DigestSnapshot> deserializeDigests(SearchResponse searchResponse) {
+    return SearchBuilderUtils.deserializeSearchResponse(searchResponse);
+  }
+
   private static class SearchBuilderUtils {
     /**
      * Constructs a list of {@link org.waveprotocol.box.webclient.search.Digest}
@@ -0,0 +1,49 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.waveprotocol.box.webclient.search;
+
+import org.waveprotocol.box.webclient.search.SearchService.Callback;
+
+/**
+ * Service that pushes results of the search query to the client on changes.
+ *
+ * @author akaplanov@gmail.com (A. Kaplanov)
+ */
+public interface SearchSubscriptionService {
+
+  /**
+   * Subscription to results of the query.
+   */
+  public interface Subscription {
+
+    /**
+     * Cancels the subscription, the callback is not called after that.
+     */
+    void cancel();
+  }
+
+  /**
+   * Subscribes to results of the query. The callback receives the current
+   * result and then each changed one. {@link Callback#onFailure} is called
+   * when the subscription is finished by the server or by the loss of
+   * connection.
+   *
+   * @param query the query to execute.
+   * @param numResults the maximum number of results to return.
+   * @param callback callback through which results are returned.
+   * @return the subscription, or null if results can't be pushed now.
+   */
+  Subscription subscribe(String query, int numResults, Callback callback);
+}
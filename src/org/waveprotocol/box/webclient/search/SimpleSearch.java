@@ -222,6 +222,9 @@ public final class SimpleSearch implements Search {
   /** Service that performs searches. */
   private final SearchService searcher;
 
+  /** Service that pushes search results, or null if there is no one. */
+  private final SearchSubscriptionService subscriber;
+
   /**
    * A list the size of the total search result, populated with digests that are
    * known to this search model.
@@ -256,6 +259,12 @@ public final class SimpleSearch implements Search {
 
   private int previousSize;
 
+  /** Subscription to results of the previous query, or {@code null}. */
+  private SearchSubscriptionService.Subscription subscription;
+
+  /** Callback of the current subscription. */
+  private Callback subscriptionCallback;
+
   private final WaveStore.Listener waveStoreListener = new WaveStore.Listener() {
 
     /**
@@ -283,8 +292,9 @@ public final class SimpleSearch implements Search {
   };
   
   @VisibleForTesting
-  SimpleSearch(SearchService searcher, WaveStore store) {
+  SimpleSearch(SearchService searcher, SearchSubscriptionService subscriber, WaveStore store) {
     this.searcher = searcher;
+    this.subscriber = subscriber;
     this.waveStore = store;
   }
 
@@ -295,7 +305,20 @@ public final class SimpleSearch implements Search {
    * @param store store of open waves
    */
   public static SimpleSearch create(SearchService searcher, WaveStore store) {
-    SimpleSearch search = new SimpleSearch(searcher, store);
+    return create(searcher, null, store);
+  }
+
+  /**
+   * Creates a search model, which receives results pushed by the server while
+   * the subscription is available, and searches otherwise.
+   *
+   * @param searcher service that performs searches
+   * @param subscriber service that pushes search results
+   * @param store store of open waves
+   */
+  public static SimpleSearch create(SearchService searcher, SearchSubscriptionService subscriber,
+      WaveStore store) {
+    SimpleSearch search = new SimpleSearch(searcher, subscriber, store);
     search.init();
     return search;
   }
@@ -310,6 +333,7 @@ public final class SimpleSearch implements Search {
   public void destroy() {
     destroyDigests();
     waveStore.removeListener(waveStoreListener);
+    unsubscribe();
     outstanding = null;
   }
 
@@ -328,6 +352,16 @@ public final class SimpleSearch implements Search {
 
   @Override
   public void find(String query, int size) {
+    if (subscription != null) {
+      if (query.equals(previousQuery) && size == previousSize) {
+        // Changes of the result are pushed by the server.
+        return;
+      }
+      unsubscribe();
+    }
+    if (subscriber != null && subscribe(query, size)) {
+      return;
+    }
     if (previousRequest != null && previousRequest.isPending()) {
       if (query.equals(previousQuery) && size == previousSize) {
         // Same query, we should wait to the response
@@ -373,6 +407,65 @@ public final class SimpleSearch implements Search {
     cancelled = true;
   }
 
+  /**
+   * Subscribes to results of the query instead of the search.
+   *
+   * @return false if results can't be pushed now.
+   */
+  private boolean subscribe(String query, int size) {
+    Callback callback = new Callback() {
+
+      @Override
+      public void onFailure(String message) {
+        if (subscriptionCallback == this) {
+          // The next find searches or subscribes again.
+          log.trace().log("Search subscription is finished: ", message);
+          subscription = null;
+          subscriptionCallback = null;
+          if (outstanding == this) {
+            outstanding = null;
+            fireOnStateChanged();
+          }
+        }
+      }
+
+      @Override
+      public void onSuccess(String query, int total, List<DigestSnapshot> snapshots) {
+        if (subscriptionCallback == this) {
+          if (outstanding == this) {
+            outstanding = null;
+          }
+          handleSuccess(query, total, 0, snapshots);
+        }
+      }
+    };
+    SearchSubscriptionService.Subscription newSubscription =
+        subscriber.subscribe(query, size, callback);
+    if (newSubscription == null) {
+      return false;
+    }
+    previousQuery = query;
+    previousSize = size;
+    previousRequest = null;
+    cancelled = false;
+    subscription = newSubscription;
+    subscriptionCallback = callback;
+    boolean wasReady = outstanding == null;
+    outstanding = callback;
+    if (wasReady) {
+      fireOnStateChanged();
+    }
+    return true;
+  }
+
+  private void unsubscribe() {
+    if (subscription != null) {
+      subscription.cancel();
+      subscription = null;
+      subscriptionCallback = null;
+    }
+  }
+
   /**
    * Logs an error.  Destroys the current results.
    */
@@ -115,7 +115,7 @@ public class ViewChannelImpl implements ViewChannel {
   private State state;
 
   /** Indexing processing. */
-  private final TimerService repeatRequestScheduler = new SchedulerTimerService(new BrowserBackedScheduler());
+  private final TimerService repeatRequestScheduler;
   private boolean indexingInProcess = false;
   
   /**
@@ -128,10 +128,23 @@ public class ViewChannelImpl implements ViewChannel {
    */
   public ViewChannelImpl(WaveId waveId, WaveViewService waveService, 
       IndexingCallback indexingCallback, LoggerBundle logger) {
+    this(waveId, waveService, indexingCallback, logger,
+        new SchedulerTimerService(new BrowserBackedScheduler()));
+  }
+
+  /**
+   * Constructs a view channel with the given timer, so the channel may be used
+   * outside of the browser.
+   *
+   * @param repeatRequestScheduler timer of requests repeated while indexing.
+   */
+  public ViewChannelImpl(WaveId waveId, WaveViewService waveService,
+      IndexingCallback indexingCallback, LoggerBundle logger, TimerService repeatRequestScheduler) {
     this.waveId = waveId;
     this.waveService = waveService;
     this.indexingCallback = indexingCallback;
     this.logger = logger;
+    this.repeatRequestScheduler = repeatRequestScheduler;
     this.state = State.INITIAL;
   }
 
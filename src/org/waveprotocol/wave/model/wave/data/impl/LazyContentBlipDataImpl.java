@@ -58,11 +58,26 @@ import org.waveprotocol.wave.model.document.util.EmptyDocument;
  */
 public class LazyContentBlipDataImpl implements LazyContentBlipData {
 
+  /**
+   * Source of the blip snapshot, requested on first access to the blip.
+   */
+  public interface SnapshotSource {
+    RawBlipSnapshot getSnapshot();
+  }
+
   private static class PreInitParams {
     private static class RawContent {
       RawBlipSnapshot snapshot;
+      SnapshotSource source;
       List<RawOperation> adjustOperations = CollectionUtils.newLinkedList();
       List<RawOperation> diffOperations = CollectionUtils.newLinkedList();
+
+      RawBlipSnapshot getSnapshot() {
+        if (snapshot == null && source != null) {
+          snapshot = source.getSnapshot();
+        }
+        return snapshot;
+      }
     }
 
     ParticipantId author;
@@ -93,6 +108,10 @@ public class LazyContentBlipDataImpl implements LazyContentBlipData {
     boolean isEmpty() {
       return rawContent == null && docInit.size() == 0 && operations.isEmpty();
     }
+
+    boolean isDeferred() {
+      return rawContent != null && rawContent.source != null;
+    }
   }
 
   private final WaveletId waveletId;
@@ -100,8 +119,8 @@ public class LazyContentBlipDataImpl implements LazyContentBlipData {
   private final WaveletDataListenerManager listenerManager;
   private final DocumentFactory<?> contentFactory;
 
-  private PreInitParams preInit = new PreInitParams();
-  private BlipDataImpl content;
+  private volatile PreInitParams preInit = new PreInitParams();
+  private volatile BlipDataImpl content;
 
   LazyContentBlipDataImpl(WaveletId waveletId, String blipId,
       WaveletDataListenerManager listenerManager, DocumentFactory<?> contentFactory) {
@@ -134,6 +153,33 @@ public class LazyContentBlipDataImpl implements LazyContentBlipData {
     preInit.creationVersion = creationVersion;
   }
 
+  /**
+   * Sets source of the blip snapshot. The snapshot is requested and the content
+   * is created on first access to the blip.
+   */
+  public void setSnapshotSource(SnapshotSource source) {
+    Preconditions.checkArgument(!isContentInitialized(), "Already initialized");
+    Preconditions.checkArgument(preInit.isEmpty(), "Already has content");
+    preInit.rawContent = new PreInitParams.RawContent();
+    preInit.rawContent.source = source;
+  }
+
+  /**
+   * Gets source of the blip snapshot, if the content is not created yet and
+   * no operations are applied after the snapshot.
+   *
+   * @return the source or null.
+   */
+  public SnapshotSource getSnapshotSource() {
+    PreInitParams params = preInit;
+    if (params != null && !isContentInitialized() && params.isDeferred()
+        && params.rawContent.adjustOperations.isEmpty()
+        && params.rawContent.diffOperations.isEmpty() && params.operations.isEmpty()) {
+      return params.rawContent.source;
+    }
+    return null;
+  }
+
   @Override
   public void init(SilentOperationSink<? super DocOp> outputSink) {
     if (!isContentInitialized()) {
@@ -161,60 +207,17 @@ public class LazyContentBlipDataImpl implements LazyContentBlipData {
   @Override
   public void initalizeSnapshot() {
     if (content == null) {
-      Timer timer = Timing.start("LazyContentBlipDataImpl.initalizeSnapshot");
-      try {
-        Preconditions.checkNotNull(preInit, "No initial data");
-        Preconditions.checkArgument(isConsistent(), "Not consistent");
-        if (preInit.rawContent != null) {
-          Preconditions.checkNotNull(preInit.rawContent.snapshot, "No snapshot");
-          RawBlipSnapshot snapshot = (RawBlipSnapshot)preInit.rawContent.snapshot;
-          DocumentOperationSink contentSink = contentFactory.create(waveletId, blipId, snapshot.getContent());
-          content = new BlipDataImpl(snapshot.getId(), listenerManager,
-              snapshot.getAuthor(), snapshot.getContributors(), contentSink,
-              snapshot.getCreationTime(), snapshot.getCreationVersion(),
-              snapshot.getLastModifiedTime(), snapshot.getLastModifiedVersion());
-        } else {
-          DocumentOperationSink contentSink = contentFactory.create(waveletId, blipId, preInit.docInit);
-          content = new BlipDataImpl(blipId, listenerManager,
-              preInit.author, preInit.contributors, contentSink,
-            preInit.creationTime, preInit.creationVersion,
-            preInit.lastModifiedTime, preInit.lastModifiedVersion);
-        }
-        if (preInit.outputSink != null) {
-          content.init(preInit.outputSink);
-        }
-      } finally {
-        Timing.stop(timer);
-      }
+      content = createContent();
     }
   }
 
   @Override
   public void processDiffs() throws OperationException {
-    if (preInit != null) {
-      Timer timer = Timing.start("LazyContentBlipDataImpl.processDiffs");
-      try {
-        Preconditions.checkNotNull(content, "No content");
-        PreInitParams init = preInit;
-        preInit = null;
-        if (init.rawContent != null) {
-          processRawOperations(init.rawContent.adjustOperations);
-          processRawOperations(init.rawContent.diffOperations);
-        }
-        if (content.getContent().getMutableDocument().size() != 0) {
-          Iterator<BlipOperation> it = init.operations.iterator();
-          while (it.hasNext()) {
-            if (it.next().getContext().getSegmentVersion() <= content.getLastModifiedVersion()) {
-              it.remove();
-            }
-          }
-        }
-        for (BlipOperation op : init.operations) {
-          content.consume(op);
-        }
-      } finally {
-        Timing.stop(timer);
-      }
+    PreInitParams init = preInit;
+    if (init != null) {
+      Preconditions.checkNotNull(content, "No content");
+      preInit = null;
+      processDiffs(content, init);
     }
   }
 
@@ -299,32 +302,48 @@ public class LazyContentBlipDataImpl implements LazyContentBlipData {
 
   @Override
   public long getCreationTime() {
+    PreInitParams params = getUndeferredPreInit();
+    if (params != null) {
+      return params.creationTime;
+    }
     if (!isContentInitialized()) {
-      return preInit.creationTime;
+      init();
     }
     return content.getCreationTime();
   }
 
   @Override
   public long getCreationVersion() {
+    PreInitParams params = getUndeferredPreInit();
+    if (params != null) {
+      return params.creationVersion;
+    }
     if (!isContentInitialized()) {
-      return preInit.creationVersion;
+      init();
     }
     return content.getCreationVersion();
   }
 
   @Override
   public long getLastModifiedTime() {
+    PreInitParams params = getUndeferredPreInit();
+    if (params != null) {
+      return params.lastModifiedTime;
+    }
     if (!isContentInitialized()) {
-      return preInit.lastModifiedTime;
+      init();
     }
     return content.getLastModifiedTime();
   }
 
   @Override
   public long getLastModifiedVersion() {
+    PreInitParams params = getUndeferredPreInit();
+    if (params != null) {
+      return params.lastModifiedVersion;
+    }
     if (!isContentInitialized()) {
-      return preInit.lastModifiedVersion;
+      init();
     }
     return content.getLastModifiedVersion();
   }
@@ -398,16 +417,97 @@ public class LazyContentBlipDataImpl implements LazyContentBlipData {
     listenerManager.onRemoteBlipDataContentModified(this);
   }
 
-  private void init() {
-    initalizeSnapshot();
+  /**
+   * Returns initial parameters if the content is not initialized and
+   * the blip metadata is available without requesting of snapshot.
+   */
+  private PreInitParams getUndeferredPreInit() {
+    PreInitParams params = preInit;
+    if (params != null && !isContentInitialized() && !params.isDeferred()) {
+      return params;
+    }
+    return null;
+  }
+
+  /**
+   * Creates the content and applies pending operations to it. The content is
+   * published only after it is completely initialized, so concurrent readers
+   * never see a content without diffs.
+   */
+  private synchronized void init() {
+    if (content == null) {
+      PreInitParams init = preInit;
+      BlipDataImpl initContent = createContent();
+      try {
+        processDiffs(initContent, init);
+      } catch (OperationException ex) {
+        throw new OperationRuntimeException("Operation applying error", ex);
+      }
+      content = initContent;
+      preInit = null;
+    }
+  }
+
+  private BlipDataImpl createContent() {
+    Timer timer = Timing.start("LazyContentBlipDataImpl.initalizeSnapshot");
+    try {
+      PreInitParams init = preInit;
+      Preconditions.checkNotNull(init, "No initial data");
+      Preconditions.checkArgument(init.isConsistant(), "Not consistent");
+      BlipDataImpl content;
+      if (init.rawContent != null) {
+        RawBlipSnapshot snapshot = init.rawContent.getSnapshot();
+        Preconditions.checkNotNull(snapshot, "No snapshot");
+        DocumentOperationSink contentSink = contentFactory.create(waveletId, blipId, snapshot.getContent());
+        content = new BlipDataImpl(snapshot.getId(), listenerManager,
+            snapshot.getAuthor(), snapshot.getContributors(), contentSink,
+            snapshot.getCreationTime(), snapshot.getCreationVersion(),
+            snapshot.getLastModifiedTime(), snapshot.getLastModifiedVersion());
+      } else {
+        DocumentOperationSink contentSink = contentFactory.create(waveletId, blipId, init.docInit);
+        content = new BlipDataImpl(blipId, listenerManager,
+            init.author, init.contributors, contentSink,
+          init.creationTime, init.creationVersion,
+          init.lastModifiedTime, init.lastModifiedVersion);
+      }
+      if (init.outputSink != null) {
+        content.init(init.outputSink);
+      }
+      return content;
+    } finally {
+      Timing.stop(timer);
+    }
+  }
+
+  private void processDiffs(BlipDataImpl content, PreInitParams init) throws OperationException {
+    Timer timer = Timing.start("LazyContentBlipDataImpl.processDiffs");
     try {
-      processDiffs();
-    } catch (OperationException ex) {
-      throw new OperationRuntimeException("Operation applying error", ex);
+      if (init.rawContent != null) {
+        processRawOperations(content, init.rawContent.adjustOperations);
+        processRawOperations(content, init.rawContent.diffOperations);
+      }
+      if (content.getContent().getMutableDocument().size() != 0) {
+        Iterator<BlipOperation> it = init.operations.iterator();
+        while (it.hasNext()) {
+          if (it.next().getContext().getSegmentVersion() <= content.getLastModifiedVersion()) {
+            it.remove();
+          }
+        }
+      }
+      for (BlipOperation op : init.operations) {
+        content.consume(op);
+      }
+    } finally {
+      Timing.stop(timer);
     }
   }
 
   private void processRawOperations(List<RawOperation> rawOperations) throws OperationException {
+    processRawOperations(content, rawOperations);
+  }
+
+  private void processRawOperations(BlipDataImpl content, List<RawOperation> rawOperations)
+      throws OperationException {
     for (RawOperation rawOp : rawOperations) {
       for (WaveletOperation op : rawOp.getOperations()) {
         try {
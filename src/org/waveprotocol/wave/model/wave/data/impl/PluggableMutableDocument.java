@@ -34,6 +34,7 @@ import org.waveprotocol.wave.model.document.operation.DocOp;
 import org.waveprotocol.wave.model.document.operation.Nindo;
 import org.waveprotocol.wave.model.document.operation.SuperSink;
 import org.waveprotocol.wave.model.document.operation.automaton.DocumentSchema;
+import org.waveprotocol.wave.model.document.operation.impl.DocOpValidator;
 import org.waveprotocol.wave.model.document.util.DocProviders;
 import org.waveprotocol.wave.model.document.util.DocumentImpl;
 import org.waveprotocol.wave.model.document.util.MutableDocumentProxy;
@@ -63,6 +64,7 @@ public class PluggableMutableDocument extends MutableDocumentProxy.DocumentProxy
     final DocInitialization content;
     final DocumentSchema schema;
     final DocumentHandler<Node, Element, Text> handlerManager;
+    private volatile boolean valid;
 
     DocumentCreationContext(DocInitialization content, DocumentSchema schema,
         DocumentHandler<Node, Element, Text> handlerManager) {
@@ -74,6 +76,17 @@ public class PluggableMutableDocument extends MutableDocumentProxy.DocumentProxy
     IndexedDocument<Node, Element, Text> createDocument() throws OperationException {
       return DocProviders.POJO.build(content, schema, handlerManager);
     }
+
+    /**
+     * @return true if the content is well-formed and satisfies the schema, so
+     *         it may be handed out instead of the built document content.
+     */
+    boolean isValid() {
+      if (!valid) {
+        valid = DocOpValidator.validate(null, schema, content).isValid();
+      }
+      return valid;
+    }
   }
 
   /**
@@ -137,13 +150,16 @@ public class PluggableMutableDocument extends MutableDocumentProxy.DocumentProxy
    *  Substrate underlying this document, it is only initialized when needed.  Once it is created,
    *  the variable never changes.
    */
-  private IndexedDocument<Node, Element, Text> substrateDocument = null;
+  private volatile IndexedDocument<Node, Element, Text> substrateDocument = null;
 
   /**
    * The contented needed to create the underlying substrate.  Only used until substrateDocument is
    * created and is freed immediately after.
    */
-  private DocumentCreationContext documentCreationContext;
+  private volatile DocumentCreationContext documentCreationContext;
+
+  /** Guards building of the substrate. */
+  private final Object substrateLock = new Object();
 
   private SilentOperationSink<? super DocOp> outputSink;
 
@@ -157,23 +173,36 @@ public class PluggableMutableDocument extends MutableDocumentProxy.DocumentProxy
   }
 
   private IndexedDocument<Node, Element, Text> getDocument() {
-    if (substrateDocument == null) {
-      try {
-        createSubstrateDocument();
-      } catch (OperationException e) {
-        throw new OperationRuntimeException(
-            "Document initialization failed when applying operation: " +
-            documentCreationContext.content, e);
+    IndexedDocument<Node, Element, Text> document = substrateDocument;
+    if (document == null) {
+      // Snapshot documents are read from many threads, so the substrate is
+      // built once under the lock.
+      synchronized (substrateLock) {
+        document = substrateDocument;
+        if (document == null) {
+          try {
+            createSubstrateDocument();
+          } catch (OperationException e) {
+            throw new OperationRuntimeException(
+                "Document initialization failed when applying operation: " +
+                documentCreationContext.content, e);
+          }
+          document = substrateDocument;
+        }
       }
     }
-    return substrateDocument;
+    return document;
   }
 
   /**
+   * Builds and publishes the substrate, then frees the creation context.
+   * Called under the substrate lock.
+   *
    * @throws OperationException
    */
   protected void createSubstrateDocument() throws OperationException {
-    substrateDocument = documentCreationContext.createDocument();
+    DocumentCreationContext context = documentCreationContext;
+    substrateDocument = context.createDocument();
     documentCreationContext = null;
   }
 
@@ -228,6 +257,14 @@ public class PluggableMutableDocument extends MutableDocumentProxy.DocumentProxy
 
   @Override
   public DocInitialization asOperation() {
+    // The context is cleared only after the substrate is published, so reading
+    // it once is enough to decide whether the initial content is still actual.
+    DocumentCreationContext context = documentCreationContext;
+    if (context != null && context.isValid()) {
+      // Not created yet, so the content is still the initial one. Returning it
+      // lets copies share the content without building of the document.
+      return context.content;
+    }
     return getDocument().asOperation();
   }
 
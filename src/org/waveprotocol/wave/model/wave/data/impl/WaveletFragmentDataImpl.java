@@ -179,6 +179,16 @@ public final class WaveletFragmentDataImpl extends AbstractWaveletData<BlipData>
     return blip;
   }
 
+  /**
+   * Creates blip which snapshot is requested from the source on first access.
+   */
+  public LazyContentBlipDataImpl createDeferredBlip(String blipId,
+      LazyContentBlipDataImpl.SnapshotSource source) {
+    LazyContentBlipDataImpl blip = createBlip(blipId);
+    blip.setSnapshotSource(source);
+    return blip;
+  }
+
   @Override
   public LazyContentBlipDataImpl getBlip(String documentId) {
     return blips.get(documentId);
@@ -0,0 +1,86 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.waveprotocol.box.loadgen;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link LatencyHistogram}.
+ *
+ * @author akaplanov@gmail.com (A. Kaplanov)
+ */
+public class LatencyHistogramTest extends TestCase {
+
+  public void testEmptyHistogram() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    assertEquals(0, histogram.getCount());
+    assertEquals(0, histogram.getMean());
+    assertEquals(0, histogram.getPercentile(0.99));
+  }
+
+  public void testSmallValuesAreExact() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 1; i <= 50; i++) {
+      histogram.record(i);
+    }
+    assertEquals(50, histogram.getCount());
+    assertEquals(25, histogram.getPercentile(0.5));
+    assertEquals(50, histogram.getPercentile(1));
+    assertEquals(50, histogram.getMax());
+  }
+
+  public void testLargeValuesWithinRelativeError() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (long value = 1; value < Long.MAX_VALUE / 4; value = value * 3 + 1) {
+      histogram.record(value);
+      long bound = LatencyHistogram.upperBoundOf(LatencyHistogram.bucketOf(value));
+      assertTrue(bound >= value);
+      assertTrue(bound - value <= value / 32);
+    }
+  }
+
+  public void testPercentiles() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 0; i < 900; i++) {
+      histogram.record(1000);
+    }
+    for (int i = 0; i < 100; i++) {
+      histogram.record(100000);
+    }
+    assertEquals(1000, histogram.getPercentile(0.9), 1000 / 32);
+    assertEquals(100000, histogram.getPercentile(0.91), 100000 / 32);
+    assertEquals(100000, histogram.getMax());
+    assertEquals(10900, histogram.getMean());
+  }
+
+  public void testNegativeValueIsCountedAsZero() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(-5);
+    assertEquals(1, histogram.getCount());
+    assertEquals(0, histogram.getMax());
+  }
+
+  public void testAdd() {
+    LatencyHistogram first = new LatencyHistogram();
+    first.record(10);
+    LatencyHistogram second = new LatencyHistogram();
+    second.record(20);
+    second.record(5000);
+    first.add(second);
+    assertEquals(3, first.getCount());
+    assertEquals(5000, first.getMax());
+    assertEquals(20, first.getPercentile(0.6));
+  }
+}
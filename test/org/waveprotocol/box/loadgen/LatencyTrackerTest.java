@@ -0,0 +1,88 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.waveprotocol.box.loadgen;
+
+import junit.framework.TestCase;
+
+import org.waveprotocol.wave.model.id.WaveId;
+import org.waveprotocol.wave.model.id.WaveletId;
+import org.waveprotocol.wave.model.id.WaveletName;
+
+/**
+ * Tests for {@link LatencyTracker}.
+ *
+ * @author akaplanov@gmail.com (A. Kaplanov)
+ */
+public class LatencyTrackerTest extends TestCase {
+  private static final WaveletName WAVELET_NAME =
+      WaveletName.of(WaveId.of("example.com", "w+1"), WaveletId.of("example.com", "conv+root"));
+  private static final long MS = 1000000;
+
+  private LatencyTracker tracker;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    tracker = new LatencyTracker();
+  }
+
+  public void testAckLatencyAndThroughputCounters() {
+    tracker.onAcknowledged(WAVELET_NAME, 5, 3, 0, 10 * MS);
+
+    LatencyTracker.Stats stats = tracker.getTotal();
+    assertEquals(1, stats.ackLatency.getCount());
+    assertEquals(10000, stats.ackLatency.getMax());
+    assertEquals(1, stats.deltasAcked.get());
+    assertEquals(3, stats.opsAcked.get());
+  }
+
+  public void testRemoteUpdateAfterAck() {
+    tracker.onAcknowledged(WAVELET_NAME, 5, 1, 0, 10 * MS);
+    tracker.onRemoteUpdate(WAVELET_NAME, 5, 15 * MS);
+    tracker.onRemoteUpdate(WAVELET_NAME, 5, 20 * MS);
+
+    LatencyHistogram remote = tracker.getTotal().remoteLatency;
+    assertEquals(2, remote.getCount());
+    assertEquals(20000, remote.getMax());
+  }
+
+  public void testRemoteUpdateBeforeAck() {
+    tracker.onRemoteUpdate(WAVELET_NAME, 5, 8 * MS);
+    assertEquals(0, tracker.getTotal().remoteLatency.getCount());
+
+    tracker.onAcknowledged(WAVELET_NAME, 5, 1, 0, 10 * MS);
+
+    assertEquals(1, tracker.getTotal().remoteLatency.getCount());
+    assertEquals(8000, tracker.getTotal().remoteLatency.getMax());
+  }
+
+  public void testUpdatesOfOtherVersionsAreNotCorrelated() {
+    tracker.onAcknowledged(WAVELET_NAME, 5, 1, 0, 10 * MS);
+    tracker.onRemoteUpdate(WAVELET_NAME, 6, 15 * MS);
+
+    assertEquals(0, tracker.getTotal().remoteLatency.getCount());
+  }
+
+  public void testNextIntervalStartsNewStats() {
+    tracker.onAcknowledged(WAVELET_NAME, 5, 1, 0, 10 * MS);
+
+    LatencyTracker.Stats interval = tracker.nextInterval();
+    assertEquals(1, interval.deltasAcked.get());
+
+    tracker.onAcknowledged(WAVELET_NAME, 6, 1, 0, 10 * MS);
+    assertEquals(1, tracker.nextInterval().deltasAcked.get());
+    assertEquals(2, tracker.getTotal().deltasAcked.get());
+  }
+}
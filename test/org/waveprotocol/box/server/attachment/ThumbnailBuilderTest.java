@@ -0,0 +1,135 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.waveprotocol.box.server.attachment;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import com.google.common.util.concurrent.MoreExecutors;
+
+import junit.framework.TestCase;
+
+import org.waveprotocol.box.server.persistence.AttachmentStore;
+import org.waveprotocol.box.server.persistence.AttachmentStore.AttachmentData;
+import org.waveprotocol.box.server.persistence.file.FileAttachmentStore;
+import org.waveprotocol.box.server.persistence.file.FileUtils;
+import org.waveprotocol.wave.media.model.AttachmentId;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Tests for {@link ThumbnailBuilder}.
+ *
+ * @author akaplanov@gmail.com (A. Kaplanov)
+ */
+public class ThumbnailBuilderTest extends TestCase {
+  private static final AttachmentId IMAGE_ID = new AttachmentId("example.com", "image");
+  private static final AttachmentId TEXT_ID = new AttachmentId("example.com", "text");
+
+  private AttachmentStore store;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    store = new FileAttachmentStore(FileUtils.createTemporaryDirectory().getAbsolutePath());
+    store.storeAttachment(IMAGE_ID, new ByteArrayInputStream(makePng(1000, 500)));
+    store.storeAttachment(TEXT_ID, new ByteArrayInputStream("not an image".getBytes("UTF-8")));
+  }
+
+  public void testReadsImageSizeFromHeader() throws Exception {
+    assertEquals(new Dimension(1000, 500),
+        ThumbnailBuilder.readImageSize(store.getAttachment(IMAGE_ID)));
+    assertNull(ThumbnailBuilder.readImageSize(store.getAttachment(TEXT_ID)));
+  }
+
+  public void testThumbnailSizeKeepsAspectRatio() {
+    assertEquals(new Dimension(200, 100),
+        ThumbnailBuilder.getThumbnailSize(new Dimension(1000, 500)));
+    assertEquals(new Dimension(50, 200),
+        ThumbnailBuilder.getThumbnailSize(new Dimension(300, 1200)));
+    assertEquals(new Dimension(20, 10),
+        ThumbnailBuilder.getThumbnailSize(new Dimension(20, 10)));
+  }
+
+  public void testBuildsThumbnail() throws Exception {
+    ThumbnailBuilder builder =
+        new ThumbnailBuilder(store, MoreExecutors.sameThreadExecutor());
+
+    builder.schedule(IMAGE_ID);
+
+    AttachmentData thumbnail = store.getThumbnail(IMAGE_ID);
+    assertNotNull(thumbnail);
+    try (InputStream in = thumbnail.getInputStream()) {
+      BufferedImage image = ImageIO.read(in);
+      assertEquals(200, image.getWidth());
+      assertEquals(100, image.getHeight());
+    }
+  }
+
+  public void testDoesNotBuildThumbnailOfNotImage() throws Exception {
+    ThumbnailBuilder builder =
+        new ThumbnailBuilder(store, MoreExecutors.sameThreadExecutor());
+
+    builder.schedule(TEXT_ID);
+
+    assertNull(store.getThumbnail(TEXT_ID));
+  }
+
+  public void testSchedulesSameAttachmentOnce() throws Exception {
+    Executor executor = mock(Executor.class);
+    ThumbnailBuilder builder = new ThumbnailBuilder(store, executor);
+
+    builder.schedule(IMAGE_ID);
+    builder.schedule(IMAGE_ID);
+
+    verify(executor, times(1)).execute(any(Runnable.class));
+  }
+
+  public void testDoesNotRetryFailedThumbnail() throws Exception {
+    final AtomicInteger runs = new AtomicInteger();
+    ThumbnailBuilder builder = new ThumbnailBuilder(store, new Executor() {
+
+      @Override
+      public void execute(Runnable command) {
+        runs.incrementAndGet();
+        command.run();
+      }
+    });
+
+    builder.schedule(TEXT_ID);
+    builder.schedule(TEXT_ID);
+
+    assertTrue(builder.isFailed(TEXT_ID));
+    assertFalse(builder.isFailed(IMAGE_ID));
+    assertEquals(1, runs.get());
+  }
+
+  private static byte[] makePng(int width, int height) throws Exception {
+    BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ImageIO.write(image, "png", out);
+    return out.toByteArray();
+  }
+}
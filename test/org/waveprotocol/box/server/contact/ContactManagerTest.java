@@ -142,4 +142,25 @@ public class ContactManagerTest extends TestCase {
 
     assertEquals(contact1.getScoreBonus(), contact2.getScoreBonus());
   }
+
+  public final void testTopContactsAreOrderedByScore() throws Exception {
+    ContactManager contactManager = new ContactManagerImpl(new MemoryStore(),
+        Executors.newSingleThreadScheduledExecutor());
+
+    contactManager.newCall(USER1, USER2, currentTime, false);
+    contactManager.newCall(USER1, USER3, currentTime, true);
+    contactManager.newCall(USER4, USER1, currentTime, true);
+
+    List<Contact> topContacts = contactManager.getTopContacts(USER1, 2, currentTime);
+    assertEquals(2, topContacts.size());
+    assertEquals(USER3, topContacts.get(0).getParticipantId());
+    assertEquals(USER4, topContacts.get(1).getParticipantId());
+
+    // The ranking is updated on new call.
+    for (int i = 0; i < 2; i++) {
+      contactManager.newCall(USER1, USER2, currentTime, true);
+    }
+    topContacts = contactManager.getTopContacts(USER1, 1, currentTime);
+    assertEquals(USER2, topContacts.get(0).getParticipantId());
+  }
 }
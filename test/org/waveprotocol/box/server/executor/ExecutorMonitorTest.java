@@ -0,0 +1,175 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.waveprotocol.box.server.executor;
+
+import junit.framework.TestCase;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author akaplanov@gmail.com (A. Kaplanov)
+ */
+public class ExecutorMonitorTest extends TestCase {
+
+  private ThreadPoolExecutor executor;
+  private ExecutorMonitor monitor;
+  private final CountDownLatch release = new CountDownLatch(1);
+
+  @Override
+  protected void setUp() throws Exception {
+    executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+        new LinkedBlockingQueue<Runnable>(1));
+    monitor = new ExecutorMonitor("test", executor, 1);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    release.countDown();
+    executor.shutdown();
+  }
+
+  public void testTasksAreMeasuredByType() throws Exception {
+    final CountDownLatch done = new CountDownLatch(2);
+    Runnable task = new CountingTask(done);
+    executor.execute(monitor.monitor(task, ExecutorMonitor.getTaskType(task), 0));
+    executor.execute(monitor.monitor(task, ExecutorMonitor.getTaskType(task), 0));
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+    executor.shutdown();
+    executor.awaitTermination(10, TimeUnit.SECONDS);
+
+    assertEquals(2, monitor.getTotalStats().getRunTime().getNumSamples());
+    assertEquals(2, monitor.getTaskStats().get("ExecutorMonitorTest$CountingTask")
+        .getWaitTime().getNumSamples());
+  }
+
+  public void testAbortPolicyRejectsWhenQueueIsFull() throws Exception {
+    executor.setRejectedExecutionHandler(BackpressurePolicy.ABORT.createHandler(monitor));
+    fillExecutor();
+    try {
+      executor.execute(new CountingTask(new CountDownLatch(1)));
+      fail();
+    } catch (RejectedExecutionException ex) {
+      // Expected.
+    }
+    assertEquals(1, monitor.getRejectedCount());
+    assertEquals(1, monitor.getQueueSize());
+  }
+
+  public void testCallerRunsPolicyRunsInSubmittingThread() throws Exception {
+    executor.setRejectedExecutionHandler(BackpressurePolicy.CALLER_RUNS.createHandler(monitor));
+    fillExecutor();
+    CountDownLatch done = new CountDownLatch(1);
+    executor.execute(new CountingTask(done));
+    assertEquals(0, done.getCount());
+    assertEquals(1, monitor.getRejectedCount());
+  }
+
+  public void testBlockPolicyBlocksOutsideSubmitterUntilQueueHasRoom() throws Exception {
+    executor.setRejectedExecutionHandler(BackpressurePolicy.BLOCK.createHandler(monitor));
+    fillExecutor();
+    final CountDownLatch done = new CountDownLatch(1);
+    final CountDownLatch submitted = new CountDownLatch(1);
+    Thread submitter = new Thread() {
+
+      @Override
+      public void run() {
+        executor.execute(new CountingTask(done));
+        submitted.countDown();
+      }
+    };
+    submitter.start();
+    assertFalse(submitted.await(200, TimeUnit.MILLISECONDS));
+    assertEquals(1, monitor.getRejectedCount());
+    assertEquals(1, done.getCount());
+
+    release.countDown();
+    assertTrue(submitted.await(10, TimeUnit.SECONDS));
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+    submitter.join();
+  }
+
+  public void testBlockPolicyRunsTaskResubmittedByPoolThread() throws Exception {
+    Set<Thread> poolThreads = Collections.newSetFromMap(new ConcurrentHashMap<Thread, Boolean>());
+    executor.setThreadFactory(BackpressurePolicy.trackThreads(Executors.defaultThreadFactory(),
+        poolThreads));
+    executor.setRejectedExecutionHandler(BackpressurePolicy.BLOCK.createHandler(monitor, poolThreads));
+    final CountDownLatch done = new CountDownLatch(1);
+    executor.execute(new Runnable() {
+
+      @Override
+      public void run() {
+        // Fills the queue, then submits one more task from the pool thread.
+        executor.execute(new CountingTask(new CountDownLatch(1)));
+        executor.execute(new CountingTask(done));
+      }
+    });
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+    assertEquals(1, monitor.getRejectedCount());
+  }
+
+  public void testPolicyIsParsedFromSetting() throws Exception {
+    assertEquals(BackpressurePolicy.CALLER_RUNS, BackpressurePolicy.parse("caller_runs"));
+    try {
+      BackpressurePolicy.parse("unknown");
+      fail();
+    } catch (IllegalArgumentException ex) {
+      // Expected.
+    }
+  }
+
+  private void fillExecutor() throws InterruptedException {
+    final CountDownLatch started = new CountDownLatch(1);
+    executor.execute(new Runnable() {
+
+      @Override
+      public void run() {
+        started.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    });
+    started.await();
+    executor.execute(new CountingTask(new CountDownLatch(1)));
+  }
+
+  private static class CountingTask implements Runnable {
+    private final CountDownLatch done;
+
+    CountingTask(CountDownLatch done) {
+      this.done = done;
+    }
+
+    @Override
+    public void run() {
+      done.countDown();
+    }
+  }
+}
@@ -22,6 +22,7 @@ package org.waveprotocol.box.server.frontend;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.gxp.com.google.common.collect.Lists;
 import com.google.inject.AbstractModule;
 import com.google.inject.Guice;
@@ -32,6 +33,7 @@ import junit.framework.TestCase;
 
 import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
+import org.mockito.InOrder;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyLong;
@@ -40,6 +42,7 @@ import static org.mockito.Matchers.eq;
 import org.mockito.Mockito;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
@@ -56,6 +59,7 @@ import org.waveprotocol.box.server.util.WaveletDataUtil;
 import org.waveprotocol.box.server.waveserver.AppliedDeltaUtil;
 import org.waveprotocol.box.server.waveserver.ByteStringMessage;
 import org.waveprotocol.box.server.waveserver.WaveServerException;
+import org.waveprotocol.box.server.waveserver.WaveWarmer;
 import org.waveprotocol.box.server.persistence.deltas.WaveletDeltaRecord;
 import org.waveprotocol.box.server.persistence.blocks.VersionRange;
 import org.waveprotocol.box.server.waveserver.WaveletProvider;
@@ -93,7 +97,13 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CyclicBarrier;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.waveprotocol.box.server.executor.ExecutorAnnotations;
 import org.waveprotocol.box.server.executor.TestExecutorsModule;
 import org.waveprotocol.box.server.persistence.blocks.Interval;
@@ -161,6 +171,8 @@ public class ClientFrontendImplTest extends TestCase {
 
   private ClientFrontendImpl clientFrontend;
   private WaveletProvider waveletProvider;
+  private FragmentsFetcher fragmentsFetcher;
+  private SupplementProvider supplementProvider;
   private Supplement supplement;
 
   @Captor
@@ -183,7 +195,7 @@ public class ClientFrontendImplTest extends TestCase {
       }
     }).when(waveletProvider).openRequest(Mockito.isA(WaveletName.class),
         Mockito.isA(List.class), Mockito.isA(ParticipantId.class), Mockito.isA(OpenRequestCallback.class));
-    FragmentsFetcher fragmentsFetcher = mock(FragmentsFetcher.class);
+    fragmentsFetcher = mock(FragmentsFetcher.class);
 
     supplement = new SupplementImpl(new PrimitiveSupplementImpl());
     
@@ -195,7 +207,7 @@ public class ClientFrontendImplTest extends TestCase {
       }
     });
     
-    clientFrontend = new ClientFrontendImpl(waveletProvider, fragmentsFetcher, new SupplementProvider() {
+    supplementProvider = new SupplementProvider() {
 
       @Override
       public Supplement getSupplement(WaveletName waveletName, ParticipantId participant, HashedVersion version, 
@@ -203,8 +215,10 @@ public class ClientFrontendImplTest extends TestCase {
         return supplement;
       }
 
-    }, new WaveletSubscriptions(), injector.getInstance(Key.get(Executor.class, 
-      ExecutorAnnotations.WaveletLoadingExecutor.class)));
+    };
+    clientFrontend = new ClientFrontendImpl(waveletProvider, fragmentsFetcher, supplementProvider,
+      mock(WaveWarmer.class), new WaveletSubscriptions(), injector.getInstance(Key.get(Executor.class, 
+      ExecutorAnnotations.WaveletLoadingExecutor.class)), 4);
   }
 
   /********************************** Fetch wave view requests ************************************/
@@ -255,6 +269,94 @@ public class ClientFrontendImplTest extends TestCase {
     verify(listener).onFailure(eq(ReturnCode.NOT_EXISTS), anyString());
   }
 
+  /**
+   * Tests that all visible wavelets are fetched and the fetch is finished after them.
+   */
+  public void testAllVisibleWaveletsFetched() throws Exception {
+    when(waveletProvider.getWaveletIds(WAVE_ID)).thenReturn(ImmutableSet.of(W1, W2));
+    Mockito.doAnswer(new Answer<Boolean>() {
+
+      @Override
+      public Boolean answer(InvocationOnMock invocation) throws Throwable {
+        FragmentsBuffer buffer = (FragmentsBuffer)invocation.getArguments()[0];
+        buffer.setLastModifiedVersion(V1);
+        buffer.setLastModifiedTime(TIMESTAMP);
+        return true;
+      }
+    }).when(fragmentsFetcher).fetchWavelet(any(FragmentsBuffer.class), eq(USER), any(ListenableFuture.class),
+        anyInt(), anyInt(), anyInt());
+
+    FetchWaveViewRequestCallback listener = mock(FetchWaveViewRequestCallback.class);
+    clientFrontend.fetchWaveViewRequest(USER, WAVE_ID, IdFilters.ALL_IDS, false, -1, -1, -1, CONNECTION_ID, listener);
+
+    InOrder inOrder = Mockito.inOrder(listener);
+    inOrder.verify(listener).onWaveletSuccess(eq(W1), eq(TIMESTAMP), eq(V1), any(Map.class));
+    inOrder.verify(listener).onWaveletSuccess(eq(W2), eq(TIMESTAMP), eq(V1), any(Map.class));
+    inOrder.verify(listener).onFinish();
+    Mockito.verifyNoMoreInteractions(listener);
+  }
+
+  /**
+   * Tests that wavelets are fetched in parallel on a multi-threaded executor and
+   * the callback is still called by one thread at a time.
+   */
+  public void testWaveletsFetchedConcurrently() throws Exception {
+    final WaveletId w3 = WaveletId.of("example.com", "conv+3");
+    when(waveletProvider.getWaveletIds(WAVE_ID)).thenReturn(ImmutableSet.of(W1, W2, w3));
+    // Each fetch waits for the others, so the request completes only if all
+    // three wavelets are fetched at the same time.
+    final CyclicBarrier barrier = new CyclicBarrier(3);
+    Mockito.doAnswer(new Answer<Boolean>() {
+
+      @Override
+      public Boolean answer(InvocationOnMock invocation) throws Throwable {
+        barrier.await(10, TimeUnit.SECONDS);
+        FragmentsBuffer buffer = (FragmentsBuffer)invocation.getArguments()[0];
+        buffer.setLastModifiedVersion(V1);
+        buffer.setLastModifiedTime(TIMESTAMP);
+        return true;
+      }
+    }).when(fragmentsFetcher).fetchWavelet(any(FragmentsBuffer.class), eq(USER), any(ListenableFuture.class),
+        anyInt(), anyInt(), anyInt());
+
+    final AtomicInteger activeCalls = new AtomicInteger();
+    final AtomicBoolean overlappedCalls = new AtomicBoolean();
+    FetchWaveViewRequestCallback listener = mock(FetchWaveViewRequestCallback.class);
+    Mockito.doAnswer(new Answer<Void>() {
+
+      @Override
+      public Void answer(InvocationOnMock invocation) throws Throwable {
+        if (activeCalls.incrementAndGet() != 1) {
+          overlappedCalls.set(true);
+        }
+        Thread.sleep(10);
+        activeCalls.decrementAndGet();
+        return null;
+      }
+    }).when(listener).onWaveletSuccess(any(WaveletId.class), anyLong(), any(HashedVersion.class),
+        any(Map.class));
+
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      ClientFrontendImpl concurrentFrontend = new ClientFrontendImpl(waveletProvider, fragmentsFetcher,
+          supplementProvider, mock(WaveWarmer.class), new WaveletSubscriptions(), executor, 3);
+      concurrentFrontend.fetchWaveViewRequest(USER, WAVE_ID, IdFilters.ALL_IDS, false, -1, -1, -1,
+          CONNECTION_ID, listener);
+    } finally {
+      executor.shutdownNow();
+    }
+
+    assertFalse(overlappedCalls.get());
+    InOrder inOrder = Mockito.inOrder(listener);
+    inOrder.verify(listener, times(3)).onWaveletSuccess(any(WaveletId.class), eq(TIMESTAMP), eq(V1),
+        any(Map.class));
+    inOrder.verify(listener).onFinish();
+    verify(listener).onWaveletSuccess(eq(W1), anyLong(), any(HashedVersion.class), any(Map.class));
+    verify(listener).onWaveletSuccess(eq(W2), anyLong(), any(HashedVersion.class), any(Map.class));
+    verify(listener).onWaveletSuccess(eq(w3), anyLong(), any(HashedVersion.class), any(Map.class));
+    Mockito.verifyNoMoreInteractions(listener);
+  }
+
   /********************************** Fetch documents requests ************************************/
 
   public void testCannotFetchFragmentsWhenNotLoggedIn() throws Exception {
@@ -0,0 +1,94 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.waveprotocol.box.server.frontend;
+
+import junit.framework.TestCase;
+
+import org.waveprotocol.box.common.Receiver;
+import org.waveprotocol.wave.model.conversation.ManifestBlip;
+import org.waveprotocol.wave.model.document.util.DocProviders;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests for {@link ManifestIndex}.
+ *
+ * @author akaplanov@gmail.com (A. Kaplanov)
+ */
+public class ManifestIndexTest extends TestCase {
+
+  private static final String MANIFEST =
+      "<conversation>"
+      + "<blip id=\"b+1\">"
+      + "<thread id=\"t+1\" inline=\"true\">"
+      + "<blip id=\"b+2\">"
+      + "<thread id=\"t+2\"><blip id=\"b+3\"></blip></thread>"
+      + "</blip>"
+      + "</thread>"
+      + "</blip>"
+      + "<blip id=\"b+4\"></blip>"
+      + "</conversation>";
+
+  private ManifestIndex index;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    index = ManifestIndex.build(DocProviders.POJO.parse(MANIFEST).asOperation());
+  }
+
+  public void testFindsBlipsById() {
+    assertEquals("b+1", index.getBlipId(index.getFirstBlip()));
+    assertEquals("b+3", index.getBlipId(index.getBlip("b+3")));
+    assertNull(index.getBlip("b+5"));
+  }
+
+  public void testNecessaryParentsIncludeOnlyParentsOfInlineThreads() {
+    assertEquals(0, index.getNecessaryParentBlips(index.getBlip("b+1")).size());
+    assertEquals(ids("b+1"), getIds(index.getNecessaryParentBlips(index.getBlip("b+2"))));
+    assertEquals(ids("b+1"), getIds(index.getNecessaryParentBlips(index.getBlip("b+3"))));
+    assertEquals(0, index.getNecessaryParentBlips(index.getBlip("b+4")).size());
+  }
+
+  public void testFindsNeighborBlips() {
+    final List<ManifestBlip> blips = new ArrayList<>();
+    index.findNeighborBlips(index.getBlip("b+4"), new Receiver<ManifestBlip>() {
+
+      @Override
+      public boolean put(ManifestBlip blip) {
+        blips.add(blip);
+        return true;
+      }
+    });
+    assertEquals(ids("b+3", "b+2", "b+1"), getIds(blips));
+  }
+
+  private List<String> getIds(List<ManifestBlip> blips) {
+    List<String> ids = new ArrayList<>();
+    for (ManifestBlip blip : blips) {
+      ids.add(index.getBlipId(blip));
+    }
+    return ids;
+  }
+
+  private static List<String> ids(String... ids) {
+    List<String> list = new ArrayList<>();
+    for (String id : ids) {
+      list.add(id);
+    }
+    return list;
+  }
+}
@@ -100,6 +100,24 @@ public abstract class AttachmentStoreTestBase extends TestCase {
     assertEquals(testData, stream.toString("UTF-8"));
   }
 
+  public void testAttachmentCanWriteRangeToOutputStream() throws Exception {
+    String testData = "0123456789abcdef";
+    AttachmentId id = new AttachmentId("", "id_range");
+    AttachmentStore store = makeStoreWithData(id, testData);
+    if (store == null) {
+      return;
+    }
+    AttachmentData data = store.getAttachment(id);
+
+    ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    AttachmentUtil.writeTo(data, 3, 5, stream);
+    assertEquals("34567", stream.toString("UTF-8"));
+
+    stream = new ByteArrayOutputStream();
+    AttachmentUtil.writeTo(data, 0, testData.length(), stream);
+    assertEquals(testData, stream.toString("UTF-8"));
+  }
+
   public void testAttachmentHasWorkingInputStream() throws Exception {
     String testData = "I suppose these strings don't actually need to be different";
     AttachmentId id = new AttachmentId("", "id_5");
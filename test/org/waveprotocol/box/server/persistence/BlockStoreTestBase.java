@@ -216,6 +216,23 @@ public abstract class BlockStoreTestBase extends TestCase {
     wavelet.close();
   }
 
+  public void testWriteAndReadBlocksAsync() throws Exception {
+    BlockStore store = newBlockStore();
+    BlockAccess wavelet = store.open(WAVE1_WAVELET1);
+
+    wavelet.writeBlockAsync(createBlock(BLOCK_ID1, V0, V1)).get();
+    wavelet.writeBlockAsync(createBlock(BLOCK_ID2, V1, V2)).get();
+    wavelet.close();
+
+    wavelet = store.open(WAVE1_WAVELET1);
+    Collection<Block> blocks =
+        wavelet.readBlocksAsync(CollectionUtils.newHashSet(BLOCK_ID1, BLOCK_ID2)).get();
+    assertEquals(2, blocks.size());
+    assertTrue(doesContainBlock(blocks, BLOCK_ID1));
+    assertTrue(doesContainBlock(blocks, BLOCK_ID2));
+    wavelet.close();
+  }
+
   // *** Helpers
 
   private Pair<BlockStore, ReadableBlock> newBlockStoreWithBlock(WaveletName waveletName)
@@ -240,6 +257,18 @@ public abstract class BlockStoreTestBase extends TestCase {
 
   private static Block writeBlock(BlockAccess wavelet, String blockId,
       HashedVersion startVersion, HashedVersion endVersion, boolean finish) throws PersistenceException {
+    Block block = createBlock(blockId, startVersion, endVersion, finish);
+    wavelet.writeBlock(block);
+    return block;
+  }
+
+  private static Block createBlock(String blockId, HashedVersion startVersion,
+      HashedVersion endVersion) {
+    return createBlock(blockId, startVersion, endVersion, true);
+  }
+
+  private static Block createBlock(String blockId, HashedVersion startVersion,
+      HashedVersion endVersion, boolean finish) {
     Block block = BlockImpl.create(blockId);
     WaveletOperationContext context = new WaveletOperationContext(USER, 1234, endVersion.getVersion(), endVersion);
     block.writeSegmentOperation(new SegmentOperationImpl(new AddParticipant(context, USER)));
@@ -256,7 +285,6 @@ public abstract class BlockStoreTestBase extends TestCase {
     if (finish) {
       fragment.finish(node.getVersion());
     }
-    wavelet.writeBlock(block);
     return block;
   }
 
@@ -181,6 +181,23 @@ public abstract class DeltaStoreTestBase extends TestCase {
     }
   }
 
+  public void testAppendAsync() throws Exception {
+    DeltaStore store = newDeltaStore();
+    DeltaAccess wavelet = store.open(WAVE1_WAVELET1);
+
+    WaveletDeltaRecord record = createRecord();
+    wavelet.appendAsync(ImmutableList.of(record)).get();
+
+    assertEquals(record.getResultingVersion(), wavelet.getLastModifiedVersion());
+    assertEquals(record, wavelet.getDeltaByStartVersion(0));
+    wavelet.close();
+
+    wavelet = store.open(WAVE1_WAVELET1);
+    assertEquals(record.getResultingVersion(), wavelet.getLastModifiedVersion());
+    assertEquals(record, wavelet.getDeltaByEndVersion(record.getResultingVersion().getVersion()));
+    wavelet.close();
+  }
+
   // *** Helpers
 
   protected WaveletDeltaRecord createRecord() {
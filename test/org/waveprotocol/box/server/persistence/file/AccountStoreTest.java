@@ -19,9 +19,14 @@
 
 package org.waveprotocol.box.server.persistence.file;
 
+import com.google.common.io.Files;
+
+import org.waveprotocol.box.server.account.HumanAccountDataImpl;
 import org.waveprotocol.box.server.persistence.AccountStore;
 import org.waveprotocol.box.server.persistence.AccountStoreTestBase;
 
+import org.waveprotocol.wave.model.wave.ParticipantId;
+
 import java.io.File;
 
 /**
@@ -43,6 +48,31 @@ public class AccountStoreTest extends AccountStoreTestBase {
     return new FileAccountStore(path.getAbsolutePath());
   }
 
+  public void testAccountsArePersisted() throws Exception {
+    AccountStore accountStore = newAccountStore();
+    ParticipantId humanId = ParticipantId.ofUnsafe("human@example.com");
+    ParticipantId removedId = ParticipantId.ofUnsafe("removed@example.com");
+    HumanAccountDataImpl account = new HumanAccountDataImpl(humanId);
+    accountStore.putAccount(account);
+    accountStore.putAccount(new HumanAccountDataImpl(removedId));
+    accountStore.removeAccount(removedId);
+
+    AccountStore reopenedStore = newAccountStore();
+    assertEquals(account, reopenedStore.getAccount(humanId));
+    assertNull(reopenedStore.getAccount(removedId));
+  }
+
+  public void testCorruptAccountFileIsSkipped() throws Exception {
+    ParticipantId humanId = ParticipantId.ofUnsafe("human@example.com");
+    HumanAccountDataImpl account = new HumanAccountDataImpl(humanId);
+    newAccountStore().putAccount(account);
+    Files.write(new byte[] {1, 2, 3}, new File(path, "corrupt@example.com.account"));
+
+    AccountStore reopenedStore = newAccountStore();
+    assertEquals(account, reopenedStore.getAccount(humanId));
+    assertNull(reopenedStore.getAccount(ParticipantId.ofUnsafe("corrupt@example.com")));
+  }
+
   @Override
   protected void tearDown() throws Exception {
     super.tearDown();
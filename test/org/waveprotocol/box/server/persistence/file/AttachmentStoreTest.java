@@ -20,9 +20,16 @@
 package org.waveprotocol.box.server.persistence.file;
 
 import org.waveprotocol.box.server.persistence.AttachmentStore;
+import org.waveprotocol.box.server.persistence.AttachmentStore.FileAttachmentData;
 import org.waveprotocol.box.server.persistence.AttachmentStoreTestBase;
+import org.waveprotocol.wave.media.model.AttachmentId;
+import org.waveprotocol.wave.model.util.CharBase64;
 
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * A wrapper for the tests in AttachmentStoreBase which uses a file based
@@ -42,6 +49,69 @@ public class AttachmentStoreTest extends AttachmentStoreTestBase {
     return new FileAttachmentStore(path.getAbsolutePath());
   }
 
+  public void testEqualAttachmentsShareBlob() throws Exception {
+    FileAttachmentStore store = new FileAttachmentStore(path.getAbsolutePath());
+    AttachmentId id1 = new AttachmentId("", "dup_1");
+    AttachmentId id2 = new AttachmentId("", "dup_2");
+    writeStringDataToAttachmentStore(store, id1, "same content");
+    writeStringDataToAttachmentStore(store, id2, "same content");
+
+    assertEquals(getFile(store, id1), getFile(store, id2));
+    assertEquals(1, listBlobs().size());
+    assertEquals("same content", dataToString(store.getAttachment(id2)));
+  }
+
+  public void testCompactionRemovesUnreferencedBlobs() throws Exception {
+    FileAttachmentStore store = new FileAttachmentStore(path.getAbsolutePath());
+    AttachmentId id1 = new AttachmentId("", "del_1");
+    AttachmentId id2 = new AttachmentId("", "del_2");
+    AttachmentId id3 = new AttachmentId("", "del_3");
+    writeStringDataToAttachmentStore(store, id1, "shared");
+    writeStringDataToAttachmentStore(store, id2, "shared");
+    writeStringDataToAttachmentStore(store, id3, "single");
+
+    store.deleteAttachment(id1);
+    store.deleteAttachment(id3);
+    store.compact();
+
+    assertNull(store.getAttachment(id1));
+    assertNull(store.getAttachment(id3));
+    assertEquals("shared", dataToString(store.getAttachment(id2)));
+    assertEquals(1, listBlobs().size());
+  }
+
+  public void testCompactionMovesAttachmentsStoredById() throws Exception {
+    FileAttachmentStore store = new FileAttachmentStore(path.getAbsolutePath());
+    AttachmentId id1 = new AttachmentId("", "old_1");
+    AttachmentId id2 = new AttachmentId("", "old_2");
+    // Attachments stored by id before introducing of the blob store.
+    writeLegacyAttachment(id1, "old content");
+    writeLegacyAttachment(id2, "old content");
+    assertEquals("old content", dataToString(store.getAttachment(id1)));
+
+    store.compact();
+
+    assertEquals("old content", dataToString(store.getAttachment(id1)));
+    assertEquals(getFile(store, id1), getFile(store, id2));
+    assertEquals(1, listBlobs().size());
+  }
+
+  public void testCompactionCompletesInterruptedMove() throws Exception {
+    FileAttachmentStore store = new FileAttachmentStore(path.getAbsolutePath());
+    AttachmentId id = new AttachmentId("", "old");
+    writeLegacyAttachment(id, "old content");
+    store.compact();
+    // Compaction was interrupted before removing of the attachment stored by id.
+    writeLegacyAttachment(id, "old content");
+
+    store.compact();
+
+    assertEquals("old content", dataToString(store.getAttachment(id)));
+    assertEquals(1, listBlobs().size());
+    String name = CharBase64.encode(id.serialise().getBytes("UTF-8"));
+    assertFalse(new File(path, name).exists());
+  }
+
   @Override
   protected void tearDown() throws Exception {
     super.tearDown();
@@ -53,4 +123,27 @@ public class AttachmentStoreTest extends AttachmentStoreTestBase {
     // check to make sure everyone is behaving themselves.
     // assertFalse(path.exists());
   }
+
+  private void writeLegacyAttachment(AttachmentId id, String data) throws Exception {
+    String name = CharBase64.encode(id.serialise().getBytes("UTF-8"));
+    try (OutputStream out = new FileOutputStream(new File(path, name))) {
+      out.write(data.getBytes("UTF-8"));
+    }
+  }
+
+  private static File getFile(AttachmentStore store, AttachmentId id) throws Exception {
+    return ((FileAttachmentData) store.getAttachment(id)).getFile();
+  }
+
+  private List<File> listBlobs() {
+    List<File> blobs = new ArrayList<>();
+    for (File dir : new File(path, "blobs").listFiles()) {
+      if (dir.isDirectory()) {
+        for (File blob : dir.listFiles()) {
+          blobs.add(blob);
+        }
+      }
+    }
+    return blobs;
+  }
 }
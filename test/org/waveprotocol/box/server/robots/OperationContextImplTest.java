@@ -19,6 +19,7 @@
 
 package org.waveprotocol.box.server.robots;
 
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
 import com.google.wave.api.InvalidRequestException;
 import com.google.wave.api.JsonRpcConstant.ParamsProperty;
@@ -37,15 +38,21 @@ import org.waveprotocol.box.server.util.WaveletDataUtil;
 import org.waveprotocol.box.server.waveserver.WaveletProvider;
 import org.waveprotocol.wave.model.conversation.Conversation;
 import org.waveprotocol.wave.model.conversation.ConversationBlip;
+import org.waveprotocol.wave.model.document.operation.impl.DocOpUtil;
 import org.waveprotocol.wave.model.id.IdURIEncoderDecoder;
 import org.waveprotocol.wave.model.id.WaveId;
 import org.waveprotocol.wave.model.id.WaveletId;
 import org.waveprotocol.wave.model.id.WaveletName;
+import org.waveprotocol.wave.model.raw.RawBlipSnapshot;
+import org.waveprotocol.wave.model.testing.BasicFactories;
+import org.waveprotocol.wave.model.testing.ModelTestUtils;
 import org.waveprotocol.wave.model.version.HashedVersion;
 import org.waveprotocol.wave.model.version.HashedVersionFactory;
 import org.waveprotocol.wave.model.version.HashedVersionZeroFactoryImpl;
 import org.waveprotocol.wave.model.wave.ParticipantId;
 import org.waveprotocol.wave.model.wave.data.ObservableWaveletData;
+import org.waveprotocol.wave.model.wave.data.impl.LazyContentBlipDataImpl;
+import org.waveprotocol.wave.model.wave.data.impl.WaveletFragmentDataImpl;
 import org.waveprotocol.wave.model.wave.opbased.OpBasedWavelet;
 import org.waveprotocol.wave.util.escapers.jvm.JavaUrlCodec;
 
@@ -174,6 +181,29 @@ public class OperationContextImplTest extends TestCase {
     assertEquals(opBasedWavelet, operationContext.openWavelet(WAVE_ID, WAVELET_ID, PARTICIPANT));
   }
 
+  public void testOpenWaveletDoesNotBuildDocumentsOfSnapshot() throws Exception {
+    WaveletFragmentDataImpl snapshot = new WaveletFragmentDataImpl(WAVELET_ID, PARTICIPANT,
+        0L, HashedVersion.unsigned(2), 0L, WAVE_ID,
+        BasicFactories.observablePluggableMutableDocumentFactory());
+    snapshot.addParticipant(PARTICIPANT, null);
+    snapshot.createDeferredBlip("b+1", new LazyContentBlipDataImpl.SnapshotSource() {
+
+      @Override
+      public RawBlipSnapshot getSnapshot() {
+        return new RawBlipSnapshot(null, "b+1", PARTICIPANT, ImmutableSet.of(PARTICIPANT),
+            ModelTestUtils.createContent("text"), 0L, 1, 0L, 2);
+      }
+    });
+    when(waveletProvider.getSnapshot(WAVELET_NAME)).thenReturn(snapshot);
+
+    OpBasedWavelet opBasedWavelet =
+        operationContext.openWavelet(WAVE_ID, WAVELET_ID, PARTICIPANT);
+    assertFalse(snapshot.getBlip("b+1").isContentInitialized());
+    assertEquals(DocOpUtil.toXmlString(ModelTestUtils.createContent("text")),
+        DocOpUtil.toXmlString(opBasedWavelet.getDocument("b+1").toInitialization()));
+    assertFalse(snapshot.getBlip("b+1").isContentInitialized());
+  }
+
   public void testOpenNonExistingWaveletThrowsInvalidRequestException() throws Exception {
     try {
       operationContext.openWavelet(WAVE_ID, WaveletId.of("example.com", "unreal"), PARTICIPANT);
@@ -22,11 +22,13 @@ package org.waveprotocol.box.server.robots.active;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import com.google.gson.stream.JsonWriter;
 import com.google.wave.api.OperationRequest;
 import com.google.wave.api.OperationType;
 import com.google.wave.api.ProtocolVersion;
@@ -42,6 +44,8 @@ import net.oauth.OAuthMessage;
 import net.oauth.OAuthServiceProvider;
 import net.oauth.OAuthValidator;
 
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.waveprotocol.box.server.account.RobotAccountDataImpl;
 import org.waveprotocol.box.server.persistence.AccountStore;
 import org.waveprotocol.box.server.robots.OperationContext;
@@ -122,9 +126,15 @@ public class ActiveApiServletTest extends TestCase {
     OperationRequest operation = new OperationRequest("wavelet.create", operationId);
     List<OperationRequest> operations = Collections.singletonList(operation);
     when(robotSerializer.deserializeOperations(anyString())).thenReturn(operations);
-    String responseValue = "response value";
-    when(robotSerializer.serialize(any(), any(Type.class), any(ProtocolVersion.class))).thenReturn(
-        responseValue);
+    final String responseValue = "response value";
+    doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) throws Throwable {
+        ((JsonWriter) invocation.getArguments()[3]).value(responseValue);
+        return null;
+      }
+    }).when(robotSerializer).serialize(any(), any(Type.class), any(ProtocolVersion.class),
+        any(JsonWriter.class));
 
     OperationService service = mock(OperationService.class);
     when(operationRegistry.getServiceFor(any(OperationType.class))).thenReturn(service);
@@ -134,7 +144,8 @@ public class ActiveApiServletTest extends TestCase {
     verify(operationRegistry).getServiceFor(any(OperationType.class));
     verify(service).execute(eq(operation), any(OperationContext.class), eq(ROBOT));
     verify(resp).setStatus(HttpServletResponse.SC_OK);
-    assertEquals("Response should have been written into the servlet", responseValue,
+    assertEquals("Response should have been written into the servlet",
+        "[\"" + responseValue + "\"]",
         outputWriter.toString());
   }
 
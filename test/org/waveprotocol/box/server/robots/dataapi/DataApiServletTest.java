@@ -23,12 +23,16 @@ import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Maps;
+import com.google.gson.stream.JsonWriter;
 import com.google.wave.api.OperationRequest;
 import com.google.wave.api.OperationType;
 import com.google.wave.api.ProtocolVersion;
@@ -45,16 +49,35 @@ import net.oauth.OAuthMessage;
 import net.oauth.OAuthServiceProvider;
 import net.oauth.OAuthValidator;
 
+import org.apache.commons.codec.binary.Base64;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.waveprotocol.box.common.ThrowableReceiver;
+import org.waveprotocol.box.server.persistence.deltas.WaveletDeltaRecord;
 import org.waveprotocol.box.server.robots.OperationContext;
 import org.waveprotocol.box.server.robots.OperationServiceRegistry;
 import org.waveprotocol.box.server.robots.operations.OperationService;
 import org.waveprotocol.box.server.robots.util.ConversationUtil;
+import org.waveprotocol.box.server.serialize.OperationSerializer;
+import org.waveprotocol.box.server.waveserver.WaveServerException;
 import org.waveprotocol.box.server.waveserver.WaveletProvider;
 import org.waveprotocol.box.server.attachment.AttachmentService;
+import org.waveprotocol.wave.federation.Proto.ProtocolHashedVersion;
+import org.waveprotocol.wave.federation.Proto.ProtocolWaveletDelta;
 import org.waveprotocol.wave.model.id.TokenGenerator;
+import org.waveprotocol.wave.model.id.WaveId;
+import org.waveprotocol.wave.model.id.WaveletId;
+import org.waveprotocol.wave.model.id.WaveletName;
+import org.waveprotocol.wave.model.operation.wave.AddParticipant;
+import org.waveprotocol.wave.model.operation.wave.TransformedWaveletDelta;
+import org.waveprotocol.wave.model.operation.wave.WaveletOperationContext;
+import org.waveprotocol.wave.model.version.HashedVersion;
 import org.waveprotocol.wave.model.wave.ParticipantId;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
 import java.io.PrintWriter;
 import java.io.StringReader;
 import java.io.StringWriter;
@@ -63,6 +86,8 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
@@ -124,9 +149,15 @@ public class DataApiServletTest extends TestCase {
     OperationRequest operation = new OperationRequest("wavelet.create", operationId);
     List<OperationRequest> operations = Collections.singletonList(operation);
     when(robotSerializer.deserializeOperations(anyString())).thenReturn(operations);
-    String responseValue = "response value";
-    when(robotSerializer.serialize(any(), any(Type.class), any(ProtocolVersion.class))).thenReturn(
-        responseValue);
+    final String responseValue = "response value";
+    doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) throws Throwable {
+        ((JsonWriter) invocation.getArguments()[3]).value(responseValue);
+        return null;
+      }
+    }).when(robotSerializer).serialize(any(), any(Type.class), any(ProtocolVersion.class),
+        any(JsonWriter.class));
     Map<String, String[]> params = getOAuthParams();
     when(req.getParameterMap()).thenReturn(params);
 
@@ -139,7 +170,8 @@ public class DataApiServletTest extends TestCase {
     verify(operationRegistry).getServiceFor(any(OperationType.class));
     verify(service).execute(eq(operation), any(OperationContext.class), eq(ALEX));
     verify(resp).setStatus(HttpServletResponse.SC_OK);
-    assertEquals("Response should have been written into the servlet", responseValue,
+    assertEquals("Response should have been written into the servlet",
+        "[\"" + responseValue + "\"]",
         stringWriter.toString());
   }
 
@@ -164,6 +196,98 @@ public class DataApiServletTest extends TestCase {
     verify(resp).setStatus(HttpServletResponse.SC_UNAUTHORIZED);
   }
 
+  public void testDoGetStreamsDeltas() throws Exception {
+    WaveletName waveletName = WaveletName.of(WaveId.of("example.com", "w+1"),
+        WaveletId.of("example.com", "conv+root"));
+    HashedVersion fromVersion = HashedVersion.unsigned(0);
+    HashedVersion toVersion = HashedVersion.unsigned(1);
+    final WaveletDeltaRecord delta = new WaveletDeltaRecord(fromVersion, null,
+        TransformedWaveletDelta.cloneOperations(ALEX, toVersion, 0L, ImmutableList.of(
+            new AddParticipant(new WaveletOperationContext(ALEX, 0L, 1), ALEX))));
+
+    Map<String, String[]> params = getOAuthParams();
+    params.put("export_deltas", new String[] {"example.com/w+1"});
+    params.put("wavelet_id", new String[] {"example.com/conv+root"});
+    params.put("cursor", new String[] {encodeVersion(fromVersion)});
+    params.put("to_version", new String[] {encodeVersion(toVersion)});
+    when(req.getMethod()).thenReturn("GET");
+    when(req.getParameterMap()).thenReturn(params);
+    for (Map.Entry<String, String[]> param : params.entrySet()) {
+      when(req.getParameter(param.getKey())).thenReturn(param.getValue()[0]);
+    }
+    when(waveletProvider.checkExistence(waveletName)).thenReturn(true);
+    when(waveletProvider.checkAccessPermission(waveletName, ALEX)).thenReturn(true);
+    doAnswer(new Answer<Void>() {
+      @Override
+      @SuppressWarnings("unchecked")
+      public Void answer(InvocationOnMock invocation) throws Throwable {
+        ((ThrowableReceiver<WaveletDeltaRecord, WaveServerException>)
+            invocation.getArguments()[3]).put(delta);
+        return null;
+      }
+    }).when(waveletProvider).getDeltaHistory(eq(waveletName), eq(fromVersion), eq(toVersion),
+        any(ThrowableReceiver.class));
+    final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    when(resp.getOutputStream()).thenReturn(new ServletOutputStream() {
+
+      @Override
+      public void write(int b) {
+        output.write(b);
+      }
+
+      @Override
+      public boolean isReady() {
+        return true;
+      }
+
+      @Override
+      public void setWriteListener(WriteListener wl) {
+      }
+    });
+
+    servlet.doGet(req, resp);
+
+    verify(resp).setStatus(HttpServletResponse.SC_OK);
+    InputStream in = new ByteArrayInputStream(output.toByteArray());
+    assertEquals(OperationSerializer.serialize(delta.getTransformedDelta()),
+        ProtocolWaveletDelta.parseDelimitedFrom(in));
+    assertEquals(OperationSerializer.serialize(toVersion),
+        ProtocolHashedVersion.parseDelimitedFrom(in));
+    assertNull(ProtocolWaveletDelta.parseDelimitedFrom(in));
+  }
+
+  public void testDoGetReportsStoreFailureByStatus() throws Exception {
+    WaveletName waveletName = WaveletName.of(WaveId.of("example.com", "w+1"),
+        WaveletId.of("example.com", "conv+root"));
+    HashedVersion fromVersion = HashedVersion.unsigned(0);
+    HashedVersion toVersion = HashedVersion.unsigned(1);
+
+    Map<String, String[]> params = getOAuthParams();
+    params.put("export_deltas", new String[] {"example.com/w+1"});
+    params.put("wavelet_id", new String[] {"example.com/conv+root"});
+    params.put("cursor", new String[] {encodeVersion(fromVersion)});
+    params.put("to_version", new String[] {encodeVersion(toVersion)});
+    when(req.getMethod()).thenReturn("GET");
+    when(req.getParameterMap()).thenReturn(params);
+    for (Map.Entry<String, String[]> param : params.entrySet()) {
+      when(req.getParameter(param.getKey())).thenReturn(param.getValue()[0]);
+    }
+    when(waveletProvider.checkExistence(waveletName)).thenReturn(true);
+    when(waveletProvider.checkAccessPermission(waveletName, ALEX)).thenReturn(true);
+    doThrow(new WaveServerException("Storage failure")).when(waveletProvider).getDeltaHistory(
+        eq(waveletName), eq(fromVersion), eq(toVersion), any(ThrowableReceiver.class));
+
+    servlet.doGet(req, resp);
+
+    verify(resp).sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+    verify(resp, never()).setStatus(HttpServletResponse.SC_OK);
+    verify(resp, never()).getOutputStream();
+  }
+
+  private static String encodeVersion(HashedVersion version) {
+    return Base64.encodeBase64URLSafeString(OperationSerializer.serialize(version).toByteArray());
+  }
+
   /** Sets the list of parameters needed to test exchanging a request token */
   private Map<String, String[]> getOAuthParams() throws Exception {
     OAuthAccessor requestAccessor = tokenContainer.generateRequestToken(consumer);
@@ -40,6 +40,7 @@ import org.waveprotocol.box.server.authentication.SessionManager;
 import org.waveprotocol.box.server.persistence.AccountStore;
 import org.waveprotocol.box.server.persistence.memory.MemoryStore;
 import org.waveprotocol.box.server.robots.agent.welcome.WelcomeRobot;
+import org.waveprotocol.box.server.waveserver.WaveWarmer;
 import org.waveprotocol.wave.model.wave.ParticipantId;
 import org.waveprotocol.wave.util.escapers.PercentEscaper;
 
@@ -67,6 +68,7 @@ public class AuthenticationServletTest extends TestCase {
   @Mock private HttpSession session;
   @Mock private SessionManager manager;
   @Mock private WelcomeRobot welcomeBot;
+  @Mock private WaveWarmer waveWarmer;
 
   @Override
   protected void setUp() throws Exception {
@@ -78,7 +80,7 @@ public class AuthenticationServletTest extends TestCase {
     store.putAccount(account);
 
     servlet = new AuthenticationServlet(store, AuthTestUtil.makeConfiguration(),
-        manager, "examPLe.com", false, "", false, false, welcomeBot, "UA-someid");
+        manager, "examPLe.com", false, "", false, false, welcomeBot, waveWarmer, "UA-someid");
     AccountStoreHolder.init(store, "eXaMple.com");
   }
 
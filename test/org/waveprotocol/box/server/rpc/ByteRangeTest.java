@@ -0,0 +1,76 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.waveprotocol.box.server.rpc;
+
+import com.google.common.collect.ImmutableList;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link ByteRange}.
+ *
+ * @author akaplanov@gmail.com (A. Kaplanov)
+ */
+public class ByteRangeTest extends TestCase {
+
+  public void testParsesClosedRange() {
+    assertEquals(ImmutableList.of(new ByteRange(0, 99)), ByteRange.parse("bytes=0-99", 1000));
+  }
+
+  public void testParsesOpenRange() {
+    assertEquals(ImmutableList.of(new ByteRange(500, 999)), ByteRange.parse("bytes=500-", 1000));
+  }
+
+  public void testParsesSuffixRange() {
+    assertEquals(ImmutableList.of(new ByteRange(900, 999)), ByteRange.parse("bytes=-100", 1000));
+    assertEquals(ImmutableList.of(new ByteRange(0, 999)), ByteRange.parse("bytes=-2000", 1000));
+  }
+
+  public void testClipsEndToSize() {
+    assertEquals(ImmutableList.of(new ByteRange(990, 999)),
+        ByteRange.parse("bytes=990-2000", 1000));
+  }
+
+  public void testParsesMultipleRanges() {
+    assertEquals(ImmutableList.of(new ByteRange(0, 0), new ByteRange(10, 19)),
+        ByteRange.parse("bytes=0-0, 10-19", 1000));
+  }
+
+  public void testSkipsUnsatisfiableRanges() {
+    assertEquals(ImmutableList.of(new ByteRange(0, 9)),
+        ByteRange.parse("bytes=0-9,2000-3000", 1000));
+    assertTrue(ByteRange.parse("bytes=1000-", 1000).isEmpty());
+    assertTrue(ByteRange.parse("bytes=-0", 1000).isEmpty());
+  }
+
+  public void testIgnoresInvalidHeader() {
+    assertNull(ByteRange.parse("items=0-9", 1000));
+    assertNull(ByteRange.parse("bytes=9-0", 1000));
+    assertNull(ByteRange.parse("bytes=a-b", 1000));
+    assertNull(ByteRange.parse("bytes=10", 1000));
+  }
+
+  public void testIgnoresTooManyRanges() {
+    StringBuilder header = new StringBuilder("bytes=0-0");
+    for (int i = 1; i <= ByteRange.MAX_RANGES; i++) {
+      header.append(",").append(i).append("-").append(i);
+    }
+    assertNull(ByteRange.parse(header.toString(), 1000));
+  }
+
+  public void testFormatsContentRange() {
+    assertEquals("bytes 10-19/1000", new ByteRange(10, 19).toContentRange(1000));
+  }
+}
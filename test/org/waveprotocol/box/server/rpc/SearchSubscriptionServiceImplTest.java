@@ -0,0 +1,196 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.waveprotocol.box.server.rpc;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.protobuf.RpcCallback;
+import com.google.wave.api.SearchResult;
+
+import junit.framework.TestCase;
+
+import org.mockito.ArgumentCaptor;
+import org.waveprotocol.box.search.SearchProto.SearchRequest;
+import org.waveprotocol.box.search.SearchProto.SearchResponse;
+import org.waveprotocol.box.server.search.SearchProvider;
+import org.waveprotocol.box.server.waveserver.WaveWarmer;
+import org.waveprotocol.wave.model.id.WaveId;
+import org.waveprotocol.wave.model.wave.ParticipantId;
+
+import java.util.List;
+
+/**
+ * Tests for {@link SearchSubscriptionServiceImpl}.
+ *
+ * @author akaplanov@gmail.com (A. Kaplanov)
+ */
+public class SearchSubscriptionServiceImplTest extends TestCase {
+  private static final ParticipantId USER = ParticipantId.ofUnsafe("user@example.com");
+  private static final WaveId WAVE_ID = WaveId.of("example.com", "w+1");
+  private static final WaveId OTHER_WAVE_ID = WaveId.of("example.com", "w+2");
+  private static final SearchRequest REQUEST = SearchRequest.newBuilder()
+      .setQuery("in:inbox").setIndex(0).setNumResults(10).build();
+
+  private SearchProvider searchProvider;
+  private WaveWarmer waveWarmer;
+  private ServerRpcController controller;
+  private RpcCallback<SearchResponse> done;
+  private SearchSubscriptionServiceImpl service;
+
+  @Override
+  @SuppressWarnings("unchecked")
+  protected void setUp() throws Exception {
+    super.setUp();
+    searchProvider = mock(SearchProvider.class);
+    waveWarmer = mock(WaveWarmer.class);
+    controller = mock(ServerRpcController.class);
+    when(controller.getLoggedInUser()).thenReturn(USER);
+    done = mock(RpcCallback.class);
+    service = new SearchSubscriptionServiceImpl(searchProvider, waveWarmer,
+        MoreExecutors.sameThreadExecutor(), "example.com");
+  }
+
+  public void testSendsCurrentResultOnSubscription() {
+    setSearchResult(digest(WAVE_ID, "title", USER.getAddress()));
+
+    service.subscribe(controller, REQUEST, done);
+
+    SearchResponse response = captureLastResponse(1);
+    assertEquals(1, response.getDigestsCount());
+    assertEquals(WAVE_ID.serialise(), response.getDigests(0).getWaveId());
+  }
+
+  public void testFailsForNotLoggedInUser() {
+    when(controller.getLoggedInUser()).thenReturn(null);
+
+    service.subscribe(controller, REQUEST, done);
+
+    verify(controller).setFailed(anyString());
+    verify(done, never()).run(any(SearchResponse.class));
+  }
+
+  public void testSendsChangedResultOnIndexUpdate() {
+    setSearchResult(digest(WAVE_ID, "title", USER.getAddress()));
+    service.subscribe(controller, REQUEST, done);
+
+    SearchResult.Digest changedDigest = digest(WAVE_ID, "new title", USER.getAddress());
+    setSearchResult(changedDigest);
+    when(searchProvider.findWave(WAVE_ID, null)).thenReturn(changedDigest);
+    service.onIndexUpdated(ImmutableSet.of(WAVE_ID));
+
+    assertEquals("new title", captureLastResponse(2).getDigests(0).getTitle());
+  }
+
+  public void testDoesNotSendUnchangedResult() {
+    SearchResult.Digest digest = digest(WAVE_ID, "title", USER.getAddress());
+    setSearchResult(digest);
+    service.subscribe(controller, REQUEST, done);
+
+    when(searchProvider.findWave(WAVE_ID, null)).thenReturn(digest);
+    service.onIndexUpdated(ImmutableSet.of(WAVE_ID));
+
+    verify(searchProvider, times(2)).search(anyString(), anyInt(), anyInt(), eq(USER));
+    verify(done, times(1)).run(any(SearchResponse.class));
+  }
+
+  public void testDoesNotSearchOnUpdateOfNotRelatedWave() {
+    setSearchResult(digest(WAVE_ID, "title", USER.getAddress()));
+    service.subscribe(controller, REQUEST, done);
+
+    SearchResult.Digest otherDigest = digest(OTHER_WAVE_ID, "other", "other@example.com");
+    when(searchProvider.findWave(OTHER_WAVE_ID, null)).thenReturn(otherDigest);
+    service.onIndexUpdated(ImmutableSet.of(OTHER_WAVE_ID));
+
+    verify(searchProvider, times(1)).search(anyString(), anyInt(), anyInt(), eq(USER));
+  }
+
+  public void testSearchesOnUpdateOfWaveRemovedFromParticipants() {
+    setSearchResult(digest(WAVE_ID, "title", USER.getAddress()));
+    service.subscribe(controller, REQUEST, done);
+
+    // The user is removed from the wave, but the wave is in the last result.
+    setSearchResult();
+    SearchResult.Digest changedDigest = digest(WAVE_ID, "title", "other@example.com");
+    when(searchProvider.findWave(WAVE_ID, null)).thenReturn(changedDigest);
+    service.onIndexUpdated(ImmutableSet.of(WAVE_ID));
+
+    assertEquals(0, captureLastResponse(2).getDigestsCount());
+  }
+
+  public void testSearchesOnceOnUpdateOfSeveralWaves() {
+    setSearchResult(digest(WAVE_ID, "title", USER.getAddress()));
+    service.subscribe(controller, REQUEST, done);
+
+    SearchResult.Digest digest = digest(WAVE_ID, "title", USER.getAddress());
+    SearchResult.Digest otherDigest = digest(OTHER_WAVE_ID, "other", USER.getAddress());
+    when(searchProvider.findWave(WAVE_ID, null)).thenReturn(digest);
+    when(searchProvider.findWave(OTHER_WAVE_ID, null)).thenReturn(otherDigest);
+    service.onIndexUpdated(ImmutableSet.of(WAVE_ID, OTHER_WAVE_ID));
+
+    verify(searchProvider, times(2)).search(anyString(), anyInt(), anyInt(), eq(USER));
+  }
+
+  @SuppressWarnings("unchecked")
+  public void testFinishesStreamOnCancel() {
+    setSearchResult();
+    service.subscribe(controller, REQUEST, done);
+    ArgumentCaptor<RpcCallback> cancelCallback = ArgumentCaptor.forClass(RpcCallback.class);
+    verify(controller).notifyOnCancel(cancelCallback.capture());
+
+    cancelCallback.getValue().run(null);
+
+    verify(done).run(null);
+    SearchResult.Digest digest = digest(WAVE_ID, "title", USER.getAddress());
+    when(searchProvider.findWave(WAVE_ID, null)).thenReturn(digest);
+    service.onIndexUpdated(ImmutableSet.of(WAVE_ID));
+    verify(searchProvider, times(1)).search(anyString(), anyInt(), anyInt(), eq(USER));
+  }
+
+  private void setSearchResult(SearchResult.Digest... digests) {
+    SearchResult result = new SearchResult(REQUEST.getQuery());
+    for (SearchResult.Digest digest : digests) {
+      result.addDigest(digest);
+    }
+    when(searchProvider.search(REQUEST.getQuery(), REQUEST.getIndex(), REQUEST.getNumResults(),
+        USER)).thenReturn(result);
+  }
+
+  private SearchResponse captureLastResponse(int count) {
+    ArgumentCaptor<SearchResponse> response = ArgumentCaptor.forClass(SearchResponse.class);
+    verify(done, times(count)).run(response.capture());
+    List<SearchResponse> responses = response.getAllValues();
+    return responses.get(responses.size() - 1);
+  }
+
+  private static SearchResult.Digest digest(WaveId waveId, String title, String participant) {
+    SearchResult.Digest digest = mock(SearchResult.Digest.class);
+    when(digest.getWaveId()).thenReturn(waveId.serialise());
+    when(digest.getTitle()).thenReturn(title);
+    when(digest.getSnippet()).thenReturn("");
+    when(digest.getParticipants()).thenReturn(ImmutableList.of(participant));
+    return digest;
+  }
+}
@@ -0,0 +1,106 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.waveprotocol.box.server.rpc.render;
+
+import junit.framework.TestCase;
+
+import org.waveprotocol.wave.model.id.WaveId;
+import org.waveprotocol.wave.model.id.WaveletId;
+import org.waveprotocol.wave.model.id.WaveletName;
+
+import java.util.concurrent.Callable;
+
+/**
+ * Tests for {@link BlipFragmentCache}.
+ *
+ * @author akaplanov@gmail.com (A. Kaplanov)
+ */
+public class BlipFragmentCacheTest extends TestCase {
+  private static final WaveletName WAVELET_NAME =
+      WaveletName.of(WaveId.of("example.com", "w+1"), WaveletId.of("example.com", "conv+root"));
+  private static final WaveletName OTHER_WAVELET_NAME =
+      WaveletName.of(WaveId.of("example.com", "w+2"), WaveletId.of("example.com", "conv+root"));
+
+  /** Renders the blip and counts renderings. */
+  private static final class CountingRenderer implements Callable<String> {
+    private final String html;
+    private int count = 0;
+
+    CountingRenderer(String html) {
+      this.html = html;
+    }
+
+    @Override
+    public String call() {
+      count++;
+      return html;
+    }
+  }
+
+  private BlipFragmentCache cache;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    cache = new BlipFragmentCache();
+  }
+
+  public void testReusesFragmentOfSameVersion() {
+    CountingRenderer renderer = new CountingRenderer("<p>a</p>");
+
+    assertEquals("<p>a</p>", cache.get(WAVELET_NAME, "b+1", 10, renderer));
+    assertEquals("<p>a</p>", cache.get(WAVELET_NAME, "b+1", 10, renderer));
+    assertEquals(1, renderer.count);
+    assertEquals(1, cache.getHitCount());
+    assertEquals(1, cache.getMissCount());
+  }
+
+  public void testRendersModifiedBlipAgain() {
+    cache.get(WAVELET_NAME, "b+1", 10, new CountingRenderer("<p>a</p>"));
+    CountingRenderer renderer = new CountingRenderer("<p>b</p>");
+
+    assertEquals("<p>b</p>", cache.get(WAVELET_NAME, "b+1", 11, renderer));
+    assertEquals("<p>b</p>", cache.get(WAVELET_NAME, "b+1", 11, renderer));
+    assertEquals(1, renderer.count);
+  }
+
+  public void testDoesNotReplaceNewerFragmentByOlder() {
+    cache.get(WAVELET_NAME, "b+1", 11, new CountingRenderer("<p>new</p>"));
+
+    assertEquals("<p>old</p>",
+        cache.get(WAVELET_NAME, "b+1", 10, new CountingRenderer("<p>old</p>")));
+    CountingRenderer renderer = new CountingRenderer("<p>other</p>");
+    assertEquals("<p>new</p>", cache.get(WAVELET_NAME, "b+1", 11, renderer));
+    assertEquals(0, renderer.count);
+  }
+
+  public void testKeysFragmentsBySegmentOfWavelet() {
+    cache.get(WAVELET_NAME, "b+1", 10, new CountingRenderer("<p>1</p>"));
+
+    assertEquals("<p>2</p>", cache.get(WAVELET_NAME, "b+2", 10, new CountingRenderer("<p>2</p>")));
+    assertEquals("<p>3</p>",
+        cache.get(OTHER_WAVELET_NAME, "b+1", 10, new CountingRenderer("<p>3</p>")));
+  }
+
+  public void testEvictsFragmentsOverMaximumWeight() {
+    cache = new BlipFragmentCache(8);
+    cache.get(WAVELET_NAME, "b+1", 10, new CountingRenderer("<p>1</p>"));
+    cache.get(WAVELET_NAME, "b+2", 10, new CountingRenderer("<p>2</p>"));
+    CountingRenderer renderer = new CountingRenderer("<p>1</p>");
+
+    cache.get(WAVELET_NAME, "b+1", 10, renderer);
+    assertEquals(1, renderer.count);
+  }
+}
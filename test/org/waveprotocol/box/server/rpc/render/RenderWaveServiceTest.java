@@ -0,0 +1,147 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.waveprotocol.box.server.rpc.render;
+
+import static org.mockito.Mockito.mock;
+
+import com.google.wave.api.data.converter.v22.EventDataConverterV22;
+
+import org.waveprotocol.box.server.authentication.AccountStoreHolder;
+import org.waveprotocol.box.server.persistence.memory.MemoryStore;
+import org.waveprotocol.box.server.robots.OperationContextImpl;
+import org.waveprotocol.box.server.robots.RobotWaveletData;
+import org.waveprotocol.box.server.robots.RobotsTestBase;
+import org.waveprotocol.box.server.robots.util.ConversationUtil;
+import org.waveprotocol.box.server.waveserver.WaveletProvider;
+import org.waveprotocol.wave.model.conversation.ConversationBlip;
+import org.waveprotocol.wave.model.conversation.WaveletBasedConversation;
+import org.waveprotocol.wave.model.document.util.LineContainers;
+import org.waveprotocol.wave.model.document.util.XmlStringBuilder;
+import org.waveprotocol.wave.model.id.IdURIEncoderDecoder;
+import org.waveprotocol.wave.model.operation.SilentOperationSink;
+import org.waveprotocol.wave.model.operation.wave.WaveletOperation;
+import org.waveprotocol.wave.model.operation.wave.WaveletOperationContext;
+import org.waveprotocol.wave.model.testing.BasicFactories;
+import org.waveprotocol.wave.model.testing.FakeIdGenerator;
+import org.waveprotocol.wave.model.version.HashedVersionFactory;
+import org.waveprotocol.wave.model.version.HashedVersionFactoryImpl;
+import org.waveprotocol.wave.model.wave.ParticipantId;
+import org.waveprotocol.wave.model.wave.ParticipationHelper;
+import org.waveprotocol.wave.model.wave.data.ObservableWaveletData;
+import org.waveprotocol.wave.model.wave.data.WaveletData;
+import org.waveprotocol.wave.model.wave.data.impl.EmptyWaveletSnapshot;
+import org.waveprotocol.wave.model.wave.data.impl.WaveletDataImpl;
+import org.waveprotocol.wave.model.wave.opbased.OpBasedWavelet;
+import org.waveprotocol.wave.util.escapers.jvm.JavaUrlCodec;
+
+/**
+ * Tests for {@link RenderWaveService} with cached blip fragments.
+ *
+ * @author akaplanov@gmail.com (A. Kaplanov)
+ */
+public class RenderWaveServiceTest extends RobotsTestBase {
+  private static final HashedVersionFactory HASH_FACTORY =
+      new HashedVersionFactoryImpl(new IdURIEncoderDecoder(new JavaUrlCodec()));
+
+  /** Creates contexts of operations applied at the given version. */
+  private static final class VersionedContextFactory implements WaveletOperationContext.Factory {
+    private long version = 1;
+
+    @Override
+    public WaveletOperationContext createContext() {
+      return createContext(ALEX);
+    }
+
+    @Override
+    public WaveletOperationContext createContext(ParticipantId creator) {
+      return new WaveletOperationContext(creator, 0L, version);
+    }
+  }
+
+  private final VersionedContextFactory contextFactory = new VersionedContextFactory();
+  private final ConversationUtil conversationUtil = new ConversationUtil(FakeIdGenerator.create());
+  private ObservableWaveletData waveletData;
+  private ConversationBlip blip;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    AccountStoreHolder.init(new MemoryStore(), "example.com");
+    waveletData = WaveletDataImpl.Factory.create(
+        BasicFactories.observablePluggableMutableDocumentFactory()).create(
+            new EmptyWaveletSnapshot(WAVE_ID, WAVELET_ID, ALEX,
+                HASH_FACTORY.createVersionZero(WAVELET_NAME), 0L));
+    waveletData.addParticipant(ALEX, null);
+    OpBasedWavelet wavelet = new OpBasedWavelet(WAVE_ID, waveletData, contextFactory,
+        ParticipationHelper.DEFAULT,
+        SilentOperationSink.Executor.<WaveletOperation, WaveletData>build(waveletData),
+        SilentOperationSink.VOID);
+    WaveletBasedConversation.makeWaveletConversational(wavelet);
+    blip = conversationUtil.buildConversation(wavelet).getRoot().getRootThread().appendBlip();
+    appendText("first");
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    AccountStoreHolder.resetForTesting();
+    super.tearDown();
+  }
+
+  public void testCachedBlipEqualsFreshAfterUpdate() throws Exception {
+    BlipFragmentCache cache = new BlipFragmentCache();
+    String before = render(cache);
+
+    contextFactory.version = 2;
+    appendText(" second");
+    String cached = render(cache);
+    String fresh = render(new BlipFragmentCache());
+
+    assertEquals(2, blip.getLastModifiedVersion());
+    assertFalse(before.equals(fresh));
+    assertTrue(fresh.contains("first second"));
+    assertEquals(fresh, cached);
+    assertEquals(0, cache.getHitCount());
+  }
+
+  public void testCachedBlipEqualsFreshWithoutUpdate() throws Exception {
+    BlipFragmentCache cache = new BlipFragmentCache();
+    render(cache);
+
+    String cached = render(cache);
+    String fresh = render(new BlipFragmentCache());
+
+    assertEquals(fresh, cached);
+    assertEquals(1, cache.getHitCount());
+  }
+
+  /**
+   * Renders the blip from the current state of the wavelet, as the server
+   * does after the delta is applied.
+   */
+  private String render(BlipFragmentCache cache) throws Exception {
+    OperationContextImpl context = new OperationContextImpl(
+        mock(WaveletProvider.class), new EventDataConverterV22(), conversationUtil);
+    context.putWavelet(WAVE_ID, WAVELET_ID,
+        new RobotWaveletData(waveletData, waveletData.getHashedVersion()));
+    String html = RenderWaveService.create(cache).exec(
+        WAVE_ID, WAVELET_ID, blip.getId(), ALEX, context);
+    // Blip views take z-index from a global sequence, so it differs on each rendering.
+    return html.replaceAll("z-index: \\d+", "z-index: 0");
+  }
+
+  private void appendText(String text) {
+    LineContainers.appendToLastLine(blip.getDocument(), XmlStringBuilder.createText(text));
+  }
+}
@@ -84,6 +84,11 @@ public class FakeServerRpcController implements ServerRpcController {
   public void cancel() {
   }
 
+  @Override
+  public boolean cancelIfNotCancelled() {
+    return false;
+  }
+
   @Override
   public void run() {
   }
@@ -0,0 +1,103 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.waveprotocol.box.server.search;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.wave.api.SearchResult.Digest;
+
+import junit.framework.TestCase;
+
+import org.waveprotocol.wave.model.supplement.WaveDigestSupplement;
+import org.waveprotocol.wave.model.wave.ParticipantId;
+import org.waveprotocol.wave.model.wave.WaveDigest;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Tests for {@link DigestSerializer}.
+ *
+ * @author akaplanov@gmail.com (A. Kaplanov)
+ */
+public class DigestSerializerTest extends TestCase {
+  private static final ParticipantId ALICE = ParticipantId.ofUnsafe("alice@example.com");
+  private static final ParticipantId BOB = ParticipantId.ofUnsafe("bob@example.com");
+  private static final ParticipantId CAROL = ParticipantId.ofUnsafe("carol@example.com");
+
+  private static final WaveDigest DIGEST = new WaveDigest("example.com/w+1", "Title тест",
+      "Snippet", ALICE.getAddress(), ImmutableList.of(ALICE.getAddress(), BOB.getAddress()), 7,
+      1000L, 1400000000000L);
+  private static final Map<ParticipantId, WaveDigestSupplement> SUPPLEMENTS = ImmutableMap.of(
+      ALICE, new WaveDigestSupplement(WaveDigestSupplement.FOLDER_INBOX, 0),
+      BOB, new WaveDigestSupplement(WaveDigestSupplement.FOLDER_ARCHIVE, 3));
+
+  public void testDigestIsRestored() throws Exception {
+    Digest digest = DigestSerializer.deserialize(
+        DigestSerializer.serialize(DIGEST, SUPPLEMENTS), null);
+
+    assertEquals(DIGEST.getWaveId(), digest.getWaveId());
+    assertEquals(DIGEST.getTitle(), digest.getTitle());
+    assertEquals(DIGEST.getSnippet(), digest.getSnippet());
+    assertEquals(DIGEST.getCreator(), digest.getCreator());
+    assertEquals(DIGEST.getParticipants(), digest.getParticipants());
+    assertEquals(DIGEST.getBlipCount(), digest.getBlipCount());
+    assertEquals(DIGEST.getCreated(), digest.getCreated());
+    assertEquals(DIGEST.getLastModified(), digest.getLastModified());
+  }
+
+  public void testSupplementOfViewerIsRestored() throws Exception {
+    byte[] bytes = DigestSerializer.serialize(DIGEST, SUPPLEMENTS);
+
+    Digest digest = DigestSerializer.deserialize(bytes, BOB);
+    assertEquals(3, digest.getUnreadCount());
+
+    digest = DigestSerializer.deserialize(bytes, ALICE);
+    assertEquals(0, digest.getUnreadCount());
+  }
+
+  public void testViewerWithoutSupplementHasAllBlipsUnread() throws Exception {
+    Digest digest = DigestSerializer.deserialize(
+        DigestSerializer.serialize(DIGEST, SUPPLEMENTS), CAROL);
+
+    assertEquals(DIGEST.getBlipCount(), digest.getUnreadCount());
+  }
+
+  public void testNullStringsAreRestored() throws Exception {
+    WaveDigest digest = new WaveDigest("example.com/w+1", null, "", null,
+        ImmutableList.<String>of(), 0, -1L, -1L);
+    Map<ParticipantId, WaveDigestSupplement> supplements =
+        ImmutableMap.of(ALICE, new WaveDigestSupplement(null, 0));
+
+    Digest restored = DigestSerializer.deserialize(
+        DigestSerializer.serialize(digest, supplements), ALICE);
+
+    assertNull(restored.getTitle());
+    assertEquals("", restored.getSnippet());
+    assertNull(restored.getCreator());
+    assertEquals(-1L, restored.getLastModified());
+  }
+
+  public void testCorruptedFormIsRejected() throws Exception {
+    byte[] bytes = DigestSerializer.serialize(DIGEST, SUPPLEMENTS);
+    try {
+      DigestSerializer.deserialize(Arrays.copyOf(bytes, bytes.length / 2), ALICE);
+      fail("Should fail");
+    } catch (IOException ex) {
+      // Expected.
+    }
+  }
+}
@@ -0,0 +1,230 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.waveprotocol.box.server.search;
+
+import com.google.common.util.concurrent.MoreExecutors;
+
+import junit.framework.TestCase;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.NumericField;
+import org.apache.lucene.index.IndexWriterConfig.OpenMode;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.DefaultSimilarity;
+import org.apache.lucene.search.FieldCache;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.SearcherWarmer;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.util.Version;
+import org.waveprotocol.box.server.persistence.lucene.RAMIndexDirectory;
+import org.waveprotocol.wave.model.id.WaveId;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Tests for {@link ShardedIndex}.
+ *
+ * @author akaplanov@gmail.com (A. Kaplanov)
+ */
+public class ShardedIndexTest extends TestCase {
+  private static final int SHARD_COUNT = 3;
+  private static final int WAVE_COUNT = 20;
+  private static final String PARTICIPANTS = IndexCondition.Field.PARTICIPANTS.toString();
+  private static final String LAST_MODIFIED = IndexCondition.Field.LAST_MODIFIED.toString();
+  private static final String LAST_MODIFIED_SORT = "lastModifiedSort";
+  private static final Sort SORT = new Sort(SortField.FIELD_SCORE,
+      new SortField(LAST_MODIFIED_SORT, FieldCache.NUMERIC_UTILS_LONG_PARSER, true));
+
+  private static final SearcherWarmer NO_WARMER = new SearcherWarmer() {
+
+    @Override
+    public void warm(IndexSearcher searcher) {
+    }
+  };
+
+  private RAMIndexDirectory directory;
+  private ExecutorService searchExecutor;
+  private ShardedIndex index;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    directory = new RAMIndexDirectory(SHARD_COUNT);
+    searchExecutor = Executors.newFixedThreadPool(2);
+    index = openIndex(SHARD_COUNT);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    index.close();
+    searchExecutor.shutdown();
+    super.tearDown();
+  }
+
+  public void testShardOfWaveIsStable() {
+    WaveId waveId = waveId(7);
+    int shard = ShardedIndex.shardOf(waveId, SHARD_COUNT);
+    assertTrue(shard >= 0 && shard < SHARD_COUNT);
+    assertEquals(shard, ShardedIndex.shardOf(WaveId.deserialise(waveId.serialise()), SHARD_COUNT));
+    assertEquals(0, ShardedIndex.shardOf(waveId, 1));
+  }
+
+  public void testWavesAreSpreadOverShards() {
+    boolean[] used = new boolean[SHARD_COUNT];
+    for (int i = 0; i < WAVE_COUNT; i++) {
+      used[ShardedIndex.shardOf(waveId(i), SHARD_COUNT)] = true;
+    }
+    for (boolean shardUsed : used) {
+      assertTrue(shardUsed);
+    }
+  }
+
+  public void testSearchMergesShardsBySort() throws Exception {
+    addWaves(index);
+
+    List<Document> docs = search(index, 0, WAVE_COUNT);
+
+    assertEquals(WAVE_COUNT, docs.size());
+    for (int i = 0; i < WAVE_COUNT; i++) {
+      assertEquals(waveId(WAVE_COUNT - 1 - i).serialise(), waveIdOf(docs.get(i)));
+    }
+  }
+
+  public void testSearchPagesAcrossShards() throws Exception {
+    addWaves(index);
+
+    List<Document> docs = search(index, 5, 4);
+
+    assertEquals(4, docs.size());
+    for (int i = 0; i < 4; i++) {
+      assertEquals(waveId(WAVE_COUNT - 6 - i).serialise(), waveIdOf(docs.get(i)));
+    }
+    assertEquals(2, search(index, WAVE_COUNT - 2, 10).size());
+  }
+
+  public void testShardedResultIsSameAsSingleShard() throws Exception {
+    ShardedIndex single = new ShardedIndex(new RAMIndexDirectory(), 1, OpenMode.CREATE,
+        new StandardAnalyzer(Version.LUCENE_35), new DefaultSimilarity(), NO_WARMER,
+        MoreExecutors.sameThreadExecutor());
+    try {
+      addWaves(single);
+      addWaves(index);
+      assertEquals(waveIdsOf(search(single, 3, 10)), waveIdsOf(search(index, 3, 10)));
+    } finally {
+      single.close();
+    }
+  }
+
+  public void testUpdateReplacesDocumentOfWave() throws Exception {
+    WaveId waveId = waveId(1);
+    index.updateWave(waveId, makeDocument(waveId, 1));
+    index.updateWave(waveId, makeDocument(waveId, 2));
+    index.reopen(waveId);
+
+    assertEquals(1, search(index, 0, 10).size());
+    assertEquals("2", index.findWave(waveId, null).get(LAST_MODIFIED));
+
+    index.updateWave(waveId, null);
+    index.reopen(waveId);
+    assertNull(index.findWave(waveId, null));
+  }
+
+  public void testCommittedShardsAreReopened() throws Exception {
+    addWaves(index);
+    index.close();
+
+    index = openIndex(SHARD_COUNT);
+    assertEquals(WAVE_COUNT, search(index, 0, WAVE_COUNT).size());
+    assertNotNull(index.findWave(waveId(3), null));
+  }
+
+  public void testFindsWavesWithoutField() throws Exception {
+    addWaves(index);
+    WaveId legacyWaveId = waveId(5);
+    Document legacyDoc = makeDocument(legacyWaveId, 1005);
+    legacyDoc.removeField(LAST_MODIFIED_SORT);
+    index.updateWave(legacyWaveId, legacyDoc);
+    index.reopen(legacyWaveId);
+
+    assertEquals(Collections.singleton(legacyWaveId),
+        index.findWavesWithoutField(LAST_MODIFIED_SORT));
+
+    index.updateWave(legacyWaveId, makeDocument(legacyWaveId, 1005));
+    index.reopen(legacyWaveId);
+    assertTrue(index.findWavesWithoutField(LAST_MODIFIED_SORT).isEmpty());
+  }
+
+  private ShardedIndex openIndex(int shardCount) throws Exception {
+    return new ShardedIndex(directory, shardCount, OpenMode.CREATE_OR_APPEND,
+        new StandardAnalyzer(Version.LUCENE_35), new DefaultSimilarity(), NO_WARMER,
+        searchExecutor);
+  }
+
+  /**
+   * Adds waves, the last modified time of wave grows with its number.
+   */
+  private static void addWaves(ShardedIndex index) throws Exception {
+    for (int i = 0; i < WAVE_COUNT; i++) {
+      index.updateWave(waveId(i), makeDocument(waveId(i), 1000 + i));
+    }
+    index.commit();
+    for (int i = 0; i < WAVE_COUNT; i++) {
+      index.reopen(waveId(i));
+    }
+  }
+
+  private static List<Document> search(ShardedIndex index, int startAt, int numResults)
+      throws Exception {
+    return index.search(new TermQuery(new Term(PARTICIPANTS, "user@example.com")), startAt,
+        numResults, SORT, null);
+  }
+
+  private static Document makeDocument(WaveId waveId, long lastModified) {
+    Document doc = new Document();
+    doc.add(new Field(IndexCondition.Field.WAVE_ID.toString(), waveId.serialise(),
+        Field.Store.YES, Field.Index.NOT_ANALYZED_NO_NORMS));
+    doc.add(new Field(PARTICIPANTS, "user@example.com", Field.Store.YES,
+        Field.Index.NOT_ANALYZED_NO_NORMS));
+    doc.add(new Field(LAST_MODIFIED, Long.toString(lastModified), Field.Store.YES,
+        Field.Index.NOT_ANALYZED_NO_NORMS));
+    doc.add(new NumericField(LAST_MODIFIED_SORT, Integer.MAX_VALUE, Field.Store.NO, true)
+        .setLongValue(lastModified));
+    return doc;
+  }
+
+  private static WaveId waveId(int number) {
+    return WaveId.of("example.com", "w+" + number);
+  }
+
+  private static String waveIdOf(Document doc) {
+    return doc.get(IndexCondition.Field.WAVE_ID.toString());
+  }
+
+  private static List<String> waveIdsOf(List<Document> docs) {
+    List<String> waveIds = new ArrayList<>();
+    for (Document doc : docs) {
+      waveIds.add(waveIdOf(doc));
+    }
+    return waveIds;
+  }
+}
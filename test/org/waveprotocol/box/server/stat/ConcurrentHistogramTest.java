@@ -0,0 +1,88 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.waveprotocol.box.server.stat;
+
+import junit.framework.TestCase;
+
+import org.waveprotocol.box.stat.Histogram;
+import org.waveprotocol.box.stat.Measurement;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * @author akaplanov@gmail.com (A. Kaplanov)
+ */
+public class ConcurrentHistogramTest extends TestCase {
+
+  public void testBucketsCoverValuesWithBoundedError() throws Exception {
+    int[] values = { 0, 1, 7, 8, 9, 15, 16, 100, 1000, 123456, Integer.MAX_VALUE };
+    for (int value : values) {
+      int index = Histogram.bucketIndex(value);
+      assertTrue(index < Histogram.BUCKET_COUNT);
+      int upperBound = Histogram.bucketUpperBound(index);
+      assertTrue(upperBound >= value);
+      assertTrue(upperBound - value <= value / Histogram.SUB_BUCKETS);
+    }
+  }
+
+  public void testPercentiles() throws Exception {
+    ConcurrentHistogram histogram = new ConcurrentHistogram();
+    for (int i = 1; i <= 100; i++) {
+      histogram.sample(i, 0);
+    }
+    Measurement measurement = histogram.getMeasurement();
+    assertEquals(100, measurement.getNumSamples());
+    assertEquals(5050, measurement.getTotal());
+    assertEquals(1, measurement.getLow());
+    assertEquals(100, measurement.getHigh());
+    assertInRange(50, measurement.getPercentile(50));
+    assertInRange(95, measurement.getPercentile(95));
+    assertInRange(99, measurement.getPercentile(99));
+  }
+
+  public void testConcurrentSamplesAreNotLost() throws Exception {
+    final ConcurrentHistogram histogram = new ConcurrentHistogram();
+    final int threads = 8;
+    final int samples = 10000;
+    final CountDownLatch done = new CountDownLatch(threads);
+    for (int t = 0; t < threads; t++) {
+      new Thread() {
+
+        @Override
+        public void run() {
+          for (int i = 0; i < samples; i++) {
+            histogram.sample(i % 100, 0);
+          }
+          done.countDown();
+        }
+      }.start();
+    }
+    done.await();
+    Measurement measurement = histogram.getMeasurement();
+    assertEquals(threads * samples, measurement.getNumSamples());
+    assertEquals(0, measurement.getLow());
+    assertEquals(99, measurement.getHigh());
+  }
+
+  private static void assertInRange(int expected, int actual) {
+    assertTrue("Expected about " + expected + " but was " + actual,
+        actual >= expected && actual <= expected + expected / Histogram.SUB_BUCKETS);
+  }
+}
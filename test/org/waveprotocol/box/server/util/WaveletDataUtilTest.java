@@ -23,7 +23,9 @@ import junit.framework.TestCase;
 
 import com.google.common.collect.ImmutableSet;
 
+import org.waveprotocol.wave.model.document.operation.impl.DocInitializationBuilder;
 import org.waveprotocol.wave.model.document.operation.impl.DocOpBuilder;
+import org.waveprotocol.wave.model.document.operation.impl.DocOpUtil;
 import org.waveprotocol.wave.model.id.WaveId;
 import org.waveprotocol.wave.model.id.WaveletId;
 import org.waveprotocol.wave.model.id.WaveletName;
@@ -34,10 +36,15 @@ import org.waveprotocol.wave.model.operation.wave.TransformedWaveletDelta;
 import org.waveprotocol.wave.model.operation.wave.WaveletBlipOperation;
 import org.waveprotocol.wave.model.operation.wave.WaveletOperation;
 import org.waveprotocol.wave.model.operation.wave.WaveletOperationContext;
+import org.waveprotocol.wave.model.raw.RawBlipSnapshot;
+import org.waveprotocol.wave.model.testing.BasicFactories;
+import org.waveprotocol.wave.model.testing.ModelTestUtils;
 import org.waveprotocol.wave.model.version.HashedVersion;
 import org.waveprotocol.wave.model.wave.ParticipantId;
 import org.waveprotocol.wave.model.wave.data.ObservableWaveletData;
 import org.waveprotocol.wave.model.wave.data.WaveletData;
+import org.waveprotocol.wave.model.wave.data.impl.LazyContentBlipDataImpl;
+import org.waveprotocol.wave.model.wave.data.impl.WaveletFragmentDataImpl;
 
 import java.util.Arrays;
 
@@ -101,4 +108,51 @@ public class WaveletDataUtilTest extends TestCase {
     assertEquals(ImmutableSet.of("blipid"), wavelet.getDocumentIds());
     assertEquals(ImmutableSet.of(CREATOR, JOE), wavelet.getParticipants());
   }
+
+  public void testViewSharesSnapshotData() throws Exception {
+    WaveletData wavelet = build(
+        delta(addParticipant(CREATOR, 1093L, HashedVersion.unsigned(1))),
+        delta(addParticipant(JOE, 1492L, HashedVersion.unsigned(2))),
+        delta(addBlip("blipid", 2010L, HashedVersion.unsigned(3)))
+    );
+    ObservableWaveletData view = WaveletDataUtil.createView(wavelet);
+    assertEquals(WAVELET_NAME, WaveletDataUtil.waveletNameOf(view));
+    assertEquals(CREATOR, view.getCreator());
+    assertEquals(1093L, view.getCreationTime());
+    assertEquals(2010L, view.getLastModifiedTime());
+    assertEquals(HashedVersion.unsigned(3), view.getHashedVersion());
+    assertEquals(ImmutableSet.of("blipid"), view.getDocumentIds());
+    assertEquals(ImmutableSet.of(CREATOR, JOE), view.getParticipants());
+    assertEquals(2010L, view.getBlip("blipid").getLastModifiedTime());
+    assertEquals(wavelet.getBlip("blipid").getContent().asOperation().toString(),
+        view.getBlip("blipid").getContent().asOperation().toString());
+  }
+
+  public void testViewChangesDontAffectSnapshot() throws Exception {
+    WaveletData wavelet = build(
+        delta(addParticipant(CREATOR, 1093L, HashedVersion.unsigned(1)))
+    );
+    ObservableWaveletData view = WaveletDataUtil.createView(wavelet);
+    view.addParticipant(JOE, null);
+    assertEquals(ImmutableSet.of(CREATOR, JOE), view.getParticipants());
+    assertEquals(ImmutableSet.of(CREATOR), wavelet.getParticipants());
+  }
+
+  public void testViewDoesNotBuildDeferredBlipsOfSnapshot() throws Exception {
+    WaveletFragmentDataImpl wavelet = new WaveletFragmentDataImpl(WAVELET_NAME.waveletId, CREATOR,
+        1093L, HashedVersion.unsigned(2), 2010L, WAVELET_NAME.waveId,
+        BasicFactories.observablePluggableMutableDocumentFactory());
+    wavelet.createDeferredBlip("blipid", new LazyContentBlipDataImpl.SnapshotSource() {
+
+      @Override
+      public RawBlipSnapshot getSnapshot() {
+        return new RawBlipSnapshot(null, "blipid", CREATOR, ImmutableSet.of(CREATOR),
+            ModelTestUtils.createContent("text"), 1093L, 1, 2010L, 2);
+      }
+    });
+    ObservableWaveletData view = WaveletDataUtil.createView(wavelet);
+    assertEquals(DocOpUtil.toXmlString(ModelTestUtils.createContent("text")),
+        DocOpUtil.toXmlString(view.getBlip("blipid").getContent().asOperation()));
+    assertFalse(wavelet.getBlip("blipid").isContentInitialized());
+  }
 }
@@ -21,7 +21,9 @@ package org.waveprotocol.box.server.waveletstate.block;
 
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
 
 import org.waveprotocol.box.common.ExceptionalIterator;
 import org.waveprotocol.box.server.persistence.FileNotFoundPersistenceException;
@@ -47,6 +49,8 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 
 /**
@@ -81,6 +85,7 @@ public class BlockWaveletStateTest extends WaveletStateTestBase {
 
   static class BlockWaveletAccessStub implements BlockAccess {
 
+    private final Executor readExecutor = Executors.newSingleThreadExecutor();
     private final BlockIndex blockIndex = new BlockIndexImpl();
     private final List<Block> blocksList = new LinkedList<>();
     private int readLastModfiedIndexCount = 0;
@@ -108,6 +113,20 @@ public class BlockWaveletStateTest extends WaveletStateTestBase {
       return getBlocks();
     }
 
+    @Override
+    public ListenableFuture<Collection<Block>> readBlocksAsync(final Set<String> blockIds) {
+      ListenableFutureTask<Collection<Block>> task = ListenableFutureTask.create(
+          new Callable<Collection<Block>>() {
+
+        @Override
+        public Collection<Block> call() throws PersistenceException {
+          return readBlocks(blockIds);
+        }
+      });
+      readExecutor.execute(task);
+      return task;
+    }
+
     @Override
     public void writeBlock(Block block) throws PersistenceException {
     }
@@ -116,6 +135,16 @@ public class BlockWaveletStateTest extends WaveletStateTestBase {
     public void writeBlockIndex(BlockIndex segmentsIndex) throws PersistenceException {
     }
 
+    @Override
+    public ListenableFuture<Void> writeBlockAsync(Block block) {
+      return Futures.immediateFuture(null);
+    }
+
+    @Override
+    public ListenableFuture<Void> writeBlockIndexAsync(BlockIndex blockIndex) {
+      return Futures.immediateFuture(null);
+    }
+
     public synchronized void putBlocks(List<Block> blocks) {
       blocksList.addAll(blocks);
       notify();
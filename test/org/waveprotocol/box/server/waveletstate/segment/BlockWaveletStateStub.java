@@ -95,6 +95,11 @@ public class BlockWaveletStateStub implements BlockWaveletState {
     throw new UnsupportedOperationException();
   }
 
+  @Override
+  public long getMemorySize() {
+    return 0;
+  }
+
   @Override
   public void markAsConsistent() {
     throw new UnsupportedOperationException();
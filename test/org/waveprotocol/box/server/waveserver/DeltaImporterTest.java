@@ -0,0 +1,211 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.waveprotocol.box.server.waveserver;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import junit.framework.TestCase;
+
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.waveprotocol.box.server.persistence.blocks.BlockIndex;
+import org.waveprotocol.box.server.persistence.blocks.BlockStore;
+import org.waveprotocol.box.server.persistence.deltas.DeltaStore;
+import org.waveprotocol.box.server.persistence.memory.MemoryBlockStore;
+import org.waveprotocol.box.server.persistence.memory.MemoryDeltaStore;
+import org.waveprotocol.box.server.serialize.OperationSerializer;
+import org.waveprotocol.wave.federation.Proto.ProtocolSignedDelta;
+import org.waveprotocol.wave.federation.Proto.ProtocolWaveletDelta;
+import org.waveprotocol.wave.model.id.WaveId;
+import org.waveprotocol.wave.model.id.WaveletId;
+import org.waveprotocol.wave.model.id.WaveletName;
+import org.waveprotocol.wave.model.operation.wave.AddParticipant;
+import org.waveprotocol.wave.model.operation.wave.WaveletDelta;
+import org.waveprotocol.wave.model.operation.wave.WaveletOperation;
+import org.waveprotocol.wave.model.operation.wave.WaveletOperationContext;
+import org.waveprotocol.wave.model.version.HashedVersion;
+import org.waveprotocol.wave.model.wave.ParticipantId;
+
+import java.util.List;
+
+/**
+ * Tests for {@link DeltaImporter}.
+ *
+ * @author akaplanov@gmail.com (A. Kaplanov)
+ */
+public class DeltaImporterTest extends TestCase {
+  private static final WaveletName WAVELET_NAME =
+      WaveletName.of(WaveId.of("example.com", "w+1"), WaveletId.of("example.com", "conv+root"));
+  private static final ParticipantId AUTHOR = ParticipantId.ofUnsafe("author@example.com");
+  private static final WaveletOperationContext CONTEXT =
+      new WaveletOperationContext(AUTHOR, 0, 1);
+
+  private DeltaStore deltaStore;
+  private BlockStore blockStore;
+  private WaveMap waveMap;
+  private WaveletNotificationSubscriber notifiee;
+  private DeltaImporter importer;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    deltaStore = new MemoryDeltaStore();
+    blockStore = new MemoryBlockStore();
+    waveMap = mock(WaveMap.class);
+    when(waveMap.reserveWaveForImport(WAVELET_NAME.waveId)).thenReturn(true);
+    CertificateManager certificateManager = mock(CertificateManager.class);
+    when(certificateManager.signDelta(any(ByteStringMessage.class))).thenAnswer(
+        new Answer<ProtocolSignedDelta>() {
+
+          @Override
+          public ProtocolSignedDelta answer(InvocationOnMock invocation) {
+            ByteStringMessage<?> delta = (ByteStringMessage<?>) invocation.getArguments()[0];
+            return ProtocolSignedDelta.newBuilder().setDelta(delta.getByteString()).build();
+          }
+        });
+    notifiee = mock(WaveletNotificationSubscriber.class);
+    importer = new DeltaImporter(deltaStore, blockStore, waveMap, certificateManager, notifiee);
+  }
+
+  public void testImportsDeltasToNewWavelet() throws Exception {
+    Long importedFromVersion = importer.importDeltas(WAVELET_NAME,
+        ImmutableList.of(addParticipantDelta(0, "a@example.com"),
+            addParticipantDelta(1, "b@example.com")));
+
+    assertEquals(Long.valueOf(0), importedFromVersion);
+    assertEquals(2, getStoredVersion());
+    verify(waveMap).releaseImportedWave(WAVELET_NAME.waveId);
+    verify(notifiee).waveletUpdate(eq(WAVELET_NAME), any(ImmutableList.class),
+        eq(ImmutableSet.of("example.com")));
+  }
+
+  public void testDoesNotImportToLoadedWave() throws Exception {
+    when(waveMap.reserveWaveForImport(WAVELET_NAME.waveId)).thenReturn(false);
+
+    assertNull(importer.importDeltas(WAVELET_NAME,
+        ImmutableList.of(addParticipantDelta(0, "a@example.com"))));
+    assertEquals(0, getStoredVersion());
+    verify(waveMap, never()).releaseImportedWave(WAVELET_NAME.waveId);
+  }
+
+  public void testSkipsStoredDeltasAndMarksSegmentsInconsistent() throws Exception {
+    importer.importDeltas(WAVELET_NAME,
+        ImmutableList.of(addParticipantDelta(0, "a@example.com")));
+    setBlockIndexConsistent();
+
+    Long importedFromVersion = importer.importDeltas(WAVELET_NAME,
+        ImmutableList.of(addParticipantDelta(0, "a@example.com"),
+            addParticipantDelta(1, "b@example.com")));
+
+    assertEquals(Long.valueOf(1), importedFromVersion);
+    assertEquals(2, getStoredVersion());
+    assertFalse(blockStore.open(WAVELET_NAME).readBlockIndex().isConsistent());
+  }
+
+  public void testReturnsMinusOneIfAllDeltasAreStored() throws Exception {
+    importer.importDeltas(WAVELET_NAME,
+        ImmutableList.of(addParticipantDelta(0, "a@example.com")));
+
+    assertEquals(Long.valueOf(-1), importer.importDeltas(WAVELET_NAME,
+        ImmutableList.of(addParticipantDelta(0, "a@example.com"))));
+  }
+
+  public void testFailsOnVersionGap() throws Exception {
+    try {
+      importer.importDeltas(WAVELET_NAME,
+          ImmutableList.of(addParticipantDelta(1, "a@example.com")));
+      fail("Should fail");
+    } catch (WaveServerException ex) {
+      // Expected.
+    }
+    assertEquals(0, getStoredVersion());
+    verify(waveMap).releaseImportedWave(WAVELET_NAME.waveId);
+  }
+
+  public void testFailsOnGapBetweenDeltas() throws Exception {
+    try {
+      importer.importDeltas(WAVELET_NAME,
+          ImmutableList.of(addParticipantDelta(0, "a@example.com"),
+              addParticipantDelta(2, "b@example.com")));
+      fail("Should fail");
+    } catch (WaveServerException ex) {
+      // Expected.
+    }
+    assertEquals(0, getStoredVersion());
+  }
+
+  public void testFailsOnDivergedHistory() throws Exception {
+    importer.importDeltas(WAVELET_NAME,
+        ImmutableList.of(addParticipantDelta(0, "a@example.com")));
+
+    try {
+      importer.importDeltas(WAVELET_NAME,
+          ImmutableList.of(addParticipantDelta(0, "c@example.com"),
+              addParticipantDelta(1, "b@example.com")));
+      fail("Should fail");
+    } catch (WaveServerException ex) {
+      // Expected.
+    }
+    assertEquals(1, getStoredVersion());
+  }
+
+  public void testFailsOnInapplicableDelta() throws Exception {
+    try {
+      importer.importDeltas(WAVELET_NAME,
+          ImmutableList.of(addParticipantDelta(0, "a@example.com"),
+              addParticipantDelta(1, "a@example.com")));
+      fail("Should fail");
+    } catch (WaveServerException ex) {
+      // Expected.
+    }
+    verify(notifiee, never()).waveletUpdate(any(WaveletName.class), any(ImmutableList.class),
+        any(ImmutableSet.class));
+  }
+
+  private long getStoredVersion() throws Exception {
+    DeltaStore.DeltaAccess access = deltaStore.open(WAVELET_NAME);
+    try {
+      return access.isEmpty() ? 0 : access.getLastModifiedVersion().getVersion();
+    } finally {
+      access.close();
+    }
+  }
+
+  private void setBlockIndexConsistent() throws Exception {
+    BlockStore.BlockAccess access = blockStore.open(WAVELET_NAME);
+    BlockIndex blockIndex = access.readBlockIndex();
+    blockIndex.setConsistent(true);
+    access.writeBlockIndex(blockIndex);
+  }
+
+  /**
+   * Builds an exported delta, history hash of the exporting server is
+   * replaced on import.
+   */
+  private static ProtocolWaveletDelta addParticipantDelta(long version, String participant) {
+    List<WaveletOperation> ops = ImmutableList.<WaveletOperation>of(
+        new AddParticipant(CONTEXT, ParticipantId.ofUnsafe(participant)));
+    return OperationSerializer.serialize(
+        new WaveletDelta(AUTHOR, HashedVersion.unsigned(version), ops));
+  }
+}
@@ -45,6 +45,11 @@ public class DeltaWaveletStateAccessorStub implements DeltaWaveletStateAccessor
     return state;
   }
 
+  @Override
+  public long getMemorySize() {
+    return state.getMemorySize();
+  }
+
   @Override
   public ListenableFuture close() {
     return state.close();
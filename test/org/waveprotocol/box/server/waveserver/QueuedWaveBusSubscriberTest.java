@@ -0,0 +1,270 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.waveprotocol.box.server.waveserver;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+import junit.framework.TestCase;
+
+import org.mockito.InOrder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.waveprotocol.box.common.DeltaSequence;
+import org.waveprotocol.box.common.ThrowableReceiver;
+import org.waveprotocol.box.server.persistence.deltas.WaveletDeltaRecord;
+import org.waveprotocol.wave.model.id.WaveId;
+import org.waveprotocol.wave.model.id.WaveletId;
+import org.waveprotocol.wave.model.id.WaveletName;
+import org.waveprotocol.wave.model.operation.wave.TransformedWaveletDelta;
+import org.waveprotocol.wave.model.testing.DeltaTestUtil;
+import org.waveprotocol.wave.model.version.HashedVersion;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for {@link QueuedWaveBusSubscriber}.
+ *
+ * @author akaplanov@gmail.com (A. Kaplanov)
+ */
+public class QueuedWaveBusSubscriberTest extends TestCase {
+  private static final WaveletName W1 =
+      WaveletName.of(WaveId.of("example.com", "w+1"), WaveletId.of("example.com", "conv+root"));
+  private static final WaveletName W2 =
+      WaveletName.of(WaveId.of("example.com", "w+2"), WaveletId.of("example.com", "conv+root"));
+  private static final WaveletName W3 =
+      WaveletName.of(WaveId.of("example.com", "w+3"), WaveletId.of("example.com", "conv+root"));
+  private static final DeltaTestUtil UTIL = new DeltaTestUtil("user@example.com");
+
+  /** Deltas by versions at which they are applied. */
+  private static final List<TransformedWaveletDelta> DELTAS = new ArrayList<>();
+
+  static {
+    for (long version = 0; version < 10; version++) {
+      DELTAS.add(UTIL.noOpDelta(version));
+    }
+  }
+
+  /** Tasks submitted to the executor, run by the test. */
+  private final List<Runnable> tasks = new ArrayList<>();
+
+  /** Delays of scheduled tasks in nanoseconds. */
+  private final List<Long> delays = new ArrayList<>();
+
+  private ScheduledExecutorService executor;
+  private WaveBus.Subscriber delegate;
+  private WaveletProvider waveletProvider;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    executor = mock(ScheduledExecutorService.class);
+    doAnswer(new Answer<Void>() {
+
+      @Override
+      public Void answer(InvocationOnMock invocation) {
+        tasks.add((Runnable) invocation.getArguments()[0]);
+        return null;
+      }
+    }).when(executor).execute(any(Runnable.class));
+    when(executor.schedule(any(Runnable.class), anyLong(), eq(TimeUnit.NANOSECONDS))).thenAnswer(
+        new Answer<ScheduledFuture<?>>() {
+
+          @Override
+          public ScheduledFuture<?> answer(InvocationOnMock invocation) {
+            tasks.add((Runnable) invocation.getArguments()[0]);
+            delays.add((Long) invocation.getArguments()[1]);
+            return null;
+          }
+        });
+    delegate = mock(WaveBus.Subscriber.class);
+    waveletProvider = mock(WaveletProvider.class);
+  }
+
+  public void testDoesNotDeliverInCallingThread() {
+    QueuedWaveBusSubscriber queue = createQueue(10, 1, 0);
+
+    queue.waveletUpdate(W1, deltas(0, 1));
+
+    verify(delegate, never()).waveletUpdate(any(WaveletName.class), any(DeltaSequence.class));
+    assertEquals(1, queue.getQueueSize());
+    runTasks();
+    verify(delegate).waveletUpdate(W1, deltas(0, 1));
+    assertEquals(0, queue.getQueueSize());
+    assertEquals(1, queue.getDeliveredCount());
+  }
+
+  public void testCoalescesUpdatesOfWaveletToVersionRange() {
+    QueuedWaveBusSubscriber queue = createQueue(10, 1, 0);
+
+    queue.waveletUpdate(W1, deltas(0, 1));
+    queue.waveletCommitted(W1, HashedVersion.unsigned(1));
+    queue.waveletUpdate(W1, deltas(1, 3));
+    queue.waveletCommitted(W1, HashedVersion.unsigned(3));
+    runTasks();
+
+    InOrder order = inOrder(delegate);
+    order.verify(delegate).waveletUpdate(W1, deltas(0, 3));
+    order.verify(delegate).waveletCommitted(W1, HashedVersion.unsigned(3));
+    verify(delegate, never()).waveletCommitted(W1, HashedVersion.unsigned(1));
+    assertEquals(4, queue.getReceivedCount());
+    assertEquals(2, queue.getCoalescedCount());
+    assertEquals(1, queue.getDeliveredCount());
+  }
+
+  public void testKeepsNonContiguousRangesSeparately() {
+    QueuedWaveBusSubscriber queue = createQueue(10, 1, 0);
+
+    queue.waveletUpdate(W1, deltas(0, 1));
+    queue.waveletUpdate(W1, deltas(5, 6));
+    runTasks();
+
+    InOrder order = inOrder(delegate);
+    order.verify(delegate).waveletUpdate(W1, deltas(0, 1));
+    order.verify(delegate).waveletUpdate(W1, deltas(5, 6));
+  }
+
+  public void testReadsDeltasOfNewWaveletsFromHistoryWhenFull() throws Exception {
+    QueuedWaveBusSubscriber queue = createQueue(2, 1, 0);
+    when(waveletProvider.getNearestHashedVersion(W3, 2)).thenReturn(HashedVersion.unsigned(2));
+    doAnswer(new Answer<Void>() {
+
+      @SuppressWarnings("unchecked")
+      @Override
+      public Void answer(InvocationOnMock invocation) throws WaveServerException {
+        ThrowableReceiver<WaveletDeltaRecord, WaveServerException> receiver =
+            (ThrowableReceiver<WaveletDeltaRecord, WaveServerException>)
+                invocation.getArguments()[3];
+        for (TransformedWaveletDelta delta : DELTAS.subList(2, 5)) {
+          receiver.put(new WaveletDeltaRecord(
+              HashedVersion.unsigned(delta.getAppliedAtVersion()), null, delta));
+        }
+        return null;
+      }
+    }).when(waveletProvider).getDeltaHistory(eq(W3), eq(HashedVersion.unsigned(2)),
+        eq(DELTAS.get(4).getResultingVersion()), any(ThrowableReceiver.class));
+
+    queue.waveletUpdate(W1, deltas(0, 1));
+    queue.waveletUpdate(W2, deltas(0, 1));
+    queue.waveletUpdate(W3, deltas(2, 3));
+    queue.waveletUpdate(W3, deltas(3, 5));
+    queue.waveletCommitted(W3, HashedVersion.unsigned(5));
+    queue.waveletUpdate(W1, deltas(1, 2));
+    assertEquals(3, queue.getQueueSize());
+    runTasks();
+
+    verify(delegate).waveletUpdate(W1, deltas(0, 2));
+    verify(delegate).waveletUpdate(W2, deltas(0, 1));
+    InOrder order = inOrder(delegate);
+    order.verify(delegate).waveletUpdate(W3, deltas(2, 5));
+    order.verify(delegate).waveletCommitted(W3, HashedVersion.unsigned(5));
+    assertEquals(2, queue.getOverflowCount());
+    assertEquals(3, queue.getDeliveredCount());
+  }
+
+  public void testKeepsDeltasAgainAfterDrain() {
+    QueuedWaveBusSubscriber queue = createQueue(1, 1, 0);
+
+    queue.waveletUpdate(W1, deltas(0, 1));
+    queue.waveletCommitted(W2, HashedVersion.unsigned(1));
+    runTasks();
+    queue.waveletUpdate(W3, deltas(0, 1));
+    runTasks();
+
+    verify(delegate).waveletCommitted(W2, HashedVersion.unsigned(1));
+    verify(delegate).waveletUpdate(W3, deltas(0, 1));
+    verifyZeroInteractions(waveletProvider);
+    assertEquals(0, queue.getOverflowCount());
+  }
+
+  public void testLimitsConcurrencyAndKeepsOrderOfWavelet() {
+    QueuedWaveBusSubscriber queue = createQueue(10, 1, 0);
+
+    queue.waveletUpdate(W1, deltas(0, 1));
+    queue.waveletUpdate(W2, deltas(0, 1));
+    runNextTask(); // Drain.
+    assertEquals(1, queue.getInFlightCount());
+    assertEquals(1, tasks.size());
+
+    queue.waveletUpdate(W1, deltas(1, 2));
+    runTasks();
+
+    InOrder order = inOrder(delegate);
+    order.verify(delegate).waveletUpdate(W1, deltas(0, 1));
+    order.verify(delegate).waveletUpdate(W2, deltas(0, 1));
+    order.verify(delegate).waveletUpdate(W1, deltas(1, 2));
+    assertEquals(0, queue.getInFlightCount());
+  }
+
+  public void testLimitsRateOfDeliveries() {
+    QueuedWaveBusSubscriber queue = createQueue(10, 10, 1);
+
+    queue.waveletUpdate(W1, deltas(0, 1));
+    queue.waveletUpdate(W2, deltas(0, 1));
+    runNextTask(); // Drain.
+
+    assertEquals(2, tasks.size());
+    assertTrue(delays.get(delays.size() - 1) > TimeUnit.MILLISECONDS.toNanos(500));
+    assertEquals(1, queue.getInFlightCount());
+    assertEquals(1, queue.getQueueSize());
+  }
+
+  public void testContinuesAfterFailureOfSubscriber() {
+    QueuedWaveBusSubscriber queue = createQueue(10, 1, 0);
+    doThrow(new RuntimeException("Failed")).when(delegate).waveletUpdate(W1, deltas(0, 1));
+
+    queue.waveletUpdate(W1, deltas(0, 1));
+    queue.waveletUpdate(W2, deltas(0, 1));
+    runTasks();
+
+    verify(delegate).waveletUpdate(W2, deltas(0, 1));
+    assertEquals(1, queue.getFailedCount());
+    assertEquals(1, queue.getDeliveredCount());
+  }
+
+  private QueuedWaveBusSubscriber createQueue(int capacity, int concurrency, double rate) {
+    return new QueuedWaveBusSubscriber("test", delegate,
+        new QueuedWaveBusSubscriber.Policy(capacity, concurrency, rate), waveletProvider,
+        executor);
+  }
+
+  private void runNextTask() {
+    tasks.remove(0).run();
+  }
+
+  private void runTasks() {
+    while (!tasks.isEmpty()) {
+      runNextTask();
+    }
+  }
+
+  /** Builds no-op deltas from the start version to the end version. */
+  private static DeltaSequence deltas(int startVersion, int endVersion) {
+    return DeltaSequence.of(DELTAS.subList(startVersion, endVersion));
+  }
+}
@@ -22,16 +22,24 @@ package org.waveprotocol.box.server.waveserver;
 import org.waveprotocol.box.server.waveletstate.WaveletStateException;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.inject.AbstractModule;
 import com.google.inject.Guice;
 import com.google.inject.Injector;
 import com.google.inject.Key;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executor;
 import junit.framework.TestCase;
 import org.mockito.Mock;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.waveprotocol.box.common.ExceptionalIterator;
 import org.waveprotocol.box.server.executor.ExecutorAnnotations;
 import org.waveprotocol.box.server.executor.TestExecutorsModule;
@@ -58,19 +66,23 @@ public class WaveMapTest extends TestCase {
   private static final WaveId WAVE_ID = WaveId.of(DOMAIN, "abc123");
   private static final WaveletId WAVELET_ID = WaveletId.of(DOMAIN, "conv+root");
   private static final WaveletName WAVELET_NAME = WaveletName.of(WAVE_ID, WAVELET_ID);
+  private static final WaveId WAVE_ID_2 = WaveId.of(DOMAIN, "def456");
+  private static final WaveletName WAVELET_NAME_2 = WaveletName.of(WAVE_ID_2, WAVELET_ID);
 
   @Mock private WaveletNotificationDispatcher notifiee;
   @Mock private RemoteWaveletContainer.Factory remoteWaveletContainerFactory;
   @Mock private WaveDigester waveDigester;
   @Mock private DeltaStore deltaStore;
 
+  private Injector injector;
+  private LocalWaveletContainer.Factory localWaveletContainerFactory;
   private WaveMap waveMap;
 
   @Override
   protected void setUp() throws Exception {
     MockitoAnnotations.initMocks(this);
 
-    final Injector injector = Guice.createInjector(new AbstractModule() {
+    injector = Guice.createInjector(new AbstractModule() {
 
       @Override
       protected void configure() {
@@ -82,7 +94,7 @@ public class WaveMapTest extends TestCase {
 
     final WaveletStateFactory waveletStateFactory = new WaveletStateFactory(injector);
     
-    LocalWaveletContainer.Factory localWaveletContainerFactory =
+    localWaveletContainerFactory =
         new LocalWaveletContainer.Factory() {
           @Override
           public LocalWaveletContainer create(WaveletNotificationSubscriber notifiee,
@@ -107,9 +119,7 @@ public class WaveMapTest extends TestCase {
           }
         };
 
-    waveMap = new WaveMap(deltaStore, notifiee, notifiee, localWaveletContainerFactory,
-        remoteWaveletContainerFactory, "example.com", 10, 1000, waveDigester,
-        injector.getInstance(Key.get(Executor.class, ExecutorAnnotations.LookupExecutor.class)));
+    waveMap = createWaveMap(10);
   }
 
   public void testWavesStartWithNoWavelets() throws WaveletStateException, PersistenceException {
@@ -139,6 +149,153 @@ public class WaveMapTest extends TestCase {
     assertSame(wavelet, waveMap.getLocalWavelet(WAVELET_NAME));
   }
 
+  public void testEvictedWaveIsClosed() throws WaveletStateException, PersistenceException {
+    waveMap = createWaveMap(1);
+    when(deltaStore.lookup(WAVE_ID)).thenReturn(ImmutableSet.<WaveletId>of());
+    when(deltaStore.lookup(WAVE_ID_2)).thenReturn(ImmutableSet.<WaveletId>of());
+    LocalWaveletContainer wavelet = waveMap.getOrCreateLocalWavelet(WAVELET_NAME);
+    waveMap.getOrCreateLocalWavelet(WAVELET_NAME_2);
+    assertFalse(waveMap.isWaveLoaded(WAVE_ID));
+    assertNotSame(wavelet, waveMap.getOrCreateLocalWavelet(WAVELET_NAME));
+  }
+
+  public void testRetainedWaveIsKeptAfterEviction() throws WaveletStateException, PersistenceException {
+    waveMap = createWaveMap(1);
+    when(deltaStore.lookup(WAVE_ID)).thenReturn(ImmutableSet.<WaveletId>of());
+    when(deltaStore.lookup(WAVE_ID_2)).thenReturn(ImmutableSet.<WaveletId>of());
+    waveMap.retainWave(WAVE_ID);
+    LocalWaveletContainer wavelet = waveMap.getOrCreateLocalWavelet(WAVELET_NAME);
+    waveMap.getOrCreateLocalWavelet(WAVELET_NAME_2);
+    assertTrue(waveMap.isWaveLoaded(WAVE_ID));
+    assertSame(wavelet, waveMap.getLocalWavelet(WAVELET_NAME));
+
+    waveMap.getOrCreateLocalWavelet(WAVELET_NAME_2);
+    waveMap.releaseWave(WAVE_ID);
+    assertFalse(waveMap.isWaveLoaded(WAVE_ID));
+  }
+
+  public void testReservedWaveIsNotLoaded() throws WaveletStateException, PersistenceException {
+    when(deltaStore.lookup(WAVE_ID)).thenReturn(ImmutableSet.<WaveletId>of());
+    assertTrue(waveMap.reserveWaveForImport(WAVE_ID));
+    try {
+      waveMap.getLocalWavelet(WAVELET_NAME);
+      fail("Reserved wave should not be loaded");
+    } catch (WaveletStateException ex) {
+      // Expected.
+    }
+    waveMap.releaseImportedWave(WAVE_ID);
+    waveMap.getLocalWavelet(WAVELET_NAME);
+    assertTrue(waveMap.isWaveLoaded(WAVE_ID));
+  }
+
+  public void testWaveIsNotReservedUntilClosed() throws WaveletStateException, PersistenceException {
+    waveMap = createWaveMap(1);
+    when(deltaStore.lookup(WAVE_ID)).thenReturn(ImmutableSet.<WaveletId>of());
+    when(deltaStore.lookup(WAVE_ID_2)).thenReturn(ImmutableSet.<WaveletId>of());
+    waveMap.getLocalWavelet(WAVELET_NAME);
+    assertFalse(waveMap.reserveWaveForImport(WAVE_ID));
+
+    waveMap.getLocalWavelet(WAVELET_NAME_2);
+    assertTrue(waveMap.reserveWaveForImport(WAVE_ID));
+    assertFalse(waveMap.reserveWaveForImport(WAVE_ID));
+  }
+
+  public void testHeavyWaveIsEvictedByWeight() throws WaveletStateException, PersistenceException {
+    final Map<WaveId, Long> memorySizes = new ConcurrentHashMap<>();
+    memorySizes.put(WAVE_ID, 10L * 1024);
+    memorySizes.put(WAVE_ID_2, 10L * 1024);
+    List<LocalWaveletContainer> closedWavelets = new CopyOnWriteArrayList<>();
+    localWaveletContainerFactory = weighedWaveletFactory(memorySizes, closedWavelets);
+    // Budget of 1 megabyte, waves are weighed on every access.
+    waveMap = createWaveMap(10, 1);
+    waveMap.setReweighingInterval(0);
+    when(deltaStore.lookup(WAVE_ID)).thenReturn(ImmutableSet.<WaveletId>of());
+    when(deltaStore.lookup(WAVE_ID_2)).thenReturn(ImmutableSet.<WaveletId>of());
+    LocalWaveletContainer wavelet = waveMap.getOrCreateLocalWavelet(WAVELET_NAME);
+    LocalWaveletContainer wavelet2 = waveMap.getOrCreateLocalWavelet(WAVELET_NAME_2);
+    assertTrue(waveMap.isWaveLoaded(WAVE_ID));
+    assertTrue(waveMap.isWaveLoaded(WAVE_ID_2));
+
+    memorySizes.put(WAVE_ID_2, 2L * 1024 * 1024);
+    waveMap.getLocalWavelet(WAVELET_NAME_2);
+
+    assertTrue(waveMap.isWaveLoaded(WAVE_ID));
+    assertFalse(waveMap.isWaveLoaded(WAVE_ID_2));
+    assertEquals(Arrays.asList(wavelet2), closedWavelets);
+    assertSame(wavelet, waveMap.getLocalWavelet(WAVELET_NAME));
+  }
+
+  public void testRetainedEvictedWaveIsCountedUntilReleased()
+      throws WaveletStateException, PersistenceException {
+    Map<WaveId, Long> memorySizes = new ConcurrentHashMap<>();
+    memorySizes.put(WAVE_ID, 2L * 1024 * 1024);
+    List<LocalWaveletContainer> closedWavelets = new CopyOnWriteArrayList<>();
+    localWaveletContainerFactory = weighedWaveletFactory(memorySizes, closedWavelets);
+    // Budget of 1 megabyte, the wave is evicted once weighed.
+    waveMap = createWaveMap(10, 1);
+    waveMap.setReweighingInterval(0);
+    when(deltaStore.lookup(WAVE_ID)).thenReturn(ImmutableSet.<WaveletId>of());
+    long retainedCount = WaveMap.getRetainedEvictedWaveCount();
+    long memorySize = WaveMap.getMemorySize();
+
+    waveMap.retainWave(WAVE_ID);
+    LocalWaveletContainer wavelet = waveMap.getOrCreateLocalWavelet(WAVELET_NAME);
+    // Weighs the wave with the created wavelet.
+    assertSame(wavelet, waveMap.getLocalWavelet(WAVELET_NAME));
+    assertTrue(waveMap.isWaveLoaded(WAVE_ID));
+    assertEquals(retainedCount + 1, WaveMap.getRetainedEvictedWaveCount());
+    assertTrue(WaveMap.getMemorySize() >= memorySize + 2L * 1024 * 1024);
+
+    waveMap.releaseWave(WAVE_ID);
+    assertFalse(waveMap.isWaveLoaded(WAVE_ID));
+    assertEquals(retainedCount, WaveMap.getRetainedEvictedWaveCount());
+    assertEquals(memorySize, WaveMap.getMemorySize());
+    assertEquals(Arrays.asList(wavelet), closedWavelets);
+  }
+
+  /**
+   * Creates factory of wavelets having memory size of their wave, closed
+   * wavelets are collected to the list.
+   */
+  private static LocalWaveletContainer.Factory weighedWaveletFactory(
+      final Map<WaveId, Long> memorySizes, final List<LocalWaveletContainer> closedWavelets) {
+    return new LocalWaveletContainer.Factory() {
+
+      @Override
+      public LocalWaveletContainer create(WaveletNotificationSubscriber notifiee,
+          final WaveletName waveletName, String domain) {
+        final LocalWaveletContainer wavelet = mock(LocalWaveletContainer.class);
+        when(wavelet.getMemorySize()).thenAnswer(new Answer<Long>() {
+
+          @Override
+          public Long answer(InvocationOnMock invocation) {
+            return memorySizes.get(waveletName.waveId);
+          }
+        });
+        when(wavelet.close()).thenAnswer(new Answer<ListenableFuture<Void>>() {
+
+          @Override
+          public ListenableFuture<Void> answer(InvocationOnMock invocation) {
+            closedWavelets.add(wavelet);
+            return Futures.immediateFuture(null);
+          }
+        });
+        return wavelet;
+      }
+    };
+  }
+
+  private WaveMap createWaveMap(int waveCacheSize) {
+    return createWaveMap(waveCacheSize, 0);
+  }
+
+  private WaveMap createWaveMap(int waveCacheSize, int waveCacheMemoryBudget) {
+    return new WaveMap(deltaStore, notifiee, notifiee, localWaveletContainerFactory,
+        remoteWaveletContainerFactory, "example.com", waveCacheSize, 1000, waveCacheMemoryBudget,
+        waveDigester,
+        injector.getInstance(Key.get(Executor.class, ExecutorAnnotations.LookupExecutor.class)));
+  }
+
   private ExceptionalIterator<WaveId, PersistenceException> eitr(WaveId... waves) {
     return ExceptionalIterator.FromIterator.<WaveId, PersistenceException>create(
         Arrays.asList(waves).iterator());
@@ -149,7 +149,7 @@ public class WaveServerTest extends TestCase {
 
     waveMap =
         new WaveMap(injector.getInstance(DeltaStore.class), notifiee, notifiee, localWaveletContainerFactory,
-            remoteWaveletContainerFactory, "example.com", 10, 1000, waveDigester,
+            remoteWaveletContainerFactory, "example.com", 10, 1000, 0, waveDigester,
             injector.getInstance(Key.get(Executor.class, ExecutorAnnotations.LookupExecutor.class)));
     waveServer =
         new WaveServerImpl(injector.getInstance(Key.get(Executor.class, ExecutorAnnotations.LookupExecutor.class)),
@@ -0,0 +1,144 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.waveprotocol.box.server.waveserver;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyMap;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.wave.api.ApiIdSerializer;
+import com.google.wave.api.SearchResult;
+
+import junit.framework.TestCase;
+
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.waveprotocol.box.common.Receiver;
+import org.waveprotocol.box.server.search.SearchProvider;
+import org.waveprotocol.wave.model.id.WaveId;
+import org.waveprotocol.wave.model.id.WaveletId;
+import org.waveprotocol.wave.model.id.WaveletName;
+import org.waveprotocol.wave.model.version.HashedVersion;
+import org.waveprotocol.wave.model.wave.ParticipantId;
+
+/**
+ * Tests for {@link WaveWarmer}.
+ *
+ * @author akaplanov@gmail.com (A. Kaplanov)
+ */
+public class WaveWarmerTest extends TestCase {
+
+  private static final String DOMAIN = "example.com";
+  private static final WaveId WAVE_ID = WaveId.of(DOMAIN, "abc123");
+  private static final WaveletId ROOT_ID = WaveletId.of(DOMAIN, "conv+root");
+  private static final WaveletId USER_DATA_ID = WaveletId.of(DOMAIN, "user+other@example.com");
+  private static final WaveletName ROOT_NAME = WaveletName.of(WAVE_ID, ROOT_ID);
+  private static final WaveletName USER_DATA_NAME = WaveletName.of(WAVE_ID, USER_DATA_ID);
+  private static final ParticipantId USER = ParticipantId.ofUnsafe("user@example.com");
+
+  @Mock private WaveletProvider waveletProvider;
+  @Mock private WaveMap waveMap;
+  @Mock private SearchProvider searchProvider;
+
+  private WaveWarmer warmer;
+
+  @Override
+  protected void setUp() throws Exception {
+    MockitoAnnotations.initMocks(this);
+    when(waveletProvider.getWaveletIds(WAVE_ID)).thenReturn(ImmutableSet.of(ROOT_ID, USER_DATA_ID));
+    when(waveletProvider.checkAccessPermission(ROOT_NAME, USER)).thenReturn(true);
+    when(waveletProvider.getLastModifiedVersion(ROOT_NAME)).thenReturn(HashedVersion.unsigned(10));
+    warmer = new WaveWarmer(waveletProvider, waveMap, searchProvider,
+        MoreExecutors.sameThreadExecutor(), 10, 0, 100, 60);
+  }
+
+  public void testWarmUpLoadsAccessibleWavelets() throws Exception {
+    warmer.warmUp(USER, ImmutableList.of(makeDigest(WAVE_ID)));
+
+    verify(waveletProvider).getIntervals(eq(ROOT_NAME), anyMap(), anyBoolean(), any(Receiver.class));
+    verify(waveletProvider, never()).getLastModifiedVersion(USER_DATA_NAME);
+  }
+
+  public void testLoadedWaveIsNotWarmedUp() throws Exception {
+    when(waveMap.isWaveLoaded(WAVE_ID)).thenReturn(true);
+
+    warmer.warmUp(USER, ImmutableList.of(makeDigest(WAVE_ID)));
+
+    verify(waveletProvider, never()).getWaveletIds(WAVE_ID);
+  }
+
+  public void testDisabledWarmerDoesNothing() throws Exception {
+    warmer = new WaveWarmer(waveletProvider, waveMap, searchProvider,
+        MoreExecutors.sameThreadExecutor(), 0, 0, 100, 60);
+
+    warmer.warmUpInbox(USER);
+    warmer.warmUp(USER, ImmutableList.of(makeDigest(WAVE_ID)));
+
+    verify(searchProvider, never()).search(any(String.class), eq(0), eq(0), eq(USER));
+    verify(waveletProvider, never()).getWaveletIds(WAVE_ID);
+  }
+
+  public void testOpeningResidentWaveIsNotMiss() throws Exception {
+    long misses = WaveWarmer.getMisses();
+    long hits = WaveWarmer.getHits();
+    when(waveMap.isWaveLoaded(WAVE_ID)).thenReturn(true);
+
+    warmer.onWaveOpened(WAVE_ID);
+
+    assertEquals(misses, WaveWarmer.getMisses());
+    assertEquals(hits, WaveWarmer.getHits());
+  }
+
+  public void testOpeningWarmedWaveIsHit() throws Exception {
+    warmer.warmUp(USER, ImmutableList.of(makeDigest(WAVE_ID)));
+    long misses = WaveWarmer.getMisses();
+    long hits = WaveWarmer.getHits();
+    when(waveMap.isWaveLoaded(WAVE_ID)).thenReturn(true);
+
+    warmer.onWaveOpened(WAVE_ID);
+
+    assertEquals(misses, WaveWarmer.getMisses());
+    assertEquals(hits + 1, WaveWarmer.getHits());
+  }
+
+  public void testOpeningNotLoadedWaveIsMiss() throws Exception {
+    long misses = WaveWarmer.getMisses();
+    long hits = WaveWarmer.getHits();
+
+    warmer.onWaveOpened(WAVE_ID);
+
+    assertEquals(misses + 1, WaveWarmer.getMisses());
+    assertEquals(hits, WaveWarmer.getHits());
+  }
+
+  private static SearchResult.Digest makeDigest(WaveId waveId) {
+    SearchResult.Digest digest = mock(SearchResult.Digest.class);
+    when(digest.getWaveId()).thenReturn(ApiIdSerializer.instance().serialiseWaveId(waveId));
+    return digest;
+  }
+}
@@ -32,6 +32,7 @@ import org.waveprotocol.wave.federation.Proto.ProtocolSignedDelta;
 import org.waveprotocol.wave.federation.Proto.ProtocolWaveletDelta;
 import org.waveprotocol.wave.model.document.operation.DocOp;
 import org.waveprotocol.wave.model.document.operation.impl.DocOpBuilder;
+import org.waveprotocol.wave.model.document.operation.impl.DocOpUtil;
 import org.waveprotocol.wave.model.id.IdURIEncoderDecoder;
 import org.waveprotocol.wave.model.id.WaveId;
 import org.waveprotocol.wave.model.id.WaveletId;
@@ -47,6 +48,9 @@ import org.waveprotocol.wave.model.version.HashedVersion;
 import org.waveprotocol.wave.model.version.HashedVersionFactory;
 import org.waveprotocol.wave.model.version.HashedVersionFactoryImpl;
 import org.waveprotocol.wave.model.wave.ParticipantId;
+import org.waveprotocol.wave.model.wave.data.ObservableWaveletData;
+import org.waveprotocol.wave.model.wave.data.ReadableBlipData;
+import org.waveprotocol.wave.model.wave.data.ReadableWaveletData;
 import org.waveprotocol.wave.util.escapers.jvm.JavaUrlCodec;
 
 import com.google.common.collect.ImmutableSet;
@@ -299,6 +303,53 @@ public class WaveletContainerTest extends TestCase {
     }
   }
 
+  public void testHistorySnapshotIsDerivedFromCachedSnapshot() throws Exception {
+    String docId = "b+somedoc";
+    WaveServerTestUtil.applyDeltaToWavelet(localWavelet,
+        createDelta(docId, new DocOpBuilder().characters("a").build(), localVersion0), 1000L);
+    HashedVersion version1 = localWavelet.getLastModifiedVersion();
+    WaveServerTestUtil.applyDeltaToWavelet(localWavelet, addParticipantDelta(localWavelet), 2000L);
+    WaveServerTestUtil.applyDeltaToWavelet(localWavelet, createDelta(docId,
+        new DocOpBuilder().retain(1).characters("b").build(),
+        localWavelet.getLastModifiedVersion()), 3000L);
+    HashedVersion version3 = localWavelet.getLastModifiedVersion();
+    WaveServerTestUtil.applyDeltaToWavelet(localWavelet, createDelta(docId,
+        new DocOpBuilder().retain(2).characters("c").build(), version3), 4000L);
+
+    ReadableWaveletData snapshot1 = localWavelet.getSnapshot(version1);
+    assertEquals(version1, snapshot1.getHashedVersion());
+    assertEquals(1000L, snapshot1.getLastModifiedTime());
+    assertTrue(snapshot1.getParticipants().isEmpty());
+    assertEquals("a", DocOpUtil.toXmlString(snapshot1.getBlip(docId).getContent().asOperation()));
+
+    // Version 3 is derived from the cached version 1 by applying two deltas.
+    ReadableWaveletData snapshot3 = localWavelet.getSnapshot(version3);
+    assertEquals(version3, snapshot3.getHashedVersion());
+    assertEquals(3000L, snapshot3.getLastModifiedTime());
+    assertEquals(participants, ImmutableSet.copyOf(snapshot3.getParticipants()));
+    ReadableBlipData blip3 = snapshot3.getBlip(docId);
+    assertEquals("ab", DocOpUtil.toXmlString(blip3.getContent().asOperation()));
+    assertEquals(author, blip3.getAuthor());
+    assertEquals(ImmutableSet.of(author), blip3.getContributors());
+    assertEquals(1000L, blip3.getCreationTime());
+    assertEquals(3000L, blip3.getLastModifiedTime());
+    assertEquals(version3.getVersion(), blip3.getLastModifiedVersion());
+  }
+
+  public void testHistorySnapshotIsNotChangedByConsumer() throws Exception {
+    String docId = "b+somedoc";
+    WaveServerTestUtil.applyDeltaToWavelet(localWavelet,
+        createDelta(docId, new DocOpBuilder().characters("a").build(), localVersion0), 0L);
+    HashedVersion version1 = localWavelet.getLastModifiedVersion();
+    WaveServerTestUtil.applyDeltaToWavelet(localWavelet,
+        createDelta(docId, new DocOpBuilder().retain(1).characters("b").build(), version1), 0L);
+
+    ObservableWaveletData snapshot = (ObservableWaveletData)localWavelet.getSnapshot(version1);
+    snapshot.addParticipant(new ParticipantId("foo@" + localDomain), null);
+
+    assertTrue(localWavelet.getSnapshot(version1).getParticipants().isEmpty());
+  }
+
   // Utilities
 
   /**
@@ -0,0 +1,98 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.waveprotocol.wave.model.wave.data.impl;
+
+import junit.framework.TestCase;
+
+import org.waveprotocol.wave.model.document.operation.DocInitialization;
+import org.waveprotocol.wave.model.document.operation.automaton.DocumentSchema;
+import org.waveprotocol.wave.model.document.operation.impl.DocOpUtil;
+import org.waveprotocol.wave.model.operation.OperationException;
+import org.waveprotocol.wave.model.testing.ModelTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests for deferred building of {@link PluggableMutableDocument}.
+ *
+ * @author akaplanov@gmail.com (A. Kaplanov)
+ */
+public class PluggableMutableDocumentTest extends TestCase {
+
+  private static final int THREAD_COUNT = 4;
+
+  /**
+   * Counts builds of the substrate. The build is slowed down, so concurrent
+   * readers overlap it.
+   */
+  private static class CountingDocument extends ObservablePluggableMutableDocument {
+    final AtomicInteger builds = new AtomicInteger();
+
+    CountingDocument(DocInitialization content) {
+      super(DocumentSchema.NO_SCHEMA_CONSTRAINTS, content);
+    }
+
+    @Override
+    protected void createSubstrateDocument() throws OperationException {
+      builds.incrementAndGet();
+      try {
+        Thread.sleep(50);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      super.createSubstrateDocument();
+    }
+  }
+
+  public void testDeferredDocumentIsBuiltOnceByConcurrentReaders() throws Exception {
+    final CountingDocument document = new CountingDocument(ModelTestUtils.createContent("Hello"));
+    String expected = DocOpUtil.toXmlString(ModelTestUtils.createContent("Hello"));
+    final CountDownLatch start = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(THREAD_COUNT);
+    try {
+      List<Future<String>> results = new ArrayList<>();
+      for (int i = 0; i < THREAD_COUNT; i++) {
+        results.add(executor.submit(new Callable<String>() {
+
+          @Override
+          public String call() throws Exception {
+            start.await();
+            return DocOpUtil.toXmlString(document.toInitialization());
+          }
+        }));
+      }
+      start.countDown();
+      for (Future<String> result : results) {
+        assertEquals(expected, result.get(10, TimeUnit.SECONDS));
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    assertEquals(1, document.builds.get());
+  }
+}
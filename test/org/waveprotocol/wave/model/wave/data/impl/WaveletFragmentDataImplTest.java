@@ -0,0 +1,148 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.waveprotocol.wave.model.wave.data.impl;
+
+import com.google.common.collect.ImmutableSet;
+
+import junit.framework.TestCase;
+
+import org.waveprotocol.wave.model.document.operation.Attributes;
+import org.waveprotocol.wave.model.document.operation.impl.DocInitializationBuilder;
+import org.waveprotocol.wave.model.document.operation.impl.DocOpUtil;
+import org.waveprotocol.wave.model.id.WaveId;
+import org.waveprotocol.wave.model.id.WaveletId;
+import org.waveprotocol.wave.model.operation.OperationRuntimeException;
+import org.waveprotocol.wave.model.raw.RawBlipSnapshot;
+import org.waveprotocol.wave.model.raw.serialization.GsonSerializer;
+import org.waveprotocol.wave.model.testing.BasicFactories;
+import org.waveprotocol.wave.model.testing.ModelTestUtils;
+import org.waveprotocol.wave.model.version.HashedVersion;
+import org.waveprotocol.wave.model.wave.ParticipantId;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for deferred blips of {@link WaveletFragmentDataImpl}.
+ *
+ * @author akaplanov@gmail.com (A. Kaplanov)
+ */
+public class WaveletFragmentDataImplTest extends TestCase {
+
+  private static final ParticipantId AUTHOR = ParticipantId.ofUnsafe("author@example.com");
+  private static final String BLIP_ID = "b+abc";
+
+  private static class CountingSource implements LazyContentBlipDataImpl.SnapshotSource {
+    int requests = 0;
+
+    @Override
+    public RawBlipSnapshot getSnapshot() {
+      requests++;
+      return new RawBlipSnapshot(GsonSerializer.BLIP_SERIALIZER, BLIP_ID, AUTHOR,
+          ImmutableSet.of(AUTHOR), ModelTestUtils.createContent("Hello"), 10, 1, 20, 2);
+    }
+  }
+
+  private WaveletFragmentDataImpl wavelet;
+  private CountingSource source;
+
+  @Override
+  protected void setUp() throws Exception {
+    wavelet = new WaveletFragmentDataImpl(WaveletId.of("example.com", "conv+root"), AUTHOR, 10,
+        HashedVersion.unsigned(2), 20, WaveId.of("example.com", "w+abc"),
+        BasicFactories.observablePluggableMutableDocumentFactory());
+    source = new CountingSource();
+    wavelet.createDeferredBlip(BLIP_ID, source);
+  }
+
+  public void testDeferredBlipIsNotRequestedForDocumentIds() {
+    assertEquals(ImmutableSet.of(BLIP_ID), wavelet.getDocumentIds());
+    assertFalse(wavelet.getBlip(BLIP_ID).isContentInitialized());
+    assertEquals(0, source.requests);
+  }
+
+  public void testDeferredBlipIsRequestedOnceOnAccess() {
+    LazyContentBlipDataImpl blip = wavelet.getBlip(BLIP_ID);
+    assertEquals(AUTHOR, blip.getAuthor());
+    assertEquals(20, blip.getLastModifiedTime());
+    assertEquals(2, blip.getLastModifiedVersion());
+    assertEquals(DocOpUtil.toXmlString(ModelTestUtils.createContent("Hello")),
+        DocOpUtil.toXmlString(blip.getContent().asOperation()));
+    assertEquals(1, source.requests);
+  }
+
+  public void testSnapshotSourceIsAvailableUntilAccess() {
+    LazyContentBlipDataImpl blip = wavelet.getBlip(BLIP_ID);
+    assertSame(source, blip.getSnapshotSource());
+    blip.getContent();
+    assertNull(blip.getSnapshotSource());
+  }
+
+  public void testDeferredBlipIsInitializedOnceByConcurrentReaders() throws Exception {
+    final LazyContentBlipDataImpl blip = wavelet.getBlip(BLIP_ID);
+    final String expected = DocOpUtil.toXmlString(ModelTestUtils.createContent("Hello"));
+    final CountDownLatch start = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<String>> results = new ArrayList<>();
+      for (int i = 0; i < 4; i++) {
+        results.add(executor.submit(new Callable<String>() {
+
+          @Override
+          public String call() throws Exception {
+            start.await();
+            return DocOpUtil.toXmlString(blip.getContent().asOperation());
+          }
+        }));
+      }
+      start.countDown();
+      for (Future<String> result : results) {
+        assertEquals(expected, result.get(10, TimeUnit.SECONDS));
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    assertEquals(1, source.requests);
+  }
+
+  public void testIllFormedDeferredContentIsNotHandedOut() {
+    wavelet.createDeferredBlip("b+bad", new LazyContentBlipDataImpl.SnapshotSource() {
+
+      @Override
+      public RawBlipSnapshot getSnapshot() {
+        return new RawBlipSnapshot(GsonSerializer.BLIP_SERIALIZER, "b+bad", AUTHOR,
+            ImmutableSet.of(AUTHOR), new DocInitializationBuilder()
+                .elementStart("body", Attributes.EMPTY_MAP).buildUnchecked(), 10, 1, 20, 2);
+      }
+    });
+    try {
+      wavelet.getBlip("b+bad").getContent().asOperation();
+      fail("Expected OperationRuntimeException");
+    } catch (OperationRuntimeException e) {
+      // expected
+    }
+  }
+}